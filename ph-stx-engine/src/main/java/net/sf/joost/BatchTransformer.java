@@ -0,0 +1,456 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.emitter.AbstractStreamEmitter;
+import net.sf.joost.emitter.IStxEmitter;
+import net.sf.joost.emitter.SynchronizedMessageEmitter;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.util.MappedFileInputStream;
+
+/**
+ * Transforms many input files with the same transformation sheet (or chain of
+ * sheets) concurrently. The sheets are compiled only once, each worker thread
+ * uses its own copy of the processors (see {@link Processor#copy()}) and its
+ * own reusable output emitter.
+ *
+ * @author Philip Helger
+ */
+public final class BatchTransformer
+{
+  /** A pair of input and output file together with its result */
+  public static final class Job
+  {
+    private final File m_aInput;
+    private final File m_aOutput;
+    private long m_nNanos;
+    private boolean m_bFinished;
+    private Throwable m_aError;
+
+    public Job (final File input, final File output)
+    {
+      m_aInput = input;
+      m_aOutput = output;
+    }
+
+    public File getInput ()
+    {
+      return m_aInput;
+    }
+
+    public File getOutput ()
+    {
+      return m_aOutput;
+    }
+
+    /** @return the time needed for the transformation in nanoseconds */
+    public long getNanos ()
+    {
+      return m_nNanos;
+    }
+
+    /**
+     * @return the exception or error that caused the transformation to fail,
+     *         <code>null</code> if it succeeded
+     */
+    public Throwable getError ()
+    {
+      return m_aError;
+    }
+  }
+
+  /** the last processor of the chain */
+  private final Processor m_aProcessor;
+  private final int m_nThreads;
+  private boolean m_bOmitXmlDeclaration;
+  private boolean m_bSupportDisableOutputEscaping;
+  private boolean m_bMappedFileInput;
+
+  // results of the last run
+  private List <Job> m_aJobs = Collections.emptyList ();
+  private long m_nWallNanos;
+
+  /**
+   * Constructs a batch transformer.
+   *
+   * @param processor
+   *        the processor of the (last) transformation sheet; its parent may be
+   *        another processor (chain of sheets). The processors themselves will
+   *        not be used for transformations.
+   * @param threads
+   *        the number of worker threads, <code>0</code> for the number of
+   *        available processors
+   */
+  public BatchTransformer (final Processor processor, final int threads)
+  {
+    if (threads < 0)
+      throw new IllegalArgumentException ("Negative number of threads: " + threads);
+    m_aProcessor = processor;
+    m_nThreads = threads == 0 ? Runtime.getRuntime ().availableProcessors () : threads;
+  }
+
+  public void setOmitXmlDeclaration (final boolean flag)
+  {
+    m_bOmitXmlDeclaration = flag;
+  }
+
+  public void setSupportDisableOutputEscaping (final boolean flag)
+  {
+    m_bSupportDisableOutputEscaping = flag;
+  }
+
+  /**
+   * @param flag
+   *        <code>true</code>: read the input files via
+   *        {@link MappedFileInputStream}
+   */
+  public void setMappedFileInput (final boolean flag)
+  {
+    m_bMappedFileInput = flag;
+  }
+
+  /**
+   * Determines the jobs for a batch specification, which is either
+   * <ul>
+   * <li><code>@<em>file</em></code>: a list file that contains one input file
+   * per line, optionally followed by a tab character and the output file (the
+   * file names may contain spaces; empty lines and lines starting with
+   * <code>#</code> are ignored),</li>
+   * <li>a directory: all files with the extension <code>.xml</code> in this
+   * directory,</li>
+   * <li>a glob pattern like <code>data/**&#47;*.xml</code> (see
+   * {@link java.nio.file.FileSystem#getPathMatcher(String)}), or</li>
+   * <li>a single file.</li>
+   * </ul>
+   * If no output file is given explicitly, it has the same path relative to
+   * the output directory as the input file relative to the directory or to
+   * the fixed part of the glob pattern.
+   *
+   * @param spec
+   *        the batch specification
+   * @param outputDir
+   *        the output directory, may be <code>null</code> if the list file
+   *        specifies all output files
+   * @return the jobs in the order of the specification
+   * @throws IOException
+   *         if the list file or a directory can't be read
+   * @throws IllegalArgumentException
+   *         if an output file can't be determined or if several input files
+   *         have the same output file
+   */
+  public static List <Job> createJobs (final String spec, final File outputDir) throws IOException
+  {
+    final List <Job> jobs = new ArrayList<> ();
+    if (spec.startsWith ("@"))
+    {
+      // input files with the same name in different directories would be
+      // written concurrently to the same output file
+      final Map <File, File> outputs = new HashMap<> ();
+      try (final BufferedReader reader = Files.newBufferedReader (Paths.get (spec.substring (1)),
+                                                                  StandardCharsets.UTF_8))
+      {
+        String line;
+        while ((line = reader.readLine ()) != null)
+        {
+          line = line.trim ();
+          if (line.length () == 0 || line.charAt (0) == '#')
+            continue;
+          final int tab = line.indexOf ('\t');
+          final File input = new File (tab == -1 ? line : line.substring (0, tab).trim ());
+          final File output = tab != -1 ? new File (line.substring (tab + 1).trim ())
+                                        : _getOutput (outputDir, input.getName ());
+          final File other = outputs.put (output.getAbsoluteFile (), input);
+          if (other != null)
+            throw new IllegalArgumentException ("Same output file " + output + " for " + other + " and " + input);
+          jobs.add (new Job (input, output));
+        }
+      }
+      return jobs;
+    }
+
+    final File dir = new File (spec);
+    if (dir.isDirectory ())
+    {
+      final File [] files = dir.listFiles ( (d, name) -> name.endsWith (".xml"));
+      if (files == null)
+        throw new IOException ("Can't read directory " + dir);
+      for (final File file : files)
+        if (file.isFile ())
+          jobs.add (new Job (file, _getOutput (outputDir, file.getName ())));
+      jobs.sort ( (a, b) -> a.m_aInput.compareTo (b.m_aInput));
+      return jobs;
+    }
+
+    final String pattern = spec.replace (File.separatorChar, '/');
+    int wildcard = 0;
+    while (wildcard < pattern.length () && "*?[{".indexOf (pattern.charAt (wildcard)) == -1)
+      wildcard++;
+    if (wildcard == pattern.length ())
+    {
+      // a single file
+      jobs.add (new Job (dir, _getOutput (outputDir, dir.getName ())));
+      return jobs;
+    }
+
+    // glob pattern: walk the directory before the first wildcard
+    final String base = pattern.substring (0, pattern.lastIndexOf ('/', wildcard) + 1);
+    final Path root = Paths.get (base.length () == 0 ? "." : base);
+    final int depth = pattern.contains ("**") ? Integer.MAX_VALUE
+                                              : (int) pattern.substring (base.length ())
+                                                             .chars ()
+                                                             .filter (c -> c == '/')
+                                                             .count () +
+                                                1;
+    final PathMatcher matcher = FileSystems.getDefault ().getPathMatcher ("glob:" + pattern.substring (base.length ()));
+    final List <Path> paths;
+    try (final Stream <Path> stream = Files.walk (root, depth))
+    {
+      paths = stream.filter (p -> Files.isRegularFile (p) && matcher.matches (root.relativize (p)))
+                    .sorted ()
+                    .collect (Collectors.toList ());
+    }
+    for (final Path path : paths)
+      jobs.add (new Job (path.toFile (), _getOutput (outputDir, root.relativize (path).toString ())));
+    return jobs;
+  }
+
+  private static File _getOutput (final File outputDir, final String relativePath)
+  {
+    if (outputDir == null)
+      throw new IllegalArgumentException ("Missing output directory for " + relativePath);
+    return new File (outputDir, relativePath);
+  }
+
+  /**
+   * Transforms the input files of all jobs. The jobs are distributed among the
+   * worker threads in their order. A failed transformation doesn't stop the
+   * others, its exception is available via {@link Job#getError()}. Jobs that
+   * couldn't be finished because a worker thread died count as failed.
+   *
+   * @param jobs
+   *        the jobs
+   * @return the number of failed transformations
+   * @throws InterruptedException
+   *         if the calling thread has been interrupted while waiting for the
+   *         workers
+   */
+  public int transform (final List <Job> jobs) throws InterruptedException
+  {
+    m_aJobs = jobs;
+    final AtomicInteger next = new AtomicInteger ();
+    final AtomicInteger failed = new AtomicInteger ();
+    final int threadCount = Math.max (1, Math.min (m_nThreads, jobs.size ()));
+    final Thread [] threads = new Thread [threadCount];
+    final long start = System.nanoTime ();
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i] = new Thread ( () -> _work (jobs, next, failed), "joost-batch-" + (i + 1));
+      threads[i].start ();
+    }
+    try
+    {
+      for (final Thread thread : threads)
+        thread.join ();
+    }
+    finally
+    {
+      m_nWallNanos = System.nanoTime () - start;
+      // let the workers stop after their current job
+      next.set (jobs.size ());
+    }
+    for (final Job job : jobs)
+      if (!job.m_bFinished && job.m_aError == null)
+      {
+        job.m_aError = new IllegalStateException ("Transformation not finished");
+        failed.incrementAndGet ();
+      }
+    return failed.get ();
+  }
+
+  /** The loop of a worker thread */
+  private void _work (final List <Job> jobs, final AtomicInteger next, final AtomicInteger failed)
+  {
+    Processor processor = null;
+    AbstractStreamEmitter emitter = null;
+    int index;
+    while ((index = next.getAndIncrement ()) < jobs.size ())
+    {
+      final Job job = jobs.get (index);
+      final long start = System.nanoTime ();
+      OutputStream out = null;
+      InputStream in = null;
+      try
+      {
+        if (processor == null)
+        {
+          processor = _copyChain ();
+          emitter = null;
+        }
+        final File parent = job.m_aOutput.getAbsoluteFile ().getParentFile ();
+        if (parent != null && !parent.isDirectory () && !parent.mkdirs ())
+          throw new IOException ("Can't create directory " + parent);
+        out = new FileOutputStream (job.m_aOutput);
+        if (emitter == null)
+        {
+          emitter = AbstractStreamEmitter.newReusableEmitter (out, processor.m_aOutputProperties);
+          emitter.setOmitXmlDeclaration (m_bOmitXmlDeclaration);
+          emitter.setSupportDisableOutputEscaping (m_bSupportDisableOutputEscaping);
+          processor.setContentHandler (emitter);
+          processor.setLexicalHandler (emitter);
+        }
+        else
+          emitter.setOutputStream (out);
+        emitter.setSystemId (job.m_aOutput.toURI ().toString ());
+
+        InputSource is;
+        if (m_bMappedFileInput && job.m_aInput.isFile ())
+        {
+          in = new MappedFileInputStream (job.m_aInput);
+          is = new InputSource (in);
+          is.setSystemId (job.m_aInput.toURI ().toString ());
+        }
+        else
+          is = new InputSource (job.m_aInput.toURI ().toString ());
+        processor.parse (is);
+      }
+      catch (final Throwable ex)
+      {
+        // errors like a StackOverflowError of an endless recursion fail only
+        // this job, the worker continues with the next one
+        job.m_aError = ex;
+        failed.incrementAndGet ();
+        // the state of the processors is unknown, use fresh copies
+        processor = null;
+      }
+      finally
+      {
+        _close (in, job);
+        _close (out, job);
+        job.m_nNanos = System.nanoTime () - start;
+        job.m_bFinished = true;
+      }
+    }
+  }
+
+  private static void _close (final Closeable closeable, final Job job)
+  {
+    if (closeable != null)
+      try
+      {
+        closeable.close ();
+      }
+      catch (final IOException ex)
+      {
+        if (job.m_aError == null)
+          job.m_aError = ex;
+      }
+  }
+
+  /** @return a copy of the processor chain, returns the last processor */
+  private Processor _copyChain () throws SAXException
+  {
+    Processor result = null, last = null;
+    Object o = m_aProcessor;
+    while (o instanceof Processor)
+    {
+      final Processor orig = (Processor) o;
+      final Processor copy = orig.copy ();
+      copy.getContext ().globalParameters.putAll (orig.getContext ().globalParameters);
+      // the workers share the message emitter, each message is passed to it
+      // as a whole
+      final IStxEmitter messageEmitter = orig.getContext ().messageEmitter;
+      if (messageEmitter != null)
+        copy.setMessageEmitter (new SynchronizedMessageEmitter (messageEmitter));
+      if (last == null)
+        result = copy;
+      else
+        last.setParent (copy);
+      last = copy;
+      o = orig.getParent ();
+    }
+    return result;
+  }
+
+  /**
+   * Writes a report about the last run: the failed transformations, the
+   * timings for each file (optional) and the aggregate throughput.
+   *
+   * @param out
+   *        the target
+   * @param perFile
+   *        whether the timings for each file should be written
+   */
+  public void writeReport (final PrintWriter out, final boolean perFile)
+  {
+    long bytes = 0;
+    int failed = 0;
+    for (final Job job : m_aJobs)
+    {
+      if (job.m_aError != null)
+      {
+        failed++;
+        out.println (job.m_aInput +
+                     ": " +
+                     (job.m_aError.getMessage () != null ? job.m_aError.getMessage () : job.m_aError.toString ()));
+      }
+      else
+      {
+        bytes += job.m_aInput.length ();
+        if (perFile)
+          out.println ("Processing " + job.m_aInput + ": " + (job.m_nNanos / 1000000) + " ms");
+      }
+    }
+    final double seconds = Math.max (m_nWallNanos, 1) / 1e9;
+    out.printf ("Transformed %d of %d files in %d ms with %d threads: %.1f files/s, %.2f MB/s%n",
+                Integer.valueOf (m_aJobs.size () - failed),
+                Integer.valueOf (m_aJobs.size ()),
+                Long.valueOf (m_nWallNanos / 1000000),
+                Integer.valueOf (Math.max (1, Math.min (m_nThreads, m_aJobs.size ()))),
+                Double.valueOf ((m_aJobs.size () - failed) / seconds),
+                Double.valueOf (bytes / seconds / (1024 * 1024)));
+    out.flush ();
+  }
+}
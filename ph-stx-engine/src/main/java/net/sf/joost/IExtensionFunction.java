@@ -0,0 +1,76 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost;
+
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Value;
+
+/**
+ * Interface for extension functions that are called with their STXPath
+ * parameters directly, without reflection and without conversion to Java
+ * objects (in contrast to the functions in a <code>java:</code> namespace).
+ * <p>
+ * Implementations are registered using the <strong>Java services plugin
+ * mechanism</strong>, by specifying the implementing class in the file
+ * <code>META-INF/services/net.sf.joost.IExtensionFunction</code>. They are
+ * available in all transformation sheets (the setting of
+ * <code>allowExternalFunctions</code> doesn't apply). A function can't
+ * replace one of the built-in functions.
+ * <p>
+ * Implementations must be thread-safe, a single instance is shared by all
+ * transformations.
+ *
+ * @author Philip Helger
+ */
+public interface IExtensionFunction
+{
+  /** @return the namespace URI of the function name */
+  String getNamespaceURI ();
+
+  /** @return the local part of the function name */
+  String getLocalName ();
+
+  /** @return the minimum number of parameters */
+  int getMinParCount ();
+
+  /** @return the maximum number of parameters */
+  int getMaxParCount ();
+
+  /**
+   * @return <code>true</code> if a call to this function with constant
+   *         parameters returns always the same result
+   */
+  default boolean isConstant ()
+  {
+    return false;
+  }
+
+  /**
+   * Calls the function.
+   *
+   * @param args
+   *        the evaluated parameters, each possibly a sequence
+   * @return the result, must not be <code>null</code> (use
+   *         {@link Value#VAL_EMPTY} for the empty sequence)
+   * @throws EvalException
+   *         if the function can't be evaluated
+   */
+  Value evaluate (Value [] args) throws EvalException;
+}
@@ -21,9 +21,13 @@ package net.sf.joost;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 
 import javax.xml.transform.SourceLocator;
 import javax.xml.transform.TransformerException;
@@ -38,6 +42,9 @@ import net.sf.joost.emitter.FOPEmitter;
 import net.sf.joost.emitter.IStxEmitter;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.RecordSplitter;
+import net.sf.joost.stx.SamplingProfiler;
+import net.sf.joost.util.MappedFileInputStream;
 
 /**
  * Command line interface for Joost.
@@ -89,6 +96,17 @@ public class Main
     // set to true if -doe was specified on the command line
     boolean doe = false;
 
+    // read the xml-src via memory mapping
+    boolean mmap = false;
+
+    // parallel transformation of records or files
+    String recordPath = null;
+    boolean batch = false;
+    int threads = 0;
+
+    // bytecode compilation of expressions
+    int compileThreshold = -1;
+
     // debugging
     boolean dontexit = false;
 
@@ -96,6 +114,11 @@ public class Main
     boolean measureTime = false;
     long timeStart = 0, timeEnd = 0;
 
+    // profiling
+    boolean profile = false;
+    String profileOutFile = null;
+    long profileInterval = SamplingProfiler.DEFAULT_INTERVAL;
+
     // needed for evaluating parameter assignments
     int index;
 
@@ -151,6 +174,67 @@ public class Main
               doe = true;
               continue;
             }
+            if ("-mmap".equals (args[i]))
+            {
+              mmap = true;
+              continue;
+            }
+            if ("-batch".equals (args[i]))
+            {
+              batch = true;
+              continue;
+            }
+            if ("-records".equals (args[i]))
+            {
+              // this option needs a parameter
+              if (++i < args.length && args[i].charAt (0) != '-')
+                recordPath = args[i];
+              else
+              {
+                System.err.println ("Option -records requires a path");
+                i--;
+                wrongParameter = true;
+              }
+              continue;
+            }
+            if ("-threads".equals (args[i]))
+            {
+              // this option needs a parameter
+              try
+              {
+                if (++i >= args.length)
+                  throw new NumberFormatException ();
+                threads = Integer.parseInt (args[i]);
+                if (threads <= 0)
+                  throw new NumberFormatException ();
+              }
+              catch (final NumberFormatException ex)
+              {
+                System.err.println ("Option -threads requires a positive number");
+                i--;
+                wrongParameter = true;
+              }
+              continue;
+            }
+            if ("-compile".equals (args[i]))
+            {
+              // this option needs a parameter
+              try
+              {
+                if (++i >= args.length)
+                  throw new NumberFormatException ();
+                compileThreshold = Integer.parseInt (args[i]);
+                if (compileThreshold < 0)
+                  throw new NumberFormatException ();
+              }
+              catch (final NumberFormatException ex)
+              {
+                System.err.println ("Option -compile requires a non-negative number");
+                i--;
+                wrongParameter = true;
+              }
+              continue;
+            }
             if ("-wait".equals (args[i]))
             {
               dontexit = true; // undocumented
@@ -161,6 +245,47 @@ public class Main
               measureTime = true;
               continue;
             }
+            if ("-profile".equals (args[i]))
+            {
+              profile = true;
+              continue;
+            }
+            if ("-profile-out".equals (args[i]))
+            {
+              // this option needs a parameter
+              if (++i < args.length && args[i].charAt (0) != '-')
+              {
+                profile = true;
+                profileOutFile = args[i];
+              }
+              else
+              {
+                System.err.println ("Option -profile-out requires a filename");
+                i--;
+                wrongParameter = true;
+              }
+              continue;
+            }
+            if ("-profile-interval".equals (args[i]))
+            {
+              // this option needs a parameter
+              try
+              {
+                if (++i >= args.length)
+                  throw new NumberFormatException ();
+                profileInterval = Long.parseLong (args[i]);
+                if (profileInterval <= 0)
+                  throw new NumberFormatException ();
+                profile = true;
+              }
+              catch (final NumberFormatException ex)
+              {
+                System.err.println ("Option -profile-interval requires a positive number of milliseconds");
+                i--;
+                wrongParameter = true;
+              }
+              continue;
+            }
             if ("-o".equals (args[i]))
             {
               // this option needs a parameter
@@ -235,6 +360,7 @@ public class Main
                 // xmlFile != null, i.e. this is an STX sheet
                 final ParseContext pContext = new ParseContext ();
                 pContext.allowExternalFunctions = !noext;
+                pContext.compileThreshold = compileThreshold;
                 if (measureTime)
                   timeStart = System.currentTimeMillis ();
                 final Processor proc = new Processor (new InputSource (args[i]), pContext);
@@ -319,12 +445,101 @@ public class Main
         return;
       }
 
+      if (batch)
+      {
+        if (doFOP)
+        {
+          System.err.println ("Option -pdf can't be combined with -batch");
+          wrongParameter = true;
+        }
+        if (recordPath != null)
+        {
+          System.err.println ("Option -records can't be combined with -batch");
+          wrongParameter = true;
+        }
+        if ("-".equals (xmlFile))
+        {
+          System.err.println ("Option -batch doesn't support the standard input");
+          wrongParameter = true;
+        }
+      }
+
+      RecordSplitter splitter = null;
+      if (recordPath != null && !wrongParameter)
+      {
+        if (processor.getParent () instanceof Processor)
+          System.err.println ("Option -records ignored: not supported for a chain of STX sheets");
+        else
+          try
+          {
+            splitter = new RecordSplitter (processor, recordPath, threads);
+            if (splitter.getSequentialReason () != null)
+              System.err.println ("Records will be transformed sequentially: " + splitter.getSequentialReason ());
+          }
+          catch (final IllegalArgumentException ex)
+          {
+            System.err.println ("Option -records: " + ex.getMessage ());
+            wrongParameter = true;
+          }
+      }
+
       if (wrongParameter)
       {
         System.err.println ("Specify -help to get a detailed help message");
         System.exit (1);
       }
 
+      SamplingProfiler profiler = null;
+      if (profile)
+      {
+        // profile all processors in the filter chain
+        profiler = new SamplingProfiler (profileInterval);
+        Processor p = processor;
+        do
+        {
+          p.setProfiler (profiler);
+          final Object o = p.getParent ();
+          if (o instanceof Processor)
+            p = (Processor) o;
+          else
+            p = null;
+        } while (p != null);
+        profiler.start ();
+      }
+
+      if (batch)
+      {
+        // transform many files with copies of the processors
+        final BatchTransformer batchTransformer = new BatchTransformer (processor, threads);
+        batchTransformer.setOmitXmlDeclaration (nodecl);
+        batchTransformer.setSupportDisableOutputEscaping (doe);
+        batchTransformer.setMappedFileInput (mmap);
+        int failed;
+        try
+        {
+          failed = batchTransformer.transform (BatchTransformer.createJobs (xmlFile,
+                                                                            outFile == null ? null
+                                                                                            : new File (outFile)));
+        }
+        catch (final IllegalArgumentException ex)
+        {
+          System.err.println ("Option -batch: " + ex.getMessage () + " (specify -o <directory>)");
+          System.exit (1);
+          return;
+        }
+        catch (final InterruptedException ex)
+        {
+          System.err.println ("Interrupted");
+          System.exit (1);
+          return;
+        }
+        batchTransformer.writeReport (new PrintWriter (new OutputStreamWriter (System.err)), measureTime);
+        _writeProfile (profiler, profileOutFile);
+        if (failed > 0)
+          System.exit (1);
+        return;
+      }
+
       // The first processor re-uses its XMLReader for parsing the input
       // xmlFile.
       // For a real XMLFilter usage you have to call
@@ -371,13 +586,34 @@ public class Main
         is.setPublicId ("");
       }
       else
-        is = new InputSource (xmlFile);
+      {
+        final File mappedFile = mmap ? MappedFileInputStream.getLocalFile (xmlFile) : null;
+        if (mappedFile != null)
+        {
+          // the parser reads directly from the mapped file
+          is = new InputSource (new MappedFileInputStream (mappedFile));
+          is.setSystemId (xmlFile);
+        }
+        else
+          is = new InputSource (xmlFile);
+      }
 
       // Ready for take-off
       if (measureTime)
         timeStart = System.currentTimeMillis ();
 
-      processor.parse (is);
+      try
+      {
+        if (splitter != null)
+          splitter.parse (is);
+        else
+          processor.parse (is);
+      }
+      finally
+      {
+        if (is.getByteStream () instanceof MappedFileInputStream)
+          is.getByteStream ().close ();
+      }
 
       if (measureTime)
       {
@@ -385,6 +621,8 @@ public class Main
         System.err.println ("Processing " + xmlFile + ": " + (timeEnd - timeStart) + " ms");
       }
 
+      _writeProfile (profiler, profileOutFile);
+
       // // check if the Processor copy constructor works
       // Processor pr = new Processor(processor);
       // java.util.Properties props = new java.util.Properties();
@@ -465,6 +703,29 @@ public class Main
     }
   }
 
+  /**
+   * Stops the profiler and outputs its report.
+   *
+   * @param profiler
+   *        the profiler, may be <code>null</code>
+   * @param profileOutFile
+   *        the file for the collapsed stacks, may be <code>null</code>
+   */
+  private static void _writeProfile (final SamplingProfiler profiler, final String profileOutFile) throws IOException
+  {
+    if (profiler != null)
+    {
+      profiler.stop ();
+      profiler.writeReport (new PrintWriter (new OutputStreamWriter (System.err)));
+      if (profileOutFile != null)
+        try (final PrintWriter pw = new PrintWriter (new OutputStreamWriter (new FileOutputStream (profileOutFile),
+                                                                             StandardCharsets.UTF_8)))
+        {
+          profiler.writeCollapsedStacks (pw);
+        }
+    }
+  }
+
   /**
    * Outputs the contents of a resource info file.
    *
@@ -64,6 +64,18 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   /** Encoder for the chosen {@link #m_sEncoding} */
   protected CharsetEncoder m_aCharsetEncoder;
 
+  /**
+   * The output properties this emitter was created for (set by the factory
+   * methods), used by {@link #isReusableFor(String, Properties)}
+   */
+  private Properties m_aOutputProperties;
+
+  /** Buffer for the construction of the output, reused for all events */
+  private final StringBuffer m_aBuffer = new StringBuffer ();
+
+  /** Character array for writing {@link #m_aBuffer} */
+  private char [] m_aBufferChars = new char [256];
+
   public AbstractStreamEmitter (final Writer writer, final String encoding)
   {
     this.m_aWriter = writer;
@@ -123,6 +135,8 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
       // either outputProperties==null or unknown output method
       emitter = new XmlEmitter (writer, encoding, outputProperties);
     }
+    if (outputProperties != null)
+      emitter.m_aOutputProperties = (Properties) outputProperties.clone ();
     return emitter;
   }
 
@@ -145,13 +159,7 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   public static AbstractStreamEmitter newEmitter (final OutputStream out,
                                                   final Properties outputProperties) throws UnsupportedEncodingException
   {
-    String encoding = null;
-    if (outputProperties != null)
-      encoding = outputProperties.getProperty (OutputKeys.ENCODING);
-    if (encoding != null)
-      encoding = encoding.toUpperCase ();
-    else
-      encoding = CSTX.DEFAULT_ENCODING;
+    String encoding = getEncoding (outputProperties);
 
     OutputStreamWriter writer;
     try
@@ -168,6 +176,62 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
     return newEmitter (new BufferedWriter (writer), encoding, outputProperties);
   }
 
+  /**
+   * @param outputProperties
+   *        The set of output properties, may be <code>null</code>.
+   * @return the output encoding specified by the <code>OutputKeys.ENCODING</code>
+   *         property, or the default encoding
+   */
+  public static String getEncoding (final Properties outputProperties)
+  {
+    String encoding = null;
+    if (outputProperties != null)
+      encoding = outputProperties.getProperty (OutputKeys.ENCODING);
+    if (encoding != null)
+      return encoding.toUpperCase ();
+    return CSTX.DEFAULT_ENCODING;
+  }
+
+  /**
+   * Creates an emitter like {@link #newEmitter(OutputStream, Properties)},
+   * whose output stream can be replaced later using
+   * {@link #setOutputStream(OutputStream)}. This way the emitter, its encoder
+   * and its buffers can be reused for several transformations.
+   *
+   * @param out
+   *        An <code>OutputStream</code> for receiving the output.
+   * @param outputProperties
+   *        The set of output properties to be used.
+   * @return a proper stream emitter object
+   */
+  public static AbstractStreamEmitter newReusableEmitter (final OutputStream out, final Properties outputProperties)
+  {
+    String encoding = getEncoding (outputProperties);
+
+    ReusableOutputStreamWriter writer;
+    try
+    {
+      writer = new ReusableOutputStreamWriter (out, encoding);
+    }
+    catch (final UnsupportedEncodingException e)
+    {
+      final String msg = "Unsupported encoding " + encoding + ", using " + CSTX.DEFAULT_ENCODING;
+      log.warn (msg);
+      encoding = CSTX.DEFAULT_ENCODING;
+      try
+      {
+        writer = new ReusableOutputStreamWriter (out, encoding);
+      }
+      catch (final UnsupportedEncodingException e2)
+      {
+        // the default encoding is always available
+        throw new IllegalStateException (e2);
+      }
+    }
+
+    return newEmitter (writer, encoding, outputProperties);
+  }
+
   /**
    * Creates an XML emitter using a given <code>Writer</code> and the default
    * output encoding ({@link #DEFAULT_ENCODING}).
@@ -206,6 +270,118 @@ public abstract class AbstractStreamEmitter extends AbstractStxEmitterBase
   // Methods
   //
 
+  /**
+   * @return the writer receiving the output
+   */
+  public Writer getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  /**
+   * Flushes the writer at the end of a document. A reusable writer (see
+   * {@link #newReusableEmitter(OutputStream, Properties)}) additionally
+   * completes the encoding of the document.
+   *
+   * @throws IOException
+   *         in case of write errors
+   */
+  protected void flushDocument () throws IOException
+  {
+    if (m_aWriter instanceof ReusableOutputStreamWriter)
+      ((ReusableOutputStreamWriter) m_aWriter).finish ();
+    else
+      m_aWriter.flush ();
+  }
+
+  /**
+   * Rebinds this emitter to a new writer and resets its state, so the emitter
+   * can be reused for another document.
+   *
+   * @param writer
+   *        the new writer, must expect the encoding of this emitter
+   */
+  public void setWriter (final Writer writer)
+  {
+    m_aWriter = writer;
+    reset ();
+  }
+
+  /**
+   * Rebinds this emitter to a new output stream and resets its state. This
+   * works only for emitters created by
+   * {@link #newReusableEmitter(OutputStream, Properties)}.
+   *
+   * @param out
+   *        the new output stream
+   * @return <code>true</code> if the emitter has been rebound,
+   *         <code>false</code> if this emitter doesn't support the replacement
+   *         of its output stream
+   */
+  public boolean setOutputStream (final OutputStream out)
+  {
+    if (!(m_aWriter instanceof ReusableOutputStreamWriter))
+      return false;
+    ((ReusableOutputStreamWriter) m_aWriter).setOutputStream (out);
+    reset ();
+    return true;
+  }
+
+  /**
+   * Determines whether this emitter produces the output for the given
+   * parameters, i.e. whether it may be reused instead of creating a new one
+   * with the same parameters.
+   *
+   * @param encoding
+   *        the output encoding
+   * @param outputProperties
+   *        the output properties
+   * @return <code>true</code> if this emitter may be reused
+   */
+  public boolean isReusableFor (final String encoding, final Properties outputProperties)
+  {
+    return m_sEncoding.equals (encoding) &&
+           outputProperties != null &&
+           outputProperties.equals (m_aOutputProperties);
+  }
+
+  /**
+   * @return the empty output buffer of this emitter (use
+   *         {@link #writeBuffer(StringBuffer)} for writing its contents)
+   */
+  protected StringBuffer getBuffer ()
+  {
+    m_aBuffer.setLength (0);
+    return m_aBuffer;
+  }
+
+  /**
+   * Writes the contents of a buffer to the writer without creating an
+   * intermediate string
+   *
+   * @param sb
+   *        the buffer
+   * @throws IOException
+   *         in case of write errors
+   */
+  protected void writeBuffer (final StringBuffer sb) throws IOException
+  {
+    final int len = sb.length ();
+    if (m_aBufferChars.length < len)
+      m_aBufferChars = new char [Math.max (len, 2 * m_aBufferChars.length)];
+    sb.getChars (0, len, m_aBufferChars, 0);
+    m_aWriter.write (m_aBufferChars, 0, len);
+  }
+
+  /**
+   * Resets the state of this emitter at the begin of a new document.
+   * Subclasses with state must call this implementation.
+   */
+  protected void reset ()
+  {
+    m_aCharsetEncoder.reset ();
+  }
+
   /**
    * Defines whether the XML declaration should be omitted, default is
    * <code>false</code>.
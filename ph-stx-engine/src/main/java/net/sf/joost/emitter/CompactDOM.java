@@ -0,0 +1,1433 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+import org.xml.sax.Attributes;
+
+/**
+ * A compact read-only DOM implementation, built by the {@link DOMEmitter} for
+ * callers that only read the result of a transformation (see
+ * {@link net.sf.joost.trax.CTrAX#OUTPUT_KEY_COMPACT_DOM}).
+ * <p>
+ * The nodes are linked via parent and sibling references, attributes are
+ * stored as string arrays in their element and {@link Attr} nodes are only
+ * created on demand. All methods that would modify the document throw a
+ * {@link DOMException} with the code <code>NO_MODIFICATION_ALLOWED_ERR</code>,
+ * {@link Node#cloneNode(boolean)} throws <code>NOT_SUPPORTED_ERR</code>.
+ * Documents are not thread-safe, although they are never modified after
+ * construction, because some structures (child arrays, attribute nodes) are
+ * created lazily.
+ *
+ * @author Philip Helger
+ */
+public final class CompactDOM
+{
+  private static final String [] NO_STRINGS = new String [0];
+
+  static DOMException readOnly ()
+  {
+    return new DOMException (DOMException.NO_MODIFICATION_ALLOWED_ERR, "Read-only document");
+  }
+
+  static DOMException notSupported ()
+  {
+    return new DOMException (DOMException.NOT_SUPPORTED_ERR, "Not supported by the compact DOM");
+  }
+
+  /** A node list backed by an array */
+  private static final class ArrayNodeList implements NodeList
+  {
+    static final ArrayNodeList EMPTY = new ArrayNodeList (new Node [0], 0);
+
+    private final Node [] m_aNodes;
+    private final int m_nLength;
+
+    ArrayNodeList (final Node [] nodes, final int length)
+    {
+      m_aNodes = nodes;
+      m_nLength = length;
+    }
+
+    public Node item (final int index)
+    {
+      return index >= 0 && index < m_nLength ? m_aNodes[index] : null;
+    }
+
+    public int getLength ()
+    {
+      return m_nLength;
+    }
+  }
+
+  /**
+   * Base class of all nodes
+   */
+  abstract static class AbstractNode implements Node
+  {
+    AbstractParentNode m_aParent;
+    AbstractNode m_aPrev, m_aNext;
+
+    abstract DocumentNode _getDocument ();
+
+    /** @return the parent, or the owner element for attributes */
+    AbstractNode _getContainer ()
+    {
+      return m_aParent;
+    }
+
+    public String getNodeValue ()
+    {
+      return null;
+    }
+
+    public void setNodeValue (final String nodeValue)
+    {
+      throw readOnly ();
+    }
+
+    public Node getParentNode ()
+    {
+      return m_aParent;
+    }
+
+    public NodeList getChildNodes ()
+    {
+      return ArrayNodeList.EMPTY;
+    }
+
+    public Node getFirstChild ()
+    {
+      return null;
+    }
+
+    public Node getLastChild ()
+    {
+      return null;
+    }
+
+    public Node getPreviousSibling ()
+    {
+      return m_aPrev;
+    }
+
+    public Node getNextSibling ()
+    {
+      return m_aNext;
+    }
+
+    public NamedNodeMap getAttributes ()
+    {
+      return null;
+    }
+
+    public Document getOwnerDocument ()
+    {
+      return _getDocument ();
+    }
+
+    public Node insertBefore (final Node newChild, final Node refChild)
+    {
+      throw readOnly ();
+    }
+
+    public Node replaceChild (final Node newChild, final Node oldChild)
+    {
+      throw readOnly ();
+    }
+
+    public Node removeChild (final Node oldChild)
+    {
+      throw readOnly ();
+    }
+
+    public Node appendChild (final Node newChild)
+    {
+      throw readOnly ();
+    }
+
+    public boolean hasChildNodes ()
+    {
+      return false;
+    }
+
+    public Node cloneNode (final boolean deep)
+    {
+      throw notSupported ();
+    }
+
+    public void normalize ()
+    {
+      // adjacent text is always merged
+    }
+
+    public boolean isSupported (final String feature, final String version)
+    {
+      return _getDocument ().getImplementation ().hasFeature (feature, version);
+    }
+
+    public String getNamespaceURI ()
+    {
+      return null;
+    }
+
+    public String getPrefix ()
+    {
+      return null;
+    }
+
+    public void setPrefix (final String prefix)
+    {
+      throw readOnly ();
+    }
+
+    public String getLocalName ()
+    {
+      return null;
+    }
+
+    public boolean hasAttributes ()
+    {
+      return false;
+    }
+
+    public String getBaseURI ()
+    {
+      return _getDocument ().getDocumentURI ();
+    }
+
+    public short compareDocumentPosition (final Node other)
+    {
+      if (other == this)
+        return 0;
+      if (!(other instanceof AbstractNode) || ((AbstractNode) other)._getDocument () != _getDocument ())
+        return (short) (DOCUMENT_POSITION_DISCONNECTED |
+                        DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC |
+                        (System.identityHashCode (this) < System.identityHashCode (other) ? DOCUMENT_POSITION_FOLLOWING
+                                                                                         : DOCUMENT_POSITION_PRECEDING));
+      final List <AbstractNode> path1 = _getPath (this);
+      final List <AbstractNode> path2 = _getPath ((AbstractNode) other);
+      int i = 0;
+      while (i < path1.size () && i < path2.size () && path1.get (i) == path2.get (i))
+        i++;
+      if (i == path1.size ())
+        return DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING;
+      if (i == path2.size ())
+        return DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING;
+      return _isBefore (path1.get (i), path2.get (i)) ? DOCUMENT_POSITION_FOLLOWING : DOCUMENT_POSITION_PRECEDING;
+    }
+
+    /** @return the ancestors of a node (document first) and the node itself */
+    private static List <AbstractNode> _getPath (final AbstractNode node)
+    {
+      final List <AbstractNode> path = new ArrayList<> ();
+      for (AbstractNode n = node; n != null; n = n._getContainer ())
+        path.add (0, n);
+      return path;
+    }
+
+    /** @return whether the first of two siblings comes first */
+    private static boolean _isBefore (final AbstractNode node1, final AbstractNode node2)
+    {
+      if (node1 instanceof AttrNode)
+      {
+        if (node2 instanceof AttrNode)
+          return ((AttrNode) node1).m_nIndex < ((AttrNode) node2).m_nIndex;
+        return true;
+      }
+      if (node2 instanceof AttrNode)
+        return false;
+      for (AbstractNode n = node1.m_aNext; n != null; n = n.m_aNext)
+        if (n == node2)
+          return true;
+      return false;
+    }
+
+    public String getTextContent ()
+    {
+      return getNodeValue ();
+    }
+
+    public void setTextContent (final String textContent)
+    {
+      throw readOnly ();
+    }
+
+    public boolean isSameNode (final Node other)
+    {
+      return this == other;
+    }
+
+    public String lookupPrefix (final String namespaceURI)
+    {
+      final AbstractNode container = _getContainer ();
+      return container == null ? null : container.lookupPrefix (namespaceURI);
+    }
+
+    public boolean isDefaultNamespace (final String namespaceURI)
+    {
+      final AbstractNode container = _getContainer ();
+      return container != null && container.isDefaultNamespace (namespaceURI);
+    }
+
+    public String lookupNamespaceURI (final String prefix)
+    {
+      final AbstractNode container = _getContainer ();
+      return container == null ? null : container.lookupNamespaceURI (prefix);
+    }
+
+    public boolean isEqualNode (final Node arg)
+    {
+      if (arg == this)
+        return true;
+      if (arg == null || arg.getNodeType () != getNodeType ())
+        return false;
+      if (!_equals (getNodeName (), arg.getNodeName ()) ||
+          !_equals (getLocalName (), arg.getLocalName ()) ||
+          !_equals (getNamespaceURI (), arg.getNamespaceURI ()) ||
+          !_equals (getPrefix (), arg.getPrefix ()) ||
+          !_equals (getNodeValue (), arg.getNodeValue ()))
+        return false;
+      final NamedNodeMap atts1 = getAttributes ();
+      final NamedNodeMap atts2 = arg.getAttributes ();
+      if (atts1 != null || atts2 != null)
+      {
+        if (atts1 == null || atts2 == null || atts1.getLength () != atts2.getLength ())
+          return false;
+        for (int i = 0; i < atts1.getLength (); i++)
+        {
+          final Node att1 = atts1.item (i);
+          final Node att2 = att1.getLocalName () == null ? atts2.getNamedItem (att1.getNodeName ())
+                                                          : atts2.getNamedItemNS (att1.getNamespaceURI (),
+                                                                                  att1.getLocalName ());
+          if (att2 == null || !att1.isEqualNode (att2))
+            return false;
+        }
+      }
+      Node c1 = getFirstChild ();
+      Node c2 = arg.getFirstChild ();
+      while (c1 != null && c2 != null)
+      {
+        if (!c1.isEqualNode (c2))
+          return false;
+        c1 = c1.getNextSibling ();
+        c2 = c2.getNextSibling ();
+      }
+      return c1 == null && c2 == null;
+    }
+
+    private static boolean _equals (final String s1, final String s2)
+    {
+      return s1 == null ? s2 == null : s1.equals (s2);
+    }
+
+    public Object getFeature (final String feature, final String version)
+    {
+      return isSupported (feature, version) ? this : null;
+    }
+
+    public Object setUserData (final String key, final Object data, final UserDataHandler handler)
+    {
+      return _getDocument ()._setUserData (this, key, data);
+    }
+
+    public Object getUserData (final String key)
+    {
+      return _getDocument ()._getUserData (this, key);
+    }
+  }
+
+  /**
+   * Base class of nodes with children
+   */
+  abstract static class AbstractParentNode extends AbstractNode
+  {
+    AbstractNode m_aFirst, m_aLast;
+    int m_nChildCount;
+    private Node [] m_aChildArray;
+
+    final void _appendChild (final AbstractNode child)
+    {
+      child.m_aParent = this;
+      if (m_aLast == null)
+        m_aFirst = child;
+      else
+      {
+        m_aLast.m_aNext = child;
+        child.m_aPrev = m_aLast;
+      }
+      m_aLast = child;
+      m_nChildCount++;
+      m_aChildArray = null;
+    }
+
+    @Override
+    public NodeList getChildNodes ()
+    {
+      if (m_nChildCount == 0)
+        return ArrayNodeList.EMPTY;
+      if (m_aChildArray == null)
+      {
+        final Node [] children = new Node [m_nChildCount];
+        int i = 0;
+        for (AbstractNode n = m_aFirst; n != null; n = n.m_aNext)
+          children[i++] = n;
+        m_aChildArray = children;
+      }
+      return new ArrayNodeList (m_aChildArray, m_nChildCount);
+    }
+
+    @Override
+    public Node getFirstChild ()
+    {
+      return m_aFirst;
+    }
+
+    @Override
+    public Node getLastChild ()
+    {
+      return m_aLast;
+    }
+
+    @Override
+    public boolean hasChildNodes ()
+    {
+      return m_aFirst != null;
+    }
+
+    @Override
+    public String getTextContent ()
+    {
+      final StringBuilder sb = new StringBuilder ();
+      _appendTextContent (this, sb);
+      return sb.toString ();
+    }
+
+    private static void _appendTextContent (final AbstractParentNode node, final StringBuilder sb)
+    {
+      for (AbstractNode n = node.m_aFirst; n != null; n = n.m_aNext)
+        if (n instanceof TextNode)
+          sb.append (((TextNode) n).m_sData);
+        else
+          if (n instanceof ElementNode)
+            _appendTextContent ((ElementNode) n, sb);
+    }
+
+    /** Collects the matching descendant elements */
+    final NodeList _getElements (final String namespaceURI, final String name, final boolean useNS)
+    {
+      final List <Node> result = new ArrayList<> ();
+      AbstractNode n = m_aFirst;
+      while (n != null)
+      {
+        if (n instanceof ElementNode)
+        {
+          final ElementNode e = (ElementNode) n;
+          if (useNS ? ("*".equals (namespaceURI) || _nsEquals (namespaceURI, e.m_sURI)) &&
+                      ("*".equals (name) || name.equals (e.m_sLocalName))
+                    : "*".equals (name) || name.equals (e.m_sQName))
+            result.add (e);
+          if (e.m_aFirst != null)
+          {
+            n = e.m_aFirst;
+            continue;
+          }
+        }
+        while (n != null && n.m_aNext == null)
+        {
+          n = n.m_aParent;
+          if (n == this)
+            n = null;
+        }
+        if (n != null)
+          n = n.m_aNext;
+      }
+      return new ArrayNodeList (result.toArray (new Node [result.size ()]), result.size ());
+    }
+  }
+
+  static boolean _nsEquals (final String uri1, final String uri2)
+  {
+    return (uri1 == null ? "" : uri1).equals (uri2);
+  }
+
+  /** Element nodes */
+  static final class ElementNode extends AbstractParentNode implements Element, NamedNodeMap
+  {
+    private final DocumentNode m_aDoc;
+    final String m_sURI, m_sLocalName, m_sQName;
+    /** uri, local name, qualified name, value for each attribute */
+    private final String [] m_aAttrs;
+    private AttrNode [] m_aAttrNodes;
+
+    ElementNode (final DocumentNode doc,
+                 final String uri,
+                 final String localName,
+                 final String qName,
+                 final Attributes attrs)
+    {
+      m_aDoc = doc;
+      m_sURI = uri == null ? "" : uri;
+      m_sLocalName = localName == null || localName.length () == 0 ? _getLocalPart (qName) : localName;
+      m_sQName = qName;
+      final int count = attrs.getLength ();
+      if (count == 0)
+        m_aAttrs = NO_STRINGS;
+      else
+      {
+        m_aAttrs = new String [count * 4];
+        for (int i = 0; i < count; i++)
+        {
+          final String attQName = attrs.getQName (i);
+          final String attLocal = attrs.getLocalName (i);
+          final String attURI = attrs.getURI (i);
+          m_aAttrs[i * 4] = attURI == null ? "" : attURI;
+          m_aAttrs[i * 4 + 1] = attLocal == null || attLocal.length () == 0 ? _getLocalPart (attQName) : attLocal;
+          m_aAttrs[i * 4 + 2] = attQName;
+          m_aAttrs[i * 4 + 3] = attrs.getValue (i);
+        }
+      }
+    }
+
+    private static String _getLocalPart (final String qName)
+    {
+      return qName.substring (qName.indexOf (':') + 1);
+    }
+
+    @Override
+    DocumentNode _getDocument ()
+    {
+      return m_aDoc;
+    }
+
+    public String getNodeName ()
+    {
+      return m_sQName;
+    }
+
+    public short getNodeType ()
+    {
+      return ELEMENT_NODE;
+    }
+
+    @Override
+    public NamedNodeMap getAttributes ()
+    {
+      return this;
+    }
+
+    @Override
+    public boolean hasAttributes ()
+    {
+      return m_aAttrs.length > 0;
+    }
+
+    @Override
+    public String getNamespaceURI ()
+    {
+      return m_sURI.length () == 0 ? null : m_sURI;
+    }
+
+    @Override
+    public String getPrefix ()
+    {
+      final int colon = m_sQName.indexOf (':');
+      return colon == -1 ? null : m_sQName.substring (0, colon);
+    }
+
+    @Override
+    public String getLocalName ()
+    {
+      return m_sLocalName;
+    }
+
+    @Override
+    public String lookupPrefix (final String namespaceURI)
+    {
+      if (namespaceURI == null || namespaceURI.length () == 0)
+        return null;
+      for (AbstractNode n = this; n instanceof ElementNode; n = n.m_aParent)
+      {
+        final ElementNode e = (ElementNode) n;
+        if (namespaceURI.equals (e.m_sURI) && e.getPrefix () != null)
+          return e.getPrefix ();
+        for (int i = 0; i < e.m_aAttrs.length; i += 4)
+        {
+          final int colon = e.m_aAttrs[i + 2].indexOf (':');
+          if (colon != -1 && namespaceURI.equals (e.m_aAttrs[i]))
+            return e.m_aAttrs[i + 2].substring (0, colon);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean isDefaultNamespace (final String namespaceURI)
+    {
+      return _nsEquals (namespaceURI, _nsOrEmpty (lookupNamespaceURI (null)));
+    }
+
+    private static String _nsOrEmpty (final String uri)
+    {
+      return uri == null ? "" : uri;
+    }
+
+    @Override
+    public String lookupNamespaceURI (final String prefix)
+    {
+      final String p = prefix == null ? "" : prefix;
+      for (AbstractNode n = this; n instanceof ElementNode; n = n.m_aParent)
+      {
+        final ElementNode e = (ElementNode) n;
+        final String ePrefix = e.getPrefix ();
+        if (p.equals (ePrefix == null ? "" : ePrefix))
+          return e.getNamespaceURI ();
+        if (p.length () > 0)
+          for (int i = 0; i < e.m_aAttrs.length; i += 4)
+          {
+            final String attQName = e.m_aAttrs[i + 2];
+            if (attQName.length () > p.length () && attQName.charAt (p.length ()) == ':' && attQName.startsWith (p))
+              return e.m_aAttrs[i];
+          }
+      }
+      return null;
+    }
+
+    // Element
+
+    public String getTagName ()
+    {
+      return m_sQName;
+    }
+
+    private int _indexOf (final String qName)
+    {
+      for (int i = 0; i < m_aAttrs.length; i += 4)
+        if (m_aAttrs[i + 2].equals (qName))
+          return i / 4;
+      return -1;
+    }
+
+    private int _indexOf (final String namespaceURI, final String localName)
+    {
+      for (int i = 0; i < m_aAttrs.length; i += 4)
+        if (m_aAttrs[i + 1].equals (localName) && _nsEquals (namespaceURI, m_aAttrs[i]))
+          return i / 4;
+      return -1;
+    }
+
+    AttrNode _getAttrNode (final int index)
+    {
+      if (index < 0 || index * 4 >= m_aAttrs.length)
+        return null;
+      if (m_aAttrNodes == null)
+        m_aAttrNodes = new AttrNode [m_aAttrs.length / 4];
+      AttrNode attr = m_aAttrNodes[index];
+      if (attr == null)
+      {
+        final int base = index * 4;
+        attr = new AttrNode (this, index, m_aAttrs[base], m_aAttrs[base + 1], m_aAttrs[base + 2], m_aAttrs[base + 3]);
+        m_aAttrNodes[index] = attr;
+      }
+      return attr;
+    }
+
+    public String getAttribute (final String name)
+    {
+      final int index = _indexOf (name);
+      return index == -1 ? "" : m_aAttrs[index * 4 + 3];
+    }
+
+    public void setAttribute (final String name, final String value)
+    {
+      throw readOnly ();
+    }
+
+    public void removeAttribute (final String name)
+    {
+      throw readOnly ();
+    }
+
+    public Attr getAttributeNode (final String name)
+    {
+      return _getAttrNode (_indexOf (name));
+    }
+
+    public Attr setAttributeNode (final Attr newAttr)
+    {
+      throw readOnly ();
+    }
+
+    public Attr removeAttributeNode (final Attr oldAttr)
+    {
+      throw readOnly ();
+    }
+
+    public NodeList getElementsByTagName (final String name)
+    {
+      return _getElements (null, name, false);
+    }
+
+    public String getAttributeNS (final String namespaceURI, final String localName)
+    {
+      final int index = _indexOf (namespaceURI, localName);
+      return index == -1 ? "" : m_aAttrs[index * 4 + 3];
+    }
+
+    public void setAttributeNS (final String namespaceURI, final String qualifiedName, final String value)
+    {
+      throw readOnly ();
+    }
+
+    public void removeAttributeNS (final String namespaceURI, final String localName)
+    {
+      throw readOnly ();
+    }
+
+    public Attr getAttributeNodeNS (final String namespaceURI, final String localName)
+    {
+      return _getAttrNode (_indexOf (namespaceURI, localName));
+    }
+
+    public Attr setAttributeNodeNS (final Attr newAttr)
+    {
+      throw readOnly ();
+    }
+
+    public NodeList getElementsByTagNameNS (final String namespaceURI, final String localName)
+    {
+      return _getElements (namespaceURI, localName, true);
+    }
+
+    public boolean hasAttribute (final String name)
+    {
+      return _indexOf (name) != -1;
+    }
+
+    public boolean hasAttributeNS (final String namespaceURI, final String localName)
+    {
+      return _indexOf (namespaceURI, localName) != -1;
+    }
+
+    public TypeInfo getSchemaTypeInfo ()
+    {
+      return null;
+    }
+
+    public void setIdAttribute (final String name, final boolean isId)
+    {
+      throw readOnly ();
+    }
+
+    public void setIdAttributeNS (final String namespaceURI, final String localName, final boolean isId)
+    {
+      throw readOnly ();
+    }
+
+    public void setIdAttributeNode (final Attr idAttr, final boolean isId)
+    {
+      throw readOnly ();
+    }
+
+    // NamedNodeMap (the attributes of this element)
+
+    public Node getNamedItem (final String name)
+    {
+      return getAttributeNode (name);
+    }
+
+    public Node setNamedItem (final Node arg)
+    {
+      throw readOnly ();
+    }
+
+    public Node removeNamedItem (final String name)
+    {
+      throw readOnly ();
+    }
+
+    public Node item (final int index)
+    {
+      return _getAttrNode (index);
+    }
+
+    public int getLength ()
+    {
+      return m_aAttrs.length / 4;
+    }
+
+    public Node getNamedItemNS (final String namespaceURI, final String localName)
+    {
+      return getAttributeNodeNS (namespaceURI, localName);
+    }
+
+    public Node setNamedItemNS (final Node arg)
+    {
+      throw readOnly ();
+    }
+
+    public Node removeNamedItemNS (final String namespaceURI, final String localName)
+    {
+      throw readOnly ();
+    }
+  }
+
+  /** Attribute nodes, created on demand by their element */
+  static final class AttrNode extends AbstractNode implements Attr
+  {
+    private final ElementNode m_aOwner;
+    final int m_nIndex;
+    private final String m_sURI, m_sLocalName, m_sQName, m_sValue;
+
+    AttrNode (final ElementNode owner,
+              final int index,
+              final String uri,
+              final String localName,
+              final String qName,
+              final String value)
+    {
+      m_aOwner = owner;
+      m_nIndex = index;
+      m_sURI = uri;
+      m_sLocalName = localName;
+      m_sQName = qName;
+      m_sValue = value;
+    }
+
+    @Override
+    DocumentNode _getDocument ()
+    {
+      return m_aOwner.m_aDoc;
+    }
+
+    @Override
+    AbstractNode _getContainer ()
+    {
+      return m_aOwner;
+    }
+
+    public String getNodeName ()
+    {
+      return m_sQName;
+    }
+
+    public short getNodeType ()
+    {
+      return ATTRIBUTE_NODE;
+    }
+
+    @Override
+    public String getNodeValue ()
+    {
+      return m_sValue;
+    }
+
+    @Override
+    public String getNamespaceURI ()
+    {
+      return m_sURI.length () == 0 ? null : m_sURI;
+    }
+
+    @Override
+    public String getPrefix ()
+    {
+      final int colon = m_sQName.indexOf (':');
+      return colon == -1 ? null : m_sQName.substring (0, colon);
+    }
+
+    @Override
+    public String getLocalName ()
+    {
+      return m_sLocalName;
+    }
+
+    public String getName ()
+    {
+      return m_sQName;
+    }
+
+    public boolean getSpecified ()
+    {
+      return true;
+    }
+
+    public String getValue ()
+    {
+      return m_sValue;
+    }
+
+    public void setValue (final String value)
+    {
+      throw readOnly ();
+    }
+
+    public Element getOwnerElement ()
+    {
+      return m_aOwner;
+    }
+
+    public TypeInfo getSchemaTypeInfo ()
+    {
+      return null;
+    }
+
+    public boolean isId ()
+    {
+      return false;
+    }
+  }
+
+  /** Base class of text, CDATA and comment nodes */
+  abstract static class AbstractCharacterNode extends AbstractNode implements CharacterData
+  {
+    private final DocumentNode m_aDoc;
+    final String m_sData;
+
+    AbstractCharacterNode (final DocumentNode doc, final String data)
+    {
+      m_aDoc = doc;
+      m_sData = data;
+    }
+
+    @Override
+    DocumentNode _getDocument ()
+    {
+      return m_aDoc;
+    }
+
+    @Override
+    public String getNodeValue ()
+    {
+      return m_sData;
+    }
+
+    public String getData ()
+    {
+      return m_sData;
+    }
+
+    public void setData (final String data)
+    {
+      throw readOnly ();
+    }
+
+    public int getLength ()
+    {
+      return m_sData.length ();
+    }
+
+    public String substringData (final int offset, final int count)
+    {
+      if (offset < 0 || offset > m_sData.length () || count < 0)
+        throw new DOMException (DOMException.INDEX_SIZE_ERR, "Invalid offset or count");
+      return m_sData.substring (offset, Math.min (m_sData.length (), offset + count));
+    }
+
+    public void appendData (final String arg)
+    {
+      throw readOnly ();
+    }
+
+    public void insertData (final int offset, final String arg)
+    {
+      throw readOnly ();
+    }
+
+    public void deleteData (final int offset, final int count)
+    {
+      throw readOnly ();
+    }
+
+    public void replaceData (final int offset, final int count, final String arg)
+    {
+      throw readOnly ();
+    }
+  }
+
+  /** Text nodes */
+  static class TextNode extends AbstractCharacterNode implements Text
+  {
+    TextNode (final DocumentNode doc, final String data)
+    {
+      super (doc, data);
+    }
+
+    public String getNodeName ()
+    {
+      return "#text";
+    }
+
+    public short getNodeType ()
+    {
+      return TEXT_NODE;
+    }
+
+    public Text splitText (final int offset)
+    {
+      throw readOnly ();
+    }
+
+    public boolean isElementContentWhitespace ()
+    {
+      return false;
+    }
+
+    public String getWholeText ()
+    {
+      AbstractNode first = this;
+      while (first.m_aPrev instanceof TextNode)
+        first = first.m_aPrev;
+      final StringBuilder sb = new StringBuilder ();
+      for (AbstractNode n = first; n instanceof TextNode; n = n.m_aNext)
+        sb.append (((TextNode) n).m_sData);
+      return sb.toString ();
+    }
+
+    public Text replaceWholeText (final String content)
+    {
+      throw readOnly ();
+    }
+  }
+
+  /** CDATA section nodes */
+  static final class CDATANode extends TextNode implements CDATASection
+  {
+    CDATANode (final DocumentNode doc, final String data)
+    {
+      super (doc, data);
+    }
+
+    @Override
+    public String getNodeName ()
+    {
+      return "#cdata-section";
+    }
+
+    @Override
+    public short getNodeType ()
+    {
+      return CDATA_SECTION_NODE;
+    }
+  }
+
+  /** Comment nodes */
+  static final class CommentNode extends AbstractCharacterNode implements Comment
+  {
+    CommentNode (final DocumentNode doc, final String data)
+    {
+      super (doc, data);
+    }
+
+    public String getNodeName ()
+    {
+      return "#comment";
+    }
+
+    public short getNodeType ()
+    {
+      return COMMENT_NODE;
+    }
+  }
+
+  /** Processing instruction nodes */
+  static final class PINode extends AbstractNode implements ProcessingInstruction
+  {
+    private final DocumentNode m_aDoc;
+    private final String m_sTarget, m_sData;
+
+    PINode (final DocumentNode doc, final String target, final String data)
+    {
+      m_aDoc = doc;
+      m_sTarget = target;
+      m_sData = data;
+    }
+
+    @Override
+    DocumentNode _getDocument ()
+    {
+      return m_aDoc;
+    }
+
+    public String getNodeName ()
+    {
+      return m_sTarget;
+    }
+
+    public short getNodeType ()
+    {
+      return PROCESSING_INSTRUCTION_NODE;
+    }
+
+    @Override
+    public String getNodeValue ()
+    {
+      return m_sData;
+    }
+
+    public String getTarget ()
+    {
+      return m_sTarget;
+    }
+
+    public String getData ()
+    {
+      return m_sData;
+    }
+
+    public void setData (final String data)
+    {
+      throw readOnly ();
+    }
+  }
+
+  /** The implementation object of compact documents */
+  private static final DOMImplementation IMPLEMENTATION = new DOMImplementation ()
+  {
+    public boolean hasFeature (final String feature, final String version)
+    {
+      return ("Core".equalsIgnoreCase (feature) || "XML".equalsIgnoreCase (feature)) &&
+             (version == null || version.length () == 0 || "1.0".equals (version) || "2.0".equals (version));
+    }
+
+    public DocumentType createDocumentType (final String qualifiedName, final String publicId, final String systemId)
+    {
+      throw notSupported ();
+    }
+
+    public Document createDocument (final String namespaceURI, final String qualifiedName, final DocumentType doctype)
+    {
+      throw notSupported ();
+    }
+
+    public Object getFeature (final String feature, final String version)
+    {
+      return hasFeature (feature, version) ? this : null;
+    }
+  };
+
+  /** The document node */
+  static final class DocumentNode extends AbstractParentNode implements Document
+  {
+    /** the node that receives new children while building */
+    private AbstractParentNode m_aCurrent = this;
+    private String m_sDocumentURI;
+    private Map <Node, Map <String, Object>> m_aUserData;
+
+    DocumentNode ()
+    {}
+
+    // building, used by the DOMEmitter
+
+    void startElement (final String uri, final String localName, final String qName, final Attributes attrs)
+    {
+      final ElementNode element = new ElementNode (this, uri, localName, qName, attrs);
+      m_aCurrent._appendChild (element);
+      m_aCurrent = element;
+    }
+
+    void endElement ()
+    {
+      m_aCurrent = m_aCurrent.m_aParent;
+    }
+
+    void characters (final String text, final boolean cdata)
+    {
+      m_aCurrent._appendChild (cdata ? new CDATANode (this, text) : new TextNode (this, text));
+    }
+
+    void comment (final String text)
+    {
+      m_aCurrent._appendChild (new CommentNode (this, text));
+    }
+
+    void processingInstruction (final String target, final String data)
+    {
+      m_aCurrent._appendChild (new PINode (this, target, data));
+    }
+
+    Object _setUserData (final Node node, final String key, final Object data)
+    {
+      if (m_aUserData == null)
+        m_aUserData = new IdentityHashMap<> ();
+      Map <String, Object> map = m_aUserData.get (node);
+      if (map == null)
+      {
+        map = new HashMap<> ();
+        m_aUserData.put (node, map);
+      }
+      return data == null ? map.remove (key) : map.put (key, data);
+    }
+
+    Object _getUserData (final Node node, final String key)
+    {
+      if (m_aUserData == null)
+        return null;
+      final Map <String, Object> map = m_aUserData.get (node);
+      return map == null ? null : map.get (key);
+    }
+
+    // Node
+
+    @Override
+    DocumentNode _getDocument ()
+    {
+      return this;
+    }
+
+    public String getNodeName ()
+    {
+      return "#document";
+    }
+
+    public short getNodeType ()
+    {
+      return DOCUMENT_NODE;
+    }
+
+    @Override
+    public Document getOwnerDocument ()
+    {
+      return null;
+    }
+
+    @Override
+    public String getTextContent ()
+    {
+      return null;
+    }
+
+    @Override
+    public String lookupPrefix (final String namespaceURI)
+    {
+      final Element root = getDocumentElement ();
+      return root == null ? null : root.lookupPrefix (namespaceURI);
+    }
+
+    @Override
+    public boolean isDefaultNamespace (final String namespaceURI)
+    {
+      final Element root = getDocumentElement ();
+      return root != null && root.isDefaultNamespace (namespaceURI);
+    }
+
+    @Override
+    public String lookupNamespaceURI (final String prefix)
+    {
+      final Element root = getDocumentElement ();
+      return root == null ? null : root.lookupNamespaceURI (prefix);
+    }
+
+    // Document
+
+    public DocumentType getDoctype ()
+    {
+      return null;
+    }
+
+    public DOMImplementation getImplementation ()
+    {
+      return IMPLEMENTATION;
+    }
+
+    public Element getDocumentElement ()
+    {
+      for (AbstractNode n = m_aFirst; n != null; n = n.m_aNext)
+        if (n instanceof Element)
+          return (Element) n;
+      return null;
+    }
+
+    public Element createElement (final String tagName)
+    {
+      throw readOnly ();
+    }
+
+    public DocumentFragment createDocumentFragment ()
+    {
+      throw readOnly ();
+    }
+
+    public Text createTextNode (final String data)
+    {
+      throw readOnly ();
+    }
+
+    public Comment createComment (final String data)
+    {
+      throw readOnly ();
+    }
+
+    public CDATASection createCDATASection (final String data)
+    {
+      throw readOnly ();
+    }
+
+    public ProcessingInstruction createProcessingInstruction (final String target, final String data)
+    {
+      throw readOnly ();
+    }
+
+    public Attr createAttribute (final String name)
+    {
+      throw readOnly ();
+    }
+
+    public EntityReference createEntityReference (final String name)
+    {
+      throw readOnly ();
+    }
+
+    public NodeList getElementsByTagName (final String tagname)
+    {
+      return _getElements (null, tagname, false);
+    }
+
+    public Node importNode (final Node importedNode, final boolean deep)
+    {
+      throw readOnly ();
+    }
+
+    public Element createElementNS (final String namespaceURI, final String qualifiedName)
+    {
+      throw readOnly ();
+    }
+
+    public Attr createAttributeNS (final String namespaceURI, final String qualifiedName)
+    {
+      throw readOnly ();
+    }
+
+    public NodeList getElementsByTagNameNS (final String namespaceURI, final String localName)
+    {
+      return _getElements (namespaceURI, localName, true);
+    }
+
+    public Element getElementById (final String elementId)
+    {
+      return null;
+    }
+
+    public String getInputEncoding ()
+    {
+      return null;
+    }
+
+    public String getXmlEncoding ()
+    {
+      return null;
+    }
+
+    public boolean getXmlStandalone ()
+    {
+      return false;
+    }
+
+    public void setXmlStandalone (final boolean xmlStandalone)
+    {
+      throw readOnly ();
+    }
+
+    public String getXmlVersion ()
+    {
+      return "1.0";
+    }
+
+    public void setXmlVersion (final String xmlVersion)
+    {
+      throw readOnly ();
+    }
+
+    public boolean getStrictErrorChecking ()
+    {
+      return true;
+    }
+
+    public void setStrictErrorChecking (final boolean strictErrorChecking)
+    {
+      // always strict
+    }
+
+    public String getDocumentURI ()
+    {
+      return m_sDocumentURI;
+    }
+
+    public void setDocumentURI (final String documentURI)
+    {
+      m_sDocumentURI = documentURI;
+    }
+
+    public Node adoptNode (final Node source)
+    {
+      throw readOnly ();
+    }
+
+    public DOMConfiguration getDomConfig ()
+    {
+      return null;
+    }
+
+    public void normalizeDocument ()
+    {
+      // adjacent text is always merged
+    }
+
+    public Node renameNode (final Node n, final String namespaceURI, final String qualifiedName)
+    {
+      throw readOnly ();
+    }
+  }
+
+  private CompactDOM ()
+  {}
+
+  /**
+   * @return a new empty document, to be filled with the package-private build
+   *         methods
+   */
+  static DocumentNode newDocument ()
+  {
+    return new DocumentNode ();
+  }
+}
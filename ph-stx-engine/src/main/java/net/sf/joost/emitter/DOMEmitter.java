@@ -19,8 +19,6 @@
  */
 package net.sf.joost.emitter;
 
-import java.util.Stack;
-
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -48,10 +46,19 @@ public class DOMEmitter extends AbstractStxEmitterBase
 {
   private static final Logger log = LoggerFactory.getLogger (DOMEmitter.class);
 
+  /** document builders, one per thread */
+  private static final ThreadLocal <DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<> ();
+
   private Document document = null;
+  /** the document to be built if the compact DOM was requested */
+  private CompactDOM.DocumentNode compactDocument = null;
   private Node nextSiblingOfRootNodes = null;
-  private final Stack <Node> stack = new Stack <> ();
+  /** the open nodes, no need for a synchronized <code>Stack</code> */
+  private Node [] stack = new Node [32];
+  private int stackSize = 0;
   private boolean insideCDATA = false;
+  /** collects adjacent characters for a single text node */
+  private final StringBuilder text = new StringBuilder ();
 
   /**
    * DefaultConstructor
@@ -61,6 +68,24 @@ public class DOMEmitter extends AbstractStxEmitterBase
    *         {@link javax.xml.parsers.DocumentBuilder} DOM-DocumentBuilder
    */
   public DOMEmitter (final DOMResult result) throws ParserConfigurationException
+  {
+    this (result, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param result
+   *        the result object
+   * @param compact
+   *        if <code>true</code> and the result doesn't provide a node, then a
+   *        read-only {@link CompactDOM} document will be created instead of a
+   *        document of the JAXP DOM implementation
+   * @throws ParserConfigurationException
+   *         if an error occurs while creating
+   *         {@link javax.xml.parsers.DocumentBuilder} DOM-DocumentBuilder
+   */
+  public DOMEmitter (final DOMResult result, final boolean compact) throws ParserConfigurationException
   {
     if (CSTX.DEBUG)
       log.debug ("init DOMEmitter");
@@ -75,23 +100,55 @@ public class DOMEmitter extends AbstractStxEmitterBase
       else
         document = rootNode.getOwnerDocument ();
 
-      stack.push (rootNode);
+      push (rootNode);
     }
     else
+      if (compact)
+      {
+        compactDocument = CompactDOM.newDocument ();
+        compactDocument.setDocumentURI (result.getSystemId ());
+        push (compactDocument);
+      }
+      else
+      {
+        // create a new document
+        document = getDocumentBuilder ().newDocument ();
+
+        push (document);
+      }
+  }
+
+  /**
+   * @return the document builder of the current thread
+   * @throws ParserConfigurationException
+   *         if the builder cannot be created
+   */
+  private static DocumentBuilder getDocumentBuilder () throws ParserConfigurationException
+  {
+    DocumentBuilder docBuilder = DOCUMENT_BUILDER.get ();
+    if (docBuilder == null)
     {
-      // create a new document
-      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance ();
-      final DocumentBuilder docBuilder = factory.newDocumentBuilder ();
-      document = docBuilder.newDocument ();
+      docBuilder = DocumentBuilderFactory.newInstance ().newDocumentBuilder ();
+      DOCUMENT_BUILDER.set (docBuilder);
+    }
+    return docBuilder;
+  }
 
-      stack.push (document);
+  private void push (final Node node)
+  {
+    if (stackSize == stack.length)
+    {
+      final Node [] newStack = new Node [stackSize * 2];
+      System.arraycopy (stack, 0, newStack, 0, stackSize);
+      stack = newStack;
     }
+    stack[stackSize++] = node;
   }
 
   private void insertNode (final Node newNode)
   {
-    final Node lastNode = stack.peek ();
-    if (stack.size () == 1 && nextSiblingOfRootNodes != null)
+    final Node lastNode = stack[stackSize - 1];
+    if (stackSize == 1 && nextSiblingOfRootNodes != null)
     {
       lastNode.insertBefore (newNode, nextSiblingOfRootNodes);
     }
@@ -101,6 +158,29 @@ public class DOMEmitter extends AbstractStxEmitterBase
     }
   }
 
+  /**
+   * Creates a single text or CDATA node from the collected characters
+   */
+  private void flushText ()
+  {
+    if (text.length () == 0)
+      return;
+    final String str = text.toString ();
+    text.setLength (0);
+    if (compactDocument != null)
+      compactDocument.characters (str, insideCDATA);
+    else
+      if (insideCDATA)
+      {
+        // create CDATASection
+        insertNode (document.createCDATASection (str));
+      }
+      else
+      {
+        insertNode (document.createTextNode (str));
+      }
+  }
+
   /**
    * After transformation you can call this method to get the document node.
    *
@@ -108,7 +188,8 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public Node getDOMTree ()
   {
-    return stack.get (0);
+    flushText ();
+    return stack[0];
   }
 
   /**
@@ -118,10 +199,12 @@ public class DOMEmitter extends AbstractStxEmitterBase
   {}
 
   /**
-   * SAX2-Callback - Is empty
+   * SAX2-Callback - Creates the pending text node
    */
   public void endDocument () throws SAXException
-  {}
+  {
+    flushText ();
+  }
 
   /**
    * SAX2-Callback - Creates a DOM-element-node and memorizes it for the
@@ -133,6 +216,13 @@ public class DOMEmitter extends AbstractStxEmitterBase
                             final String raw,
                             final Attributes attrs) throws SAXException
   {
+    flushText ();
+    if (compactDocument != null)
+    {
+      compactDocument.startElement (uri, local, raw, attrs);
+      return;
+    }
+
     // create new element : iterate over all attribute-values
     final Element elem = document.createElementNS (uri, raw);
     final int nattrs = attrs.getLength ();
@@ -154,7 +244,7 @@ public class DOMEmitter extends AbstractStxEmitterBase
     // append this new node onto current stack node
     insertNode (elem);
     // push this node into the global stack
-    stack.push (elem);
+    push (elem);
   }
 
   /**
@@ -162,25 +252,20 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public void endElement (final String uri, final String local, final String raw) throws SAXException
   {
-    stack.pop ();
+    flushText ();
+    if (compactDocument != null)
+      compactDocument.endElement ();
+    else
+      stack[--stackSize] = null;
   }
 
   /**
-   * SAX2-Callback - Creates a DOM-text-node and looks at the element at the top
-   * of the stack without removing it from the stack.
+   * SAX2-Callback - Collects the characters, adjacent characters will be
+   * merged into a single text node.
    */
   public void characters (final char [] ch, final int start, final int length) throws SAXException
   {
-    final String str = new String (ch, start, length);
-    if (insideCDATA)
-    {
-      // create CDATASection
-      insertNode (document.createCDATASection (str));
-    }
-    else
-    {
-      insertNode (document.createTextNode (str));
-    }
+    text.append (ch, start, length);
   }
 
   /**
@@ -200,7 +285,11 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public void processingInstruction (final String target, final String data)
   {
-    insertNode (document.createProcessingInstruction (target, data));
+    flushText ();
+    if (compactDocument != null)
+      compactDocument.processingInstruction (target, data);
+    else
+      insertNode (document.createProcessingInstruction (target, data));
   }
 
   /**
@@ -208,7 +297,11 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public void comment (final char [] ch, final int start, final int length) throws SAXException
   {
-    insertNode (document.createComment (new String (ch, start, length)));
+    flushText ();
+    if (compactDocument != null)
+      compactDocument.comment (new String (ch, start, length));
+    else
+      insertNode (document.createComment (new String (ch, start, length)));
   }
 
   /**
@@ -216,6 +309,7 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public void endCDATA () throws SAXException
   {
+    flushText ();
     insideCDATA = false;
   }
 
@@ -224,6 +318,7 @@ public class DOMEmitter extends AbstractStxEmitterBase
    */
   public void startCDATA () throws SAXException
   {
+    flushText ();
     insideCDATA = true;
   }
 
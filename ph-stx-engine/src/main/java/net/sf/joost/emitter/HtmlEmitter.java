@@ -91,6 +91,14 @@ public class HtmlEmitter extends AbstractStreamEmitter
     supportDisableOutputEscaping = flag;
   }
 
+  @Override
+  protected void reset ()
+  {
+    super.reset ();
+    insideCDATA = false;
+    disabledOutputEscaping = false;
+  }
+
   /**
    * SAX2-Callback - Outputs XML-Deklaration with encoding.
    */
@@ -117,7 +125,7 @@ public class HtmlEmitter extends AbstractStreamEmitter
     try
     {
       m_aWriter.write ("\n");
-      m_aWriter.flush ();
+      flushDocument ();
     }
     catch (final IOException ex)
     {
@@ -133,7 +141,7 @@ public class HtmlEmitter extends AbstractStreamEmitter
                             final String qName,
                             final Attributes attrs) throws SAXException
   {
-    final StringBuffer out = new StringBuffer ("<");
+    final StringBuffer out = getBuffer ().append ('<');
     out.append (qName);
 
     final int length = attrs.getLength ();
@@ -180,7 +188,7 @@ public class HtmlEmitter extends AbstractStreamEmitter
 
     try
     {
-      m_aWriter.write (out.toString ());
+      writeBuffer (out);
     }
     catch (final IOException ex)
     {
@@ -231,7 +239,7 @@ public class HtmlEmitter extends AbstractStreamEmitter
       }
       else
       {
-        final StringBuffer out = new StringBuffer ((int) (length * 1.3f));
+        final StringBuffer out = getBuffer ();
         // perform output escaping
         for (int i = 0; i < length; i++)
           switch (ch[start + i])
@@ -251,7 +259,7 @@ public class HtmlEmitter extends AbstractStreamEmitter
             default:
               i = encodeCharacters (ch, start + i, out) - start;
           }
-        m_aWriter.write (out.toString ());
+        writeBuffer (out);
       }
     }
     catch (final IOException ex)
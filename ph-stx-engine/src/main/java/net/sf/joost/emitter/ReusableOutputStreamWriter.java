@@ -0,0 +1,222 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * A buffered writer that encodes characters into an <code>OutputStream</code>,
+ * similar to a <code>BufferedWriter</code> wrapping an
+ * <code>OutputStreamWriter</code>. In contrast to these classes the target
+ * stream can be replaced ({@link #setOutputStream(OutputStream)}), so the
+ * encoder and the buffers can be reused for many output documents.
+ *
+ * @author Philip Helger
+ */
+public class ReusableOutputStreamWriter extends Writer
+{
+  /** Size of the character and the byte buffer */
+  private static final int BUFFER_SIZE = 8192;
+
+  private final String m_sEncoding;
+  private final CharsetEncoder m_aEncoder;
+  private final CharBuffer m_aChars = CharBuffer.allocate (BUFFER_SIZE);
+  private final ByteBuffer m_aBytes = ByteBuffer.allocate (BUFFER_SIZE);
+  private OutputStream m_aOut;
+
+  /**
+   * Constructor
+   *
+   * @param out
+   *        the target stream
+   * @param encoding
+   *        the name of the encoding
+   * @throws UnsupportedEncodingException
+   *         if the encoding is not supported
+   */
+  public ReusableOutputStreamWriter (final OutputStream out, final String encoding) throws UnsupportedEncodingException
+  {
+    Charset charset;
+    try
+    {
+      charset = Charset.forName (encoding);
+    }
+    catch (final IllegalCharsetNameException | UnsupportedCharsetException ex)
+    {
+      throw new UnsupportedEncodingException (encoding);
+    }
+    m_sEncoding = encoding;
+    m_aEncoder = charset.newEncoder ()
+                        .onMalformedInput (CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter (CodingErrorAction.REPLACE);
+    m_aOut = out;
+  }
+
+  /** @return the name of the encoding of this writer */
+  public String getEncoding ()
+  {
+    return m_sEncoding;
+  }
+
+  /**
+   * Replaces the target stream. Pending output for the previous stream that
+   * hasn't been flushed will be discarded.
+   *
+   * @param out
+   *        the new target stream
+   */
+  public void setOutputStream (final OutputStream out)
+  {
+    m_aOut = out;
+    m_aChars.clear ();
+    m_aBytes.clear ();
+    m_aEncoder.reset ();
+  }
+
+  /** @return the current target stream */
+  public OutputStream getOutputStream ()
+  {
+    return m_aOut;
+  }
+
+  @Override
+  public void write (final int c) throws IOException
+  {
+    if (!m_aChars.hasRemaining ())
+      _encode ();
+    m_aChars.put ((char) c);
+  }
+
+  @Override
+  public void write (final char [] cbuf, final int nOff, final int nLen) throws IOException
+  {
+    int off = nOff;
+    int len = nLen;
+    while (len > 0)
+    {
+      if (!m_aChars.hasRemaining ())
+        _encode ();
+      final int n = Math.min (len, m_aChars.remaining ());
+      m_aChars.put (cbuf, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write (final String str, final int nOff, final int nLen) throws IOException
+  {
+    int off = nOff;
+    int len = nLen;
+    while (len > 0)
+    {
+      if (!m_aChars.hasRemaining ())
+        _encode ();
+      final int n = Math.min (len, m_aChars.remaining ());
+      m_aChars.put (str, off, off + n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Encodes the buffered characters into the byte buffer, writing the bytes to
+   * the stream whenever the byte buffer is full
+   */
+  private void _encode () throws IOException
+  {
+    m_aChars.flip ();
+    while (true)
+    {
+      final CoderResult cr = m_aEncoder.encode (m_aChars, m_aBytes, false);
+      if (cr.isOverflow ())
+        _writeBytes ();
+      else
+      {
+        if (cr.isError ())
+          cr.throwException ();
+        break;
+      }
+    }
+    // an incomplete surrogate pair may remain
+    m_aChars.compact ();
+  }
+
+  private void _writeBytes () throws IOException
+  {
+    if (m_aBytes.position () > 0)
+    {
+      m_aOut.write (m_aBytes.array (), 0, m_aBytes.position ());
+      m_aBytes.clear ();
+    }
+  }
+
+  @Override
+  public void flush () throws IOException
+  {
+    _encode ();
+    _writeBytes ();
+    m_aOut.flush ();
+  }
+
+  /**
+   * Completes the output of the current document: encodes the pending
+   * characters as the end of the input (an unpaired trailing surrogate is
+   * replaced), writes the final bytes of a stateful encoding (e.g. the shift
+   * sequence of ISO-2022-JP), flushes the stream and resets the encoder for
+   * the next document.
+   *
+   * @throws IOException
+   *         in case of write errors
+   */
+  public void finish () throws IOException
+  {
+    m_aChars.flip ();
+    CoderResult cr;
+    while ((cr = m_aEncoder.encode (m_aChars, m_aBytes, true)).isOverflow ())
+      _writeBytes ();
+    if (cr.isError ())
+      cr.throwException ();
+    while ((cr = m_aEncoder.flush (m_aBytes)).isOverflow ())
+      _writeBytes ();
+    m_aChars.clear ();
+    _writeBytes ();
+    m_aOut.flush ();
+    m_aEncoder.reset ();
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    finish ();
+    m_aOut.close ();
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * This class implements the common interface <code>StxEmitter</code>. It is
+ * designed for using <code>StAXResult</code> and writes the result to an
+ * <code>XMLStreamWriter</code>. The writer will be flushed, but not closed at
+ * the end of the document.
+ *
+ * @author Philip Helger
+ */
+public class StAXEmitter extends AbstractStxEmitterBase
+{
+  /** The target writer */
+  private final XMLStreamWriter m_aWriter;
+
+  /** Namespace declarations for the next element (prefix, uri pairs) */
+  private final List <String> m_aNSDecls = new ArrayList<> ();
+
+  /** Text within a CDATA section */
+  private final StringBuilder m_aCDATA = new StringBuilder ();
+
+  private boolean m_bInsideCDATA = false;
+
+  /**
+   * Constructor
+   *
+   * @param writer
+   *        the target writer
+   */
+  public StAXEmitter (final XMLStreamWriter writer)
+  {
+    m_aWriter = writer;
+  }
+
+  /**
+   * @return the target writer
+   */
+  public XMLStreamWriter getWriter ()
+  {
+    return m_aWriter;
+  }
+
+  private static String _getPrefix (final String qName)
+  {
+    final int index = qName.indexOf (':');
+    return index < 0 ? "" : qName.substring (0, index);
+  }
+
+  public void startDocument () throws SAXException
+  {
+    try
+    {
+      m_aWriter.writeStartDocument ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void endDocument () throws SAXException
+  {
+    try
+    {
+      m_aWriter.writeEndDocument ();
+      m_aWriter.flush ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void startElement (final String uri,
+                            final String local,
+                            final String raw,
+                            final Attributes attrs) throws SAXException
+  {
+    try
+    {
+      final String prefix = _getPrefix (raw);
+      if (uri.length () == 0 && prefix.length () == 0)
+        m_aWriter.writeStartElement (local);
+      else
+        m_aWriter.writeStartElement (prefix, local, uri);
+
+      final int nsCount = m_aNSDecls.size ();
+      for (int i = 0; i < nsCount; i += 2)
+      {
+        final String nsPrefix = m_aNSDecls.get (i);
+        if (nsPrefix.length () == 0)
+          m_aWriter.writeDefaultNamespace (m_aNSDecls.get (i + 1));
+        else
+          m_aWriter.writeNamespace (nsPrefix, m_aNSDecls.get (i + 1));
+      }
+      m_aNSDecls.clear ();
+
+      final int attCount = attrs.getLength ();
+      for (int i = 0; i < attCount; i++)
+      {
+        final String attUri = attrs.getURI (i);
+        if (attUri.length () == 0)
+          m_aWriter.writeAttribute (attrs.getLocalName (i), attrs.getValue (i));
+        else
+          m_aWriter.writeAttribute (_getPrefix (attrs.getQName (i)), attUri, attrs.getLocalName (i), attrs.getValue (i));
+      }
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void endElement (final String uri, final String local, final String raw) throws SAXException
+  {
+    try
+    {
+      m_aWriter.writeEndElement ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_bInsideCDATA)
+    {
+      m_aCDATA.append (ch, start, length);
+      return;
+    }
+    try
+    {
+      m_aWriter.writeCharacters (ch, start, length);
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    m_aNSDecls.add (prefix);
+    m_aNSDecls.add (uri);
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {}
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    try
+    {
+      if (data == null || data.length () == 0)
+        m_aWriter.writeProcessingInstruction (target);
+      else
+        m_aWriter.writeProcessingInstruction (target, data);
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void skippedEntity (final String value) throws SAXException
+  {
+    try
+    {
+      m_aWriter.writeEntityRef (value);
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void ignorableWhitespace (final char [] p0, final int p1, final int p2) throws SAXException
+  {
+    characters (p0, p1, p2);
+  }
+
+  public void setDocumentLocator (final Locator locator)
+  {}
+
+  public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+  {}
+
+  public void endDTD () throws SAXException
+  {}
+
+  public void startEntity (final String name) throws SAXException
+  {}
+
+  public void endEntity (final String name) throws SAXException
+  {}
+
+  public void startCDATA () throws SAXException
+  {
+    m_bInsideCDATA = true;
+  }
+
+  public void endCDATA () throws SAXException
+  {
+    m_bInsideCDATA = false;
+    try
+    {
+      // the STX emitter already prevents "]]>" within a CDATA section
+      m_aWriter.writeCData (m_aCDATA.toString ());
+      m_aCDATA.setLength (0);
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {
+    try
+    {
+      m_aWriter.writeComment (new String (ch, start, length));
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+}
@@ -41,6 +41,9 @@ public final class StringEmitter extends AbstractStxEmitterBase
    */
   private final String m_sErrorInfo;
 
+  /** reused array for {@link #getChars()} */
+  private char [] m_aChars = new char [0];
+
   public StringEmitter (final StringBuffer buffer, final String errorInfo)
   {
     m_aBuffer = buffer;
@@ -53,6 +56,22 @@ public final class StringEmitter extends AbstractStxEmitterBase
     return m_aBuffer;
   }
 
+  /**
+   * Copies the contents of the buffer into an array that is reused by
+   * subsequent invocations of this method.
+   *
+   * @return an array whose first <code>getBuffer().length()</code> characters
+   *         are the contents of the buffer
+   */
+  public char [] getChars ()
+  {
+    final int length = m_aBuffer.length ();
+    if (m_aChars.length < length)
+      m_aChars = new char [Math.max (length, m_aChars.length * 2)];
+    m_aBuffer.getChars (0, length, m_aChars, 0);
+    return m_aChars;
+  }
+
   //
   // SAX ContentHandler interface
   //
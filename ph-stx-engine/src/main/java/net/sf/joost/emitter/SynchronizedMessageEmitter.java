@@ -0,0 +1,86 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.emitter;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.stx.BufferReader;
+
+/**
+ * A message emitter that lets several concurrent transformations share one
+ * target emitter. Each transformation needs its own instance, which buffers
+ * the events of a message (from <code>startDocument</code> to
+ * <code>endDocument</code>) and passes the complete message to the target
+ * while holding the lock of the target, so messages never interleave.
+ *
+ * @author Philip Helger
+ */
+public class SynchronizedMessageEmitter extends BufferEmitter
+{
+  private final IStxEmitter m_aTarget;
+
+  /**
+   * Constructor
+   *
+   * @param target
+   *        the shared emitter receiving the messages
+   */
+  public SynchronizedMessageEmitter (final IStxEmitter target)
+  {
+    m_aTarget = target;
+  }
+
+  /** @return the shared emitter receiving the messages */
+  public IStxEmitter getTarget ()
+  {
+    return m_aTarget;
+  }
+
+  @Override
+  public void startDocument () throws SAXException
+  {
+    clear ();
+  }
+
+  @Override
+  public void endDocument () throws SAXException
+  {
+    filled ();
+    clear ();
+    synchronized (m_aTarget)
+    {
+      m_aTarget.startDocument ();
+      BufferReader.emitEvents (getEvents (), m_aTarget, m_aTarget);
+      m_aTarget.endDocument ();
+    }
+  }
+
+  @Override
+  public void setSystemId (final String systemId)
+  {
+    m_aTarget.setSystemId (systemId);
+  }
+
+  @Override
+  public String getSystemId ()
+  {
+    return m_aTarget.getSystemId ();
+  }
+}
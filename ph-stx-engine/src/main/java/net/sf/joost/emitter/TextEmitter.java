@@ -60,7 +60,7 @@ public class TextEmitter extends AbstractStreamEmitter
   {
     try
     {
-      m_aWriter.flush ();
+      flushDocument ();
     }
     catch (final IOException ex)
     {
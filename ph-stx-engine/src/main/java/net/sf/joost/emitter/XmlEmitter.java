@@ -127,6 +127,17 @@ public class XmlEmitter extends AbstractStreamEmitter
     this.supportDisableOutputEscaping = flag;
   }
 
+  @Override
+  protected void reset ()
+  {
+    super.reset ();
+    nsDeclarations.setLength (0);
+    lastQName = null;
+    lastAttrs = null;
+    insideCDATA = false;
+    disabledOutputEscaping = false;
+  }
+
   /**
    * Outputs a start or empty element tag if there is one stored.
    *
@@ -141,7 +152,7 @@ public class XmlEmitter extends AbstractStreamEmitter
 
     if (lastQName != null)
     {
-      final StringBuffer out = new StringBuffer ("<");
+      final StringBuffer out = getBuffer ().append ('<');
       out.append (lastQName);
       out.append (nsDeclarations);
       nsDeclarations.setLength (0);
@@ -189,7 +200,7 @@ public class XmlEmitter extends AbstractStreamEmitter
       try
       {
         // stream string to writer
-        m_aWriter.write (out.toString ());
+        writeBuffer (out);
         if (CSTX.DEBUG)
           log.debug (out.toString ());
       }
@@ -240,7 +251,7 @@ public class XmlEmitter extends AbstractStreamEmitter
     try
     {
       m_aWriter.write ("\n");
-      m_aWriter.flush ();
+      flushDocument ();
     }
     catch (final IOException ex)
     {
@@ -309,7 +320,7 @@ public class XmlEmitter extends AbstractStreamEmitter
       }
       else
       {
-        final StringBuffer out = new StringBuffer (length);
+        final StringBuffer out = getBuffer ();
         // output escaping
         for (int i = 0; i < length; i++)
           switch (ch[start + i])
@@ -326,7 +337,7 @@ public class XmlEmitter extends AbstractStreamEmitter
             default:
               i = encodeCharacters (ch, start + i, out) - start;
           }
-        m_aWriter.write (out.toString ());
+        writeBuffer (out);
       }
       if (CSTX.DEBUG)
         log.debug ("'" + new String (ch, start, length) + "'");
@@ -23,6 +23,8 @@ import java.util.HashMap;
 
 import org.xml.sax.SAXException;
 
+import net.sf.joost.grammar.compiler.AbstractCompiledExpression;
+import net.sf.joost.grammar.compiler.ExpressionCompiler;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.AbstractNodeBase;
 import net.sf.joost.stx.Context;
@@ -80,6 +82,9 @@ public abstract class AbstractTree implements Cloneable
   public static final int DDOT = 39; // ".."
   public static final int VALUE = 40; // internal: a constructed value leaf
 
+  /** Static type of a tree that may compute any sequence */
+  public static final int TYPE_UNKNOWN = -1;
+
   /** The type of the node in the Tree. */
   private final int m_nType;
 
@@ -98,6 +103,15 @@ public abstract class AbstractTree implements Cloneable
   /** Local name if {@link #m_aValue} is a qualified name. */
   public String m_sLocalName;
 
+  /**
+   * Compilation state shared with the deep copies of this tree,
+   * <code>null</code> if this tree won't be compiled
+   */
+  private ExpressionCompiler.Slot m_aCompileSlot;
+
+  /** The compiled form of this tree, <code>null</code> if not compiled (yet) */
+  private AbstractCompiledExpression m_aCompiled;
+
   //
   // Constructors
   //
@@ -173,7 +187,93 @@ public abstract class AbstractTree implements Cloneable
   public Value evaluate (final Context context, final AbstractNodeBase instruction) throws SAXException
   {
     context.currentInstruction = instruction;
-    return evaluate (context, context.ancestorStack.size ());
+    return evaluateExpression (context, context.ancestorStack.size ());
+  }
+
+  /**
+   * Evaluates the current Tree and converts the result to a boolean, see
+   * {@link #evaluate(Context, AbstractNodeBase)}
+   *
+   * @return the boolean value of the result
+   */
+  public boolean evaluateBoolean (final Context context, final AbstractNodeBase instruction) throws SAXException
+  {
+    context.currentInstruction = instruction;
+    return evaluateBooleanExpression (context, context.ancestorStack.size ());
+  }
+
+  /**
+   * Evaluates the current Tree and converts the result to a string, see
+   * {@link #evaluate(Context, AbstractNodeBase)}
+   *
+   * @return the string value of the result
+   */
+  public String evaluateString (final Context context, final AbstractNodeBase instruction) throws SAXException
+  {
+    context.currentInstruction = instruction;
+    final int top = context.ancestorStack.size ();
+    if (m_aCompiled != null || m_aCompileSlot != null)
+      return evaluateExpression (context, top).getStringValue ();
+    return evaluateString (context, top);
+  }
+
+  /**
+   * Evaluates the current Tree as a complete expression. Uses the compiled form
+   * of this tree if compilation has been enabled and the tree has been
+   * evaluated often enough.
+   *
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation (the upper
+   *        most element is at position top-1)
+   * @return a new computed Value object containing the result
+   * @see ExpressionCompiler
+   */
+  public final Value evaluateExpression (final Context context, final int top) throws SAXException
+  {
+    if (m_aCompiled != null)
+      return m_aCompiled.evaluate (context, top);
+    if (m_aCompileSlot != null)
+    {
+      m_aCompiled = m_aCompileSlot.getCompiled (this);
+      if (m_aCompiled != null)
+        return m_aCompiled.evaluate (context, top);
+      if (m_aCompileSlot.isFailed ())
+        m_aCompileSlot = null;
+    }
+    return evaluate (context, top);
+  }
+
+  /** @return whether this tree is evaluated by its compiled form */
+  public boolean isCompiled ()
+  {
+    return m_aCompiled != null;
+  }
+
+  /**
+   * Evaluates the current Tree as a complete expression and converts the
+   * result to a boolean, see {@link #evaluateExpression(Context, int)}
+   *
+   * @return the boolean value of the result
+   */
+  public final boolean evaluateBooleanExpression (final Context context, final int top) throws SAXException
+  {
+    if (m_aCompiled != null || m_aCompileSlot != null)
+      return evaluateExpression (context, top).getBooleanValue ();
+    return evaluateBoolean (context, top);
+  }
+
+  /**
+   * Enables the compilation of this tree, see {@link ExpressionCompiler}
+   *
+   * @param slot
+   *        the compilation state
+   */
+  public void setCompileSlot (final ExpressionCompiler.Slot slot)
+  {
+    m_aCompileSlot = slot;
+    m_aCompiled = null;
   }
 
   /**
@@ -197,6 +297,69 @@ public abstract class AbstractTree implements Cloneable
     return null;
   }
 
+  /**
+   * Evaluates the current Tree and converts the result to a boolean. Has the
+   * same result as <code>evaluate(context, top).getBooleanValue()</code>, but
+   * may be overridden to avoid the creation of intermediate {@link Value}
+   * objects.
+   *
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation
+   * @return the boolean value of the result
+   */
+  public boolean evaluateBoolean (final Context context, final int top) throws SAXException
+  {
+    return evaluate (context, top).getBooleanValue ();
+  }
+
+  /**
+   * Evaluates the current Tree and converts the result to a number. Has the
+   * same result as <code>evaluate(context, top).getNumberValue()</code>, in
+   * particular the empty sequence results in <code>NaN</code>.
+   *
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation
+   * @return the number value of the result
+   * @see #evaluateBoolean(Context, int)
+   */
+  public double evaluateNumber (final Context context, final int top) throws SAXException
+  {
+    return evaluate (context, top).getNumberValue ();
+  }
+
+  /**
+   * Evaluates the current Tree and converts the result to a string. Has the
+   * same result as <code>evaluate(context, top).getStringValue()</code>, i.e.
+   * the string value of the first item of a sequence.
+   *
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation
+   * @return the string value of the result
+   * @see #evaluateBoolean(Context, int)
+   */
+  public String evaluateString (final Context context, final int top) throws SAXException
+  {
+    return evaluate (context, top).getStringValue ();
+  }
+
+  /**
+   * Determines statically the type of the result of this tree.
+   *
+   * @return the item type (for example {@link Value#NUMBER}) if the result is
+   *         always either a single item of this type or the empty sequence,
+   *         {@link #TYPE_UNKNOWN} otherwise
+   */
+  public int getStaticType ()
+  {
+    return TYPE_UNKNOWN;
+  }
+
   /** May be overridden to reconstruct the current tree */
   public AbstractTree reverseAssociativity ()
   {
@@ -220,6 +383,27 @@ public abstract class AbstractTree implements Cloneable
     return (m_aRight == null || m_aRight.isConstant ()) && (m_aLeft == null || m_aLeft.isConstant ());
   }
 
+  /**
+   * @return whether the expression represented by this tree contains a call to
+   *         a function with side effects (see
+   *         {@link net.sf.joost.stx.function.FunctionFactory.IInstance#hasSideEffects()})
+   */
+  public boolean hasSideEffects ()
+  {
+    return (m_aLeft != null && m_aLeft.hasSideEffects ()) || (m_aRight != null && m_aRight.hasSideEffects ());
+  }
+
+  /**
+   * @return whether the tree keeps runtime state that depends on the location
+   *         of the expression in the sheet (see {@link VarTree}), so it must
+   *         not be shared by several occurrences of the same text
+   */
+  public boolean dependsOnLocation ()
+  {
+    return (m_aLeft != null && m_aLeft.dependsOnLocation ()) ||
+           (m_aRight != null && m_aRight.dependsOnLocation ());
+  }
+
   /**
    * Creates a deep copy of this Tree
    *
@@ -242,6 +426,8 @@ public abstract class AbstractTree implements Cloneable
       throw new RuntimeException ("this is not cloneable", ex);
     }
 
+    // the copy shares the compile slot but needs its own compiled instance
+    copy.m_aCompiled = null;
     if (m_aLeft != null)
       copy.m_aLeft = m_aLeft.deepCopy (copies);
     if (m_aRight != null)
@@ -346,6 +346,14 @@ public class ExprParser extends net.sf.joost.grammar.cup.lr_parser {
    }
 
    private String errMsg = "";
+
+   /** Clears the error state before this parser gets reused */
+   public void reset()
+   {
+      errMsg = "";
+      errorToken = null;
+   }
+
    public void report_error(String msg, Object info)
    {
       errMsg += msg + ". ";
@@ -371,6 +371,13 @@ public class Yylex implements Sym, net.sf.joost.grammar.cup.Scanner {
 public Symbol last = null;
 public int withinComment = 0;
 
+/** Prepares this scanner for a new input, see yyreset */
+public void reset(java.io.Reader in) {
+   yyreset(in);
+   last = null;
+   withinComment = 0;
+}
+
 
   /**
    * Creates a new scanner
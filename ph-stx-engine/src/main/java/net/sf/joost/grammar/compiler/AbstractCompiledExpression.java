@@ -0,0 +1,58 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.grammar.compiler;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+
+/**
+ * Base class of the classes generated by {@link ExpressionCompiler}. A
+ * generated class implements the operator nodes of one expression tree
+ * (arithmetic, comparisons, <code>and</code>, <code>or</code>) as bytecode,
+ * and delegates the evaluation of all other subtrees (the leaves of the
+ * compiled part) to the interpreter.
+ *
+ * @author Philip Helger
+ */
+public abstract class AbstractCompiledExpression
+{
+  /** the subtrees evaluated by the interpreter, in the order of compilation */
+  protected final AbstractTree [] m_aLeaves;
+
+  protected AbstractCompiledExpression (final AbstractTree [] leaves)
+  {
+    m_aLeaves = leaves;
+  }
+
+  /**
+   * Evaluates the compiled expression, see
+   * {@link AbstractTree#evaluate(Context, int)}
+   *
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation
+   * @return the computed Value
+   */
+  public abstract Value evaluate (Context context, int top) throws SAXException;
+}
@@ -0,0 +1,459 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.grammar.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for Java class files, sufficient for the classes generated by
+ * {@link ExpressionCompiler}: a public final class with a constant pool and
+ * methods, without fields, exception tables or debug information. The class
+ * file version is 49 (Java 5), which doesn't require stack map frames, so the
+ * writer only needs to track the maximal operand stack depth.
+ *
+ * @author Philip Helger
+ */
+final class ClassFileWriter
+{
+  // the opcodes used by the compiler
+  static final int ICONST_0 = 0x03;
+  static final int ICONST_1 = 0x04;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int DLOAD = 0x18;
+  static final int ALOAD = 0x19;
+  static final int DSTORE = 0x39;
+  static final int ASTORE = 0x3a;
+  static final int AALOAD = 0x32;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int DMUL = 0x6b;
+  static final int DDIV = 0x6f;
+  static final int DREM = 0x73;
+  static final int DNEG = 0x77;
+  static final int DCMPL = 0x97;
+  static final int DCMPG = 0x98;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLT = 0x9b;
+  static final int IFGE = 0x9c;
+  static final int IFGT = 0x9d;
+  static final int IFLE = 0x9e;
+  static final int IF_ICMPEQ = 0x9f;
+  static final int GOTO = 0xa7;
+  static final int ARETURN = 0xb0;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int GETFIELD = 0xb4;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int NEW = 0xbb;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  /** A jump target within a method */
+  static final class Label
+  {
+    int m_nOffset = -1;
+    int m_nStack = -1;
+    final List <int []> m_aRefs = new ArrayList<> ();
+  }
+
+  /** The code of a method */
+  final class Code
+  {
+    private final ByteArrayOutputStream m_aBytes = new ByteArrayOutputStream ();
+    private final List <Label> m_aLabels = new ArrayList<> ();
+    private int m_nStack;
+    private int m_nMaxStack;
+    private int m_nMaxLocals;
+    private boolean m_bReachable = true;
+
+    Code (final int params)
+    {
+      m_nMaxLocals = params;
+    }
+
+    /** @return the index of a new local variable with the given size */
+    int newLocal (final int size)
+    {
+      final int ret = m_nMaxLocals;
+      m_nMaxLocals += size;
+      return ret;
+    }
+
+    private void _stack (final int delta)
+    {
+      m_nStack += delta;
+      if (m_nStack < 0)
+        throw new IllegalStateException ("Operand stack underflow");
+      if (m_nStack > m_nMaxStack)
+        m_nMaxStack = m_nStack;
+    }
+
+    private void _u1 (final int b)
+    {
+      m_aBytes.write (b);
+    }
+
+    private void _u2 (final int s)
+    {
+      m_aBytes.write (s >>> 8);
+      m_aBytes.write (s);
+    }
+
+    /** Emits an instruction without operands */
+    void op (final int opcode, final int stackDelta)
+    {
+      _u1 (opcode);
+      _stack (stackDelta);
+      if (opcode == ARETURN || opcode == RETURN)
+        m_bReachable = false;
+    }
+
+    /** Emits a load or store instruction for a local variable */
+    void local (final int opcode, final int index)
+    {
+      if (index > 0xff)
+        throw new IllegalStateException ("Too many local variables");
+      _u1 (opcode);
+      _u1 (index);
+      switch (opcode)
+      {
+        case ILOAD:
+        case ALOAD:
+          _stack (1);
+          break;
+        case DLOAD:
+          _stack (2);
+          break;
+        case DSTORE:
+          _stack (-2);
+          break;
+        default:
+          _stack (-1);
+          break;
+      }
+    }
+
+    void pushInt (final int n)
+    {
+      if (n == 0 || n == 1)
+        _u1 (n == 0 ? ICONST_0 : ICONST_1);
+      else
+        if (n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE)
+        {
+          _u1 (BIPUSH);
+          _u1 (n);
+        }
+        else
+        {
+          _u1 (SIPUSH);
+          _u2 (n);
+        }
+      _stack (1);
+    }
+
+    void pushDouble (final double d)
+    {
+      _u1 (LDC2_W);
+      _u2 (_doubleConst (d));
+      _stack (2);
+    }
+
+    void newObject (final String className)
+    {
+      _u1 (NEW);
+      _u2 (_classConst (className));
+      _stack (1);
+    }
+
+    void field (final int opcode, final String owner, final String name, final String desc)
+    {
+      _u1 (opcode);
+      _u2 (_memberConst (9, owner, name, desc));
+      final int size = _slots (desc.charAt (0));
+      _stack (opcode == GETFIELD ? size - 1 : size);
+    }
+
+    void invoke (final int opcode, final String owner, final String name, final String desc)
+    {
+      _u1 (opcode);
+      _u2 (_memberConst (10, owner, name, desc));
+      int delta = opcode == INVOKESTATIC ? 0 : -1;
+      int i = 1;
+      while (desc.charAt (i) != ')')
+      {
+        final char c = desc.charAt (i);
+        delta -= _slots (c);
+        while (desc.charAt (i) == '[')
+          i++;
+        i = desc.charAt (i) == 'L' ? desc.indexOf (';', i) + 1 : i + 1;
+      }
+      _stack (delta + _slots (desc.charAt (i + 1)));
+    }
+
+    /** Emits a (conditional) jump to the given label */
+    void jump (final int opcode, final Label target)
+    {
+      _stack (opcode == GOTO ? 0 : opcode == IF_ICMPEQ ? -2 : -1);
+      _mergeStack (target);
+      target.m_aRefs.add (new int [] { m_aBytes.size (), m_aBytes.size () + 1 });
+      if (!m_aLabels.contains (target))
+        m_aLabels.add (target);
+      _u1 (opcode);
+      _u2 (0);
+      if (opcode == GOTO)
+        m_bReachable = false;
+    }
+
+    /** Places the given label at the current position */
+    void place (final Label label)
+    {
+      label.m_nOffset = m_aBytes.size ();
+      if (!m_aLabels.contains (label))
+        m_aLabels.add (label);
+      if (m_bReachable)
+        _mergeStack (label);
+      else
+      {
+        if (label.m_nStack < 0)
+          throw new IllegalStateException ("Unreachable label");
+        m_nStack = label.m_nStack;
+      }
+      m_bReachable = true;
+    }
+
+    private void _mergeStack (final Label label)
+    {
+      if (label.m_nStack < 0)
+        label.m_nStack = m_nStack;
+      else
+        if (label.m_nStack != m_nStack)
+          throw new IllegalStateException ("Inconsistent stack depth at label: " + label.m_nStack + " vs " + m_nStack);
+    }
+
+    byte [] _resolve ()
+    {
+      final byte [] code = m_aBytes.toByteArray ();
+      for (final Label label : m_aLabels)
+      {
+        if (label.m_nOffset < 0)
+          throw new IllegalStateException ("Label not placed");
+        for (final int [] ref : label.m_aRefs)
+        {
+          final int delta = label.m_nOffset - ref[0];
+          if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE)
+            throw new IllegalStateException ("Method too large");
+          code[ref[1]] = (byte) (delta >>> 8);
+          code[ref[1] + 1] = (byte) delta;
+        }
+      }
+      return code;
+    }
+  }
+
+  private final ByteArrayOutputStream m_aPoolBytes = new ByteArrayOutputStream ();
+  private final DataOutputStream m_aPool = new DataOutputStream (m_aPoolBytes);
+  private final Map <String, Integer> m_aPoolIndex = new HashMap<> ();
+  private int m_nPoolCount = 1;
+
+  private final ByteArrayOutputStream m_aMethodBytes = new ByteArrayOutputStream ();
+  private final DataOutputStream m_aMethods = new DataOutputStream (m_aMethodBytes);
+  private int m_nMethodCount;
+
+  private final String m_sClassName;
+  private final String m_sSuperName;
+
+  /**
+   * @param className
+   *        internal name of the generated class
+   * @param superName
+   *        internal name of its super class
+   */
+  ClassFileWriter (final String className, final String superName)
+  {
+    m_sClassName = className;
+    m_sSuperName = superName;
+  }
+
+  private static int _slots (final char descChar)
+  {
+    return descChar == 'D' || descChar == 'J' ? 2 : descChar == 'V' ? 0 : 1;
+  }
+
+  private int _const (final String key, final int size, final IOWriter writer)
+  {
+    final Integer idx = m_aPoolIndex.get (key);
+    if (idx != null)
+      return idx.intValue ();
+    final int ret = m_nPoolCount;
+    try
+    {
+      writer.write ();
+    }
+    catch (final IOException ex)
+    {
+      // cannot happen for a ByteArrayOutputStream
+      throw new IllegalStateException (ex);
+    }
+    m_nPoolCount += size;
+    if (m_nPoolCount > 0xffff)
+      throw new IllegalStateException ("Constant pool too large");
+    m_aPoolIndex.put (key, Integer.valueOf (ret));
+    return ret;
+  }
+
+  private interface IOWriter
+  {
+    void write () throws IOException;
+  }
+
+  private int _utf8 (final String s)
+  {
+    return _const ("U" + s, 1, () -> {
+      m_aPool.writeByte (1);
+      m_aPool.writeUTF (s);
+    });
+  }
+
+  private int _classConst (final String internalName)
+  {
+    final int name = _utf8 (internalName);
+    return _const ("C" + internalName, 1, () -> {
+      m_aPool.writeByte (7);
+      m_aPool.writeShort (name);
+    });
+  }
+
+  private int _doubleConst (final double d)
+  {
+    final long bits = Double.doubleToRawLongBits (d);
+    return _const ("D" + bits, 2, () -> {
+      m_aPool.writeByte (6);
+      m_aPool.writeLong (bits);
+    });
+  }
+
+  private int _memberConst (final int tag, final String owner, final String name, final String desc)
+  {
+    final int clazz = _classConst (owner);
+    final int n = _utf8 (name);
+    final int d = _utf8 (desc);
+    final int nameAndType = _const ("N" + name + ' ' + desc, 1, () -> {
+      m_aPool.writeByte (12);
+      m_aPool.writeShort (n);
+      m_aPool.writeShort (d);
+    });
+    return _const (tag + owner + '.' + name + ' ' + desc, 1, () -> {
+      m_aPool.writeByte (tag);
+      m_aPool.writeShort (clazz);
+      m_aPool.writeShort (nameAndType);
+    });
+  }
+
+  /**
+   * @param params
+   *        number of local variable slots occupied by <code>this</code> and
+   *        the parameters
+   * @return a new code buffer
+   */
+  Code newCode (final int params)
+  {
+    return new Code (params);
+  }
+
+  /** Adds a public method with the given code */
+  void addMethod (final String name, final String desc, final Code code)
+  {
+    final byte [] bytes = code._resolve ();
+    if (bytes.length > 0xffff)
+      throw new IllegalStateException ("Method too large");
+    final int nameIdx = _utf8 (name);
+    final int descIdx = _utf8 (desc);
+    final int codeIdx = _utf8 ("Code");
+    try
+    {
+      m_aMethods.writeShort (ACC_PUBLIC);
+      m_aMethods.writeShort (nameIdx);
+      m_aMethods.writeShort (descIdx);
+      m_aMethods.writeShort (1);
+      m_aMethods.writeShort (codeIdx);
+      m_aMethods.writeInt (12 + bytes.length);
+      m_aMethods.writeShort (code.m_nMaxStack);
+      m_aMethods.writeShort (code.m_nMaxLocals);
+      m_aMethods.writeInt (bytes.length);
+      m_aMethods.write (bytes);
+      m_aMethods.writeShort (0); // exception table
+      m_aMethods.writeShort (0); // attributes
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException (ex);
+    }
+    m_nMethodCount++;
+  }
+
+  /** @return the complete class file */
+  byte [] toByteArray ()
+  {
+    final int thisIdx = _classConst (m_sClassName);
+    final int superIdx = _classConst (m_sSuperName);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+    final DataOutputStream out = new DataOutputStream (bytes);
+    try
+    {
+      out.writeInt (0xcafebabe);
+      out.writeShort (0); // minor version
+      out.writeShort (49); // major version: Java 5
+      out.writeShort (m_nPoolCount);
+      m_aPool.flush ();
+      m_aPoolBytes.writeTo (out);
+      out.writeShort (ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort (thisIdx);
+      out.writeShort (superIdx);
+      out.writeShort (0); // interfaces
+      out.writeShort (0); // fields
+      out.writeShort (m_nMethodCount);
+      m_aMethods.flush ();
+      m_aMethodBytes.writeTo (out);
+      out.writeShort (0); // attributes
+      out.flush ();
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException (ex);
+    }
+    return bytes.toByteArray ();
+  }
+}
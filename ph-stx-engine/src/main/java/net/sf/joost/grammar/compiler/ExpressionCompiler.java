@@ -0,0 +1,632 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.grammar.compiler;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.compiler.ClassFileWriter.Label;
+import net.sf.joost.stx.Value;
+
+/**
+ * Compiles frequently evaluated STXPath expressions to bytecode.
+ * <p>
+ * The compiler handles the operator nodes of an expression tree (arithmetic
+ * operators, comparisons, <code>and</code>, <code>or</code>); all other
+ * subtrees (paths, variables, function calls, ...) remain leaves that are
+ * evaluated by the interpreter. Within the compiled part numbers are kept as
+ * primitive <code>double</code>s and booleans as primitive <code>int</code>s,
+ * so no intermediate {@link Value} objects are created. Comparisons between
+ * two numeric operands are compiled to direct comparisons, the others call the
+ * general comparison of the respective tree class.
+ * <p>
+ * An expression gets compiled after it has been evaluated by the interpreter
+ * as often as the configured threshold. The generated class is defined as a
+ * hidden class if the runtime supports this (Java 15 and later), otherwise by
+ * its own class loader; in both cases it can be unloaded together with the
+ * transformation sheet. If the compilation fails for any reason the expression
+ * keeps being interpreted.
+ *
+ * @author Philip Helger
+ */
+public final class ExpressionCompiler
+{
+  private static final Logger log = LoggerFactory.getLogger (ExpressionCompiler.class);
+
+  /** maximal number of operator nodes within a compiled expression */
+  private static final int MAX_OPERATORS = 200;
+
+  private static final String CLASS_NAME = "net/sf/joost/grammar/compiler/CompiledExpression$";
+  private static final String BASE = "net/sf/joost/grammar/compiler/AbstractCompiledExpression";
+  private static final String TREE = "net/sf/joost/grammar/AbstractTree";
+  private static final String TREE_PACKAGE = "net/sf/joost/grammar/tree/";
+  private static final String VALUE = "net/sf/joost/stx/Value";
+  private static final String VALUE_DESC = "L" + VALUE + ";";
+  private static final String EVALUATE_DESC = "(Lnet/sf/joost/stx/Context;I)" + VALUE_DESC;
+
+  private static final AtomicInteger s_aClassCounter = new AtomicInteger ();
+
+  /** <code>MethodHandles.Lookup.defineHiddenClass</code>, if available */
+  private static final Method DEFINE_HIDDEN_CLASS;
+  private static final Object HIDDEN_CLASS_OPTIONS;
+
+  static
+  {
+    Method define = null;
+    Object options = null;
+    try
+    {
+      final Class <?> optionClass = Class.forName ("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      options = Array.newInstance (optionClass, 0);
+      define = MethodHandles.Lookup.class.getMethod ("defineHiddenClass",
+                                                     byte [].class,
+                                                     boolean.class,
+                                                     options.getClass ());
+    }
+    catch (final ReflectiveOperationException ex)
+    {
+      // Java 14 or older: use a class loader
+    }
+    DEFINE_HIDDEN_CLASS = define;
+    HIDDEN_CLASS_OPTIONS = options;
+  }
+
+  /**
+   * Compilation state of an expression, shared by the expression tree and all
+   * its deep copies. The expression is compiled only once, each copy binds its
+   * own instance of the generated class to its leaves.
+   */
+  public static final class Slot
+  {
+    private final int m_nThreshold;
+
+    /** interpreted evaluations so far, may be inaccurate in case of races */
+    private int m_nCount;
+
+    private volatile Factory m_aFactory;
+    private volatile boolean m_bFailed;
+
+    Slot (final int threshold)
+    {
+      m_nThreshold = threshold;
+    }
+
+    /**
+     * Counts an evaluation of the given tree and compiles it if the threshold
+     * has been reached
+     *
+     * @param tree
+     *        the tree to which this slot belongs
+     * @return the compiled form of <code>tree</code>, <code>null</code> if it
+     *         hasn't been compiled (yet)
+     */
+    public AbstractCompiledExpression getCompiled (final AbstractTree tree)
+    {
+      Factory factory = m_aFactory;
+      if (factory == null)
+      {
+        if (m_bFailed || ++m_nCount <= m_nThreshold)
+          return null;
+        factory = _compile (tree);
+        if (factory == null)
+          return null;
+      }
+      try
+      {
+        return factory.bind (tree);
+      }
+      catch (final RuntimeException | ReflectiveOperationException | LinkageError ex)
+      {
+        log.warn ("Couldn't instantiate compiled expression", ex);
+        m_bFailed = true;
+        return null;
+      }
+    }
+
+    /** @return whether the compilation failed and won't be tried again */
+    public boolean isFailed ()
+    {
+      return m_bFailed;
+    }
+
+    private synchronized Factory _compile (final AbstractTree tree)
+    {
+      if (m_aFactory == null && !m_bFailed)
+      {
+        try
+        {
+          final Factory factory = compile (tree);
+          // links and verifies the generated class
+          factory.bind (tree);
+          m_aFactory = factory;
+        }
+        catch (final IllegalStateException ex)
+        {
+          if (log.isDebugEnabled ())
+            log.debug ("Expression not compiled: " + ex.getMessage ());
+          m_bFailed = true;
+        }
+        catch (final RuntimeException | ReflectiveOperationException | LinkageError ex)
+        {
+          log.warn ("Couldn't compile expression", ex);
+          m_bFailed = true;
+        }
+      }
+      return m_aFactory;
+    }
+  }
+
+  /** A generated class together with the positions of its leaves */
+  private static final class Factory
+  {
+    private final Constructor <?> m_aConstructor;
+    /** the leaves as paths from the root, 'L' for left and 'R' for right */
+    private final String [] m_aLeafPaths;
+
+    Factory (final Constructor <?> constructor, final String [] leafPaths)
+    {
+      m_aConstructor = constructor;
+      m_aLeafPaths = leafPaths;
+    }
+
+    AbstractCompiledExpression bind (final AbstractTree tree) throws ReflectiveOperationException
+    {
+      final AbstractTree [] leaves = new AbstractTree [m_aLeafPaths.length];
+      for (int i = 0; i < leaves.length; i++)
+      {
+        AbstractTree t = tree;
+        final String path = m_aLeafPaths[i];
+        for (int j = 0; j < path.length () && t != null; j++)
+          t = path.charAt (j) == 'L' ? t.m_aLeft : t.m_aRight;
+        if (t == null)
+          throw new IllegalStateException ("Structure of the expression tree has changed");
+        leaves[i] = t;
+      }
+      return (AbstractCompiledExpression) m_aConstructor.newInstance ((Object) leaves);
+    }
+  }
+
+  /** Class loader for a single generated class, used before Java 15 */
+  private static final class CompiledExpressionLoader extends ClassLoader
+  {
+    CompiledExpressionLoader (final ClassLoader parent)
+    {
+      super (parent);
+    }
+
+    Class <?> define (final String name, final byte [] bytes)
+    {
+      return defineClass (name, bytes, 0, bytes.length);
+    }
+  }
+
+  private ExpressionCompiler ()
+  {}
+
+  /**
+   * Enables the compilation of an expression and of all predicates within a
+   * pattern or expression
+   *
+   * @param tree
+   *        the parsed expression or pattern, may be <code>null</code>
+   * @param expression
+   *        <code>true</code> if <code>tree</code> is an expression,
+   *        <code>false</code> if it is a pattern
+   * @param threshold
+   *        the number of interpreted evaluations before the compilation
+   */
+  public static void enableCompilation (final AbstractTree tree, final boolean expression, final int threshold)
+  {
+    if (tree == null)
+      return;
+    if (expression && isCompilable (tree))
+      tree.setCompileSlot (new Slot (threshold));
+    _enablePredicates (tree, threshold);
+  }
+
+  private static void _enablePredicates (final AbstractTree tree, final int threshold)
+  {
+    if (tree == null)
+      return;
+    if (tree.getType () == AbstractTree.PREDICATE && isCompilable (tree.m_aRight))
+      tree.m_aRight.setCompileSlot (new Slot (threshold));
+    _enablePredicates (tree.m_aLeft, threshold);
+    _enablePredicates (tree.m_aRight, threshold);
+  }
+
+  /**
+   * @return whether the root of the given tree is an operator handled by the
+   *         compiler; compiling a single leaf wouldn't gain anything
+   */
+  public static boolean isCompilable (final AbstractTree tree)
+  {
+    return _isArithmetic (tree) || _isBoolean (tree);
+  }
+
+  private static boolean _isArithmetic (final AbstractTree tree)
+  {
+    switch (tree.getType ())
+    {
+      case AbstractTree.ADD:
+      case AbstractTree.SUB:
+      case AbstractTree.MULT:
+      case AbstractTree.DIV:
+      case AbstractTree.MOD:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean _isBoolean (final AbstractTree tree)
+  {
+    return tree.getType () == AbstractTree.AND || tree.getType () == AbstractTree.OR || _getComparison (tree) != null;
+  }
+
+  /** @return the class implementing the comparison, <code>null</code> if none */
+  private static String _getComparison (final AbstractTree tree)
+  {
+    switch (tree.getType ())
+    {
+      case AbstractTree.EQ:
+        return "EqTree";
+      case AbstractTree.NE:
+        return "NeTree";
+      case AbstractTree.LT:
+        return "LtTree";
+      case AbstractTree.LE:
+        return "LeTree";
+      case AbstractTree.GT:
+        return "GtTree";
+      case AbstractTree.GE:
+        return "GeTree";
+      default:
+        return null;
+    }
+  }
+
+  private static boolean _isNumeric (final AbstractTree tree)
+  {
+    return tree.getType () == AbstractTree.NUMBER || _isArithmetic (tree);
+  }
+
+  /**
+   * Compiles an expression tree
+   *
+   * @param tree
+   *        the tree, see {@link #isCompilable(AbstractTree)}
+   * @return the factory for instances of the generated class
+   * @throws IllegalStateException
+   *         if the expression exceeds the limits of the compiler
+   */
+  static Factory compile (final AbstractTree tree) throws ReflectiveOperationException
+  {
+    final String className = CLASS_NAME + s_aClassCounter.incrementAndGet ();
+    final ClassFileWriter writer = new ClassFileWriter (className, BASE);
+
+    final ClassFileWriter.Code init = writer.newCode (2);
+    init.local (ClassFileWriter.ALOAD, 0);
+    init.local (ClassFileWriter.ALOAD, 1);
+    init.invoke (ClassFileWriter.INVOKESPECIAL, BASE, "<init>", "([L" + TREE + ";)V");
+    init.op (ClassFileWriter.RETURN, 0);
+    writer.addMethod ("<init>", "([L" + TREE + ";)V", init);
+
+    final Generator generator = new Generator (writer.newCode (3));
+    generator.value (tree, "");
+    generator.m_aCode.op (ClassFileWriter.ARETURN, -1);
+    writer.addMethod ("evaluate", EVALUATE_DESC, generator.m_aCode);
+
+    final Class <?> clazz = _defineClass (className, writer.toByteArray ());
+    return new Factory (clazz.getConstructor (AbstractTree [].class),
+                        generator.m_aLeafPaths.toArray (new String [generator.m_aLeafPaths.size ()]));
+  }
+
+  private static Class <?> _defineClass (final String className, final byte [] bytes) throws ReflectiveOperationException
+  {
+    if (DEFINE_HIDDEN_CLASS != null)
+    {
+      final MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke (MethodHandles.lookup (),
+                                                                                              bytes,
+                                                                                              Boolean.TRUE,
+                                                                                              HIDDEN_CLASS_OPTIONS);
+      return lookup.lookupClass ();
+    }
+    return new CompiledExpressionLoader (ExpressionCompiler.class.getClassLoader ()).define (className.replace ('/',
+                                                                                                               '.'),
+                                                                                            bytes);
+  }
+
+  /**
+   * Generates the code of the <code>evaluate</code> method. Local variable 0
+   * is <code>this</code>, 1 the context and 2 the top of the stack.
+   */
+  private static final class Generator
+  {
+    final ClassFileWriter.Code m_aCode;
+    final List <String> m_aLeafPaths = new ArrayList<> ();
+    private int m_nOperators;
+
+    Generator (final ClassFileWriter.Code code)
+    {
+      m_aCode = code;
+    }
+
+    private void _countOperator ()
+    {
+      if (++m_nOperators > MAX_OPERATORS)
+        throw new IllegalStateException ("Expression too large");
+    }
+
+    /** Generates code that pushes the value of <code>tree</code> */
+    void value (final AbstractTree tree, final String path)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      if (_isArithmetic (tree))
+      {
+        final Label empty = new Label ();
+        final Label end = new Label ();
+        number (tree, path, empty);
+        final int result = code.newLocal (2);
+        code.local (ClassFileWriter.DSTORE, result);
+        code.newObject (VALUE);
+        code.op (ClassFileWriter.DUP, 1);
+        code.local (ClassFileWriter.DLOAD, result);
+        code.invoke (ClassFileWriter.INVOKESPECIAL, VALUE, "<init>", "(D)V");
+        // operands consisting of number literals only are never empty
+        if (!empty.m_aRefs.isEmpty ())
+        {
+          code.jump (ClassFileWriter.GOTO, end);
+          code.place (empty);
+          code.field (ClassFileWriter.GETSTATIC, VALUE, "VAL_EMPTY", VALUE_DESC);
+          code.place (end);
+        }
+      }
+      else
+        if (_isBoolean (tree))
+        {
+          bool (tree, path);
+          code.invoke (ClassFileWriter.INVOKESTATIC, VALUE, "getBoolean", "(Z)" + VALUE_DESC);
+        }
+        else
+          _leaf (tree, path, "evaluate", EVALUATE_DESC);
+    }
+
+    /**
+     * Generates code that pushes the numeric value of <code>tree</code> as
+     * <code>double</code> or jumps to <code>onEmpty</code> (without changing
+     * the stack) if the value is the empty sequence. The operands are evaluated
+     * in the same order as by the interpreter.
+     */
+    void number (final AbstractTree tree, final String path, final Label onEmpty)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      switch (tree.getType ())
+      {
+        case AbstractTree.NUMBER:
+          code.pushDouble (((Number) tree.m_aValue).doubleValue ());
+          break;
+        case AbstractTree.ADD:
+          _countOperator ();
+          number (tree.m_aRight, path + 'R', onEmpty);
+          if (tree.m_aLeft != null)
+          {
+            final int right = code.newLocal (2);
+            code.local (ClassFileWriter.DSTORE, right);
+            number (tree.m_aLeft, path + 'L', onEmpty);
+            code.local (ClassFileWriter.DLOAD, right);
+            code.op (ClassFileWriter.DADD, -2);
+          }
+          break;
+        case AbstractTree.SUB:
+          if (tree.m_aLeft == null)
+          {
+            _countOperator ();
+            number (tree.m_aRight, path + 'R', onEmpty);
+            code.op (ClassFileWriter.DNEG, 0);
+          }
+          else
+            _binary (tree, path, onEmpty, ClassFileWriter.DSUB);
+          break;
+        case AbstractTree.MULT:
+          _binary (tree, path, onEmpty, ClassFileWriter.DMUL);
+          break;
+        case AbstractTree.DIV:
+          _binary (tree, path, onEmpty, ClassFileWriter.DDIV);
+          break;
+        case AbstractTree.MOD:
+          _binary (tree, path, onEmpty, ClassFileWriter.DREM);
+          break;
+        default:
+          value (tree, path);
+          final int v = code.newLocal (1);
+          code.local (ClassFileWriter.ASTORE, v);
+          code.local (ClassFileWriter.ALOAD, v);
+          code.field (ClassFileWriter.GETFIELD, VALUE, "type", "I");
+          code.pushInt (Value.EMPTY);
+          code.jump (ClassFileWriter.IF_ICMPEQ, onEmpty);
+          code.local (ClassFileWriter.ALOAD, v);
+          code.invoke (ClassFileWriter.INVOKEVIRTUAL, VALUE, "getNumberValue", "()D");
+          break;
+      }
+    }
+
+    private void _binary (final AbstractTree tree, final String path, final Label onEmpty, final int opcode)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      _countOperator ();
+      number (tree.m_aLeft, path + 'L', onEmpty);
+      final int left = code.newLocal (2);
+      code.local (ClassFileWriter.DSTORE, left);
+      number (tree.m_aRight, path + 'R', onEmpty);
+      final int right = code.newLocal (2);
+      code.local (ClassFileWriter.DSTORE, right);
+      code.local (ClassFileWriter.DLOAD, left);
+      code.local (ClassFileWriter.DLOAD, right);
+      code.op (opcode, -2);
+    }
+
+    /** Generates code that pushes the boolean value of <code>tree</code> */
+    void bool (final AbstractTree tree, final String path)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      final String comparison = _getComparison (tree);
+      if (tree.getType () == AbstractTree.AND || tree.getType () == AbstractTree.OR)
+      {
+        _countOperator ();
+        // AND: jump to the result false as soon as an operand is false,
+        // OR: jump to the result true as soon as an operand is true
+        final boolean and = tree.getType () == AbstractTree.AND;
+        final int jump = and ? ClassFileWriter.IFEQ : ClassFileWriter.IFNE;
+        final Label shortcut = new Label ();
+        final Label end = new Label ();
+        bool (tree.m_aLeft, path + 'L');
+        code.jump (jump, shortcut);
+        bool (tree.m_aRight, path + 'R');
+        code.jump (jump, shortcut);
+        code.pushInt (and ? 1 : 0);
+        code.jump (ClassFileWriter.GOTO, end);
+        code.place (shortcut);
+        code.pushInt (and ? 0 : 1);
+        code.place (end);
+      }
+      else
+        if (comparison != null)
+        {
+          _countOperator ();
+          if (_isNumeric (tree.m_aLeft) && _isNumeric (tree.m_aRight))
+            _numericComparison (tree, path);
+          else
+          {
+            value (tree.m_aLeft, path + 'L');
+            value (tree.m_aRight, path + 'R');
+            code.invoke (ClassFileWriter.INVOKESTATIC,
+                         TREE_PACKAGE + comparison,
+                         "compare",
+                         "(" + VALUE_DESC + VALUE_DESC + ")Z");
+          }
+        }
+        else
+          if (_isArithmetic (tree))
+          {
+            value (tree, path);
+            code.invoke (ClassFileWriter.INVOKEVIRTUAL, VALUE, "getBooleanValue", "()Z");
+          }
+          else
+            _leaf (tree, path, "evaluateBoolean", "(Lnet/sf/joost/stx/Context;I)Z");
+    }
+
+    /**
+     * Compares two numeric operands directly. The interpreter evaluates both
+     * operands before checking for empty sequences, so the right operand has to
+     * be evaluated even if the left one is empty.
+     */
+    private void _numericComparison (final AbstractTree tree, final String path)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      final Label leftEmpty = new Label ();
+      final Label isFalse = new Label ();
+      final Label end = new Label ();
+
+      number (tree.m_aLeft, path + 'L', leftEmpty);
+      final int left = code.newLocal (2);
+      code.local (ClassFileWriter.DSTORE, left);
+      number (tree.m_aRight, path + 'R', isFalse);
+      final int right = code.newLocal (2);
+      code.local (ClassFileWriter.DSTORE, right);
+      code.local (ClassFileWriter.DLOAD, left);
+      code.local (ClassFileWriter.DLOAD, right);
+      // NaN: dcmpg pushes 1, dcmpl pushes -1, both result in false
+      switch (tree.getType ())
+      {
+        case AbstractTree.EQ:
+          code.op (ClassFileWriter.DCMPL, -3);
+          code.jump (ClassFileWriter.IFNE, isFalse);
+          break;
+        case AbstractTree.NE:
+          code.op (ClassFileWriter.DCMPL, -3);
+          code.jump (ClassFileWriter.IFEQ, isFalse);
+          break;
+        case AbstractTree.LT:
+          code.op (ClassFileWriter.DCMPG, -3);
+          code.jump (ClassFileWriter.IFGE, isFalse);
+          break;
+        case AbstractTree.LE:
+          code.op (ClassFileWriter.DCMPG, -3);
+          code.jump (ClassFileWriter.IFGT, isFalse);
+          break;
+        case AbstractTree.GT:
+          code.op (ClassFileWriter.DCMPL, -3);
+          code.jump (ClassFileWriter.IFLE, isFalse);
+          break;
+        default: // GE
+          code.op (ClassFileWriter.DCMPL, -3);
+          code.jump (ClassFileWriter.IFLT, isFalse);
+          break;
+      }
+      code.pushInt (1);
+      code.jump (ClassFileWriter.GOTO, end);
+
+      if (!leftEmpty.m_aRefs.isEmpty ())
+      {
+        code.place (leftEmpty);
+        if (tree.m_aRight.getType () != AbstractTree.NUMBER)
+        {
+          value (tree.m_aRight, path + 'R');
+          code.op (ClassFileWriter.POP, -1);
+        }
+        code.jump (ClassFileWriter.GOTO, isFalse);
+      }
+      code.place (isFalse);
+      code.pushInt (0);
+      code.place (end);
+    }
+
+    /**
+     * Generates a call of the given evaluation method of the leaf
+     * <code>tree</code>
+     */
+    private void _leaf (final AbstractTree tree, final String path, final String method, final String desc)
+    {
+      final ClassFileWriter.Code code = m_aCode;
+      int index = m_aLeafPaths.indexOf (path);
+      if (index < 0)
+      {
+        index = m_aLeafPaths.size ();
+        m_aLeafPaths.add (path);
+      }
+      code.local (ClassFileWriter.ALOAD, 0);
+      code.field (ClassFileWriter.GETFIELD, BASE, "m_aLeaves", "[L" + TREE + ";");
+      code.pushInt (index);
+      code.op (ClassFileWriter.AALOAD, -1);
+      code.local (ClassFileWriter.ALOAD, 1);
+      code.local (ClassFileWriter.ILOAD, 2);
+      code.invoke (ClassFileWriter.INVOKEVIRTUAL, TREE, method, desc);
+    }
+  }
+}
@@ -54,4 +54,22 @@ public final class AddTree extends AbstractTree
       return v1;
     return new Value (v1.getNumberValue () + v2.getNumberValue ());
   }
+
+  @Override
+  public double evaluateNumber (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft == null) // positive sign
+      return m_aRight.evaluateNumber (context, top);
+    // like evaluate(): only an empty (not a NaN) operand skips the other one
+    final Value v2 = m_aRight.evaluate (context, top);
+    if (v2.type == Value.EMPTY)
+      return Double.NaN;
+    return m_aLeft.evaluateNumber (context, top) + v2.getNumberValue ();
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.NUMBER;
+  }
 }
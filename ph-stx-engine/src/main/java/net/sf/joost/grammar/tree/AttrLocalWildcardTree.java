@@ -25,6 +25,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
@@ -40,6 +41,10 @@ public final class AttrLocalWildcardTree extends AbstractTree
   // needed only in the error message
   private final String m_sPrefix;
 
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   /**
    * Constructs an AttrLocalWildcardTree object with a given namespace prefix
    *
@@ -55,6 +60,8 @@ public final class AttrLocalWildcardTree extends AbstractTree
     m_sURI = context.nsSet.get (prefix);
     if (m_sURI == null)
       throw new SAXParseException ("Undeclared prefix '" + prefix + "'", context.locator);
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (m_sURI, QNameTable.WILDCARD);
   }
 
   @Override
@@ -69,7 +76,7 @@ public final class AttrLocalWildcardTree extends AbstractTree
     if (setPosition)
       context.position = 1; // position for attributes is undefined
 
-    if (m_sURI.equals (e.m_sURI))
+    if (e.hasURI (m_aQNameTable, m_nNameId, m_sURI))
       return true;
     return false;
   }
@@ -26,6 +26,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
@@ -38,6 +39,10 @@ import net.sf.joost.stx.Value;
  */
 public final class AttrTree extends AbstractTree
 {
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   /**
    * Constructs an AttrTree object.
    *
@@ -66,6 +71,8 @@ public final class AttrTree extends AbstractTree
       m_sURI = "";
       m_sLocalName = value;
     }
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (m_sURI, m_sLocalName);
   }
 
   @Override
@@ -80,7 +87,7 @@ public final class AttrTree extends AbstractTree
     if (setPosition)
       context.position = 1; // position for attributes is undefined
 
-    if (m_sURI.equals (e.m_sURI) && m_sLocalName.equals (e.m_sLocalName))
+    if (e.hasName (m_aQNameTable, m_nNameId, m_sURI, m_sLocalName))
       return true;
 
     return false;
@@ -149,6 +156,64 @@ public final class AttrTree extends AbstractTree
         return Value.VAL_EMPTY;
   }
 
+  /**
+   * @return the value of the attribute of the current node, <code>null</code>
+   *         if there is no such attribute
+   */
+  private String _getCurrentValue (final Context context, final int top)
+  {
+    if (top <= 0)
+      return null;
+    final Attributes a = context.ancestorStack.elementAt (top - 1).m_aAttrs;
+    final int index = a == null ? -1 : a.getIndex (m_sURI, m_sLocalName);
+    return index == -1 ? null : a.getValue (index);
+  }
+
+  // The specialized evaluations below read the attribute of the current node
+  // without creating a node and a Value object for it
+
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft != null)
+      return super.evaluateBoolean (context, top);
+    return _getCurrentValue (context, top) != null;
+  }
+
+  @Override
+  public double evaluateNumber (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft != null)
+      return super.evaluateNumber (context, top);
+    final String s = _getCurrentValue (context, top);
+    if (s == null)
+      return Double.NaN;
+    try
+    {
+      return Double.parseDouble (s);
+    }
+    catch (final NumberFormatException e)
+    {
+      return Double.NaN;
+    }
+  }
+
+  @Override
+  public String evaluateString (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft != null)
+      return super.evaluateString (context, top);
+    final String s = _getCurrentValue (context, top);
+    return s == null ? "" : s;
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    // at most one attribute if there's no preceding path
+    return m_aLeft == null ? Value.NODE : TYPE_UNKNOWN;
+  }
+
   @Override
   public double getPriority ()
   {
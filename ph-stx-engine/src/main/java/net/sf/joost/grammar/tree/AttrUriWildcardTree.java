@@ -24,6 +24,7 @@ import org.xml.sax.SAXException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
@@ -36,6 +37,10 @@ import net.sf.joost.stx.Value;
  */
 public final class AttrUriWildcardTree extends AbstractTree
 {
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   /**
    * Constructs an AttrUriWildcardTree object with a given local name.
    *
@@ -48,6 +53,8 @@ public final class AttrUriWildcardTree extends AbstractTree
   {
     super (ATTR_URI_WILDCARD);
     m_sLocalName = lName;
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (QNameTable.WILDCARD, lName);
   }
 
   @Override
@@ -61,7 +68,7 @@ public final class AttrUriWildcardTree extends AbstractTree
       return false;
     if (setPosition)
       context.position = 1; // position for attributes is undefined
-    if (m_sLocalName.equals (e.m_sLocalName))
+    if (e.hasLocalName (m_aQNameTable, m_nNameId, m_sLocalName))
       return true;
     return false;
   }
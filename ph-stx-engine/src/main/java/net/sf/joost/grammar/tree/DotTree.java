@@ -47,6 +47,25 @@ public final class DotTree extends AbstractReversableTree
     return Value.VAL_EMPTY;
   }
 
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top)
+  {
+    // a node is always true
+    return top > 0;
+  }
+
+  @Override
+  public String evaluateString (final Context context, final int top)
+  {
+    return top > 0 ? context.ancestorStack.get (top - 1).m_sValue : "";
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.NODE;
+  }
+
   @Override
   public boolean isConstant ()
   {
@@ -100,4 +100,10 @@ public final class FunctionTree extends AbstractTree
   {
     return func.isConstant () && (m_aLeft == null || m_aLeft.isConstant ());
   }
+
+  @Override
+  public boolean hasSideEffects ()
+  {
+    return func.hasSideEffects () || super.hasSideEffects ();
+  }
 }
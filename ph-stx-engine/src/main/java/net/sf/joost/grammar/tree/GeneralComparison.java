@@ -0,0 +1,63 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.grammar.tree;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.SequenceIndex;
+import net.sf.joost.stx.Value;
+
+/**
+ * Helper for the comparison trees (general comparisons).
+ *
+ * @author Philip Helger
+ */
+final class GeneralComparison
+{
+  private GeneralComparison ()
+  {}
+
+  /**
+   * Evaluates an operand of a comparison. The value of a variable isn't copied,
+   * because a comparison doesn't modify its operands. This enables the value
+   * to keep its {@link SequenceIndex} for subsequent comparisons.
+   *
+   * @param operand
+   *        the operand
+   * @param context
+   *        the current Context
+   * @param top
+   *        the part of the stack to be considered for the evaluation
+   * @return the value of the operand
+   */
+  static Value evaluateOperand (final AbstractTree operand, final Context context, final int top) throws SAXException
+  {
+    if (operand instanceof VarTree)
+    {
+      final Value v = ((VarTree) operand).getValue (context);
+      if (v.next != null)
+        SequenceIndex.enableCaching (v);
+      return v;
+    }
+    return operand.evaluate (context, top);
+  }
+}
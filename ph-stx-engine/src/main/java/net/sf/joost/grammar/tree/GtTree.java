@@ -23,6 +23,7 @@ import org.xml.sax.SAXException;
 
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.SequenceIndex;
 import net.sf.joost.stx.Value;
 
 /**
@@ -42,10 +43,39 @@ public final class GtTree extends AbstractTree
   @Override
   public Value evaluate (final Context context, final int top) throws SAXException
   {
-    final Value v1 = m_aLeft.evaluate (context, top);
-    final Value v2 = m_aRight.evaluate (context, top);
+    return Value.getBoolean (evaluateBoolean (context, top));
+  }
+
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft.getStaticType () != TYPE_UNKNOWN && m_aRight.getStaticType () != TYPE_UNKNOWN)
+    {
+      // two single items: the NaN of an empty operand makes the comparison
+      // false
+      final double d1 = m_aLeft.evaluateNumber (context, top);
+      return d1 > m_aRight.evaluateNumber (context, top);
+    }
+    return compare (GeneralComparison.evaluateOperand (m_aLeft, context, top),
+                    GeneralComparison.evaluateOperand (m_aRight, context, top));
+  }
+
+  /**
+   * Performs the general comparison <code>v1 &gt; v2</code>
+   *
+   * @param v1
+   *        the left operand
+   * @param v2
+   *        the right operand
+   * @return <code>true</code> if the comparison is true for at least one pair
+   *         of items
+   */
+  public static boolean compare (final Value v1, final Value v2)
+  {
     if (v1.type == Value.EMPTY || v2.type == Value.EMPTY)
-      return Value.VAL_FALSE;
+      return false;
+    if (SequenceIndex.isLarge (v1, v2))
+      return SequenceIndex.get (v1).getMax () > SequenceIndex.get (v2).getMin ();
 
     // sequences: find a pair that the comparison is true
     for (Value vi = v1; vi != null; vi = vi.next)
@@ -53,10 +83,16 @@ public final class GtTree extends AbstractTree
       for (Value vj = v2; vj != null; vj = vj.next)
       {
         if (vi.getNumberValue () > vj.getNumberValue ())
-          return Value.VAL_TRUE;
+          return true;
       }
     }
     // none of the item comparisons evaluated to true
-    return Value.VAL_FALSE;
+    return false;
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.BOOLEAN;
   }
 }
@@ -25,6 +25,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 
 /**
@@ -36,6 +37,10 @@ import net.sf.joost.stx.SAXEvent;
  */
 public final class LocalWildcardTree extends AbstractTree
 {
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   /**
    * Constructs a LocalWildcardTree object with a given namespace prefix.
    *
@@ -51,6 +56,8 @@ public final class LocalWildcardTree extends AbstractTree
     m_sURI = context.nsSet.get (prefix);
     if (m_sURI == null)
       throw new SAXParseException ("Undeclared prefix '" + prefix + "'", context.locator);
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (m_sURI, QNameTable.WILDCARD);
   }
 
   @Override
@@ -60,11 +67,12 @@ public final class LocalWildcardTree extends AbstractTree
       return false;
 
     final SAXEvent e = context.ancestorStack.elementAt (top - 1);
-    if (e.m_nType != SAXEvent.ELEMENT || !m_sURI.equals (e.m_sURI))
+    if (e.m_nType != SAXEvent.ELEMENT || !e.hasURI (m_aQNameTable, m_nNameId, m_sURI))
       return false;
 
     if (setPosition)
-      context.position = context.ancestorStack.elementAt (top - 2).getPositionOf (m_sURI, "*");
+      context.position = context.ancestorStack.elementAt (top - 2)
+                                              .getPositionOf (m_aQNameTable, m_nNameId, m_sURI, QNameTable.WILDCARD);
 
     return true;
   }
@@ -53,4 +53,20 @@ public final class MultTree extends AbstractTree
     // none of the operands is empty, ok: perform the operation
     return new Value (v1.getNumberValue () * v2.getNumberValue ());
   }
+
+  @Override
+  public double evaluateNumber (final Context context, final int top) throws SAXException
+  {
+    // like evaluate(): only an empty (not a NaN) operand skips the other one
+    final Value v1 = m_aLeft.evaluate (context, top);
+    if (v1.type == Value.EMPTY)
+      return Double.NaN;
+    return v1.getNumberValue () * m_aRight.evaluateNumber (context, top);
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.NUMBER;
+  }
 }
@@ -25,6 +25,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 
 /**
@@ -36,6 +37,10 @@ import net.sf.joost.stx.SAXEvent;
  */
 public final class NameTestTree extends AbstractTree
 {
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   public NameTestTree (final String value, final ParseContext context) throws SAXParseException
   {
     super (NAME_TEST, value);
@@ -58,6 +63,8 @@ public final class NameTestTree extends AbstractTree
       m_sURI = context.transformNode.m_sStxpathDefaultNamespace;
       m_sLocalName = value;
     }
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (m_sURI, m_sLocalName);
   }
 
   @Override
@@ -67,11 +74,12 @@ public final class NameTestTree extends AbstractTree
       return false;
 
     final SAXEvent e = context.ancestorStack.elementAt (top - 1);
-    if (e.m_nType != SAXEvent.ELEMENT || !(m_sURI.equals (e.m_sURI) && m_sLocalName.equals (e.m_sLocalName)))
+    if (e.m_nType != SAXEvent.ELEMENT || !e.hasName (m_aQNameTable, m_nNameId, m_sURI, m_sLocalName))
       return false;
 
     if (setPosition)
-      context.position = context.ancestorStack.elementAt (top - 2).getPositionOf (m_sURI, m_sLocalName);
+      context.position = context.ancestorStack.elementAt (top - 2)
+                                              .getPositionOf (m_aQNameTable, m_nNameId, m_sURI, m_sLocalName);
 
     return true;
   }
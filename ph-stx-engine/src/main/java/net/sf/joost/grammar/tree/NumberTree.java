@@ -35,11 +35,13 @@ import net.sf.joost.stx.Value;
 public final class NumberTree extends AbstractTree
 {
   private final Value theValue;
+  private final String theString;
 
   public NumberTree (final Number n)
   {
     super (NUMBER, n);
     theValue = new Value (((Double) m_aValue).doubleValue ());
+    theString = theValue.getStringValue ();
   }
 
   @Override
@@ -48,6 +50,24 @@ public final class NumberTree extends AbstractTree
     return theValue;
   }
 
+  @Override
+  public double evaluateNumber (final Context context, final int top)
+  {
+    return theValue.getNumberValue ();
+  }
+
+  @Override
+  public String evaluateString (final Context context, final int top)
+  {
+    return theString;
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.NUMBER;
+  }
+
   @Override
   public boolean isConstant ()
   {
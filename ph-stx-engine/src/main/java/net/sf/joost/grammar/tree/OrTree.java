@@ -42,10 +42,20 @@ public final class OrTree extends AbstractTree
   @Override
   public Value evaluate (final Context context, final int top) throws SAXException
   {
-    if (m_aLeft.evaluate (context, top).getBooleanValue ())
-      return Value.VAL_TRUE;
-    if (m_aRight.evaluate (context, top).getBooleanValue ())
-      return Value.VAL_TRUE;
-    return Value.VAL_FALSE;
+    return Value.getBoolean (evaluateBoolean (context, top));
+  }
+
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top) throws SAXException
+  {
+    if (m_aLeft.evaluateBoolean (context, top))
+      return true;
+    return m_aRight.evaluateBoolean (context, top);
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.BOOLEAN;
   }
 }
@@ -57,11 +57,20 @@ public final class PredicateTree extends AbstractTree
         // allow set position for evaluating the predicate
         m_aLeft.matches (context, top, true))
     {
-      final Value v = m_aRight.evaluate (context, top);
-      if (v.type == Value.NUMBER)
-        retValue = (context.position == Math.round (v.getNumberValue ()));
+      final int type = m_aRight.getStaticType ();
+      if (type != TYPE_UNKNOWN && type != Value.NUMBER)
+      {
+        // the result can't be a number
+        retValue = m_aRight.evaluateBooleanExpression (context, top);
+      }
       else
-        retValue = v.getBooleanValue ();
+      {
+        final Value v = m_aRight.evaluateExpression (context, top);
+        if (v.type == Value.NUMBER)
+          retValue = (context.position == Math.round (v.getNumberValue ()));
+        else
+          retValue = v.getBooleanValue ();
+      }
     }
     if (!setPosition)
     {
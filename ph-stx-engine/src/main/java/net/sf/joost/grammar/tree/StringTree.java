@@ -48,6 +48,24 @@ public final class StringTree extends AbstractTree
     return theValue;
   }
 
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top)
+  {
+    return theValue.getBooleanValue ();
+  }
+
+  @Override
+  public String evaluateString (final Context context, final int top)
+  {
+    return (String) m_aValue;
+  }
+
+  @Override
+  public int getStaticType ()
+  {
+    return Value.STRING;
+  }
+
   @Override
   public boolean isConstant ()
   {
@@ -24,6 +24,7 @@ import org.xml.sax.SAXException;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.QNameTable;
 import net.sf.joost.stx.SAXEvent;
 
 /**
@@ -35,6 +36,10 @@ import net.sf.joost.stx.SAXEvent;
  */
 public final class UriWildcardTree extends AbstractTree
 {
+  /** symbol table and id of the name */
+  private final QNameTable m_aQNameTable;
+  private final int m_nNameId;
+
   /**
    * Constructs a UriWildcardTree object with a given local name.
    *
@@ -47,6 +52,8 @@ public final class UriWildcardTree extends AbstractTree
   {
     super (URI_WILDCARD);
     this.m_sLocalName = lName;
+    m_aQNameTable = context.getQNameTable ();
+    m_nNameId = m_aQNameTable.intern (QNameTable.WILDCARD, lName);
   }
 
   @Override
@@ -56,11 +63,15 @@ public final class UriWildcardTree extends AbstractTree
       return false;
 
     final SAXEvent e = context.ancestorStack.elementAt (top - 1);
-    if (e.m_nType != SAXEvent.ELEMENT || !m_sLocalName.equals (e.m_sLocalName))
+    if (e.m_nType != SAXEvent.ELEMENT || !e.hasLocalName (m_aQNameTable, m_nNameId, m_sLocalName))
       return false;
 
     if (setPosition)
-      context.position = context.ancestorStack.elementAt (top - 2).getPositionOf ("*", m_sLocalName);
+      context.position = context.ancestorStack.elementAt (top - 2)
+                                              .getPositionOf (m_aQNameTable,
+                                                              m_nNameId,
+                                                              QNameTable.WILDCARD,
+                                                              m_sLocalName);
 
     return true;
   }
@@ -78,6 +78,35 @@ public final class VarTree extends AbstractTree
 
   @Override
   public Value evaluate (final Context context, final int top) throws SAXException
+  {
+    final Value v1 = getValue (context);
+    // create a copy if the result is a sequence
+    return v1.next == null ? v1 : v1.copy ();
+  }
+
+  // The specialized evaluations need the first item only, so they don't have
+  // to copy a sequence
+
+  @Override
+  public boolean evaluateBoolean (final Context context, final int top) throws SAXException
+  {
+    return getValue (context).getBooleanValue ();
+  }
+
+  @Override
+  public double evaluateNumber (final Context context, final int top) throws SAXException
+  {
+    return getValue (context).getNumberValue ();
+  }
+
+  @Override
+  public String evaluateString (final Context context, final int top) throws SAXException
+  {
+    return getValue (context).getStringValue ();
+  }
+
+  /** @return the value of the variable (not copied) */
+  Value getValue (final Context context) throws SAXException
   {
     if (!scopeDetermined)
     {
@@ -103,9 +132,7 @@ public final class VarTree extends AbstractTree
     final Map <String, Value> vars = (groupScope == null) ? context.localVars
                                                           : context.groupVars.get (groupScope).peek ();
 
-    final Value v1 = vars.get (expName);
-    // create a copy if the result is a sequence
-    return v1.next == null ? v1 : v1.copy ();
+    return vars.get (expName);
   }
 
   @Override
@@ -114,6 +141,13 @@ public final class VarTree extends AbstractTree
     return false;
   }
 
+  /** The scope of the variable is determined on the first evaluation */
+  @Override
+  public boolean dependsOnLocation ()
+  {
+    return true;
+  }
+
   @Override
   public AbstractTree deepCopy (final HashMap <Object, Object> copies)
   {
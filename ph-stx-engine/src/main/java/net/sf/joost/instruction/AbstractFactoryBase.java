@@ -31,9 +31,11 @@ import net.sf.joost.grammar.ExprParser;
 import net.sf.joost.grammar.PatternParser;
 import net.sf.joost.grammar.Sym;
 import net.sf.joost.grammar.Yylex;
+import net.sf.joost.grammar.compiler.ExpressionCompiler;
 import net.sf.joost.grammar.tree.AvtTree;
 import net.sf.joost.grammar.tree.StringTree;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.ParsedTreeCache;
 
 /**
  * Abstract base class for all factory classes which produce nodes
@@ -219,7 +221,9 @@ public abstract class AbstractFactoryBase
   }
 
   /**
-   * Parses the string given in <code>string</code> as a pattern.
+   * Parses the string given in <code>string</code> as a pattern. Equal
+   * patterns with equal namespaces in scope share the same tree, unless they
+   * reference variables, see {@link ParsedTreeCache}.
    *
    * @param string
    *        the string to be parsed
@@ -234,11 +238,19 @@ public abstract class AbstractFactoryBase
     if (string == null)
       return null;
 
-    final StringReader sr = new StringReader (string);
-    final Yylex lexer = new Yylex (sr);
-    final PatternParser parser = new PatternParser (lexer, context);
+    final ParsedTreeCache cache = context.getPatternCache ();
+    AbstractTree pattern = cache.get (string, context.nsSet);
+    if (pattern != null)
+    {
+      context.sideEffects |= pattern.hasSideEffects ();
+      return pattern;
+    }
+
+    final Yylex lexer = context.getLexer ();
+    lexer.reset (new StringReader (string));
+    final PatternParser parser = context.getPatternParser ();
+    parser.reset ();
 
-    AbstractTree pattern;
     try
     {
       pattern = (AbstractTree) parser.parse ().value;
@@ -269,6 +281,10 @@ public abstract class AbstractFactoryBase
       }
       throw new SAXParseException (e.getMessage () + "Found '" + lexer.last.value + "'.", context.locator);
     }
+    if (context.compileThreshold >= 0)
+      ExpressionCompiler.enableCompilation (pattern, false, context.compileThreshold);
+    cache.put (string, context.nsSet, pattern);
+    context.sideEffects |= pattern.hasSideEffects ();
     return pattern;
   }
 
@@ -285,7 +301,9 @@ public abstract class AbstractFactoryBase
   }
 
   /**
-   * Parses the string given in <code>string</code> as an expression
+   * Parses the string given in <code>string</code> as an expression. Equal
+   * expressions with equal namespaces in scope share the same tree, unless
+   * they reference variables, see {@link ParsedTreeCache}.
    *
    * @param string
    *        the string to be parsed
@@ -301,10 +319,18 @@ public abstract class AbstractFactoryBase
     if (string == null)
       return null;
 
-    final StringReader sr = new StringReader (string);
-    final Yylex lexer = new Yylex (sr);
-    final ExprParser parser = new ExprParser (lexer, context);
-    AbstractTree expr;
+    final ParsedTreeCache cache = context.getExprCache ();
+    AbstractTree expr = cache.get (string, context.nsSet);
+    if (expr != null)
+    {
+      context.sideEffects |= expr.hasSideEffects ();
+      return expr;
+    }
+
+    final Yylex lexer = context.getLexer ();
+    lexer.reset (new StringReader (string));
+    final ExprParser parser = context.getExprParser ();
+    parser.reset ();
     try
     {
       expr = (AbstractTree) parser.parse ().value;
@@ -337,6 +363,10 @@ public abstract class AbstractFactoryBase
       }
       throw new SAXParseException (e.getMessage () + "Found '" + lexer.last.value + "'.", context.locator);
     }
+    if (context.compileThreshold >= 0)
+      ExpressionCompiler.enableCompilation (expr, true, context.compileThreshold);
+    cache.put (string, context.nsSet, expr);
+    context.sideEffects |= expr.hasSideEffects ();
     return expr;
   }
 
@@ -479,6 +479,12 @@ public abstract class AbstractGroupBase extends AbstractNodeBase
     return m_aVisibleTemplates;
   }
 
+  /** returns the value of {@link #m_aContainedGroups} */
+  public AbstractGroupBase [] getContainedGroups ()
+  {
+    return m_aContainedGroups;
+  }
+
   @Override
   protected void onDeepCopy (final AbstractInstruction copy, final HashMap <Object, Object> copies)
   {
@@ -361,7 +361,8 @@ public abstract class AbstractProcessBase extends AbstractNodeBase
       theCopy.m_aHrefTree = m_aHrefTree.deepCopy (copies);
   }
 
-  protected boolean hasFilter ()
+  /** @return whether this instruction passes its input to an external filter */
+  public boolean hasFilter ()
   {
     return m_aFilter != null;
   }
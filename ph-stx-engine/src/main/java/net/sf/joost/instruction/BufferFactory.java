@@ -129,7 +129,10 @@ public final class BufferFactory extends AbstractFactoryBase
     @Override
     public short processEnd (final Context context) throws SAXException
     {
-      ((BufferEmitter) context.popEmitter ()).filled ();
+      final BufferEmitter buffer = (BufferEmitter) context.popEmitter ();
+      buffer.filled ();
+      if (context.metrics != null)
+        context.metrics.countBuffer (buffer.getEvents ().length);
       return super.processEnd (context);
     }
   }
@@ -120,11 +120,13 @@ public class CommentFactory extends AbstractFactoryBase
       {
         final String comment = m_aSelect.evaluate (context, this).getStringValue ();
         // Most comments won't have dashes inside, so it's reasonable
-        // to skip the StringBuffer creation in these cases
+        // to skip the StringBuffer in these cases
         if (comment.indexOf ('-') != -1)
         {
           // have a closer look at the dashes
-          emitComment (new StringBuffer (comment), context);
+          m_aBuffer.setLength (0);
+          m_aBuffer.append (comment);
+          emitComment (m_aBuffer, context);
         }
         else
         {
@@ -173,21 +175,18 @@ public class CommentFactory extends AbstractFactoryBase
           comment.insert (0, ' ');
 
         // are there any "--" in the inner of the new comment?
-        // // this compiles only in JDK1.4 or above
-        // int index;
-        // while ((index = buffer.indexOf("--")) != -1)
-        // buffer.insert(index+1, ' ');
-        // 1.0 solution:
-        final String str = comment.toString ();
-        while ((index = str.lastIndexOf ("--", --index)) != -1)
-          comment.insert (index + 1, ' ');
+        // scan backwards, so the insertions don't affect the positions
+        // still to be checked
+        for (index = comment.length () - 2; index >= 0; index--)
+          if (comment.charAt (index) == '-' && comment.charAt (index + 1) == '-')
+            comment.insert (index + 1, ' ');
 
         // does the new comment end with '-'?
         if (comment.charAt (comment.length () - 1) == '-')
           comment.append (' ');
       }
 
-      context.m_aEmitter.comment (comment.toString ().toCharArray (), 0, comment.length (), this);
+      context.m_aEmitter.comment (m_aStrEmitter.getChars (), 0, comment.length (), this);
     }
 
     @Override
@@ -116,7 +116,7 @@ public final class IfFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      if (m_aTest.evaluate (context, this).getBooleanValue ())
+      if (m_aTest.evaluateBoolean (context, this))
       {
         super.process (context);
         next = trueNext;
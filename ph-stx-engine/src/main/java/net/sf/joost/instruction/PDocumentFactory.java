@@ -45,6 +45,7 @@ import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.TransformationMetrics;
 import net.sf.joost.stx.Value;
 import net.sf.joost.trax.TrAXHelper;
 
@@ -182,6 +183,9 @@ public class PDocumentFactory extends AbstractFactoryBase
             base = m_sSystemID;
       }
 
+      final TransformationMetrics metrics = context.metrics;
+      final long start = metrics != null ? System.nanoTime () : 0;
+
       final Locator prevLoc = context.locator;
       context.locator = null;
       proc.startInnerProcessing ();
@@ -278,6 +282,11 @@ public class PDocumentFactory extends AbstractFactoryBase
       }
       proc.endInnerProcessing ();
       context.locator = prevLoc;
+      if (metrics != null)
+      {
+        metrics.countProcessDocument ();
+        metrics.addPhaseTime (TransformationMetrics.PHASE_PROCESS_DOCUMENT, System.nanoTime () - start);
+      }
       return CSTX.PR_CONTINUE;
     }
 
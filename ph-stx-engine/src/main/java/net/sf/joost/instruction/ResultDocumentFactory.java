@@ -137,6 +137,8 @@ public final class ResultDocumentFactory extends AbstractFactoryBase
         m_sEncoding = context.currentProcessor.getOutputEncoding ();
 
       final String filename = m_aHref.evaluate (context, this).getString ();
+      if (context.metrics != null)
+        context.metrics.countResultDocument ();
 
       final Properties props = (Properties) context.currentProcessor.m_aOutputProperties.clone ();
       props.setProperty (OutputKeys.ENCODING, m_sEncoding);
@@ -172,13 +174,24 @@ public final class ResultDocumentFactory extends AbstractFactoryBase
         if (emitter == null)
         {
           // either there's no outputUriResolver or it returned null
-          final Writer osw = context.m_aEmitter.getResultWriter (filename,
-                                                                 m_sEncoding,
-                                                                 m_sPublicID,
-                                                                 m_sSystemID,
-                                                                 lineNo,
-                                                                 colNo,
-                                                                 m_bAppend);
+          final Writer osw;
+          if (context.resultDocumentWriterPool != null)
+            osw = context.m_aEmitter.getResultWriter (context.resultDocumentWriterPool,
+                                                      filename,
+                                                      m_sEncoding,
+                                                      m_sPublicID,
+                                                      m_sSystemID,
+                                                      lineNo,
+                                                      colNo,
+                                                      m_bAppend);
+          else
+            osw = context.m_aEmitter.getResultWriter (filename,
+                                                      m_sEncoding,
+                                                      m_sPublicID,
+                                                      m_sSystemID,
+                                                      lineNo,
+                                                      colNo,
+                                                      m_bAppend);
 
           final AbstractStreamEmitter se = AbstractStreamEmitter.newEmitter (osw, m_sEncoding, props);
           if (m_bAppend)
@@ -205,6 +218,8 @@ public final class ResultDocumentFactory extends AbstractFactoryBase
       }
 
       context.pushEmitter (emitter);
+      // a result document is a result too
+      context.m_aEmitter.setMetrics (context.metrics);
       context.m_aEmitter.startDocument ();
       return CSTX.PR_CONTINUE;
     }
@@ -171,6 +171,20 @@ public final class TemplateFactory extends AbstractFactoryBase
       return m_aMatch.matches (context, context.ancestorStack.size (), setPosition);
     }
 
+    /**
+     * Like {@link #matches(Context, boolean)}, but evaluates only the last step
+     * of the pattern. Used if the rest of the pattern is already known to
+     * match (see {@link net.sf.joost.stx.PatternAutomaton}).
+     */
+    public boolean matchesLastStep (final Context context, final boolean setPosition) throws SAXException
+    {
+      context.currentInstruction = this;
+      context.currentGroup = m_aParentGroup;
+      final int type = m_aMatch.getType ();
+      final AbstractTree step = type == AbstractTree.CHILD || type == AbstractTree.DESC ? m_aMatch.m_aRight : m_aMatch;
+      return step.matches (context, context.ancestorStack.size (), setPosition);
+    }
+
     /**
      * Splits a match pattern that is a union into several template instances.
      * The match pattern of the object itself loses one union.
@@ -32,6 +32,7 @@ import org.xml.sax.SAXParseException;
 import net.sf.joost.CSTX;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.QNameTable;
 
 /**
  * Factory for <code>transform</code> elements, which are represented by the
@@ -207,6 +208,16 @@ public class TransformFactory extends AbstractFactoryBase
     // STX sheet to the calling Parser object
     public List <AbstractNodeBase> m_aCompilableNodes;
 
+    /**
+     * the first instruction that may carry state from one element to its
+     * siblings, <code>null</code> if there is none (see
+     * {@link net.sf.joost.stx.RecordSplitter})
+     */
+    public AbstractNodeBase m_aStatefulNode;
+
+    /** the symbol table of the names in all name tests */
+    public QNameTable m_aQNameTable;
+
     // Constructor
     public Instance (final AbstractNodeBase aParent,
                      final String qName,
@@ -220,6 +231,7 @@ public class TransformFactory extends AbstractFactoryBase
                      final Set <String> excludedNamespaces)
     {
       super (qName, aParent, context, passThrough, stripSpace, recognizeCdata);
+      m_aQNameTable = context.getQNameTable ();
       if (aParent == null)
       {
         m_aNamedGroups = new Hashtable<> (); // shared with all sub-groups
@@ -98,6 +98,14 @@ public final class ValueOfFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
+      if (m_aSelect.getStaticType () != AbstractTree.TYPE_UNKNOWN)
+      {
+        // never a sequence
+        final String s = m_aSelect.evaluateString (context, this);
+        context.m_aEmitter.characters (s.toCharArray (), 0, s.length (), this);
+        return CSTX.PR_CONTINUE;
+      }
+
       Value v = m_aSelect.evaluate (context, this);
       String s;
       if (v.next == null)
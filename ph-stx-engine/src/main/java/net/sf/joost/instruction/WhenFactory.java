@@ -109,7 +109,7 @@ public final class WhenFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      if (m_aTest.evaluate (context, this).getBooleanValue ())
+      if (m_aTest.evaluateBoolean (context, this))
       {
         super.process (context);
         next = m_aTrueNext;
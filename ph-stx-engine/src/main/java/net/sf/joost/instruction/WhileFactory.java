@@ -106,7 +106,7 @@ public final class WhileFactory extends AbstractFactoryBase
     @Override
     public short process (final Context context) throws SAXException
     {
-      if (m_aTest.evaluate (context, this).getBooleanValue ())
+      if (m_aTest.evaluateBoolean (context, this))
       {
         super.process (context);
         next = contents;
@@ -39,6 +39,11 @@ import net.sf.joost.ITransformerHandlerResolver;
  * <stx:process-self filter-method="http://www.ietf.org/rfc/rfc2616.txt#POST" >
  * <stx:with-param name="target" select="http://myWebServerIP" />
  * </stx:process-self> ...
+ * <p>
+ * The optional parameter <code>streaming</code> (<code>yes</code> or
+ * <code>no</code>, the default) enables a streaming request with chunked
+ * transfer encoding; <code>chunk-size</code> sets the size of the chunks in
+ * this case.
  *
  * @version $Revision: 1.5 $ $Date: 2009/09/22 21:13:43 $
  * @author Oliver Becker
@@ -108,7 +113,26 @@ public final class THHttpPostResolver implements ITransformerHandlerResolver
     if (v == null)
       throw new SAXException ("Missing parameter 'target' for filter " + "method '" + method + "'");
 
-    return new HttpPostHandler (v);
+    final Object streaming = params.get ("streaming");
+    if (streaming == null || !("yes".equals (streaming) || "true".equals (streaming)))
+      return new HttpPostHandler (v);
+
+    int chunkSize = HttpPostHandler.DEFAULT_CHUNK_SIZE;
+    final Object cs = params.get ("chunk-size");
+    if (cs != null)
+    {
+      try
+      {
+        chunkSize = (int) Double.parseDouble (String.valueOf (cs));
+      }
+      catch (final NumberFormatException ex)
+      {
+        throw new SAXException ("Invalid value '" + cs + "' of parameter 'chunk-size' for filter method '" + method + "'");
+      }
+      if (chunkSize <= 0)
+        throw new SAXException ("Parameter 'chunk-size' for filter method '" + method + "' must be positive");
+    }
+    return new HttpPostHandler (v, chunkSize);
   }
 
   /**
@@ -0,0 +1,488 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+/**
+ * Accumulator for streaming statistics, created by the extension function
+ * <code>joost:accumulator</code> and updated by
+ * <code>joost:accumulate</code>. Instead of collecting all items in a
+ * sequence and computing <code>sum()</code>, <code>avg()</code> etc. at the
+ * end, each item is added to a fixed size state:
+ * <ul>
+ * <li>count, sum, minimum and maximum are primitive fields (with the semantics
+ * of the corresponding STXPath functions)</li>
+ * <li>the number of distinct items is counted exactly in a compact hash set of
+ * 64 bit fingerprints up to {@value #MAX_EXACT_DISTINCT} distinct items, then
+ * estimated with a HyperLogLog sketch (about 1% standard error)</li>
+ * <li>quantiles are estimated with a sketch of logarithmic buckets, the
+ * relative error of a quantile is at most {@value #RELATIVE_ACCURACY} (as long
+ * as the values span less than {@value #MAX_BUCKETS} buckets)</li>
+ * </ul>
+ * Distinct counting and quantiles must be enabled when the accumulator is
+ * created. The memory needed is bounded and independent of the number of
+ * items. An accumulator is updated in place.
+ *
+ * @author Philip Helger
+ */
+public final class Accumulator
+{
+  /** Maximal number of distinct items that will be counted exactly */
+  public static final int MAX_EXACT_DISTINCT = 1 << 14;
+
+  /** Relative accuracy of the quantile estimates */
+  public static final double RELATIVE_ACCURACY = 0.01;
+
+  /** Maximal number of buckets per sign of the quantile sketch */
+  public static final int MAX_BUCKETS = 2048;
+
+  /** Number of index bits of the HyperLogLog registers */
+  private static final int HLL_BITS = 14;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log (GAMMA);
+
+  private long m_nCount;
+  private double m_dSum;
+  private double m_dMin = Double.POSITIVE_INFINITY;
+  private double m_dMax = Double.NEGATIVE_INFINITY;
+  private boolean m_bNaN;
+
+  // distinct count
+  private final boolean m_bDistinct;
+  /** open addressing set of fingerprints (0 marks an empty slot) */
+  private long [] m_aFingerprints;
+  private int m_nFingerprints;
+  private boolean m_bHasZeroFingerprint;
+  /** HyperLogLog registers, used after the set became too large */
+  private byte [] m_aRegisters;
+
+  // quantiles
+  private final boolean m_bQuantiles;
+  private Buckets m_aPositive, m_aNegative;
+  private long m_nZeros, m_nPositiveInfinite, m_nNegativeInfinite;
+
+  /**
+   * Bucket counts of the quantile sketch for a window of
+   * {@link #MAX_BUCKETS} bucket indexes. If the used buckets don't fit into the
+   * window, the lowest buckets are merged.
+   */
+  private static final class Buckets
+  {
+    long [] m_aCounts;
+    /** the bucket index of m_aCounts[0] */
+    int m_nOffset;
+    /** the range of used indexes */
+    int m_nMin = Integer.MAX_VALUE, m_nMax = Integer.MIN_VALUE;
+    long m_nTotal;
+
+    void add (final int index)
+    {
+      int i = index;
+      if (m_aCounts == null)
+      {
+        m_aCounts = new long [MAX_BUCKETS];
+        m_nOffset = i - MAX_BUCKETS / 2;
+      }
+      else
+        if (i < m_nOffset)
+        {
+          if (m_nMax - i < MAX_BUCKETS)
+            _moveTo (m_nMax - MAX_BUCKETS + 1);
+          else
+            // out of range: count it in the lowest bucket
+            i = m_nOffset;
+        }
+        else
+          if (i >= m_nOffset + MAX_BUCKETS)
+          {
+            final int newOffset = i - MAX_BUCKETS + 1;
+            if (newOffset > m_nMin)
+            {
+              // too wide: merge the lowest buckets
+              final long merged = _removeBelow (newOffset);
+              _moveTo (newOffset);
+              m_aCounts[0] += merged;
+              m_nMin = newOffset;
+              m_nMax = Math.max (m_nMax, newOffset);
+            }
+            else
+              _moveTo (newOffset);
+          }
+      m_aCounts[i - m_nOffset]++;
+      m_nTotal++;
+      if (i < m_nMin)
+        m_nMin = i;
+      if (i > m_nMax)
+        m_nMax = i;
+    }
+
+    /** @return the sum of the buckets below the given index, which are reset */
+    private long _removeBelow (final int index)
+    {
+      long sum = 0;
+      for (int j = m_nMin; j < index && j <= m_nMax; j++)
+      {
+        sum += m_aCounts[j - m_nOffset];
+        m_aCounts[j - m_nOffset] = 0;
+      }
+      return sum;
+    }
+
+    /** Moves the window to start at the given index */
+    private void _moveTo (final int offset)
+    {
+      final long [] counts = new long [MAX_BUCKETS];
+      for (int j = Math.max (m_nMin, offset); j <= m_nMax && j < offset + MAX_BUCKETS; j++)
+        counts[j - offset] = m_aCounts[j - m_nOffset];
+      m_aCounts = counts;
+      m_nOffset = offset;
+    }
+
+    /**
+     * @return the bucket index of the item with the given rank (0 based) in
+     *         ascending order of the indexes
+     */
+    int getIndex (final long rank)
+    {
+      long n = 0;
+      for (int j = m_nMin; j <= m_nMax; j++)
+      {
+        n += m_aCounts[j - m_nOffset];
+        if (n > rank)
+          return j;
+      }
+      return m_nMax;
+    }
+  }
+
+  /**
+   * Creates an accumulator
+   *
+   * @param distinct
+   *        whether the distinct items will be counted
+   * @param quantiles
+   *        whether quantiles will be estimated
+   */
+  public Accumulator (final boolean distinct, final boolean quantiles)
+  {
+    m_bDistinct = distinct;
+    m_bQuantiles = quantiles;
+    if (distinct)
+      m_aFingerprints = new long [64];
+    if (quantiles)
+    {
+      m_aPositive = new Buckets ();
+      m_aNegative = new Buckets ();
+    }
+  }
+
+  /** @return whether the distinct items are counted */
+  public boolean isDistinctCounted ()
+  {
+    return m_bDistinct;
+  }
+
+  /** @return whether quantiles are estimated */
+  public boolean isQuantileEstimated ()
+  {
+    return m_bQuantiles;
+  }
+
+  /**
+   * Adds the items of a sequence
+   *
+   * @param seq
+   *        the sequence
+   */
+  public void add (final Value seq)
+  {
+    if (seq.type == Value.EMPTY)
+      return;
+    for (Value v = seq; v != null; v = v.next)
+    {
+      final double d = v.getNumberValue ();
+      m_nCount++;
+      m_dSum += d;
+      if (Double.isNaN (d))
+        m_bNaN = true;
+      else
+      {
+        if (d < m_dMin)
+          m_dMin = d;
+        if (d > m_dMax)
+          m_dMax = d;
+        if (m_bQuantiles)
+          _addQuantile (d);
+      }
+      if (m_bDistinct)
+        _addFingerprint (_fingerprint (v));
+    }
+  }
+
+  /** @return the number of items */
+  public long getCount ()
+  {
+    return m_nCount;
+  }
+
+  /** @return the sum of the items, 0 if there are none */
+  public double getSum ()
+  {
+    return m_dSum;
+  }
+
+  /** @return the average of the items, <code>NaN</code> if there are none */
+  public double getAverage ()
+  {
+    return m_nCount == 0 ? Double.NaN : m_dSum / m_nCount;
+  }
+
+  /** @return the minimum, <code>NaN</code> if an item isn't a number */
+  public double getMin ()
+  {
+    return m_bNaN ? Double.NaN : m_dMin;
+  }
+
+  /** @return the maximum, <code>NaN</code> if an item isn't a number */
+  public double getMax ()
+  {
+    return m_bNaN ? Double.NaN : m_dMax;
+  }
+
+  //
+  // distinct count
+  //
+
+  /** finalization step of MurmurHash3 */
+  private static long _mix (final long x)
+  {
+    long h = x;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * @return a 64 bit hash of the item, numbers, booleans and strings (the
+   *         string values of other items) are different
+   */
+  private static long _fingerprint (final Value item)
+  {
+    switch (item.type)
+    {
+      case Value.NUMBER:
+        return _mix (Double.doubleToLongBits (item.getNumberValue () + 0.0) ^ 0x1L);
+      case Value.BOOLEAN:
+        return _mix (item.getBooleanValue () ? 0x2L : 0x3L);
+      default:
+        // FNV-1a
+        long h = 0xcbf29ce484222325L;
+        final String s = item.getStringValue ();
+        for (int i = 0; i < s.length (); i++)
+        {
+          h ^= s.charAt (i);
+          h *= 0x100000001b3L;
+        }
+        return _mix (h);
+    }
+  }
+
+  private void _addFingerprint (final long fp)
+  {
+    if (m_aRegisters != null)
+    {
+      _addToSketch (fp);
+      return;
+    }
+    if (fp == 0)
+    {
+      if (!m_bHasZeroFingerprint)
+      {
+        m_bHasZeroFingerprint = true;
+        m_nFingerprints++;
+      }
+      return;
+    }
+    if (_insert (m_aFingerprints, fp))
+    {
+      m_nFingerprints++;
+      if (m_nFingerprints > MAX_EXACT_DISTINCT)
+      {
+        // switch to the sketch
+        m_aRegisters = new byte [1 << HLL_BITS];
+        for (final long f : m_aFingerprints)
+          if (f != 0)
+            _addToSketch (f);
+        if (m_bHasZeroFingerprint)
+          _addToSketch (0);
+        m_aFingerprints = null;
+      }
+      else
+        if (m_nFingerprints * 4 > m_aFingerprints.length * 3)
+        {
+          final long [] old = m_aFingerprints;
+          m_aFingerprints = new long [old.length * 2];
+          for (final long f : old)
+            if (f != 0)
+              _insert (m_aFingerprints, f);
+        }
+    }
+  }
+
+  /** @return whether the fingerprint was added to the set */
+  private static boolean _insert (final long [] set, final long fp)
+  {
+    final int mask = set.length - 1;
+    int i = (int) fp & mask;
+    while (set[i] != 0)
+    {
+      if (set[i] == fp)
+        return false;
+      i = (i + 1) & mask;
+    }
+    set[i] = fp;
+    return true;
+  }
+
+  private void _addToSketch (final long fp)
+  {
+    final int register = (int) (fp >>> (64 - HLL_BITS));
+    final int rank = Long.numberOfLeadingZeros ((fp << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1;
+    if (rank > m_aRegisters[register])
+      m_aRegisters[register] = (byte) rank;
+  }
+
+  /**
+   * @return the number of distinct items, an estimate if there are more than
+   *         {@link #MAX_EXACT_DISTINCT} of them
+   * @exception IllegalStateException
+   *            if distinct items aren't counted
+   */
+  public long getDistinctCount ()
+  {
+    if (!m_bDistinct)
+      throw new IllegalStateException ("Distinct items aren't counted");
+    if (m_aRegisters == null)
+      return m_nFingerprints;
+
+    final int m = m_aRegisters.length;
+    double sum = 0;
+    int zeros = 0;
+    for (final byte r : m_aRegisters)
+    {
+      sum += 1.0 / (1L << r);
+      if (r == 0)
+        zeros++;
+    }
+    final double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0)
+      estimate = m * Math.log ((double) m / zeros);
+    return Math.round (estimate);
+  }
+
+  //
+  // quantiles
+  //
+
+  private void _addQuantile (final double d)
+  {
+    if (d == 0)
+      m_nZeros++;
+    else
+      if (Double.isInfinite (d))
+      {
+        if (d > 0)
+          m_nPositiveInfinite++;
+        else
+          m_nNegativeInfinite++;
+      }
+      else
+        if (d > 0)
+          m_aPositive.add (_bucket (d));
+        else
+          m_aNegative.add (_bucket (-d));
+  }
+
+  private static int _bucket (final double d)
+  {
+    return (int) Math.ceil (Math.log (d) / LOG_GAMMA);
+  }
+
+  /** @return the representative value of a bucket */
+  private static double _value (final int bucket)
+  {
+    return 2 * Math.pow (GAMMA, bucket) / (GAMMA + 1);
+  }
+
+  /**
+   * Estimates a quantile
+   *
+   * @param q
+   *        the quantile, between 0 and 1 (for example 0.5 for the median)
+   * @return the estimated value, <code>NaN</code> if there are no items, an
+   *         item isn't a number or <code>q</code> is out of range
+   * @exception IllegalStateException
+   *            if quantiles aren't estimated
+   */
+  public double getQuantile (final double q)
+  {
+    if (!m_bQuantiles)
+      throw new IllegalStateException ("Quantiles aren't estimated");
+    if (m_nCount == 0 || m_bNaN || !(q >= 0 && q <= 1))
+      return Double.NaN;
+    if (q == 0)
+      return m_dMin;
+    if (q == 1)
+      return m_dMax;
+
+    long rank = (long) Math.floor (q * (m_nCount - 1));
+    if (rank < m_nNegativeInfinite)
+      return Double.NEGATIVE_INFINITY;
+    rank -= m_nNegativeInfinite;
+    double ret;
+    if (rank < m_aNegative.m_nTotal)
+    {
+      // the negative values in descending order of their bucket indexes
+      ret = -_value (m_aNegative.getIndex (m_aNegative.m_nTotal - 1 - rank));
+    }
+    else
+    {
+      rank -= m_aNegative.m_nTotal;
+      if (rank < m_nZeros)
+        return 0;
+      rank -= m_nZeros;
+      if (rank >= m_aPositive.m_nTotal)
+        return Double.POSITIVE_INFINITY;
+      ret = _value (m_aPositive.getIndex (rank));
+    }
+    // the exact extremes are known
+    return Math.max (m_dMin, Math.min (m_dMax, ret));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "accumulator{count=" + m_nCount + ", sum=" + m_dSum + "}";
+  }
+}
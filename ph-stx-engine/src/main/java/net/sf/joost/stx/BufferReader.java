@@ -90,6 +90,12 @@ public class BufferReader implements XMLReader
     this.m_sSystemID = systemId;
   }
 
+  /** @return the events stored in the buffer */
+  public SAXEvent [] getEvents ()
+  {
+    return m_aEvents;
+  }
+
   public void setFeature (final String name, final boolean state) throws SAXNotRecognizedException,
                                                                   SAXNotSupportedException
   {
@@ -213,9 +219,26 @@ public class BufferReader implements XMLReader
    * Do the real work: emit SAX events to the handler objects.
    */
   public void parse (final ContentHandler contH, final LexicalHandler lexH) throws SAXException
+  {
+    emitEvents (m_aEvents, contH, lexH);
+  }
+
+  /**
+   * Emits stored SAX events to the handler objects.
+   *
+   * @param events
+   *        the events, for example from a {@link BufferEmitter}
+   * @param contH
+   *        the content handler
+   * @param lexH
+   *        the lexical handler, may be <code>null</code>
+   */
+  public static void emitEvents (final SAXEvent [] events,
+                                 final ContentHandler contH,
+                                 final LexicalHandler lexH) throws SAXException
   {
     // generate events
-    for (final SAXEvent ev : m_aEvents)
+    for (final SAXEvent ev : events)
     {
       switch (ev.m_nType)
       {
@@ -105,6 +105,27 @@ public final class Context implements Cloneable
   /** The OutputURIResolver for <code>stx:result-document</code> */
   public IOutputURIResolver outputUriResolver;
 
+  /**
+   * The optional pool for writing <code>stx:result-document</code> files
+   * asynchronously
+   */
+  public ResultDocumentWriterPool resultDocumentWriterPool;
+
+  /** Whether local input files will be read via memory mapping */
+  public boolean mappedFileInput;
+
+  /**
+   * Path of the record elements that will be transformed in parallel,
+   * <code>null</code> for a sequential transformation
+   */
+  public String recordPath;
+
+  /** Number of threads for the record transformation, 0 for the default */
+  public int recordThreads;
+
+  /** Metrics of the transformation, <code>null</code> if not collected */
+  public TransformationMetrics metrics;
+
   /**
    * The message emitter for <code>stx:message</code>, either explicitely set by
    * {@link Processor#setMessageEmitter} or automatically created in the first
@@ -80,8 +80,31 @@ public class Emitter
   private AbstractNodeBase m_aLastInstruction;
 
   private boolean m_bInsideCDATA = false;
+  /** number of trailing ']' (at most 2) in the current CDATA section */
+  private int m_nCDATABrackets;
   private boolean m_bDTDAllowed = true;
 
+  /**
+   * optional metrics, <code>null</code> if not collected or if this emitter
+   * doesn't write into a result
+   */
+  private TransformationMetrics m_aMetrics;
+
+  /**
+   * Default maximum number of adjacent characters that will be coalesced into
+   * one <code>characters</code> event
+   */
+  public static final int DEFAULT_CHARACTER_BUFFER_SIZE = 8192;
+
+  /**
+   * Buffer for adjacent characters that haven't been forwarded yet,
+   * <code>null</code> if coalescing is disabled
+   */
+  private char [] m_aCharBuffer;
+  private int m_nCharLength;
+  /** the instruction that created the last buffered characters */
+  private AbstractNodeBase m_aCharInstruction;
+
   public Emitter (final ErrorHandlerImpl errorHandler)
   {
     m_aNSSupport = new NamespaceSupport ();
@@ -100,6 +123,8 @@ public class Emitter
     m_aPrev = aPrev;
     m_aContH = handler;
     m_aLexH = handler;
+    // no metrics: nested emitters write into buffers, variables, attribute
+    // values etc., whose contents are counted when they reach the result
   }
 
   /**
@@ -132,6 +157,70 @@ public class Emitter
     m_aLexH = handler;
   }
 
+  /** @return the content handler that receives the result events */
+  public ContentHandler getContentHandler ()
+  {
+    return m_aContH;
+  }
+
+  /** @return the lexical handler that receives the result events */
+  public LexicalHandler getLexicalHandler ()
+  {
+    return m_aLexH;
+  }
+
+  /**
+   * Forwards a pending start tag or buffered characters to the content
+   * handler. Afterwards all events emitted so far have been passed on.
+   */
+  public void flush () throws SAXException
+  {
+    if (m_aContH != null)
+    {
+      if (m_aLastAttrs != null)
+        processLastElement ();
+      else
+        _flushCharacters ();
+    }
+  }
+
+  /**
+   * Sets the maximum number of adjacent characters that will be collected and
+   * forwarded as one <code>characters</code> event to the content handler.
+   * Longer character chunks will be passed through directly.
+   *
+   * @param size
+   *        the buffer size, <code>0</code> disables the coalescing
+   */
+  public void setCharacterBufferSize (final int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException ("Negative character buffer size: " + size);
+    m_aCharBuffer = size == 0 ? null : new char [size];
+    m_nCharLength = 0;
+    m_aCharInstruction = null;
+  }
+
+  /**
+   * @return the maximum number of coalesced characters, <code>0</code> if
+   *         coalescing is disabled
+   */
+  public int getCharacterBufferSize ()
+  {
+    return m_aCharBuffer == null ? 0 : m_aCharBuffer.length;
+  }
+
+  /**
+   * Sets the metrics object that counts the emitted characters
+   *
+   * @param metrics
+   *        the metrics, <code>null</code> disables counting
+   */
+  public void setMetrics (final TransformationMetrics metrics)
+  {
+    m_aMetrics = metrics;
+  }
+
   /** Process a stored element start tag (from startElement) */
   private void processLastElement () throws SAXException
   {
@@ -210,6 +299,9 @@ public class Emitter
 
   public void startDocument () throws SAXException
   {
+    // discard characters left over from an aborted transformation
+    m_nCharLength = 0;
+    m_aCharInstruction = null;
     if (m_aContH != null)
       m_aContH.startDocument ();
   }
@@ -226,6 +318,7 @@ public class Emitter
     {
       if (m_aLastAttrs != null)
         processLastElement ();
+      _flushCharacters ();
       if (!m_aOpenedElements.isEmpty ())
       {
         m_aErrorHandler.fatalError ("Missing end tag for '" +
@@ -258,6 +351,8 @@ public class Emitter
     {
       if (m_aLastAttrs != null)
         processLastElement ();
+      else
+        _flushCharacters ();
 
       m_aNSSupport.pushContext ();
       m_aNSStack.push (null); // marker
@@ -344,6 +439,8 @@ public class Emitter
     {
       if (m_aLastAttrs != null)
         processLastElement ();
+      else
+        _flushCharacters ();
 
       if (m_aOpenedElements.isEmpty ())
       {
@@ -421,40 +518,97 @@ public class Emitter
   {
     if (length == 0)
       return;
+    if (m_aMetrics != null)
+      m_aMetrics.countOutputCharacters (length);
     if (m_aContH != null)
     {
       if (m_aLastAttrs != null)
         processLastElement ();
-      try
+      if (m_aCharBuffer == null)
+        _forwardCharacters (ch, start, length, instruction);
+      else
       {
-        if (m_bInsideCDATA)
-        { // prevent output of "]]>" in this CDATA section
-          String str = new String (ch, start, length);
-          int index = str.indexOf ("]]>");
-          while (index != -1)
+        if (m_nCharLength + length > m_aCharBuffer.length)
+          _flushCharacters ();
+        if (length >= m_aCharBuffer.length)
+          _forwardCharacters (ch, start, length, instruction);
+        else
+        {
+          System.arraycopy (ch, start, m_aCharBuffer, m_nCharLength, length);
+          m_nCharLength += length;
+          m_aCharInstruction = instruction;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forwards the collected characters (if any) to the content handler
+   */
+  private void _flushCharacters () throws SAXException
+  {
+    if (m_nCharLength > 0)
+    {
+      final int length = m_nCharLength;
+      m_nCharLength = 0;
+      _forwardCharacters (m_aCharBuffer, 0, length, m_aCharInstruction);
+      m_aCharInstruction = null;
+    }
+  }
+
+  /**
+   * Passes characters to the content handler, splits CDATA sections if
+   * necessary
+   */
+  private void _forwardCharacters (final char [] ch,
+                                   final int start,
+                                   final int length,
+                                   final AbstractNodeBase instruction) throws SAXException
+  {
+    try
+    {
+      if (m_bInsideCDATA)
+      { // prevent output of "]]>" in this CDATA section
+        // scan the array in place and split between "]]" and ">", the
+        // brackets may stem from a previous characters() call
+        final int end = start + length;
+        int segStart = start;
+        int brackets = m_nCDATABrackets;
+        for (int i = start; i < end; i++)
+        {
+          final char c = ch[i];
+          if (c == ']')
           {
-            // "]]>" found; split between "]]" and ">"
-            index += 2;
-            m_aContH.characters (str.substring (0, index).toCharArray (), 0, index);
-            m_aLexH.endCDATA (); // #lexH will be != null,
-            m_aLexH.startCDATA (); // because #insideCDATA was true
-            str = str.substring (index);
-            index = str.indexOf ("]]>");
+            if (brackets < 2)
+              brackets++;
+          }
+          else
+          {
+            if (c == '>' && brackets == 2)
+            {
+              if (i > segStart)
+                m_aContH.characters (ch, segStart, i - segStart);
+              m_aLexH.endCDATA (); // #lexH will be != null,
+              m_aLexH.startCDATA (); // because #insideCDATA was true
+              segStart = i;
+            }
+            brackets = 0;
           }
-          m_aContH.characters (str.toCharArray (), 0, str.length ());
         }
-        else
-          m_aContH.characters (ch, start, length);
-      }
-      catch (final SAXException ex)
-      {
-        m_aErrorHandler.fatalError (ex.getMessage (),
-                                    instruction.m_sPublicID,
-                                    instruction.m_sSystemID,
-                                    instruction.lineNo,
-                                    instruction.colNo,
-                                    ex);
+        m_nCDATABrackets = brackets;
+        m_aContH.characters (ch, segStart, end - segStart);
       }
+      else
+        m_aContH.characters (ch, start, length);
+    }
+    catch (final SAXException ex)
+    {
+      m_aErrorHandler.fatalError (ex.getMessage (),
+                                  instruction.m_sPublicID,
+                                  instruction.m_sSystemID,
+                                  instruction.lineNo,
+                                  instruction.colNo,
+                                  ex);
     }
   }
 
@@ -472,6 +626,8 @@ public class Emitter
     {
       if (m_aLastAttrs != null)
         processLastElement ();
+      else
+        _flushCharacters ();
       try
       {
         m_aContH.processingInstruction (target, data);
@@ -499,8 +655,13 @@ public class Emitter
                        final int length,
                        final AbstractNodeBase instruction) throws SAXException
   {
-    if (m_aContH != null && m_aLastAttrs != null)
-      processLastElement ();
+    if (m_aContH != null)
+    {
+      if (m_aLastAttrs != null)
+        processLastElement ();
+      else
+        _flushCharacters ();
+    }
     if (m_aLexH != null)
     {
       try
@@ -527,8 +688,13 @@ public class Emitter
    */
   public void startCDATA (final AbstractNodeBase instruction) throws SAXException
   {
-    if (m_aContH != null && m_aLastAttrs != null)
-      processLastElement ();
+    if (m_aContH != null)
+    {
+      if (m_aLastAttrs != null)
+        processLastElement ();
+      else
+        _flushCharacters ();
+    }
     if (m_aLexH != null)
     {
       try
@@ -545,6 +711,7 @@ public class Emitter
                                se);
       }
       m_bInsideCDATA = true;
+      m_nCDATABrackets = 0;
     }
   }
 
@@ -552,6 +719,8 @@ public class Emitter
   {
     if (m_aLexH != null)
     {
+      if (m_aContH != null)
+        _flushCharacters ();
       m_aLexH.endCDATA ();
       m_bInsideCDATA = false;
     }
@@ -562,8 +731,13 @@ public class Emitter
                          final String publicId,
                          final String systemId) throws SAXException
   {
-    if (m_aContH != null && m_aLastAttrs != null)
-      processLastElement ();
+    if (m_aContH != null)
+    {
+      if (m_aLastAttrs != null)
+        processLastElement ();
+      else
+        _flushCharacters ();
+    }
     if (!m_bDTDAllowed)
     {
       m_aErrorHandler.error ("Cannot create a document type declaration for '" +
@@ -608,6 +782,34 @@ public class Emitter
     return false;
   }
 
+  /**
+   * Determines the file for an <code>stx:result-document</code> instruction.
+   * A relative <code>href</code> will be resolved against the system ID of the
+   * current result, if available.
+   *
+   * @param href
+   *        the filename
+   * @return the file object representing <code>href</code>
+   */
+  public File getResultFile (final String href) throws URISyntaxException
+  {
+    if (m_aContH instanceof IStxEmitter)
+    {
+      // we may extract a base URI
+      final String base = ((IStxEmitter) m_aContH).getSystemId ();
+      if (base != null)
+        return new File (new URI (base).resolve (href));
+    }
+    // no base available
+    if (href.indexOf (':') != -1)
+    {
+      // href is a URI
+      return new File (new URI (href));
+    }
+    // href is just a path
+    return new File (href);
+  }
+
   /**
    * Provides a <code>Writer</code> object that will be used for
    * <code>stx:result-document</code> instructions.
@@ -639,29 +841,7 @@ public class Emitter
     // Note: currently we don't check if a file is already open.
     // Opening a file twice may lead to unexpected results.
 
-    File hrefFile = null; // the file object representing href
-
-    if (m_aContH instanceof IStxEmitter)
-    {
-      // we may extract a base URI
-      final String base = ((IStxEmitter) m_aContH).getSystemId ();
-      if (base != null)
-        hrefFile = new File (new URI (base).resolve (href));
-    }
-    if (hrefFile == null)
-    {
-      // still null (means: no base available)
-      if (href.indexOf (':') != -1)
-      {
-        // href is a URI
-        hrefFile = new File (new URI (href));
-      }
-      else
-      {
-        // href is just a path
-        hrefFile = new File (href);
-      }
-    }
+    final File hrefFile = getResultFile (href);
 
     // create missing directories
     // (say: simply create them, don't check if there are really missing)
@@ -684,4 +864,32 @@ public class Emitter
     }
     return osw;
   }
+
+  /**
+   * Provides a <code>Writer</code> object for an
+   * <code>stx:result-document</code> instruction that will be written
+   * asynchronously by the passed writer pool.
+   *
+   * @param pool
+   *        the pool of background writers
+   * @see #getResultWriter(String, String, String, String, int, int, boolean)
+   */
+  public Writer getResultWriter (final ResultDocumentWriterPool pool,
+                                 final String href,
+                                 final String encoding,
+                                 final String publicId,
+                                 final String systemId,
+                                 final int lineNo,
+                                 final int colNo,
+                                 final boolean append) throws SAXException, URISyntaxException
+  {
+    return pool.createWriter (getResultFile (href),
+                              encoding,
+                              append,
+                              m_aErrorHandler,
+                              publicId,
+                              systemId,
+                              lineNo,
+                              colNo);
+  }
 }
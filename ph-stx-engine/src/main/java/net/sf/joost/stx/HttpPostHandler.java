@@ -20,13 +20,19 @@
 package net.sf.joost.stx;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -36,6 +42,7 @@ import javax.xml.transform.sax.TransformerHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
 
 import net.sf.joost.CSTX;
 import net.sf.joost.emitter.XmlEmitter;
@@ -43,29 +50,88 @@ import net.sf.joost.emitter.XmlEmitter;
 /**
  * Implements an HTTP POST connection with a {@link TransformerHandler}
  * interface.
+ * <p>
+ * In the default (buffered) mode the complete XML fragment is collected in
+ * memory and posted at <code>endDocument</code>. In streaming mode the
+ * connection is opened at <code>startDocument</code> and the fragment is
+ * written with chunked transfer encoding while the events arrive.
+ * <p>
+ * In both modes the response is read completely, so the underlying socket can
+ * be reused by the keep-alive cache of {@link HttpURLConnection} for further
+ * requests to the same target, and the response is parsed with a pooled
+ * {@link XMLReader}.
  *
- * @version $Revision: 2.3 $ $Date: 2008/06/15 08:11:22 $
+ * @version $Revision: 2.4 $ $Date: 2008/06/15 08:11:22 $
  * @author Oliver Becker
  */
 
 public class HttpPostHandler extends XmlEmitter implements TransformerHandler
 {
+  /** default chunk size used in streaming mode */
+  public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+  /** maximal number of idle parsers kept for the responses */
+  private static final int MAX_POOLED_PARSERS = 8;
+
+  /** idle parsers for the responses */
+  private static final BlockingQueue <XMLReader> s_aParserPool = new ArrayBlockingQueue<> (MAX_POOLED_PARSERS);
+
+  /** handler assigned to pooled parsers (releases the previous result) */
+  private static final DefaultHandler2 s_aNullHandler = new DefaultHandler2 ();
+
   /** event sink for this transformer */
   private SAXResult m_aSAXResult;
 
-  /** the character buffer */
+  /** the character buffer, <code>null</code> in streaming mode */
   private final StringBuffer m_aBuffer;
 
   /** the target URL for the POST request */
   private final String m_sTargetURL;
 
+  /** the parsed target URL */
+  private URL m_aURL;
+
+  /** chunk size for streaming mode, 0 for buffered mode */
+  private final int m_nChunkSize;
+
+  /** the open connection in streaming mode */
+  private HttpURLConnection m_aConnection;
+
   // Constructor
   public HttpPostHandler (final String targetURL)
+  {
+    this (targetURL, 0);
+  }
+
+  /**
+   * Constructs a handler for the given target URL
+   *
+   * @param targetURL
+   *        the target URL for the POST request
+   * @param chunkSize
+   *        the chunk size for streaming mode, or <code>0</code> for
+   *        buffered mode
+   */
+  public HttpPostHandler (final String targetURL, final int chunkSize)
   {
     super (null, CSTX.DEFAULT_ENCODING, null); // postpone writer initialization
-    m_aWriter = new StringWriter (); // catch up here
-    m_aBuffer = ((StringWriter) m_aWriter).getBuffer ();
+    if (chunkSize <= 0)
+    {
+      m_aWriter = new StringWriter (); // catch up here
+      m_aBuffer = ((StringWriter) m_aWriter).getBuffer ();
+    }
+    else
+      m_aBuffer = null;
     this.m_sTargetURL = targetURL;
+    this.m_nChunkSize = chunkSize < 0 ? 0 : chunkSize;
+  }
+
+  /**
+   * @return <code>true</code> if this handler streams its request body
+   */
+  public boolean isStreaming ()
+  {
+    return m_nChunkSize > 0;
   }
 
   // ---------------------------------------------------------------------
@@ -86,60 +152,159 @@ public class HttpPostHandler extends XmlEmitter implements TransformerHandler
 
   // ---------------------------------------------------------------------
 
-  // ---------------------------------------------------------------------
-
   //
   // from interface ContentHandler
   //
 
   /**
-   * Sends the collected XML fragment to the specified target URL and passes the
-   * return stream to an {@link XMLReader} object, which is connected to the
-   * {@link Result} object of this {@link TransformerHandler}
+   * Opens the connection in streaming mode, then outputs the XML declaration
    */
   @Override
-  public void endDocument () throws SAXException
+  public void startDocument () throws SAXException
   {
-    super.endDocument ();
+    if (m_nChunkSize > 0)
+    {
+      try
+      {
+        m_aConnection = _openConnection ();
+        m_aConnection.setChunkedStreamingMode (m_nChunkSize);
+        m_aConnection.connect ();
+        m_aWriter = new ChunkWriter (new OutputStreamWriter (m_aConnection.getOutputStream (),
+                                                             StandardCharsets.UTF_8),
+                                     m_nChunkSize);
+      }
+      catch (final IOException ex)
+      {
+        final HttpURLConnection conn = m_aConnection;
+        m_aConnection = null;
+        throw _failure (conn, ex);
+      }
+    }
+    super.startDocument ();
+  }
 
-    if (m_aSAXResult == null) // Shouldn't happen
-      throw new SAXException ("No result set");
+  /**
+   * Sends the collected XML fragment to the specified target URL (or finishes
+   * the streamed request) and passes the return stream to an {@link XMLReader}
+   * object, which is connected to the {@link Result} object of this
+   * {@link TransformerHandler}
+   */
+  @Override
+  public void endDocument () throws SAXException
+  {
+    try
+    {
+      super.endDocument ();
+      if (m_aSAXResult == null) // Shouldn't happen
+        throw new SAXException ("No result set");
+    }
+    catch (final SAXException ex)
+    {
+      // the streamed request is incomplete
+      if (m_aConnection != null)
+        m_aConnection.disconnect ();
+      m_aConnection = null;
+      throw ex;
+    }
 
-    HttpURLConnection conn = null;
+    HttpURLConnection conn = m_aConnection;
+    m_aConnection = null;
     try
     {
-      // create HTTP connection
-      final URL url = new URL (m_sTargetURL);
-      // HttpURLConnection
-      conn = (HttpURLConnection) url.openConnection ();
-      conn.setRequestMethod ("POST");
-      conn.setDoInput (true);
-      conn.setDoOutput (true);
-      conn.setRequestProperty ("Content-Type", "text/xml");
-      conn.connect ();
-
-      try (final PrintStream ps = new PrintStream (conn.getOutputStream (), false, "UTF-8"))
+      if (conn == null)
       {
-        ps.print (m_aBuffer.toString ());
+        // buffered mode: the length of the request is known
+        final byte [] body = m_aBuffer.toString ().getBytes (StandardCharsets.UTF_8);
+        conn = _openConnection ();
+        conn.setFixedLengthStreamingMode (body.length);
+        conn.connect ();
+        try (final OutputStream os = conn.getOutputStream ())
+        {
+          os.write (body);
+        }
       }
+      else
+        m_aWriter.close ();
 
-      final XMLReader parser = Processor.createXMLReader ();
-      parser.setContentHandler (m_aSAXResult.getHandler ());
-      try
+      _parseResponse (conn);
+    }
+    catch (final IOException ex)
+    {
+      throw _failure (conn, ex);
+    }
+    catch (final SAXException | RuntimeException ex)
+    {
+      // e.g. an unparsable response, the connection can't be reused
+      if (conn != null)
+        conn.disconnect ();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return a new POST connection to the target URL
+   */
+  private HttpURLConnection _openConnection () throws IOException
+  {
+    if (m_aURL == null)
+      m_aURL = new URL (m_sTargetURL);
+    final HttpURLConnection conn = (HttpURLConnection) m_aURL.openConnection ();
+    conn.setRequestMethod ("POST");
+    conn.setDoInput (true);
+    conn.setDoOutput (true);
+    conn.setRequestProperty ("Content-Type", "text/xml");
+    return conn;
+  }
+
+  /**
+   * Parses the response of the connection with a pooled parser
+   */
+  private void _parseResponse (final HttpURLConnection conn) throws IOException, SAXException
+  {
+    XMLReader parser = s_aParserPool.poll ();
+    if (parser == null)
+      parser = Processor.createXMLReader ();
+    parser.setContentHandler (m_aSAXResult.getHandler ());
+    try
+    {
+      parser.setProperty ("http://xml.org/sax/properties/lexical-handler", m_aSAXResult.getLexicalHandler ());
+    }
+    catch (final SAXException ex)
+    {}
+
+    boolean reusable = false;
+    try (final InputStream is = new DrainingInputStream (conn.getInputStream ()))
+    {
+      parser.parse (new InputSource (is));
+      reusable = true;
+    }
+    finally
+    {
+      if (reusable)
       {
-        parser.setProperty ("http://xml.org/sax/properties/lexical-handler", m_aSAXResult.getLexicalHandler ());
+        parser.setContentHandler (s_aNullHandler);
+        try
+        {
+          parser.setProperty ("http://xml.org/sax/properties/lexical-handler", s_aNullHandler);
+        }
+        catch (final SAXException ex)
+        {}
+        s_aParserPool.offer (parser);
       }
-      catch (final SAXException ex)
-      {}
-
-      parser.parse (new InputSource (conn.getInputStream ()));
     }
-    catch (final IOException ex)
+  }
+
+  /**
+   * Reports the error response of the connection, closes the connection and
+   * creates the exception to be thrown
+   */
+  private static SAXException _failure (final HttpURLConnection conn, final IOException ex)
+  {
+    System.err.println (ex);
+    final InputStream is = conn == null ? null : conn.getErrorStream ();
+    if (is != null)
     {
-      System.err.println (ex);
-      final InputStream is = conn.getErrorStream ();
-      final BufferedReader br = new BufferedReader (new InputStreamReader (is));
-      try
+      try (final BufferedReader br = new BufferedReader (new InputStreamReader (is, StandardCharsets.UTF_8)))
       {
         String line = br.readLine ();
         while (line != null)
@@ -150,20 +315,99 @@ public class HttpPostHandler extends XmlEmitter implements TransformerHandler
       }
       catch (final IOException ex2)
       {}
+    }
+    if (conn != null)
+      conn.disconnect ();
+    return new SAXException (ex.toString ());
+  }
+
+  /**
+   * Writer that flushes the encoder after each chunk of characters. The
+   * {@link OutputStreamWriter} would otherwise keep up to 8K bytes before
+   * anything is sent to the connection.
+   */
+  private static final class ChunkWriter extends Writer
+  {
+    private final Writer m_aOut;
+    private final int m_nChunkSize;
+    private int m_nPending;
+
+    ChunkWriter (final Writer out, final int chunkSize)
+    {
+      m_aOut = out;
+      m_nChunkSize = chunkSize;
+    }
+
+    private void _written (final int len) throws IOException
+    {
+      m_nPending += len;
+      if (m_nPending >= m_nChunkSize)
+      {
+        m_aOut.flush ();
+        m_nPending = 0;
+      }
+    }
+
+    @Override
+    public void write (final int c) throws IOException
+    {
+      m_aOut.write (c);
+      _written (1);
+    }
+
+    @Override
+    public void write (final char [] cbuf, final int off, final int len) throws IOException
+    {
+      m_aOut.write (cbuf, off, len);
+      _written (len);
+    }
+
+    @Override
+    public void write (final String str, final int off, final int len) throws IOException
+    {
+      m_aOut.write (str, off, len);
+      _written (len);
+    }
+
+    @Override
+    public void flush () throws IOException
+    {
+      m_aOut.flush ();
+      m_nPending = 0;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      m_aOut.close ();
+    }
+  }
 
-      // try {
-      // InputStreamReader err = new InputStreamReader(conn.getInputStream());
-      // OutputStreamWriter o = new OutputStreamWriter(System.err);
-      // int c;
-      // System.err.println(">>>");
-      // while ((c = err.read()) != -1)
-      // o.write(c);
-      // err.close();
-      // o.close();
-      // System.err.println("<<<");
-      // }
-      // catch (IOException ex2) { }
-      throw new SAXException (ex.toString ());
+  /**
+   * Input stream that reads all remaining bytes before closing, so that the
+   * connection can be returned to the keep-alive cache
+   */
+  private static final class DrainingInputStream extends FilterInputStream
+  {
+    DrainingInputStream (final InputStream in)
+    {
+      super (in);
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      try
+      {
+        final byte [] buf = new byte [512];
+        while (in.read (buf) >= 0)
+        {}
+      }
+      catch (final IOException ex)
+      {
+        // the connection simply won't be reused
+      }
+      super.close ();
     }
   }
 
@@ -0,0 +1,225 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index for keyed lookups, created by the extension functions
+ * <code>joost:key-index</code> and <code>joost:buffer-index</code> and queried
+ * by <code>joost:lookup</code>. Each entry consists of a value and a sequence
+ * of keys. A lookup returns the values of all entries having a key that is
+ * equal to the requested key (with the semantics of the <code>=</code>
+ * operator, see {@link SequenceIndex#containsEqual(Value)}), in the order the
+ * entries were added.
+ * <p>
+ * Since STX has no <code>xsl:key</code>, lookups otherwise require
+ * <code>index-of()</code>, <code>item-at()</code> or predicates, each of which
+ * scans the whole sequence. An index is built once in linear time and stored
+ * in a variable; each lookup takes constant time plus the size of its result.
+ * An index is never modified after it has been built.
+ *
+ * @author Philip Helger
+ */
+public final class KeyIndex
+{
+  /** the values of the entries */
+  private final List <Value> m_aValues = new ArrayList<> ();
+
+  /** whether an entry has been added with more than one key */
+  private boolean m_bMultipleKeys;
+
+  /** entries with a key whose boolean value is true resp. false */
+  private final List <Integer> m_aTrue = new ArrayList<> ();
+  private final List <Integer> m_aFalse = new ArrayList<> ();
+  /** entries with a boolean key item */
+  private final List <Integer> m_aTrueItems = new ArrayList<> ();
+  private final List <Integer> m_aFalseItems = new ArrayList<> ();
+  /** entries by the number value of their non-boolean keys */
+  private final Map <Double, List <Integer>> m_aNonBooleanNumbers = new HashMap<> ();
+  /** entries by the value of their number keys */
+  private final Map <Double, List <Integer>> m_aNumbers = new HashMap<> ();
+  /** entries by the string value of their other keys */
+  private final Map <String, List <Integer>> m_aStrings = new HashMap<> ();
+
+  /** Normalizes -0 to 0, because both are equal as numbers */
+  private static Double _key (final double d)
+  {
+    return Double.valueOf (d + 0.0);
+  }
+
+  private static <K> void _put (final Map <K, List <Integer>> map, final K key, final Integer entry)
+  {
+    List <Integer> entries = map.get (key);
+    if (entries == null)
+    {
+      entries = new ArrayList<> (1);
+      map.put (key, entries);
+    }
+    entries.add (entry);
+  }
+
+  /**
+   * Adds an entry. Entries without keys are ignored, because they can't be
+   * found.
+   *
+   * @param keys
+   *        the keys of the entry, a sequence
+   * @param value
+   *        the value of the entry, may be a sequence
+   */
+  public void add (final Value keys, final Value value)
+  {
+    if (keys.type == Value.EMPTY)
+      return;
+    if (keys.next != null)
+      m_bMultipleKeys = true;
+
+    final Integer entry = Integer.valueOf (m_aValues.size ());
+    m_aValues.add (value);
+    for (Value vi = keys; vi != null; vi = vi.next)
+    {
+      final boolean b = vi.getBooleanValue ();
+      (b ? m_aTrue : m_aFalse).add (entry);
+      switch (vi.type)
+      {
+        case Value.BOOLEAN:
+          (b ? m_aTrueItems : m_aFalseItems).add (entry);
+          break;
+        case Value.NUMBER:
+          final double d = vi.getNumberValue ();
+          if (!Double.isNaN (d))
+          {
+            _put (m_aNumbers, _key (d), entry);
+            _put (m_aNonBooleanNumbers, _key (d), entry);
+          }
+          break;
+        default:
+          final double n = vi.getNumberValue ();
+          if (!Double.isNaN (n))
+            _put (m_aNonBooleanNumbers, _key (n), entry);
+          _put (m_aStrings, vi.getStringValue (), entry);
+          break;
+      }
+    }
+  }
+
+  /** @return the number of entries */
+  public int size ()
+  {
+    return m_aValues.size ();
+  }
+
+  /** Adds the entries having a key equal to the given item */
+  private void _collect (final Value item, final List <List <Integer>> lists)
+  {
+    final boolean b = item.getBooleanValue ();
+    if (item.type == Value.BOOLEAN)
+    {
+      lists.add (b ? m_aTrue : m_aFalse);
+      return;
+    }
+    // boolean keys are compared as booleans
+    lists.add (b ? m_aTrueItems : m_aFalseItems);
+    final double d = item.getNumberValue ();
+    if (item.type == Value.NUMBER)
+    {
+      if (!Double.isNaN (d))
+        lists.add (m_aNonBooleanNumbers.get (_key (d)));
+      return;
+    }
+    if (!Double.isNaN (d))
+      lists.add (m_aNumbers.get (_key (d)));
+    lists.add (m_aStrings.get (item.getStringValue ()));
+  }
+
+  /**
+   * Looks up the entries for a key
+   *
+   * @param key
+   *        the requested key, if this is a sequence then each of its items
+   * @return a copy of the values of all matching entries, in the order of
+   *         their addition
+   */
+  public Value lookup (final Value key)
+  {
+    final List <List <Integer>> lists = new ArrayList<> ();
+    for (Value vi = key; vi != null && vi.type != Value.EMPTY; vi = vi.next)
+      _collect (vi, lists);
+
+    int total = 0;
+    List <Integer> single = null;
+    for (final List <Integer> entries : lists)
+      if (entries != null && !entries.isEmpty ())
+      {
+        total += entries.size ();
+        single = entries;
+      }
+    if (total == 0)
+      return Value.VAL_EMPTY;
+
+    int [] found;
+    int count;
+    if (total == single.size () && !m_bMultipleKeys)
+    {
+      // one list without duplicates, already in order
+      count = total;
+      found = new int [count];
+      for (int i = 0; i < count; i++)
+        found[i] = single.get (i).intValue ();
+    }
+    else
+    {
+      final int [] all = new int [total];
+      int n = 0;
+      for (final List <Integer> entries : lists)
+        if (entries != null)
+          for (final Integer entry : entries)
+            all[n++] = entry.intValue ();
+      Arrays.sort (all);
+      count = 0;
+      for (int i = 0; i < total; i++)
+        if (count == 0 || all[i] != all[count - 1])
+          all[count++] = all[i];
+      found = all;
+    }
+
+    Value result = null, last = null;
+    for (int i = 0; i < count; i++)
+    {
+      final Value value = m_aValues.get (found[i]);
+      if (value.type == Value.EMPTY)
+        continue;
+      final Value copy = value.copy ();
+      if (last == null)
+        result = copy;
+      else
+        last.next = copy;
+      last = copy;
+      while (last.next != null)
+        last = last.next;
+    }
+    return result == null ? Value.VAL_EMPTY : result;
+  }
+}
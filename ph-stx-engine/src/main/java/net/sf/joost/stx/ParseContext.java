@@ -27,6 +27,9 @@ import javax.xml.transform.URIResolver;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.Locator;
 
+import net.sf.joost.grammar.ExprParser;
+import net.sf.joost.grammar.PatternParser;
+import net.sf.joost.grammar.Yylex;
 import net.sf.joost.instruction.TransformFactory;
 import net.sf.joost.stx.function.FunctionFactory;
 
@@ -60,12 +63,46 @@ public final class ParseContext
   /** Are calls on Java extension functions allowed? */
   public boolean allowExternalFunctions = true;
 
+  /**
+   * Number of interpreted evaluations after which an expression gets compiled
+   * to bytecode, a negative value disables the compilation
+   */
+  public int compileThreshold = -1;
+
+  /**
+   * Set when an expression or pattern containing a call to a function with
+   * side effects has been parsed, reset by the {@link Parser} for each
+   * instruction
+   */
+  public boolean sideEffects;
+
   /**
    * The function table for maintaining function definitions, especially of the
    * script functions
    */
   private FunctionFactory functionFactory;
 
+  /**
+   * The symbol table for the names in name tests, shared with included
+   * transformation sheets
+   */
+  private QNameTable qNameTable;
+
+  /**
+   * The scanner and the parsers for expressions and patterns, reused for all
+   * attributes of this sheet
+   */
+  private Yylex lexer;
+  private ExprParser exprParser;
+  private PatternParser patternParser;
+
+  /**
+   * The caches of parsed expressions and patterns. Not shared with included
+   * transformation sheets, because these may have a different
+   * <code>stxpath-default-namespace</code>.
+   */
+  private ParsedTreeCache exprCache, patternCache;
+
   //
   // Constructors
   //
@@ -81,6 +118,8 @@ public final class ParseContext
     uriResolver = pContext.uriResolver;
     parserListener = pContext.parserListener;
     allowExternalFunctions = pContext.allowExternalFunctions;
+    compileThreshold = pContext.compileThreshold;
+    qNameTable = pContext.getQNameTable ();
   }
 
   //
@@ -107,4 +146,52 @@ public final class ParseContext
       functionFactory = new FunctionFactory (this);
     return functionFactory;
   }
+
+  /** Returns (and constructs if necessary) the symbol table for name tests */
+  public QNameTable getQNameTable ()
+  {
+    if (qNameTable == null)
+      qNameTable = new QNameTable ();
+    return qNameTable;
+  }
+
+  /** Returns (and constructs if necessary) the scanner for STXPath */
+  public Yylex getLexer ()
+  {
+    if (lexer == null)
+      lexer = new Yylex (null);
+    return lexer;
+  }
+
+  /** Returns (and constructs if necessary) the parser for expressions */
+  public ExprParser getExprParser ()
+  {
+    if (exprParser == null)
+      exprParser = new ExprParser (getLexer (), this);
+    return exprParser;
+  }
+
+  /** Returns (and constructs if necessary) the parser for patterns */
+  public PatternParser getPatternParser ()
+  {
+    if (patternParser == null)
+      patternParser = new PatternParser (getLexer (), this);
+    return patternParser;
+  }
+
+  /** Returns (and constructs if necessary) the cache of parsed expressions */
+  public ParsedTreeCache getExprCache ()
+  {
+    if (exprCache == null)
+      exprCache = new ParsedTreeCache ();
+    return exprCache;
+  }
+
+  /** Returns (and constructs if necessary) the cache of parsed patterns */
+  public ParsedTreeCache getPatternCache ()
+  {
+    if (patternCache == null)
+      patternCache = new ParsedTreeCache ();
+    return patternCache;
+  }
 }
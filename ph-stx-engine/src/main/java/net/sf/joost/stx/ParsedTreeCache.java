@@ -0,0 +1,153 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.joost.grammar.AbstractTree;
+
+/**
+ * Cache of the parsed expressions or patterns of an STX transformation sheet.
+ * Generated sheets often contain the same expression text many times, so every
+ * distinct text is parsed only once per set of in-scope namespaces and all
+ * occurrences share the resulting {@link AbstractTree}. A text without colon
+ * contains no prefixed name, so its tree doesn't depend on the namespaces at
+ * all. (Unprefixed name tests depend on the
+ * <code>stxpath-default-namespace</code> of the sheet, which is why included
+ * sheets have their own cache.)
+ * <p>
+ * Trees that keep runtime state depending on the location of the expression
+ * (see {@link AbstractTree#dependsOnLocation()}), for example the scope of a
+ * referenced variable, are never cached.
+ * <p>
+ * The cache is filled while the sheet is compiled only and is discarded
+ * together with its {@link ParseContext}.
+ *
+ * @author Philip Helger
+ */
+public final class ParsedTreeCache
+{
+  /** trees of texts without prefixed names */
+  private final Map <String, AbstractTree> m_aPlainTrees = new HashMap<> ();
+
+  /** trees of texts with prefixed names, per set of in-scope namespaces */
+  private final Map <Map <String, String>, Map <String, AbstractTree>> m_aNSTrees = new HashMap<> ();
+
+  /**
+   * The namespace set of the last lookup and its trees. The parser creates a
+   * new namespace set for every element, so this saves the hashing of the set
+   * for all attributes of an element.
+   */
+  private Map <String, String> m_aLastNSSet;
+  private Map <String, AbstractTree> m_aLastTrees;
+
+  private int m_nHits, m_nMisses;
+
+  private static boolean _isPlain (final String text)
+  {
+    return text.indexOf (':') == -1;
+  }
+
+  private Map <String, AbstractTree> _getTrees (final Map <String, String> nsSet, final boolean create)
+  {
+    if (nsSet != m_aLastNSSet || m_aLastTrees == null)
+    {
+      Map <String, AbstractTree> trees = m_aNSTrees.get (nsSet);
+      if (trees == null)
+      {
+        if (!create)
+          return null;
+        trees = new HashMap<> ();
+        m_aNSTrees.put (nsSet == null ? null : new HashMap<> (nsSet), trees);
+      }
+      m_aLastNSSet = nsSet;
+      m_aLastTrees = trees;
+    }
+    return m_aLastTrees;
+  }
+
+  /**
+   * @param text
+   *        the expression or pattern text
+   * @param nsSet
+   *        the namespaces in scope
+   * @return the cached tree or <code>null</code> if this text hasn't been
+   *         parsed with these namespaces yet
+   */
+  public AbstractTree get (final String text, final Map <String, String> nsSet)
+  {
+    AbstractTree tree;
+    if (_isPlain (text))
+      tree = m_aPlainTrees.get (text);
+    else
+    {
+      final Map <String, AbstractTree> trees = _getTrees (nsSet, false);
+      tree = trees == null ? null : trees.get (text);
+    }
+    if (tree == null)
+      m_nMisses++;
+    else
+      m_nHits++;
+    return tree;
+  }
+
+  /**
+   * Adds a successfully parsed tree to this cache, unless the tree depends on
+   * the location of the expression
+   *
+   * @param text
+   *        the expression or pattern text
+   * @param nsSet
+   *        the namespaces in scope
+   * @param tree
+   *        the tree for <code>text</code>
+   */
+  public void put (final String text, final Map <String, String> nsSet, final AbstractTree tree)
+  {
+    if (tree.dependsOnLocation ())
+      return;
+    if (_isPlain (text))
+      m_aPlainTrees.put (text, tree);
+    else
+      _getTrees (nsSet, true).put (text, tree);
+  }
+
+  /** @return the number of lookups that returned a cached tree */
+  public int getHitCount ()
+  {
+    return m_nHits;
+  }
+
+  /** @return the number of lookups that required the parsing of the text */
+  public int getMissCount ()
+  {
+    return m_nMisses;
+  }
+
+  /** @return the number of cached trees */
+  public int size ()
+  {
+    int size = m_aPlainTrees.size ();
+    for (final Map <String, AbstractTree> trees : m_aNSTrees.values ())
+      size += trees.size ();
+    return size;
+  }
+}
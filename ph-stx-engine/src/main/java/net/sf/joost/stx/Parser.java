@@ -315,6 +315,7 @@ public class Parser implements ContentHandler // , ErrorHandler
 
       AbstractNodeBase newNode;
       m_aPContext.nsSet = getInScopeNamespaces ();
+      m_aPContext.sideEffects = false;
       if (CSTX.STX_NS.equals (uri))
       {
         final AbstractFactoryBase fac = stxFactories.get (lName);
@@ -388,6 +389,17 @@ public class Parser implements ContentHandler // , ErrorHandler
       openedElements.push (currentNode);
       currentNode = newNode;
 
+      // remember the first instruction that prevents the parallel
+      // transformation of records
+      if (RecordSplitter.isStateful (newNode) || m_aPContext.sideEffects)
+      {
+        AbstractNodeBase root = newNode;
+        while (root.m_aParent != null)
+          root = root.m_aParent;
+        if (root instanceof TransformFactory.Instance && ((TransformFactory.Instance) root).m_aStatefulNode == null)
+          ((TransformFactory.Instance) root).m_aStatefulNode = newNode;
+      }
+
       if (m_aParserListener != null)
         m_aParserListener.nodeCreated (newNode);
     }
@@ -0,0 +1,524 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.instruction.AbstractGroupBase;
+import net.sf.joost.instruction.TemplateFactory;
+
+/**
+ * Shared automaton for the location paths of all template patterns of a
+ * transformation sheet. Each step of a pattern becomes a state of a
+ * non-deterministic automaton that reads the nodes on the ancestor stack from
+ * the document node to the current node. The deterministic states are created
+ * on demand and cached together with their transitions, and the state for
+ * each level of the ancestor stack is remembered, so that the set of the
+ * templates whose patterns match the structure of the ancestor stack is
+ * usually determined by a single transition lookup per event.
+ * <p>
+ * Predicates are not part of the automaton: templates with predicates must
+ * still be evaluated if the automaton accepts them. Patterns without
+ * predicates are matched exactly by the automaton. Patterns that can't be
+ * compiled are always evaluated.
+ * <p>
+ * An automaton belongs to one {@link Processor}, it is not thread-safe.
+ *
+ * @author Philip Helger
+ */
+public final class PatternAutomaton
+{
+  /** maximal number of cached deterministic states */
+  private static final int MAX_STATES = 4096;
+
+  // node tests
+  private static final int TEST_ROOT = 0;
+  private static final int TEST_ELEMENT = 1;
+  private static final int TEST_ATTRIBUTE = 2;
+  private static final int TEST_TEXT = 3;
+  private static final int TEST_CDATA = 4;
+  private static final int TEST_COMMENT = 5;
+  private static final int TEST_PI = 6;
+  private static final int TEST_NODE = 7;
+
+  /** A step of a pattern (state of the non-deterministic automaton) */
+  private static final class Step
+  {
+    final int m_nTest;
+    /** required URI and local name, <code>null</code> for a wildcard */
+    final String m_sURI, m_sLocalName;
+    /** index of the previous step of the pattern, -1 for the first step */
+    int m_nPrev = -1;
+    /** whether the previous step is connected with "//" */
+    boolean m_bDesc;
+    /** whether a following step is connected with "//" */
+    boolean m_bHasDescSuccessor;
+    /** the template index if this is the last step, otherwise -1 */
+    int m_nTemplate = -1;
+
+    Step (final int test, final String uri, final String localName)
+    {
+      m_nTest = test;
+      m_sURI = uri;
+      m_sLocalName = localName;
+    }
+
+    /**
+     * @return whether the node at the given position of the ancestor stack
+     *         passes the node test (cf. the <code>matches</code> methods of
+     *         the node test trees)
+     */
+    boolean test (final SAXEvent e, final int pos)
+    {
+      switch (m_nTest)
+      {
+        case TEST_ROOT:
+          return pos == 0;
+        case TEST_ELEMENT:
+          return pos >= 1 &&
+                 e.m_nType == SAXEvent.ELEMENT &&
+                 (m_sURI == null || m_sURI.equals (e.m_sURI)) &&
+                 (m_sLocalName == null || m_sLocalName.equals (e.m_sLocalName));
+        case TEST_ATTRIBUTE:
+          return pos >= 2 &&
+                 e.m_nType == SAXEvent.ATTRIBUTE &&
+                 (m_sURI == null || m_sURI.equals (e.m_sURI)) &&
+                 (m_sLocalName == null || m_sLocalName.equals (e.m_sLocalName));
+        case TEST_TEXT:
+          return pos >= 1 && (e.m_nType == SAXEvent.TEXT || e.m_nType == SAXEvent.CDATA);
+        case TEST_CDATA:
+          return pos >= 1 && e.m_nType == SAXEvent.CDATA;
+        case TEST_COMMENT:
+          return pos >= 1 && e.m_nType == SAXEvent.COMMENT;
+        case TEST_PI:
+          return pos >= 1 && e.m_nType == SAXEvent.PI && (m_sLocalName == null || m_sLocalName.equals (e.m_sQName));
+        case TEST_NODE:
+          return pos >= 1 && e.m_nType != SAXEvent.ATTRIBUTE;
+        default:
+          return false;
+      }
+    }
+  }
+
+  /**
+   * A deterministic state: the steps that match the node at the current level,
+   * the steps that matched at a lower level and have a "//" successor, and the
+   * level (up to 2, the largest level tested by a pattern)
+   */
+  public static final class State
+  {
+    /** sorted step indexes, followed by the waiting steps (+ step count) */
+    private final int [] m_aKey;
+    private final int m_nLevel;
+    private final int m_nHash;
+    private final BitSet m_aAccepted;
+
+    // cached transitions
+    private State m_aRootNext, m_aTextNext, m_aCDataNext, m_aCommentNext;
+    private Map <String, Map <String, State>> m_aElementNext, m_aAttributeNext;
+    private Map <String, State> m_aPINext;
+
+    State (final int [] key, final int level, final BitSet accepted)
+    {
+      m_aKey = key;
+      m_nLevel = level;
+      m_nHash = Arrays.hashCode (key) * 3 + level;
+      m_aAccepted = accepted;
+    }
+
+    /**
+     * @param index
+     *        a template index (see {@link PatternAutomaton#getIndexes})
+     * @return whether the pattern of the template matches the structure of
+     *         the ancestor stack
+     */
+    public boolean accepts (final int index)
+    {
+      return m_aAccepted.get (index);
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (!(o instanceof State))
+        return false;
+      final State s = (State) o;
+      return m_nLevel == s.m_nLevel && Arrays.equals (m_aKey, s.m_aKey);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHash;
+    }
+  }
+
+  /** all steps of all compiled patterns */
+  private final List <Step> m_aSteps = new ArrayList<> ();
+
+  /** the template index for each template array */
+  private final Map <TemplateFactory.Instance [], int []> m_aIndexes = new IdentityHashMap<> ();
+
+  /** whether the patterns are completely represented by the automaton */
+  private final BitSet m_aExact = new BitSet ();
+
+  /** the deterministic state before the document node */
+  private final State m_aStart;
+
+  /** the cached deterministic states */
+  private final Map <State, State> m_aStates = new HashMap<> ();
+
+  /** the ancestor stack and its states when the last state was requested */
+  private SAXEvent [] m_aStackEvents = new SAXEvent [32];
+  private State [] m_aStackStates = new State [32];
+
+  /**
+   * Compiles the patterns of all templates of a transformation sheet.
+   *
+   * @param transformNode
+   *        the root of the transformation sheet
+   * @param globalTemplates
+   *        the global templates
+   */
+  public PatternAutomaton (final AbstractGroupBase transformNode, final TemplateFactory.Instance [] globalTemplates)
+  {
+    final Map <TemplateFactory.Instance, Integer> templates = new IdentityHashMap<> ();
+    _addTemplates (globalTemplates, templates);
+    _addGroup (transformNode, templates);
+
+    m_aStart = _intern (new State (new int [0], 0, new BitSet ()));
+  }
+
+  private void _addGroup (final AbstractGroupBase group, final Map <TemplateFactory.Instance, Integer> templates)
+  {
+    _addTemplates (group.m_aVisibleTemplates, templates);
+    _addTemplates (group.m_aGroupTemplates, templates);
+    final AbstractGroupBase [] groups = group.getContainedGroups ();
+    if (groups != null)
+      for (final AbstractGroupBase sub : groups)
+        _addGroup (sub, templates);
+  }
+
+  private void _addTemplates (final TemplateFactory.Instance [] array,
+                              final Map <TemplateFactory.Instance, Integer> templates)
+  {
+    if (array == null || m_aIndexes.containsKey (array))
+      return;
+    final int [] indexes = new int [array.length];
+    for (int i = 0; i < array.length; i++)
+    {
+      Integer index = templates.get (array[i]);
+      if (index == null)
+      {
+        index = Integer.valueOf (_compile (array[i].getMatchPattern (), templates.size ()));
+        templates.put (array[i], index);
+      }
+      indexes[i] = index.intValue ();
+    }
+    m_aIndexes.put (array, indexes);
+  }
+
+  /**
+   * Compiles a pattern into steps.
+   *
+   * @return the template index, -1 if the pattern can't be compiled
+   */
+  private int _compile (final AbstractTree pattern, final int index)
+  {
+    // collect the steps from the last to the first
+    final List <AbstractTree> trees = new ArrayList<> ();
+    final List <Boolean> desc = new ArrayList<> ();
+    boolean exact = true;
+    AbstractTree tree = pattern;
+    while (tree != null)
+    {
+      AbstractTree step = tree;
+      final int type = tree.getType ();
+      if (type == AbstractTree.CHILD || type == AbstractTree.DESC)
+      {
+        step = tree.m_aRight;
+        desc.add (Boolean.valueOf (type == AbstractTree.DESC));
+        tree = tree.m_aLeft;
+        if (tree == null)
+          return -1;
+      }
+      else
+      {
+        desc.add (Boolean.FALSE);
+        tree = null;
+      }
+      if (step.getType () == AbstractTree.PREDICATE)
+      {
+        exact = false;
+        step = step.m_aLeft;
+      }
+      trees.add (step);
+    }
+
+    final int first = m_aSteps.size ();
+    for (int i = trees.size () - 1; i >= 0; i--)
+    {
+      final Step step = _createStep (trees.get (i), i == trees.size () - 1);
+      if (step == null)
+      {
+        // remove the steps of this pattern
+        while (m_aSteps.size () > first)
+          m_aSteps.remove (m_aSteps.size () - 1);
+        return -1;
+      }
+      if (i < trees.size () - 1)
+      {
+        step.m_nPrev = m_aSteps.size () - 1;
+        step.m_bDesc = desc.get (i).booleanValue ();
+        if (step.m_bDesc)
+          m_aSteps.get (step.m_nPrev).m_bHasDescSuccessor = true;
+      }
+      m_aSteps.add (step);
+    }
+    m_aSteps.get (m_aSteps.size () - 1).m_nTemplate = index;
+    if (exact)
+      m_aExact.set (index);
+    return index;
+  }
+
+  /** @return the step for a node test, <code>null</code> if not supported */
+  private static Step _createStep (final AbstractTree tree, final boolean first)
+  {
+    switch (tree.getType ())
+    {
+      case AbstractTree.ROOT:
+        // the root may only be the first step
+        return first && tree.m_aLeft == null ? new Step (TEST_ROOT, null, null) : null;
+      case AbstractTree.NAME_TEST:
+        return new Step (TEST_ELEMENT, tree.m_sURI, tree.m_sLocalName);
+      case AbstractTree.WILDCARD:
+        return new Step (TEST_ELEMENT, null, null);
+      case AbstractTree.URI_WILDCARD:
+        return new Step (TEST_ELEMENT, null, tree.m_sLocalName);
+      case AbstractTree.LOCAL_WILDCARD:
+        return new Step (TEST_ELEMENT, tree.m_sURI, null);
+      case AbstractTree.ATTR:
+        return new Step (TEST_ATTRIBUTE, tree.m_sURI, tree.m_sLocalName);
+      case AbstractTree.ATTR_WILDCARD:
+        return new Step (TEST_ATTRIBUTE, null, null);
+      case AbstractTree.ATTR_URI_WILDCARD:
+        return new Step (TEST_ATTRIBUTE, null, tree.m_sLocalName);
+      case AbstractTree.ATTR_LOCAL_WILDCARD:
+        return new Step (TEST_ATTRIBUTE, tree.m_sURI, null);
+      case AbstractTree.NODE_TEST:
+        return new Step (TEST_NODE, null, null);
+      case AbstractTree.TEXT_TEST:
+        return new Step (TEST_TEXT, null, null);
+      case AbstractTree.CDATA_TEST:
+        return new Step (TEST_CDATA, null, null);
+      case AbstractTree.COMMENT_TEST:
+        return new Step (TEST_COMMENT, null, null);
+      case AbstractTree.PI_TEST:
+        return new Step (TEST_PI, null, (String) tree.m_aValue);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @param templates
+   *        a template array of a group or the global templates
+   * @return the index of each template for {@link State#accepts(int)} and
+   *         {@link #isExact(int)}, -1 for templates that must always be
+   *         evaluated; <code>null</code> if the array is unknown
+   */
+  public int [] getIndexes (final TemplateFactory.Instance [] templates)
+  {
+    return m_aIndexes.get (templates);
+  }
+
+  /**
+   * @param index
+   *        a template index
+   * @return <code>true</code> if the pattern of this template has no
+   *         predicates, i.e. if its acceptance by the automaton is
+   *         sufficient
+   */
+  public boolean isExact (final int index)
+  {
+    return m_aExact.get (index);
+  }
+
+  /**
+   * Determines the state for an ancestor stack. The states of the lower
+   * levels are reused if the events at these levels didn't change since the
+   * previous invocation.
+   *
+   * @param stack
+   *        the ancestor stack
+   * @return the state after reading all events on the stack
+   */
+  public State getState (final Stack <SAXEvent> stack)
+  {
+    final int size = stack.size ();
+    if (size > m_aStackEvents.length)
+    {
+      m_aStackEvents = Arrays.copyOf (m_aStackEvents, Math.max (size, 2 * m_aStackEvents.length));
+      m_aStackStates = Arrays.copyOf (m_aStackStates, m_aStackEvents.length);
+    }
+    // find the highest level that is still valid
+    int level = size - 1;
+    while (level >= 0 && m_aStackEvents[level] != stack.elementAt (level))
+      level--;
+    State state = level >= 0 ? m_aStackStates[level] : m_aStart;
+    while (++level < size)
+    {
+      final SAXEvent event = stack.elementAt (level);
+      state = _next (state, event);
+      m_aStackEvents[level] = event;
+      m_aStackStates[level] = state;
+    }
+    return state;
+  }
+
+  /** @return the state after reading an event, cached if possible */
+  private State _next (final State state, final SAXEvent e)
+  {
+    State next;
+    switch (e.m_nType)
+    {
+      case SAXEvent.ROOT:
+        if (state.m_aRootNext == null)
+          state.m_aRootNext = _createNext (state, e);
+        return state.m_aRootNext;
+      case SAXEvent.TEXT:
+        if (state.m_aTextNext == null)
+          state.m_aTextNext = _createNext (state, e);
+        return state.m_aTextNext;
+      case SAXEvent.CDATA:
+        if (state.m_aCDataNext == null)
+          state.m_aCDataNext = _createNext (state, e);
+        return state.m_aCDataNext;
+      case SAXEvent.COMMENT:
+        if (state.m_aCommentNext == null)
+          state.m_aCommentNext = _createNext (state, e);
+        return state.m_aCommentNext;
+      case SAXEvent.PI:
+        if (state.m_aPINext == null)
+          state.m_aPINext = new HashMap<> ();
+        next = state.m_aPINext.get (e.m_sQName);
+        if (next == null)
+        {
+          next = _createNext (state, e);
+          state.m_aPINext.put (e.m_sQName, next);
+        }
+        return next;
+      case SAXEvent.ELEMENT:
+        if (state.m_aElementNext == null)
+          state.m_aElementNext = new HashMap<> ();
+        return _next (state.m_aElementNext, state, e);
+      case SAXEvent.ATTRIBUTE:
+        if (state.m_aAttributeNext == null)
+          state.m_aAttributeNext = new HashMap<> ();
+        return _next (state.m_aAttributeNext, state, e);
+      default:
+        return _createNext (state, e);
+    }
+  }
+
+  private State _next (final Map <String, Map <String, State>> transitions, final State state, final SAXEvent e)
+  {
+    Map <String, State> byURI = transitions.get (e.m_sLocalName);
+    if (byURI == null)
+    {
+      byURI = new HashMap<> (4);
+      transitions.put (e.m_sLocalName, byURI);
+    }
+    State next = byURI.get (e.m_sURI);
+    if (next == null)
+    {
+      next = _createNext (state, e);
+      byURI.put (e.m_sURI, next);
+    }
+    return next;
+  }
+
+  /** Computes the successor state of the non-deterministic automaton */
+  private State _createNext (final State state, final SAXEvent e)
+  {
+    final int stepCount = m_aSteps.size ();
+    final int pos = state.m_nLevel;
+    // steps that matched at the previous level resp. at any lower level
+    final boolean [] matched = new boolean [stepCount];
+    final boolean [] waiting = new boolean [stepCount];
+    for (final int k : state.m_aKey)
+      if (k < stepCount)
+      {
+        matched[k] = true;
+        if (m_aSteps.get (k).m_bHasDescSuccessor)
+          waiting[k] = true;
+      }
+      else
+        waiting[k - stepCount] = true;
+
+    final int [] key = new int [2 * stepCount];
+    int n = 0;
+    final BitSet accepted = new BitSet ();
+    for (int i = 0; i < stepCount; i++)
+    {
+      final Step step = m_aSteps.get (i);
+      final boolean active;
+      if (step.m_nPrev == -1)
+        active = step.test (e, pos);
+      else
+        if (step.m_bDesc)
+          active = waiting[step.m_nPrev] && pos >= 2 && step.test (e, pos);
+        else
+          active = matched[step.m_nPrev] && step.test (e, pos);
+      if (active)
+      {
+        key[n++] = i;
+        if (step.m_nTemplate >= 0)
+          accepted.set (step.m_nTemplate);
+      }
+    }
+    for (int i = 0; i < stepCount; i++)
+      if (waiting[i])
+        key[n++] = stepCount + i;
+
+    return _intern (new State (Arrays.copyOf (key, n), Math.min (pos + 1, 2), accepted));
+  }
+
+  private State _intern (final State state)
+  {
+    final State cached = m_aStates.get (state);
+    if (cached != null)
+      return cached;
+    // limit the memory for pathological patterns, the states in use remain
+    // valid
+    if (m_aStates.size () >= MAX_STATES)
+      m_aStates.clear ();
+    m_aStates.put (state, state);
+    return state;
+  }
+}
@@ -96,6 +96,12 @@ public class Processor extends XMLFilterImpl
    */
   private TemplateFactory.Instance [] m_aGlobalTemplates;
 
+  /** The automaton for the patterns of all templates */
+  private PatternAutomaton m_aPatternAutomaton;
+
+  /** assigns the name ids of the sheet's symbol table to the events */
+  private QNameTable.Resolver m_aQNameResolver;
+
   /** The Context object */
   private Context m_aContext;
 
@@ -153,6 +159,15 @@ public class Processor extends XMLFilterImpl
 
   private final boolean m_bIsProcessorClass = getClass ().equals (Processor.class);
 
+  /** the optional profiler */
+  private SamplingProfiler m_aProfiler;
+
+  /** the probe of {@link #m_aProfiler} for this processor */
+  private SamplingProfiler.Probe m_aProbe;
+
+  /** the splitter of the current parallel record transformation */
+  private RecordSplitter m_aRecordSplitter;
+
   // **********************************************************************
   /**
    * Inner class for data which is processing/template specific. Objects of this
@@ -456,9 +471,31 @@ public class Processor extends XMLFilterImpl
     m_aGlobalTemplates = AbstractInstruction.deepTemplateArrayCopy (proc.m_aGlobalTemplates, copies);
     init ((TransformFactory.Instance) proc.m_aTransformNode.deepCopy (copies));
     setParent (createXMLReader ());
+    copySettings (proc);
+    if (proc.m_aContext.metrics != null)
+      setMetrics (proc.m_aContext.metrics.createSibling ());
+  }
+
+  /**
+   * Takes over the settings of another processor for the same transformation
+   * sheet: resolvers, the result document writer pool, the character buffer
+   * size, the input options, the record splitting and the profiler. Used for
+   * copies and when switching between a normal and a debug processor.
+   *
+   * @param proc
+   *        the processor whose settings will be used
+   */
+  public void copySettings (final Processor proc)
+  {
     setTransformerHandlerResolver (proc.m_aContext.defaultTransformerHandlerResolver.customResolver);
     setOutputURIResolver (proc.m_aContext.outputUriResolver);
-
+    setResultDocumentWriterPool (proc.m_aContext.resultDocumentWriterPool);
+    setCharacterBufferSize (proc.m_aContext.m_aEmitter.getCharacterBufferSize ());
+    setMappedFileInput (proc.m_aContext.mappedFileInput);
+    setRecordPath (proc.m_aContext.recordPath);
+    setRecordThreads (proc.m_aContext.recordThreads);
+    if (proc.m_aProfiler != m_aProfiler)
+      setProfiler (proc.m_aProfiler);
   }
 
   /**
@@ -537,6 +574,7 @@ public class Processor extends XMLFilterImpl
     m_aContext = new Context ();
 
     m_aContext.m_aEmitter = initializeEmitter (m_aContext);
+    m_aContext.m_aEmitter.setCharacterBufferSize (Emitter.DEFAULT_CHARACTER_BUFFER_SIZE);
 
     m_aEventStack = m_aContext.ancestorStack;
 
@@ -560,6 +598,8 @@ public class Processor extends XMLFilterImpl
       tempVec.toArray (m_aGlobalTemplates);
       Arrays.sort (m_aGlobalTemplates);
     }
+    m_aPatternAutomaton = new PatternAutomaton (m_aTransformNode, m_aGlobalTemplates);
+    m_aQNameResolver = m_aTransformNode.m_aQNameTable.newResolver ();
     initOutputProperties ();
   }
 
@@ -763,6 +803,151 @@ public class Processor extends XMLFilterImpl
     m_aContext.outputUriResolver = resolver;
   }
 
+  /**
+   * Registers a {@link ResultDocumentWriterPool} for writing the files of
+   * <code>stx:result-document</code> asynchronously. <code>null</code>
+   * (default) means synchronous writing on the transformation thread.
+   *
+   * @param pool
+   *        the pool to be registered
+   */
+  public void setResultDocumentWriterPool (final ResultDocumentWriterPool pool)
+  {
+    m_aContext.resultDocumentWriterPool = pool;
+  }
+
+  /**
+   * Sets the maximum number of adjacent characters of the result that will be
+   * coalesced into one <code>characters</code> event.
+   *
+   * @param size
+   *        the maximum number of characters, <code>0</code> disables the
+   *        coalescing
+   * @see Emitter#setCharacterBufferSize(int)
+   */
+  public void setCharacterBufferSize (final int size)
+  {
+    m_aContext.m_aEmitter.setCharacterBufferSize (size);
+  }
+
+  /**
+   * Determines whether a transformation via TrAX reads a local input file that
+   * is given only by its system ID through a
+   * {@link net.sf.joost.util.MappedFileInputStream}.
+   *
+   * @param mapped
+   *        <code>true</code> for memory mapped input
+   */
+  public void setMappedFileInput (final boolean mapped)
+  {
+    m_aContext.mappedFileInput = mapped;
+  }
+
+  /**
+   * @return whether local input files will be read via memory mapping
+   * @see #setMappedFileInput(boolean)
+   */
+  public boolean isMappedFileInput ()
+  {
+    return m_aContext.mappedFileInput;
+  }
+
+  /**
+   * Sets the path of record elements whose subtrees will be transformed in
+   * parallel by a {@link RecordSplitter} when the transformation is invoked
+   * via TrAX.
+   *
+   * @param path
+   *        the record path (see {@link RecordSplitter}), <code>null</code>
+   *        (default) for a sequential transformation
+   */
+  public void setRecordPath (final String path)
+  {
+    m_aContext.recordPath = path;
+  }
+
+  /**
+   * @return the path of record elements that will be transformed in parallel
+   * @see #setRecordPath(String)
+   */
+  public String getRecordPath ()
+  {
+    return m_aContext.recordPath;
+  }
+
+  /**
+   * Sets the number of threads for the parallel transformation of records.
+   *
+   * @param threads
+   *        the number of threads, <code>0</code> for the number of available
+   *        processors
+   */
+  public void setRecordThreads (final int threads)
+  {
+    m_aContext.recordThreads = threads;
+  }
+
+  /**
+   * @return the number of threads for the parallel transformation of records
+   * @see #setRecordThreads(int)
+   */
+  public int getRecordThreads ()
+  {
+    return m_aContext.recordThreads;
+  }
+
+  /**
+   * Registers the splitter that transforms the current records, called by
+   * {@link RecordSplitter} only
+   */
+  void setRecordSplitter (final RecordSplitter splitter)
+  {
+    m_aRecordSplitter = splitter;
+  }
+
+  /** @return the root node of the compiled transformation sheet */
+  TransformFactory.Instance getTransformNode ()
+  {
+    return m_aTransformNode;
+  }
+
+  /**
+   * Registers a {@link TransformationMetrics} object that collects counters
+   * during the transformations of this processor. A copy of this processor
+   * (see {@link #copy()}) gets its own metrics object with the same parent.
+   *
+   * @param metrics
+   *        the metrics object, <code>null</code> (default) disables the
+   *        collection
+   */
+  public void setMetrics (final TransformationMetrics metrics)
+  {
+    m_aContext.metrics = metrics;
+    m_aContext.m_aEmitter.setMetrics (metrics);
+  }
+
+  /**
+   * Registers a {@link SamplingProfiler} that samples the instructions
+   * executed by this processor. The profiler must be started separately.
+   *
+   * @param profiler
+   *        the profiler, <code>null</code> (default) disables profiling
+   */
+  public void setProfiler (final SamplingProfiler profiler)
+  {
+    m_aProfiler = profiler;
+    m_aProbe = profiler == null ? null : profiler.createProbe ();
+  }
+
+  /**
+   * @return the metrics of the current or the last transformation,
+   *         <code>null</code> if no metrics will be collected
+   */
+  public TransformationMetrics getMetrics ()
+  {
+    return m_aContext.metrics;
+  }
+
   /**
    * Registers a message emitter for <code>stx:message</code>
    *
@@ -856,20 +1041,38 @@ public class Processor extends XMLFilterImpl
                                                     top.targetGroup.m_aGroupTemplates,
                                                     m_aGlobalTemplates };
 
+    final TransformationMetrics metrics = m_aContext.metrics;
+
+    // the templates whose patterns match the structure of the event stack
+    final PatternAutomaton.State state = m_aPatternAutomaton.getState (m_aEventStack);
+    int [] indexes = null;
+
     // look up for a matching template in the categories
     for (int i = 0; i < precCats.length && category == null; i++)
+    {
+      indexes = m_aPatternAutomaton.getIndexes (precCats[i]);
       for (int j = 0; j < precCats[i].length; j++)
-        if (precCats[i][j].matches (m_aContext, true) && (notSelf || foundUnprocessedTemplate (precCats[i][j])))
+      {
+        final int index = indexes == null ? -1 : indexes[j];
+        if (index >= 0 && !state.accepts (index))
+          continue;
+        if (metrics != null)
+          metrics.countPatternEvaluation ();
+        if (_matches (precCats[i][j], index, true) && (notSelf || foundUnprocessedTemplate (precCats[i][j])))
         {
           // bingo!
           category = precCats[i];
           tempIndex = j;
           break;
         }
+      }
+    }
 
     if (category != null)
     { // means, we found a template
       found = category[tempIndex];
+      if (metrics != null)
+        metrics.countTemplateMatch (found);
       final double priority = found.getPriority ();
       // look for more templates with the same priority in the same
       // category
@@ -877,7 +1080,12 @@ public class Processor extends XMLFilterImpl
       {
         for (; tempIndex < category.length && priority == category[tempIndex].getPriority (); tempIndex++)
         {
-          if (category[tempIndex].matches (m_aContext, false))
+          final int index = indexes == null ? -1 : indexes[tempIndex];
+          if (index >= 0 && !state.accepts (index))
+            continue;
+          if (metrics != null)
+            metrics.countPatternEvaluation ();
+          if (_matches (category[tempIndex], index, false))
             m_aContext.m_aErrorHandler.error ("Ambigous template rule with priority " +
                                               priority +
                                               ", found matching template rule already in line " +
@@ -893,6 +1101,23 @@ public class Processor extends XMLFilterImpl
     return found;
   }
 
+  /**
+   * Evaluates the pattern of a template that has been accepted by the pattern
+   * automaton
+   *
+   * @param index
+   *        the index of the template in the automaton, -1 if it must be
+   *        evaluated completely
+   */
+  private boolean _matches (final TemplateFactory.Instance temp,
+                            final int index,
+                            final boolean setPosition) throws SAXException
+  {
+    if (index >= 0 && m_aPatternAutomaton.isExact (index))
+      return temp.matchesLastStep (m_aContext, setPosition);
+    return temp.matches (m_aContext, setPosition);
+  }
+
   /** contains the last return value after processing STX instructions */
   private int processStatus;
 
@@ -915,11 +1140,15 @@ public class Processor extends XMLFilterImpl
   {
     processStatus = CSTX.PR_CONTINUE;
 
+    // the instruction sampled by a profiler will be restored at the end
+    final SamplingProfiler.Probe probe = m_aProbe;
+    final AbstractInstruction prevInst = probe != null ? probe.m_aCurrent : null;
+
     AbstractInstruction inst = aInst;
     while (inst != null && processStatus == CSTX.PR_CONTINUE)
     {
       // check, if this is the original class: call process() directly
-      if (m_bIsProcessorClass)
+      if (m_bIsProcessorClass && probe == null)
       {
         while (inst != null && processStatus == CSTX.PR_CONTINUE)
         {
@@ -932,13 +1161,16 @@ public class Processor extends XMLFilterImpl
           inst = inst.next;
         }
       }
-      // otherwise: this is a derived class
+      // otherwise: this is a derived class or a profiler is active
       else
       {
         while (inst != null && processStatus == CSTX.PR_CONTINUE)
         {
+          // publish the current instruction for the profiler
+          if (probe != null)
+            probe.m_aCurrent = inst;
           // skip ProcessBase if requested
-          if (skipProcessBase && inst.getNode () instanceof AbstractProcessBase)
+          if (m_bIsProcessorClass || (skipProcessBase && inst.getNode () instanceof AbstractProcessBase))
             processStatus = inst.process (m_aContext);
           else
             processStatus = processInstruction (inst, event);
@@ -954,6 +1186,8 @@ public class Processor extends XMLFilterImpl
         processStatus = CSTX.PR_CONTINUE;
       }
     }
+    if (probe != null)
+      probe.m_aCurrent = prevInst;
     return inst;
   }
 
@@ -1244,12 +1478,21 @@ public class Processor extends XMLFilterImpl
       m_aLastElement.enableChildNodes (true);
     }
 
+    // a record will be transformed separately, see RecordSplitter
+    final boolean record = m_aRecordSplitter != null && m_aRecordSplitter.isRecordEnd ();
+    if (record)
+      m_aRecordSplitter.processRecord (m_aEventStack.peek (), m_aContext.m_aEmitter);
+
     // put last element on the event stack
-    m_aEventStack.peek ().countElement (m_aLastElement.m_sURI, m_aLastElement.m_sLocalName);
+    m_aQNameResolver.resolve (m_aLastElement);
+    m_aEventStack.peek ().countElement (m_aLastElement);
     m_aEventStack.push (m_aLastElement);
 
     m_aLastElement = null;
-    processEvent ();
+    if (record)
+      m_nSkipDepth = 1;
+    else
+      processEvent ();
   }
 
   /**
@@ -1322,6 +1565,7 @@ public class Processor extends XMLFilterImpl
         if (log.isDebugEnabled ())
           log.debug (attrs.getQName (i));
       final SAXEvent ev = SAXEvent.newAttribute (attrs, i);
+      m_aQNameResolver.resolve (ev);
       m_aEventStack.push (ev);
       processEvent ();
       m_aEventStack.pop ();
@@ -1601,6 +1845,13 @@ public class Processor extends XMLFilterImpl
     // not at the begin of processing another document
     if (m_aInnerProcStack.empty ())
     {
+      if (m_aContext.metrics != null)
+        m_aContext.metrics.startTransformation ();
+      if (m_aProbe != null)
+        m_aProbe.attach ();
+      // errors of an aborted previous transformation
+      if (m_aContext.resultDocumentWriterPool != null)
+        m_aContext.resultDocumentWriterPool.discardFailures (m_aContext.m_aErrorHandler);
       // initialize all group stx:variables
       m_aTransformNode.initGroupVariables (m_aContext);
       m_aContext.m_aEmitter.startDocument ();
@@ -1611,6 +1862,9 @@ public class Processor extends XMLFilterImpl
       m_aContext.ancestorStack = m_aEventStack = new Stack<> ();
     }
 
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.ROOT);
+
     m_aEventStack.push (SAXEvent.newRoot ());
 
     processEvent ();
@@ -1699,6 +1953,19 @@ public class Processor extends XMLFilterImpl
         {
           m_aTransformNode.exitRecursionLevel (m_aContext);
           m_aContext.m_aEmitter.endDocument (m_aTransformNode);
+          final TransformationMetrics metrics = m_aContext.metrics;
+          // wait for pending result documents and report their errors
+          if (m_aContext.resultDocumentWriterPool != null)
+          {
+            final long start = metrics != null ? System.nanoTime () : 0;
+            m_aContext.resultDocumentWriterPool.flush (m_aContext.m_aErrorHandler);
+            if (metrics != null)
+              metrics.addPhaseTime (TransformationMetrics.PHASE_RESULT_DOCUMENT_FLUSH, System.nanoTime () - start);
+          }
+          if (metrics != null)
+            metrics.endTransformation ();
+          if (m_aProbe != null)
+            m_aProbe.detach ();
         }
         else
           m_aEventStack = m_aContext.ancestorStack = (Stack <SAXEvent>) m_aInnerProcStack.pop ();
@@ -1722,6 +1989,12 @@ public class Processor extends XMLFilterImpl
         log.debug ("dataStack: " + dataStack);
       }
 
+    if (m_aContext.metrics != null)
+    {
+      m_aContext.metrics.countEvent (SAXEvent.ELEMENT);
+      m_aContext.metrics.countEvents (SAXEvent.ATTRIBUTE, attrs.getLength ());
+    }
+
     // look-ahead mechanism
     if (m_aLastElement != null)
       processLastElement (true);
@@ -1758,6 +2031,9 @@ public class Processor extends XMLFilterImpl
         // log.debug("dataStack: " + dataStack.toString());
       }
 
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.ELEMENT_END);
+
     if (m_aLastElement != null)
       processLastElement (false);
 
@@ -1869,6 +2145,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void characters (final char [] ch, final int start, final int length) throws SAXException
   {
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.TEXT);
+
     if (m_nSkipDepth > 0)
     {
       if (m_aContext.targetHandler != null)
@@ -1890,6 +2169,9 @@ public class Processor extends XMLFilterImpl
     if (m_bInsideDTD)
       return;
 
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.PI);
+
     if (m_aLastElement != null)
       processLastElement (true);
 
@@ -1916,6 +2198,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void startPrefixMapping (final String prefix, final String uri) throws SAXException
   {
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.MAPPING);
+
     if (m_aLastElement != null)
       processLastElement (true);
 
@@ -1941,6 +2226,9 @@ public class Processor extends XMLFilterImpl
   @Override
   public void endPrefixMapping (final String prefix) throws SAXException
   {
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.MAPPING_END);
+
     if (m_aContext.targetHandler != null)
       m_aContext.targetHandler.endPrefixMapping (prefix);
   }
@@ -1986,6 +2274,9 @@ public class Processor extends XMLFilterImpl
     if (CSTX.DEBUG)
       log.debug ("");
 
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.CDATA);
+
     if (m_nSkipDepth > 0)
     {
       if (m_aContext.targetHandler != null)
@@ -2038,6 +2329,9 @@ public class Processor extends XMLFilterImpl
     if (m_bInsideDTD)
       return;
 
+    if (m_aContext.metrics != null)
+      m_aContext.metrics.countEvent (SAXEvent.COMMENT);
+
     if (m_aLastElement != null)
       processLastElement (true);
 
@@ -0,0 +1,183 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Symbol table of the expanded names used in the name tests of an STX
+ * transformation sheet (including all included sheets). Each pair of namespace
+ * URI and local name gets a positive integer id while the sheet is compiled.
+ * The wildcard forms <code>*:lname</code> and <code>prefix:*</code> are stored
+ * as pairs whose URI resp. local name is <code>"*"</code>.
+ * <p>
+ * The table is filled by the parser only and is read-only afterwards, so it
+ * can be shared by all processors created from the same sheet. Each processor
+ * resolves the names of its element and attribute events with a
+ * {@link Resolver}, after which all name tests are integer comparisons (see
+ * {@link SAXEvent#hasName(QNameTable, int, String, String)}).
+ *
+ * @author Philip Helger
+ */
+public final class QNameTable
+{
+  /** The id of all names that don't occur in any name test */
+  public static final int UNKNOWN = 0;
+
+  /** Name for the wildcard parts of a name test */
+  public static final String WILDCARD = "*";
+
+  private final Map <String, Integer> m_aIds = new HashMap<> ();
+
+  private static String _getKey (final String uri, final String lName)
+  {
+    return "{" + uri + "}" + lName;
+  }
+
+  /**
+   * Adds a name to this table. Must be called only while the transformation
+   * sheet is being compiled.
+   *
+   * @param uri
+   *        the namespace URI or {@link #WILDCARD}
+   * @param lName
+   *        the local name or {@link #WILDCARD}
+   * @return the id of the name
+   */
+  public int intern (final String uri, final String lName)
+  {
+    final String key = _getKey (uri, lName);
+    final Integer id = m_aIds.get (key);
+    if (id != null)
+      return id.intValue ();
+    final int newId = m_aIds.size () + 1;
+    m_aIds.put (key, Integer.valueOf (newId));
+    return newId;
+  }
+
+  /**
+   * @param uri
+   *        the namespace URI or {@link #WILDCARD}
+   * @param lName
+   *        the local name or {@link #WILDCARD}
+   * @return the id of the name, {@link #UNKNOWN} if it is not in this table
+   */
+  public int getId (final String uri, final String lName)
+  {
+    final Integer id = m_aIds.get (_getKey (uri, lName));
+    return id == null ? UNKNOWN : id.intValue ();
+  }
+
+  /** @return the number of names in this table */
+  public int size ()
+  {
+    return m_aIds.size ();
+  }
+
+  /** @return a new resolver for a processor */
+  public Resolver newResolver ()
+  {
+    return new Resolver (this);
+  }
+
+  // *******************************************************************
+
+  /**
+   * Assigns the ids to the names of element and attribute events. Parsers
+   * usually return the same string object for each occurrence of a qualified
+   * name, so the resolved ids are cached in a small direct mapped table keyed
+   * on the qualified name. Resolvers are not thread-safe, each processor has
+   * its own.
+   */
+  public static final class Resolver
+  {
+    private static final int CACHE_SIZE = 256;
+
+    private static final class Entry
+    {
+      final String m_sQName, m_sURI, m_sLocalName;
+      final int m_nNameId, m_nAnyURIId, m_nAnyLocalId;
+
+      Entry (final String qName,
+             final String uri,
+             final String lName,
+             final int nameId,
+             final int anyURIId,
+             final int anyLocalId)
+      {
+        m_sQName = qName;
+        m_sURI = uri;
+        m_sLocalName = lName;
+        m_nNameId = nameId;
+        m_nAnyURIId = anyURIId;
+        m_nAnyLocalId = anyLocalId;
+      }
+    }
+
+    private final QNameTable m_aTable;
+    private final Entry [] m_aCache = new Entry [CACHE_SIZE];
+
+    Resolver (final QNameTable table)
+    {
+      m_aTable = table;
+    }
+
+    private static boolean _equals (final String s1, final String s2)
+    {
+      return s1 == s2 || (s1 != null && s1.equals (s2));
+    }
+
+    /**
+     * Sets the name ids of an element or attribute event
+     *
+     * @param event
+     *        the event
+     */
+    public void resolve (final SAXEvent event)
+    {
+      final String qName = event.m_sQName;
+      final String uri = event.m_sURI;
+      final String lName = event.m_sLocalName;
+      // qName may be empty if the parser doesn't report qualified names
+      final String key = qName == null || qName.length () == 0 ? lName : qName;
+      final int slot = key.hashCode () & (CACHE_SIZE - 1);
+
+      Entry entry = m_aCache[slot];
+      if (entry == null ||
+          !_equals (entry.m_sQName, qName) ||
+          !_equals (entry.m_sURI, uri) ||
+          !_equals (entry.m_sLocalName, lName))
+      {
+        entry = new Entry (qName,
+                           uri,
+                           lName,
+                           m_aTable.getId (uri, lName),
+                           m_aTable.getId (WILDCARD, lName),
+                           m_aTable.getId (uri, WILDCARD));
+        m_aCache[slot] = entry;
+      }
+      event.m_aQNameTable = m_aTable;
+      event.m_nNameId = entry.m_nNameId;
+      event.m_nAnyURIId = entry.m_nAnyURIId;
+      event.m_nAnyLocalId = entry.m_nAnyLocalId;
+    }
+  }
+}
@@ -0,0 +1,908 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.instruction.AbstractGroupBase;
+import net.sf.joost.instruction.AbstractNodeBase;
+import net.sf.joost.instruction.AbstractProcessBase;
+import net.sf.joost.instruction.AssignFactory;
+import net.sf.joost.instruction.BufferFactory;
+import net.sf.joost.instruction.MessageFactory;
+import net.sf.joost.instruction.PSiblingsFactory;
+import net.sf.joost.instruction.ResultDocumentFactory;
+import net.sf.joost.instruction.ScriptFactory;
+
+/**
+ * Transforms the subtrees of record elements in parallel. The input is parsed
+ * on the calling thread. All events outside of the records are passed to the
+ * processor as usual, whereas each record reaches the processor only as an
+ * empty element. Its contents are buffered and transformed by a copy of the
+ * processor on a worker thread, together with the start tags of the ancestors
+ * of the record. The result of the record is inserted into the result of the
+ * processor at the place where the record would have been transformed
+ * sequentially, so that the order of the result is the same.
+ * <p>
+ * The record elements are specified by a path of element names from the
+ * document element downwards, for example <code>/catalog/item</code>. A name
+ * may be preceded by a namespace URI in braces (<code>{uri}item</code>), a
+ * name without namespace URI matches only elements in no namespace.
+ * <p>
+ * The records must be independent from each other: if the transformation
+ * sheet contains instructions that may carry state from one record to the
+ * next (like <code>stx:assign</code>, group buffers,
+ * <code>stx:process-siblings</code> or calls of functions with side effects
+ * such as <code>joost:mutable-map</code>) the input will be transformed
+ * sequentially.
+ *
+ * @author Philip Helger
+ */
+public final class RecordSplitter implements ContentHandler, LexicalHandler
+{
+  private static final Logger log = LoggerFactory.getLogger (RecordSplitter.class);
+
+  /** Handler for the result events that don't belong to the record */
+  private static final DefaultHandler2 DISCARD = new DefaultHandler2 ();
+
+  /** The buffered events of one record */
+  private static final class Record
+  {
+    /** mappings and start tags of the ancestors */
+    SAXEvent [] m_aFrame;
+    /** mappings and start tag of the record element */
+    final List <SAXEvent> m_aStart = new ArrayList<> ();
+    /** the contents of the record element */
+    final List <SAXEvent> m_aContent = new ArrayList<> ();
+    /**
+     * the position counters of the parent of each ancestor and of the record
+     * before the element has been counted, entries may be <code>null</code>
+     */
+    SAXEvent [] m_aPositions;
+    Locator m_aLocator;
+  }
+
+  /**
+   * Handler between the emitter of the processor and the result handler,
+   * inserts the results of the records in the original order
+   */
+  private static final class Stitcher implements ContentHandler, LexicalHandler
+  {
+    final ContentHandler m_aContH;
+    final LexicalHandler m_aLexH;
+    /** maximum number of records that are transformed concurrently */
+    private final int m_nMaxPending;
+    /** record results ({@link Future}s) and buffered events in between */
+    private final ArrayDeque <Object> m_aPending = new ArrayDeque<> ();
+    private int m_nPendingRecords;
+
+    Stitcher (final ContentHandler contH, final LexicalHandler lexH, final int maxPending)
+    {
+      m_aContH = contH;
+      m_aLexH = lexH;
+      m_nMaxPending = maxPending;
+    }
+
+    /** @return the handler for the next event */
+    private BufferEmitter _getBuffer ()
+    {
+      final Object last = m_aPending.peekLast ();
+      if (last instanceof BufferEmitter)
+        return (BufferEmitter) last;
+      final BufferEmitter buffer = new BufferEmitter ();
+      m_aPending.add (buffer);
+      return buffer;
+    }
+
+    void addRecord (final Future <SAXEvent []> result) throws SAXException
+    {
+      m_aPending.add (result);
+      m_nPendingRecords++;
+      _drain (m_nMaxPending);
+    }
+
+    /**
+     * Emits all results that are available. Waits for records as long as more
+     * than <code>maxPending</code> records are pending.
+     */
+    @SuppressWarnings ("unchecked")
+    void _drain (final int maxPending) throws SAXException
+    {
+      Object head;
+      while ((head = m_aPending.peek ()) != null)
+      {
+        SAXEvent [] events;
+        if (head instanceof Future)
+        {
+          final Future <SAXEvent []> result = (Future <SAXEvent []>) head;
+          if (!result.isDone () && m_nPendingRecords <= maxPending)
+            return;
+          events = getResult (result);
+          m_nPendingRecords--;
+        }
+        else
+        {
+          final BufferEmitter buffer = (BufferEmitter) head;
+          buffer.filled ();
+          events = buffer.getEvents ();
+        }
+        m_aPending.poll ();
+        BufferReader.emitEvents (events, m_aContH, m_aLexH);
+      }
+    }
+
+    public void setDocumentLocator (final Locator locator)
+    {
+      m_aContH.setDocumentLocator (locator);
+    }
+
+    public void startDocument () throws SAXException
+    {
+      m_aContH.startDocument ();
+    }
+
+    public void endDocument () throws SAXException
+    {
+      _drain (0);
+      m_aContH.endDocument ();
+    }
+
+    public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.startPrefixMapping (prefix, uri);
+      else
+        _getBuffer ().startPrefixMapping (prefix, uri);
+    }
+
+    public void endPrefixMapping (final String prefix) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.endPrefixMapping (prefix);
+      else
+        _getBuffer ().endPrefixMapping (prefix);
+    }
+
+    public void startElement (final String uri,
+                              final String lName,
+                              final String qName,
+                              final Attributes attrs) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.startElement (uri, lName, qName, attrs);
+      else
+        _getBuffer ().startElement (uri, lName, qName, attrs);
+    }
+
+    public void endElement (final String uri, final String lName, final String qName) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.endElement (uri, lName, qName);
+      else
+        _getBuffer ().endElement (uri, lName, qName);
+    }
+
+    public void characters (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.characters (ch, start, length);
+      else
+        _getBuffer ().characters (ch, start, length);
+    }
+
+    public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+    {
+      characters (ch, start, length);
+    }
+
+    public void processingInstruction (final String target, final String data) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.processingInstruction (target, data);
+      else
+        _getBuffer ().processingInstruction (target, data);
+    }
+
+    public void skippedEntity (final String name) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+        m_aContH.skippedEntity (name);
+    }
+
+    public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+    {
+      if (m_aLexH != null)
+        m_aLexH.startDTD (name, publicId, systemId);
+    }
+
+    public void endDTD () throws SAXException
+    {
+      if (m_aLexH != null)
+        m_aLexH.endDTD ();
+    }
+
+    public void startEntity (final String name) throws SAXException
+    {
+      if (m_aLexH != null && m_aPending.isEmpty ())
+        m_aLexH.startEntity (name);
+    }
+
+    public void endEntity (final String name) throws SAXException
+    {
+      if (m_aLexH != null && m_aPending.isEmpty ())
+        m_aLexH.endEntity (name);
+    }
+
+    public void startCDATA () throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+      {
+        if (m_aLexH != null)
+          m_aLexH.startCDATA ();
+      }
+      else
+        _getBuffer ().startCDATA ();
+    }
+
+    public void endCDATA () throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+      {
+        if (m_aLexH != null)
+          m_aLexH.endCDATA ();
+      }
+      else
+        _getBuffer ().endCDATA ();
+    }
+
+    public void comment (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aPending.isEmpty ())
+      {
+        if (m_aLexH != null)
+          m_aLexH.comment (ch, start, length);
+      }
+      else
+        _getBuffer ().comment (ch, start, length);
+    }
+  }
+
+  /** the processor for the events outside of the records */
+  private final Processor m_aProcessor;
+
+  /** the steps of the record path */
+  private final String [] m_aPathURIs, m_aPathNames;
+
+  private final int m_nThreads;
+
+  /** the reason for a sequential transformation, <code>null</code> if none */
+  private final String m_sSequentialReason;
+
+  /** idle processor copies for the records */
+  private final ConcurrentLinkedQueue <Processor> m_aWorkers = new ConcurrentLinkedQueue<> ();
+
+  // state of the current transformation, used by the parsing thread only
+  private ExecutorService m_aExecutor;
+  private Stitcher m_aStitcher;
+  private Locator m_aLocator;
+  /** depth of the current element */
+  private int m_nDepth;
+  /** number of record path steps matched by the current element and its ancestors */
+  private int m_nMatched;
+  /** pending namespace mappings for the next element */
+  private final List <SAXEvent> m_aMappings = new ArrayList<> ();
+  /** mappings and start tags of the matched ancestors */
+  private final List <SAXEvent> m_aFrame = new ArrayList<> ();
+  /** size of {@link #m_aFrame} before each ancestor */
+  private final int [] m_aFrameMarks;
+  /** the position counters of the parent before each ancestor */
+  private final SAXEvent [] m_aFramePositions;
+  /** the contents of {@link #m_aFrame} as array, <code>null</code> if changed */
+  private SAXEvent [] m_aFrameArray;
+  /** the current record, <code>null</code> outside of records */
+  private Record m_aRecord;
+  /** depth within the current record */
+  private int m_nRecordDepth;
+  private boolean m_bInsideCDATA, m_bCharsEmitted;
+  /** set while the end of a record is passed to the processor */
+  private boolean m_bRecordEnd;
+
+  /**
+   * Constructs a splitter.
+   *
+   * @param processor
+   *        the processor of the transformation, its copies transform the
+   *        records
+   * @param recordPath
+   *        the path of the record elements, for example
+   *        <code>/catalog/item</code>
+   * @param threads
+   *        the number of threads, <code>0</code> for the number of available
+   *        processors
+   */
+  public RecordSplitter (final Processor processor, final String recordPath, final int threads)
+  {
+    if (threads < 0)
+      throw new IllegalArgumentException ("Negative number of threads: " + threads);
+    if (recordPath == null || !recordPath.startsWith ("/") || recordPath.length () == 1)
+      throw new IllegalArgumentException ("Invalid record path '" + recordPath + "'");
+    final String [] steps = recordPath.substring (1).split ("/(?![^{]*})");
+    m_aPathURIs = new String [steps.length];
+    m_aPathNames = new String [steps.length];
+    for (int i = 0; i < steps.length; i++)
+    {
+      String step = steps[i];
+      String uri = "";
+      if (step.startsWith ("{"))
+      {
+        final int end = step.indexOf ('}');
+        if (end == -1)
+          throw new IllegalArgumentException ("Invalid record path '" + recordPath + "'");
+        uri = step.substring (1, end);
+        step = step.substring (end + 1);
+      }
+      if (step.length () == 0)
+        throw new IllegalArgumentException ("Invalid record path '" + recordPath + "'");
+      m_aPathURIs[i] = uri;
+      m_aPathNames[i] = step;
+    }
+    m_aFrameMarks = new int [steps.length];
+    m_aFramePositions = new SAXEvent [steps.length];
+
+    m_aProcessor = processor;
+    m_nThreads = threads == 0 ? Runtime.getRuntime ().availableProcessors () : threads;
+
+    final AbstractNodeBase stateful = processor.getTransformNode ().m_aStatefulNode;
+    if (processor.getClass () != Processor.class)
+      m_sSequentialReason = "the processor " + processor.getClass ().getName () + " doesn't support parallel records";
+    else
+      if (stateful != null)
+        m_sSequentialReason = "'" +
+                              stateful.m_sQName +
+                              "' (" +
+                              stateful.m_sSystemID +
+                              ":" +
+                              stateful.lineNo +
+                              ") may carry state from one record to the next";
+      else
+        m_sSequentialReason = null;
+  }
+
+  /**
+   * Determines whether an instruction of a transformation sheet may carry
+   * state from one element to its siblings, or whether its effect would be
+   * multiplied when the ancestors of each record are transformed again.
+   *
+   * @param node
+   *        the instruction
+   * @return <code>true</code> if the instruction prevents the parallel
+   *         transformation of records
+   */
+  public static boolean isStateful (final AbstractNodeBase node)
+  {
+    if (node instanceof AssignFactory.Instance ||
+        node instanceof PSiblingsFactory.Instance ||
+        node instanceof ResultDocumentFactory.Instance ||
+        node instanceof MessageFactory.Instance ||
+        node instanceof ScriptFactory.Instance)
+      return true;
+    // group buffers may be filled across records
+    if (node instanceof BufferFactory.Instance && node.m_aParent instanceof AbstractGroupBase)
+      return true;
+    return node instanceof AbstractProcessBase && ((AbstractProcessBase) node).hasFilter ();
+  }
+
+  /** @return the processor of this splitter */
+  public Processor getProcessor ()
+  {
+    return m_aProcessor;
+  }
+
+  /**
+   * @return <code>null</code> if the records will be transformed in parallel,
+   *         otherwise the reason for the sequential transformation
+   */
+  public String getSequentialReason ()
+  {
+    return m_sSequentialReason;
+  }
+
+  /**
+   * Transforms an input document with the processor of this splitter
+   *
+   * @param input
+   *        the input document, will be read with the parent XML reader of the
+   *        processor
+   */
+  public void parse (final InputSource input) throws IOException, SAXException
+  {
+    if (m_sSequentialReason != null)
+    {
+      log.info ("Transforming sequentially: " + m_sSequentialReason);
+      m_aProcessor.parse (input);
+      return;
+    }
+
+    final XMLReader reader = m_aProcessor.getParent ();
+    final Emitter emitter = m_aProcessor.getEmitter ();
+    final ContentHandler contH = emitter.getContentHandler ();
+    final LexicalHandler lexH = emitter.getLexicalHandler ();
+    // the copies are created here, because copying reads the state of the
+    // processor that isn't safe to read from other threads
+    for (int i = m_aWorkers.size (); i < m_nThreads; i++)
+      m_aWorkers.add (m_aProcessor.copy ());
+    for (final Processor worker : m_aWorkers)
+      _initWorker (worker);
+    m_aStitcher = new Stitcher (contH, lexH, 4 * m_nThreads);
+    emitter.setContentHandler (m_aStitcher);
+    emitter.setLexicalHandler (m_aStitcher);
+    final AtomicInteger count = new AtomicInteger ();
+    m_aExecutor = Executors.newFixedThreadPool (m_nThreads, r -> {
+      final Thread thread = new Thread (r, "joost-record-" + count.incrementAndGet ());
+      thread.setDaemon (true);
+      return thread;
+    });
+    m_aProcessor.setRecordSplitter (this);
+    try
+    {
+      reader.setContentHandler (this);
+      reader.setErrorHandler (m_aProcessor);
+      _setLexicalHandler (reader, this);
+      reader.parse (input);
+    }
+    finally
+    {
+      m_aExecutor.shutdownNow ();
+      m_aExecutor = null;
+      m_aProcessor.setRecordSplitter (null);
+      emitter.setContentHandler (contH);
+      emitter.setLexicalHandler (lexH);
+      reader.setContentHandler (m_aProcessor);
+      _setLexicalHandler (reader, m_aProcessor);
+      m_aStitcher = null;
+      m_aLocator = null;
+      m_nDepth = m_nMatched = 0;
+      m_aMappings.clear ();
+      m_aFrame.clear ();
+      m_aFrameArray = null;
+      Arrays.fill (m_aFramePositions, null);
+      m_aRecord = null;
+    }
+  }
+
+  private static void _setLexicalHandler (final XMLReader reader, final LexicalHandler handler)
+  {
+    try
+    {
+      reader.setProperty ("http://xml.org/sax/properties/lexical-handler", handler);
+    }
+    catch (final SAXException ex)
+    {
+      log.warn ("Accessing " + reader + ": " + ex);
+    }
+  }
+
+  /** Transfers the parameters and resolvers of the processor to a copy */
+  private void _initWorker (final Processor worker)
+  {
+    final Context src = m_aProcessor.getContext ();
+    final Context dst = worker.getContext ();
+    dst.globalParameters.clear ();
+    dst.globalParameters.putAll (src.globalParameters);
+    dst.m_aURIResolver = src.m_aURIResolver;
+    worker.setContentHandler (DISCARD);
+    worker.setLexicalHandler (DISCARD);
+  }
+
+  /**
+   * @return the result of a record transformation
+   */
+  static SAXEvent [] getResult (final Future <SAXEvent []> result) throws SAXException
+  {
+    try
+    {
+      return result.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SAXException (ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable cause = ex.getCause ();
+      if (cause instanceof SAXException)
+        throw (SAXException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new SAXException ((Exception) cause);
+    }
+  }
+
+  /** @return whether the end of a record is passed to the processor */
+  boolean isRecordEnd ()
+  {
+    return m_bRecordEnd;
+  }
+
+  /**
+   * Starts the transformation of the current record, called by the processor
+   * instead of processing the record element.
+   *
+   * @param parent
+   *        the parent of the record, its position counters don't contain the
+   *        record yet
+   * @param emitter
+   *        the current emitter of the processor
+   */
+  void processRecord (final SAXEvent parent, final Emitter emitter) throws SAXException
+  {
+    final Record record = m_aRecord;
+    record.m_aPositions[m_aPathNames.length - 1] = _copyPositions (parent);
+    final Future <SAXEvent []> result = m_aExecutor.submit ( () -> _transformRecord (record));
+
+    emitter.flush ();
+    if (emitter.getContentHandler () == m_aStitcher)
+      m_aStitcher.addRecord (result);
+    else
+    {
+      // the result of the processor is currently redirected (e.g. into a
+      // buffer), so the record result is needed immediately
+      BufferReader.emitEvents (getResult (result), emitter.getContentHandler (), emitter.getLexicalHandler ());
+    }
+  }
+
+  /**
+   * Transforms a record with a copy of the processor, runs on a worker thread
+   *
+   * @return the result events of the record
+   */
+  private SAXEvent [] _transformRecord (final Record record) throws SAXException
+  {
+    // there are as many workers as threads, unless a worker failed before
+    final Processor worker = m_aWorkers.poll ();
+    if (worker == null)
+      throw new SAXException ("No processor available for the record, a previous record failed");
+
+    final SAXEvent [] frame = record.m_aFrame;
+    if (record.m_aLocator != null)
+      worker.setDocumentLocator (record.m_aLocator);
+    worker.startDocument ();
+    int level = 0;
+    for (final SAXEvent event : frame)
+      if (event.m_nType == SAXEvent.ELEMENT)
+        _startElement (worker, event, record.m_aPositions, level++);
+      else
+        worker.startPrefixMapping (event.m_sQName, event.m_sValue);
+    final SAXEvent start = record.m_aStart.get (record.m_aStart.size () - 1);
+    for (int i = 0; i < record.m_aStart.size () - 1; i++)
+      worker.startPrefixMapping (record.m_aStart.get (i).m_sQName, record.m_aStart.get (i).m_sValue);
+    // now the ancestors have been processed, the record element is pending
+    _startElement (worker, start, record.m_aPositions, level);
+
+    // collect all result events from the record
+    final Emitter emitter = worker.getEmitter ();
+    emitter.flush ();
+    final BufferEmitter capture = new BufferEmitter ();
+    emitter.setContentHandler (capture);
+    emitter.setLexicalHandler (capture);
+    BufferReader.emitEvents (record.m_aContent.toArray (new SAXEvent [record.m_aContent.size ()]), worker, worker);
+    worker.endElement (start.m_sURI, start.m_sLocalName, start.m_sQName);
+    emitter.flush ();
+    emitter.setContentHandler (DISCARD);
+    emitter.setLexicalHandler (DISCARD);
+
+    // finish the document
+    _endMappings (record.m_aStart, record.m_aStart.size () - 1, worker);
+    for (int i = frame.length - 1; i >= 0; i--)
+      if (frame[i].m_nType == SAXEvent.ELEMENT)
+        worker.endElement (frame[i].m_sURI, frame[i].m_sLocalName, frame[i].m_sQName);
+      else
+        worker.endPrefixMapping (frame[i].m_sQName);
+    worker.endDocument ();
+
+    // only reuse a worker whose transformation completed
+    m_aWorkers.add (worker);
+    capture.filled ();
+    return capture.getEvents ();
+  }
+
+  /**
+   * Passes the start of an ancestor or of the record to a worker. The element
+   * is pending afterwards, so the position counters of its parent can be
+   * restored before the element is counted.
+   */
+  private static void _startElement (final Processor worker,
+                                     final SAXEvent element,
+                                     final SAXEvent [] positions,
+                                     final int level) throws SAXException
+  {
+    worker.startElement (element.m_sURI, element.m_sLocalName, element.m_sQName, element.m_aAttrs);
+    final Stack <SAXEvent> stack = worker.getEventStack ();
+    if (positions[level] != null && stack.size () == level + 1)
+      stack.peek ().copyPositionsFrom (positions[level]);
+  }
+
+  /** @return a copy of the position counters of an event */
+  private static SAXEvent _copyPositions (final SAXEvent event)
+  {
+    final SAXEvent positions = SAXEvent.newRoot ();
+    positions.copyPositionsFrom (event);
+    return positions;
+  }
+
+  /** Emits the endPrefixMapping events for the mappings before an element */
+  private static void _endMappings (final List <SAXEvent> events, final int count, final ContentHandler handler) throws SAXException
+  {
+    for (int i = count - 1; i >= 0; i--)
+      handler.endPrefixMapping (events.get (i).m_sQName);
+  }
+
+  /** @return the frame for a new record */
+  private SAXEvent [] _getFrame ()
+  {
+    if (m_aFrameArray == null)
+      m_aFrameArray = m_aFrame.toArray (new SAXEvent [m_aFrame.size ()]);
+    return m_aFrameArray;
+  }
+
+  //
+  // SAX ContentHandler interface
+  //
+
+  public void setDocumentLocator (final Locator locator)
+  {
+    m_aLocator = locator;
+    m_aProcessor.setDocumentLocator (locator);
+  }
+
+  public void startDocument () throws SAXException
+  {
+    m_aProcessor.startDocument ();
+  }
+
+  public void endDocument () throws SAXException
+  {
+    m_aProcessor.endDocument ();
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    if (m_aRecord != null)
+      m_aRecord.m_aContent.add (SAXEvent.newMapping (prefix, uri));
+    else
+    {
+      m_aMappings.add (SAXEvent.newMapping (prefix, uri));
+      m_aProcessor.startPrefixMapping (prefix, uri);
+    }
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    if (m_aRecord != null)
+      m_aRecord.m_aContent.add (SAXEvent.newMapping (prefix, null));
+    else
+      m_aProcessor.endPrefixMapping (prefix);
+  }
+
+  public void startElement (final String uri,
+                            final String lName,
+                            final String qName,
+                            final Attributes attrs) throws SAXException
+  {
+    if (m_aRecord != null)
+    {
+      m_nRecordDepth++;
+      m_aRecord.m_aContent.add (SAXEvent.newElement (uri, lName, qName, attrs, true, null));
+      return;
+    }
+
+    m_nDepth++;
+    if (m_nMatched == m_nDepth - 1 &&
+        m_nDepth <= m_aPathNames.length &&
+        m_aPathNames[m_nDepth - 1].equals (lName) &&
+        m_aPathURIs[m_nDepth - 1].equals (uri))
+    {
+      m_nMatched = m_nDepth;
+      final SAXEvent element = SAXEvent.newElement (uri, lName, qName, attrs, true, null);
+      if (m_nDepth == m_aPathNames.length)
+      {
+        // start of a record
+        m_aRecord = new Record ();
+        m_aRecord.m_aFrame = _getFrame ();
+        m_aRecord.m_aStart.addAll (m_aMappings);
+        m_aRecord.m_aStart.add (element);
+        m_aRecord.m_aPositions = m_aFramePositions.clone ();
+        if (m_aLocator != null)
+          m_aRecord.m_aLocator = new LocatorImpl (m_aLocator);
+        m_nRecordDepth = 0;
+      }
+      else
+      {
+        // an ancestor of records
+        m_aFrameMarks[m_nDepth - 1] = m_aFrame.size ();
+        m_aFrame.addAll (m_aMappings);
+        m_aFrame.add (element);
+        m_aFrameArray = null;
+      }
+    }
+    m_aMappings.clear ();
+    m_aProcessor.startElement (uri, lName, qName, attrs);
+
+    // the element is pending, the counters of its parent don't contain it yet
+    final Stack <SAXEvent> stack = m_aProcessor.getEventStack ();
+    if (m_aRecord == null && m_nMatched == m_nDepth && m_nDepth < m_aPathNames.length)
+      m_aFramePositions[m_nDepth - 1] = stack.size () == m_nDepth ? _copyPositions (stack.peek ()) : null;
+  }
+
+  public void endElement (final String uri, final String lName, final String qName) throws SAXException
+  {
+    if (m_aRecord != null)
+    {
+      if (m_nRecordDepth > 0)
+      {
+        m_nRecordDepth--;
+        m_aRecord.m_aContent.add (SAXEvent.newElement (uri, lName, qName, null, true, null));
+        return;
+      }
+      // end of the record, the processor calls processRecord
+      m_bRecordEnd = true;
+      try
+      {
+        m_aProcessor.endElement (uri, lName, qName);
+      }
+      finally
+      {
+        m_bRecordEnd = false;
+        m_aRecord = null;
+      }
+    }
+    else
+    {
+      if (m_nMatched == m_nDepth && m_nDepth < m_aPathNames.length)
+      {
+        m_aFrame.subList (m_aFrameMarks[m_nDepth - 1], m_aFrame.size ()).clear ();
+        m_aFrameArray = null;
+      }
+      m_aProcessor.endElement (uri, lName, qName);
+    }
+    if (m_nMatched == m_nDepth)
+      m_nMatched--;
+    m_nDepth--;
+  }
+
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_aRecord != null)
+    {
+      if (m_bInsideCDATA)
+      {
+        m_aRecord.m_aContent.add (SAXEvent.newCDATA (new String (ch, start, length)));
+        m_bCharsEmitted = true;
+      }
+      else
+        m_aRecord.m_aContent.add (SAXEvent.newText (new String (ch, start, length)));
+    }
+    else
+      m_aProcessor.characters (ch, start, length);
+  }
+
+  public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+  {
+    characters (ch, start, length);
+  }
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    if (m_aRecord != null)
+      m_aRecord.m_aContent.add (SAXEvent.newPI (target, data));
+    else
+      m_aProcessor.processingInstruction (target, data);
+  }
+
+  public void skippedEntity (final String name) throws SAXException
+  {
+    if (m_aRecord == null)
+      m_aProcessor.skippedEntity (name);
+  }
+
+  //
+  // SAX LexicalHandler interface
+  //
+
+  public void startDTD (final String name, final String publicId, final String systemId) throws SAXException
+  {
+    m_aProcessor.startDTD (name, publicId, systemId);
+  }
+
+  public void endDTD () throws SAXException
+  {
+    m_aProcessor.endDTD ();
+  }
+
+  public void startEntity (final String name) throws SAXException
+  {
+    if (m_aRecord == null)
+      m_aProcessor.startEntity (name);
+  }
+
+  public void endEntity (final String name) throws SAXException
+  {
+    if (m_aRecord == null)
+      m_aProcessor.endEntity (name);
+  }
+
+  public void startCDATA () throws SAXException
+  {
+    if (m_aRecord != null)
+    {
+      m_bInsideCDATA = true;
+      m_bCharsEmitted = false;
+    }
+    else
+      m_aProcessor.startCDATA ();
+  }
+
+  public void endCDATA () throws SAXException
+  {
+    if (m_aRecord != null)
+    {
+      m_bInsideCDATA = false;
+      if (!m_bCharsEmitted)
+        m_aRecord.m_aContent.add (SAXEvent.newCDATA (""));
+    }
+    else
+      m_aProcessor.endCDATA ();
+  }
+
+  public void comment (final char [] ch, final int start, final int length) throws SAXException
+  {
+    if (m_aRecord != null)
+      m_aRecord.m_aContent.add (SAXEvent.newComment (new String (ch, start, length)));
+    else
+      m_aProcessor.comment (ch, start, length);
+  }
+}
@@ -0,0 +1,488 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.CSTX;
+
+/**
+ * Asynchronous writer pool for <code>stx:result-document</code>. The result
+ * documents are serialized into pooled in-memory buffers on the transformation
+ * thread and handed over to a bounded set of background threads, which create
+ * missing directories (cached), open, write, optionally sync and close the
+ * target files.
+ * <p>
+ * All documents for the same file are written by the same background thread,
+ * so <code>append="yes"</code> keeps the order of the instructions. If too many
+ * documents are pending the transformation thread blocks until a writer thread
+ * finished a document (back-pressure). I/O errors are collected and reported
+ * to the {@link ErrorHandlerImpl} of the transformation that created the
+ * document, at the latest in {@link #flush(ErrorHandlerImpl)}.
+ * <p>
+ * One pool may be shared by several transformers.
+ *
+ * @author Philip Helger
+ */
+public final class ResultDocumentWriterPool
+{
+  private static final Logger log = LoggerFactory.getLogger (ResultDocumentWriterPool.class);
+
+  /** Default number of background writer threads */
+  public static final int DEFAULT_THREADS = 2;
+
+  /** Default maximum number of pending (not yet written) documents */
+  public static final int DEFAULT_MAX_PENDING = 256;
+
+  /** Buffers bigger than this won't be put back into the pool */
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+  /** A failed write operation, to be reported to an error handler */
+  private static final class Failure
+  {
+    final String m_sPublicID, m_sSystemID;
+    final int m_nLineNo, m_nColNo;
+    final IOException m_aException;
+
+    Failure (final String publicId,
+             final String systemId,
+             final int lineNo,
+             final int colNo,
+             final IOException ex)
+    {
+      m_sPublicID = publicId;
+      m_sSystemID = systemId;
+      m_nLineNo = lineNo;
+      m_nColNo = colNo;
+      m_aException = ex;
+    }
+  }
+
+  /**
+   * The <code>Writer</code> handed out by {@link #createWriter}. It collects
+   * the serialized document in memory and schedules the file operation in
+   * {@link #close()}.
+   */
+  private final class BufferedDocumentWriter extends Writer
+  {
+    private final File m_aFile;
+    private final Charset m_aCharset;
+    private final boolean m_bAppend;
+    private final ErrorHandlerImpl m_aErrorHandler;
+    private final String m_sPublicID, m_sSystemID;
+    private final int m_nLineNo, m_nColNo;
+    private StringBuilder m_aBuffer;
+
+    BufferedDocumentWriter (final File file,
+                            final Charset charset,
+                            final boolean append,
+                            final ErrorHandlerImpl errorHandler,
+                            final String publicId,
+                            final String systemId,
+                            final int lineNo,
+                            final int colNo)
+    {
+      m_aFile = file;
+      m_aCharset = charset;
+      m_bAppend = append;
+      m_aErrorHandler = errorHandler;
+      m_sPublicID = publicId;
+      m_sSystemID = systemId;
+      m_nLineNo = lineNo;
+      m_nColNo = colNo;
+      m_aBuffer = _acquireBuffer ();
+    }
+
+    @Override
+    public void write (final char [] cbuf, final int off, final int len) throws IOException
+    {
+      _ensureOpen ();
+      m_aBuffer.append (cbuf, off, len);
+    }
+
+    @Override
+    public void write (final String str, final int off, final int len) throws IOException
+    {
+      _ensureOpen ();
+      m_aBuffer.append (str, off, off + len);
+    }
+
+    @Override
+    public void write (final int c) throws IOException
+    {
+      _ensureOpen ();
+      m_aBuffer.append ((char) c);
+    }
+
+    private void _ensureOpen () throws IOException
+    {
+      if (m_aBuffer == null)
+        throw new IOException ("Writer for " + m_aFile + " already closed");
+    }
+
+    /** Nothing to do, the contents will be written when closing */
+    @Override
+    public void flush ()
+    {}
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_aBuffer == null)
+        return;
+      final StringBuilder aBuffer = m_aBuffer;
+      m_aBuffer = null;
+      _submit (this, aBuffer);
+    }
+  }
+
+  private final ExecutorService [] m_aStripes;
+  private final Semaphore m_aPending;
+  private final boolean m_bSync;
+
+  /** Directories known to exist */
+  private final Map <String, Boolean> m_aCreatedDirs = new ConcurrentHashMap<> ();
+
+  /** Reusable character buffers */
+  private final Queue <StringBuilder> m_aBufferPool = new ConcurrentLinkedQueue<> ();
+
+  /**
+   * Failed writes per error handler (i.e. per transformation). Weak keys, so
+   * the failures of abandoned transformations don't stay in this map. A queue
+   * is modified only while holding the lock of the map.
+   */
+  private final Map <ErrorHandlerImpl, Queue <Failure>> m_aFailures = Collections.synchronizedMap (new WeakHashMap<> ());
+
+  /**
+   * Constructs a pool with {@link #DEFAULT_THREADS} threads, at most
+   * {@link #DEFAULT_MAX_PENDING} pending documents and without syncing the
+   * written files.
+   */
+  public ResultDocumentWriterPool ()
+  {
+    this (DEFAULT_THREADS, DEFAULT_MAX_PENDING, false);
+  }
+
+  /**
+   * Constructs a new writer pool.
+   *
+   * @param threads
+   *        the number of background writer threads (at least 1)
+   * @param maxPending
+   *        the maximum number of serialized documents waiting to be written;
+   *        further result documents block the transformation thread (at least
+   *        1)
+   * @param sync
+   *        <code>true</code> if every written file should be forced to the
+   *        storage device (fsync) before it is closed
+   */
+  public ResultDocumentWriterPool (final int threads, final int maxPending, final boolean sync)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException ("threads must be at least 1: " + threads);
+    if (maxPending < 1)
+      throw new IllegalArgumentException ("maxPending must be at least 1: " + maxPending);
+    final ThreadFactory aThreadFactory = r -> {
+      final Thread t = new Thread (r, "joost-result-writer");
+      t.setDaemon (true);
+      return t;
+    };
+    m_aStripes = new ExecutorService [threads];
+    for (int i = 0; i < threads; i++)
+      m_aStripes[i] = Executors.newSingleThreadExecutor (aThreadFactory);
+    m_aPending = new Semaphore (maxPending);
+    m_bSync = sync;
+  }
+
+  /**
+   * @return <code>true</code> if written files will be synced to the storage
+   *         device
+   */
+  public boolean isSync ()
+  {
+    return m_bSync;
+  }
+
+  @Nonnull
+  private StringBuilder _acquireBuffer ()
+  {
+    final StringBuilder aBuffer = m_aBufferPool.poll ();
+    return aBuffer != null ? aBuffer : new StringBuilder (8192);
+  }
+
+  private void _releaseBuffer (@Nonnull final StringBuilder aBuffer)
+  {
+    if (aBuffer.capacity () <= MAX_POOLED_BUFFER_SIZE)
+    {
+      aBuffer.setLength (0);
+      m_aBufferPool.offer (aBuffer);
+    }
+  }
+
+  /**
+   * Creates a <code>Writer</code> for a result document. The returned writer
+   * keeps the contents in memory; the file will be created and written in the
+   * background after the writer has been closed.
+   *
+   * @param file
+   *        the target file
+   * @param encoding
+   *        the requested encoding
+   * @param append
+   *        flag that determines, whether the new XML should be appended to an
+   *        existing file
+   * @param errorHandler
+   *        the error handler of the current transformation, receives errors of
+   *        previously created documents and of this document
+   * @param publicId
+   *        public ID of the transformation sheet
+   * @param systemId
+   *        system ID of the transformation sheet
+   * @param lineNo
+   *        line number of the <code>stx:result-document</code> instruction
+   * @param colNo
+   *        column number of the <code>stx:result-document</code> instruction
+   * @return the writer for the document
+   * @throws SAXException
+   *         if the error handler reports a pending write error
+   */
+  public Writer createWriter (final File file,
+                              final String encoding,
+                              final boolean append,
+                              final ErrorHandlerImpl errorHandler,
+                              final String publicId,
+                              final String systemId,
+                              final int lineNo,
+                              final int colNo) throws SAXException
+  {
+    // report errors of earlier documents as soon as possible
+    reportFailures (errorHandler);
+
+    Charset aCharset;
+    try
+    {
+      aCharset = Charset.forName (encoding);
+    }
+    catch (final RuntimeException e)
+    {
+      final String msg = "Unsupported encoding '" + encoding + "', using " + CSTX.DEFAULT_ENCODING;
+      errorHandler.warning (msg, publicId, systemId, lineNo, colNo, e);
+      aCharset = Charset.forName (CSTX.DEFAULT_ENCODING);
+    }
+    return new BufferedDocumentWriter (file, aCharset, append, errorHandler, publicId, systemId, lineNo, colNo);
+  }
+
+  private void _submit (final BufferedDocumentWriter aWriter, final StringBuilder aBuffer) throws IOException
+  {
+    try
+    {
+      // back-pressure: wait for a free slot
+      m_aPending.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      _releaseBuffer (aBuffer);
+      throw new IOException ("Interrupted while waiting for writing " + aWriter.m_aFile);
+    }
+
+    final String sPath = aWriter.m_aFile.getAbsolutePath ();
+    final ExecutorService aStripe = m_aStripes[(sPath.hashCode () & 0x7fffffff) % m_aStripes.length];
+    try
+    {
+      aStripe.execute ( () -> {
+        try
+        {
+          _write (aWriter.m_aFile, aBuffer, aWriter.m_aCharset, aWriter.m_bAppend);
+        }
+        catch (final IOException ex)
+        {
+          final Failure aFailure = new Failure (aWriter.m_sPublicID,
+                                                aWriter.m_sSystemID,
+                                                aWriter.m_nLineNo,
+                                                aWriter.m_nColNo,
+                                                ex);
+          // atomic with the removal in reportFailures
+          m_aFailures.compute (aWriter.m_aErrorHandler, (k, q) -> {
+            final Queue <Failure> aQueue = q != null ? q : new ArrayDeque<> ();
+            aQueue.add (aFailure);
+            return aQueue;
+          });
+        }
+        finally
+        {
+          _releaseBuffer (aBuffer);
+          m_aPending.release ();
+        }
+      });
+    }
+    catch (final RuntimeException ex)
+    {
+      // rejected, i.e. the pool has been shut down
+      _releaseBuffer (aBuffer);
+      m_aPending.release ();
+      throw new IOException ("Cannot write " + sPath + ": " + ex.getMessage (), ex);
+    }
+  }
+
+  /** Performs the file operations, called in a writer thread */
+  private void _write (final File aFile,
+                       final StringBuilder aBuffer,
+                       final Charset aCharset,
+                       final boolean bAppend) throws IOException
+  {
+    final File aParent = aFile.getAbsoluteFile ().getParentFile ();
+    if (aParent != null)
+    {
+      final String sParent = aParent.getPath ();
+      // remember only existing directories, a failed mkdirs will be retried
+      // for the next file
+      if (!m_aCreatedDirs.containsKey (sParent) && (aParent.mkdirs () || aParent.isDirectory ()))
+        m_aCreatedDirs.put (sParent, Boolean.TRUE);
+    }
+
+    final ByteBuffer aBytes = aCharset.encode (CharBuffer.wrap (aBuffer));
+    try (final FileOutputStream aFOS = new FileOutputStream (aFile, bAppend))
+    {
+      aFOS.getChannel ().write (aBytes);
+      if (m_bSync)
+        aFOS.getChannel ().force (true);
+    }
+  }
+
+  /**
+   * Reports the errors of all documents that have been written for the given
+   * error handler so far.
+   *
+   * @param errorHandler
+   *        the error handler of a transformation
+   * @throws SAXException
+   *         if the error handler throws it
+   */
+  public void reportFailures (final ErrorHandlerImpl errorHandler) throws SAXException
+  {
+    // failures added later create a new queue
+    final Queue <Failure> aQueue = m_aFailures.remove (errorHandler);
+    if (aQueue == null)
+      return;
+    Failure aFailure;
+    while ((aFailure = aQueue.poll ()) != null)
+      errorHandler.error (aFailure.m_aException.toString (),
+                          aFailure.m_sPublicID,
+                          aFailure.m_sSystemID,
+                          aFailure.m_nLineNo,
+                          aFailure.m_nColNo,
+                          aFailure.m_aException);
+  }
+
+  /**
+   * Discards the unreported errors for the given error handler. Called at the
+   * start of a transformation, because a previous transformation with this
+   * error handler may have been aborted before {@link #flush(ErrorHandlerImpl)}.
+   *
+   * @param errorHandler
+   *        the error handler of a transformation
+   */
+  public void discardFailures (final ErrorHandlerImpl errorHandler)
+  {
+    m_aFailures.remove (errorHandler);
+  }
+
+  /**
+   * Waits until all documents that have been closed so far are written and
+   * reports the errors for the given error handler. Called at the end of a
+   * transformation.
+   *
+   * @param errorHandler
+   *        the error handler of the transformation
+   * @throws SAXException
+   *         if the error handler throws it, or if the waiting has been
+   *         interrupted
+   */
+  public void flush (final ErrorHandlerImpl errorHandler) throws SAXException
+  {
+    // every stripe is a single thread, so a marker task finishes after all
+    // previously submitted tasks of this stripe
+    final Future <?> [] aMarkers = new Future <?> [m_aStripes.length];
+    for (int i = 0; i < m_aStripes.length; i++)
+      aMarkers[i] = m_aStripes[i].submit ( () -> {});
+    try
+    {
+      for (final Future <?> aMarker : aMarkers)
+        aMarker.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new SAXException ("Interrupted while waiting for result documents", ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      // mustn't happen, the marker task is empty
+      log.error ("Unexpected error", ex);
+    }
+    reportFailures (errorHandler);
+  }
+
+  /**
+   * Writes all pending documents and stops the background threads. The pool
+   * cannot be used afterwards.
+   */
+  public void shutdown ()
+  {
+    for (final ExecutorService aStripe : m_aStripes)
+      aStripe.shutdown ();
+    try
+    {
+      for (final ExecutorService aStripe : m_aStripes)
+        aStripe.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+}
@@ -19,6 +19,7 @@
  */
 package net.sf.joost.stx;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -62,9 +63,25 @@ public final class SAXEvent
   // ELEMENT->text look-ahead
   public boolean m_bHasChildNodes = false;
 
+  /**
+   * The symbol table the following name ids belong to, <code>null</code> if
+   * the name of this event hasn't been resolved (see
+   * {@link QNameTable.Resolver})
+   */
+  public QNameTable m_aQNameTable;
+  /** ids of <code>{uri}lname</code>, <code>*:lname</code>, <code>uri:*</code> */
+  public int m_nNameId, m_nAnyURIId, m_nAnyLocalId;
+
   /** contains the position counters */
   private Map <Object, Counter> m_aPosHash;
 
+  /**
+   * contains the position counters of the child elements with resolved names,
+   * indexed by name id
+   */
+  private long [] m_aNameCounts;
+  private QNameTable m_aCountTable;
+
   private SAXEvent ()
   {}
 
@@ -199,6 +216,8 @@ public final class SAXEvent
     if (bHasChildNodes)
     {
       m_aPosHash = new HashMap<> ();
+      m_aNameCounts = null;
+      m_aCountTable = null;
       this.m_bHasChildNodes = true;
     }
     else
@@ -276,6 +295,36 @@ public final class SAXEvent
     _countPosition (keys);
   }
 
+  private static final Object [] GENERIC_ELEMENT_KEYS = { "node()", GENERIC_ELEMENT };
+
+  /**
+   * Increments the associated counters for an element. If the name of the
+   * element has been resolved, the name specific counters are indexed by the
+   * name ids, which avoids the construction of hash keys.
+   *
+   * @param element
+   *        the element event
+   */
+  public void countElement (final SAXEvent element)
+  {
+    final QNameTable table = element.m_aQNameTable;
+    if (table == null || (m_aCountTable != null && m_aCountTable != table))
+    {
+      countElement (element.m_sURI, element.m_sLocalName);
+      return;
+    }
+    if (m_aNameCounts == null)
+    {
+      m_aNameCounts = new long [table.size () + 1];
+      m_aCountTable = table;
+    }
+    _countPosition (GENERIC_ELEMENT_KEYS);
+    // ids of unknown names are 0, its counter is never read
+    m_aNameCounts[element.m_nNameId]++;
+    m_aNameCounts[element.m_nAnyURIId]++;
+    m_aNameCounts[element.m_nAnyLocalId]++;
+  }
+
   /**
    * Increments the associated counters for a text node.
    */
@@ -331,6 +380,111 @@ public final class SAXEvent
     }
   }
 
+  /**
+   * Replaces the position counters of this event by a copy of the counters of
+   * another event, i.e. the children counted so far.
+   *
+   * @param event
+   *        the event whose counters will be copied
+   */
+  public void copyPositionsFrom (final SAXEvent event)
+  {
+    m_aPosHash = new HashMap<> ();
+    if (event.m_aPosHash != null)
+      for (final Map.Entry <Object, Counter> entry : event.m_aPosHash.entrySet ())
+      {
+        final Counter c = new Counter ();
+        c.m_nValue = entry.getValue ().m_nValue;
+        m_aPosHash.put (entry.getKey (), c);
+      }
+    m_aNameCounts = event.m_aNameCounts == null ? null : Arrays.copyOf (event.m_aNameCounts,
+                                                                        event.m_aNameCounts.length);
+    m_aCountTable = event.m_aCountTable;
+  }
+
+  /**
+   * Tests the name of this event against a name test.
+   *
+   * @param table
+   *        the symbol table of the name test
+   * @param nameId
+   *        the id of the name in this table
+   * @param uri
+   *        the namespace URI
+   * @param lName
+   *        the local name
+   * @return whether this event has the given name
+   */
+  public boolean hasName (final QNameTable table, final int nameId, final String uri, final String lName)
+  {
+    if (m_aQNameTable == table)
+      return m_nNameId == nameId;
+    return uri.equals (m_sURI) && lName.equals (m_sLocalName);
+  }
+
+  /**
+   * Tests the name of this event against a name test <code>*:lname</code>.
+   *
+   * @param table
+   *        the symbol table of the name test
+   * @param nameId
+   *        the id of <code>*:lname</code> in this table
+   * @param lName
+   *        the local name
+   * @return whether this event has the given local name
+   */
+  public boolean hasLocalName (final QNameTable table, final int nameId, final String lName)
+  {
+    if (m_aQNameTable == table)
+      return m_nAnyURIId == nameId;
+    return lName.equals (m_sLocalName);
+  }
+
+  /**
+   * Tests the name of this event against a name test <code>prefix:*</code>.
+   *
+   * @param table
+   *        the symbol table of the name test
+   * @param nameId
+   *        the id of <code>uri:*</code> in this table
+   * @param uri
+   *        the namespace URI
+   * @return whether this event has the given namespace URI
+   */
+  public boolean hasURI (final QNameTable table, final int nameId, final String uri)
+  {
+    if (m_aQNameTable == table)
+      return m_nAnyLocalId == nameId;
+    return uri.equals (m_sURI);
+  }
+
+  /**
+   * Returns the position of a child element with a resolved name.
+   *
+   * @param table
+   *        the symbol table of the name test
+   * @param nameId
+   *        the id of the name test (of one of the forms accepted by
+   *        {@link QNameTable#intern(String, String)})
+   * @param uri
+   *        the namespace URI or {@link QNameTable#WILDCARD}
+   * @param lName
+   *        the local name or {@link QNameTable#WILDCARD}
+   * @return the position
+   */
+  public long getPositionOf (final QNameTable table, final int nameId, final String uri, final String lName)
+  {
+    if (m_aCountTable != table)
+      return getPositionOf (uri, lName);
+    final long c = m_aNameCounts[nameId];
+    if (c == 0)
+    {
+      // Shouldn't happen
+      throw new NullPointerException ();
+    }
+    return c;
+  }
+
   public long getPositionOf (final String uri, final String lName)
   {
     final Counter c = m_aPosHash.get (new DoubleString (uri, lName));
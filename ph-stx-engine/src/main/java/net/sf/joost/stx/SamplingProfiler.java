@@ -0,0 +1,399 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.sf.joost.instruction.AbstractInstruction;
+import net.sf.joost.instruction.AbstractNodeBase;
+import net.sf.joost.instruction.AbstractTemplateBase;
+
+/**
+ * Sampling profiler for STX transformations. A background thread looks at
+ * regular intervals at the instruction each registered transformation is
+ * currently executing, and attributes the elapsed wall time and the memory
+ * allocated by the transformation thread since the previous sample to this
+ * instruction and its enclosing instructions, templates and procedures
+ * (identified by system ID and line number).
+ * <p>
+ * The transformation thread only stores a reference to the current
+ * instruction, so the overhead is independent of the sampling interval and
+ * far below that of a {@link net.sf.joost.trace.ITraceListener}. Samples taken
+ * while no instruction is executed (parsing, matching, default rules) are
+ * attributed to the frame {@value #ENGINE_FRAME}.
+ * <p>
+ * One profiler may be shared by several processors and threads. The results
+ * are available as text report ({@link #writeReport(PrintWriter)}) and in the
+ * collapsed stack format understood by flame graph tools
+ * ({@link #writeCollapsedStacks(PrintWriter)}).
+ *
+ * @author Philip Helger
+ */
+public final class SamplingProfiler
+{
+  /** Default sampling interval in milliseconds */
+  public static final long DEFAULT_INTERVAL = 2;
+
+  /** Name of the frame for samples outside of STX instructions */
+  public static final String ENGINE_FRAME = "(engine)";
+
+  /**
+   * Per processor data, written by the transformation thread and read by the
+   * sampler thread. The fields are not volatile on purpose: a sample may see a
+   * slightly outdated instruction, which doesn't matter statistically.
+   */
+  public static final class Probe
+  {
+    private final SamplingProfiler m_aProfiler;
+    private Thread m_aThread;
+    AbstractInstruction m_aCurrent;
+
+    // used by the sampler thread only
+    private long m_nLastNanos;
+    private long m_nLastAllocated;
+
+    Probe (final SamplingProfiler profiler)
+    {
+      m_aProfiler = profiler;
+    }
+
+    /** Called at the start of a transformation on the transformation thread */
+    public void attach ()
+    {
+      m_aCurrent = null;
+      m_aThread = Thread.currentThread ();
+      m_nLastNanos = System.nanoTime ();
+      m_nLastAllocated = m_aProfiler._getAllocatedBytes (m_aThread);
+      m_aProfiler.m_aProbes.addIfAbsent (this);
+    }
+
+    /** Called at the end of a transformation */
+    public void detach ()
+    {
+      m_aProfiler.m_aProbes.remove (this);
+      m_aCurrent = null;
+    }
+  }
+
+  /** Statistics for a frame */
+  private static final class FrameStats
+  {
+    final String m_sName;
+    long m_nSelfSamples, m_nTotalSamples;
+    long m_nSelfNanos, m_nTotalNanos;
+    long m_nSelfBytes, m_nTotalBytes;
+
+    FrameStats (final String name)
+    {
+      m_sName = name;
+    }
+  }
+
+  /** sampling interval in milliseconds */
+  private final long m_nInterval;
+
+  /** active probes */
+  private final CopyOnWriteArrayList <Probe> m_aProbes = new CopyOnWriteArrayList<> ();
+
+  /** cached stack (root first) per instruction, sampler thread only */
+  private final Map <AbstractInstruction, String []> m_aStackCache = new IdentityHashMap<> ();
+
+  /** results, guarded by <code>this</code> */
+  private final Map <String, FrameStats> m_aFrames = new HashMap<> ();
+  private final Map <String, long []> m_aCollapsed = new HashMap<> ();
+  private long m_nSamples;
+
+  /** allocation counter of the JVM, <code>null</code> if not supported */
+  private final com.sun.management.ThreadMXBean m_aThreadBean;
+
+  private Thread m_aSampler;
+  private volatile boolean m_bRunning;
+
+  /** Constructs a profiler with the default interval */
+  public SamplingProfiler ()
+  {
+    this (DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Constructs a profiler
+   *
+   * @param interval
+   *        sampling interval in milliseconds
+   */
+  public SamplingProfiler (final long interval)
+  {
+    if (interval <= 0)
+      throw new IllegalArgumentException ("Sampling interval must be positive: " + interval);
+    m_nInterval = interval;
+
+    com.sun.management.ThreadMXBean bean = null;
+    try
+    {
+      final ThreadMXBean tb = ManagementFactory.getThreadMXBean ();
+      if (tb instanceof com.sun.management.ThreadMXBean &&
+          ((com.sun.management.ThreadMXBean) tb).isThreadAllocatedMemorySupported ())
+      {
+        bean = (com.sun.management.ThreadMXBean) tb;
+        bean.setThreadAllocatedMemoryEnabled (true);
+      }
+    }
+    catch (final LinkageError | UnsupportedOperationException | SecurityException ex)
+    {
+      // no allocation statistics
+    }
+    m_aThreadBean = bean;
+  }
+
+  /** @return the sampling interval in milliseconds */
+  public long getInterval ()
+  {
+    return m_nInterval;
+  }
+
+  /** @return a new probe for a processor */
+  public Probe createProbe ()
+  {
+    return new Probe (this);
+  }
+
+  /** Starts the sampler thread (if not already running) */
+  public synchronized void start ()
+  {
+    if (m_aSampler != null)
+      return;
+    m_bRunning = true;
+    m_aSampler = new Thread (this::_run, "joost-profiler");
+    m_aSampler.setDaemon (true);
+    m_aSampler.start ();
+  }
+
+  /** Stops the sampler thread and waits for its termination */
+  public void stop ()
+  {
+    Thread sampler;
+    synchronized (this)
+    {
+      sampler = m_aSampler;
+      m_aSampler = null;
+      m_bRunning = false;
+    }
+    if (sampler != null)
+    {
+      sampler.interrupt ();
+      try
+      {
+        sampler.join ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+    }
+  }
+
+  /** Discards all collected samples */
+  public synchronized void reset ()
+  {
+    m_aFrames.clear ();
+    m_aCollapsed.clear ();
+    m_nSamples = 0;
+  }
+
+  /** @return the number of samples taken so far */
+  public synchronized long getSampleCount ()
+  {
+    return m_nSamples;
+  }
+
+  private long _getAllocatedBytes (final Thread thread)
+  {
+    return m_aThreadBean == null ? 0 : m_aThreadBean.getThreadAllocatedBytes (thread.getId ());
+  }
+
+  private void _run ()
+  {
+    while (m_bRunning)
+    {
+      try
+      {
+        Thread.sleep (m_nInterval);
+      }
+      catch (final InterruptedException ex)
+      {
+        return;
+      }
+      for (final Probe probe : m_aProbes)
+        _sample (probe);
+    }
+  }
+
+  private void _sample (final Probe probe)
+  {
+    final Thread thread = probe.m_aThread;
+    final AbstractInstruction current = probe.m_aCurrent;
+    if (thread == null || !thread.isAlive ())
+      return;
+
+    final long now = System.nanoTime ();
+    final long nanos = now - probe.m_nLastNanos;
+    probe.m_nLastNanos = now;
+    long bytes = 0;
+    if (m_aThreadBean != null)
+    {
+      final long allocated = _getAllocatedBytes (thread);
+      if (allocated >= 0)
+      {
+        bytes = Math.max (0, allocated - probe.m_nLastAllocated);
+        probe.m_nLastAllocated = allocated;
+      }
+    }
+
+    String [] stack = m_aStackCache.get (current);
+    if (stack == null)
+    {
+      stack = _createStack (current);
+      m_aStackCache.put (current, stack);
+    }
+    _record (stack, nanos, bytes);
+  }
+
+  /**
+   * @return the frame names from the template or procedure down to the given
+   *         instruction
+   */
+  private static String [] _createStack (final AbstractInstruction inst)
+  {
+    if (inst == null)
+      return new String [] { ENGINE_FRAME };
+    final List <String> frames = new ArrayList<> ();
+    AbstractNodeBase node = inst.getNode ();
+    while (node != null)
+    {
+      frames.add (getFrameName (node));
+      if (node instanceof AbstractTemplateBase)
+        break;
+      node = node.m_aParent;
+    }
+    Collections.reverse (frames);
+    return frames.toArray (new String [frames.size ()]);
+  }
+
+  /**
+   * @return the name of the frame for the given node:
+   *         <code><em>qname</em> (<em>system-id</em>:<em>line</em>)</code>
+   */
+  public static String getFrameName (final AbstractNodeBase node)
+  {
+    final String name = node.m_sQName + " (" + (node.m_sSystemID == null ? "" : node.m_sSystemID) + ":" + node.lineNo + ")";
+    // ';' separates the frames in the collapsed stack format
+    return name.replace (';', ',');
+  }
+
+  private synchronized void _record (final String [] stack, final long nanos, final long bytes)
+  {
+    m_nSamples++;
+    for (int i = 0; i < stack.length; i++)
+    {
+      FrameStats stats = m_aFrames.get (stack[i]);
+      if (stats == null)
+      {
+        stats = new FrameStats (stack[i]);
+        m_aFrames.put (stack[i], stats);
+      }
+      // recursion isn't possible within a static stack, so each frame occurs
+      // at most once
+      stats.m_nTotalSamples++;
+      stats.m_nTotalNanos += nanos;
+      stats.m_nTotalBytes += bytes;
+      if (i == stack.length - 1)
+      {
+        stats.m_nSelfSamples++;
+        stats.m_nSelfNanos += nanos;
+        stats.m_nSelfBytes += bytes;
+      }
+    }
+
+    final String key = String.join (";", stack);
+    final long [] count = m_aCollapsed.get (key);
+    if (count == null)
+      m_aCollapsed.put (key, new long [] { 1 });
+    else
+      count[0]++;
+  }
+
+  /**
+   * Writes the aggregated report as text table, sorted by self time
+   *
+   * @param out
+   *        the target
+   */
+  public synchronized void writeReport (final PrintWriter out)
+  {
+    final List <FrameStats> frames = new ArrayList<> (m_aFrames.values ());
+    frames.sort ( (a, b) -> Long.compare (b.m_nSelfNanos, a.m_nSelfNanos));
+
+    out.println ("Samples: " + m_nSamples + " (interval " + m_nInterval + " ms)");
+    out.printf ("%8s %8s %10s %10s %12s %12s  %s%n",
+                "self",
+                "total",
+                "self ms",
+                "total ms",
+                "self KB",
+                "total KB",
+                "frame");
+    for (final FrameStats f : frames)
+      out.printf ("%8d %8d %10d %10d %12d %12d  %s%n",
+                  Long.valueOf (f.m_nSelfSamples),
+                  Long.valueOf (f.m_nTotalSamples),
+                  Long.valueOf (f.m_nSelfNanos / 1000000),
+                  Long.valueOf (f.m_nTotalNanos / 1000000),
+                  Long.valueOf (f.m_nSelfBytes / 1024),
+                  Long.valueOf (f.m_nTotalBytes / 1024),
+                  f.m_sName);
+    out.flush ();
+  }
+
+  /**
+   * Writes the samples in the collapsed stack format (one line per distinct
+   * stack: the frames separated by semicolons, a space and the number of
+   * samples)
+   *
+   * @param out
+   *        the target
+   */
+  public synchronized void writeCollapsedStacks (final PrintWriter out)
+  {
+    final List <String> keys = new ArrayList<> (m_aCollapsed.keySet ());
+    Collections.sort (keys);
+    for (final String key : keys)
+      out.println (key + " " + m_aCollapsed.get (key)[0]);
+    out.flush ();
+  }
+}
@@ -0,0 +1,302 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Index of a sequence for the general comparisons of large sequences. The
+ * comparison trees (for example {@link net.sf.joost.grammar.tree.EqTree})
+ * compare each pair of items, which takes <em>n&times;m</em> item comparisons
+ * and conversions. For sequences with at least {@link #MIN_PAIRS} item pairs
+ * the items of one side are converted only once: <code>=</code> and
+ * <code>!=</code> look up the items of the other side in hash sets,
+ * <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and
+ * <code>&gt;=</code> compare the minimum and maximum of both sides.
+ * <p>
+ * The index of the value of a variable is kept with the value (which is never
+ * modified) and reused as long as the variable isn't assigned a new value.
+ *
+ * @author Philip Helger
+ */
+public final class SequenceIndex
+{
+  /** Minimal number of item pairs for using an index */
+  public static final int MIN_PAIRS = 64;
+
+  /** the indexed sequence */
+  private final Value m_aSequence;
+
+  // minimum and maximum of the number values of all items (without NaN)
+  private boolean m_bRangeComputed;
+  private double m_dMin = Double.NaN;
+  private double m_dMax = Double.NaN;
+
+  // hashed values for = and !=
+  private boolean m_bHashed;
+  /** boolean values of all items */
+  private boolean m_bAnyTrue, m_bAnyFalse;
+  /** values of the boolean items */
+  private boolean m_bAnyTrueItem, m_bAnyFalseItem;
+  /** number values of the non-boolean items */
+  private Set <Double> m_aNonBooleanNumbers;
+  /** values of the number items */
+  private Set <Double> m_aNumbers;
+  /** string values of the other items (nodes, strings, objects) */
+  private Set <String> m_aStrings;
+
+  private SequenceIndex (final Value sequence)
+  {
+    m_aSequence = sequence;
+  }
+
+  /**
+   * Allows to keep the index of the given value, because it is the value of a
+   * variable that won't be modified
+   *
+   * @param v
+   *        the value
+   */
+  public static void enableCaching (final Value v)
+  {
+    v.indexCacheable = true;
+  }
+
+  /**
+   * @return the index for the given (non empty) sequence
+   */
+  public static SequenceIndex get (final Value v)
+  {
+    SequenceIndex index = v.index;
+    if (index == null)
+    {
+      index = new SequenceIndex (v);
+      if (v.indexCacheable)
+        v.index = index;
+    }
+    return index;
+  }
+
+  /**
+   * @return whether a comparison of the two sequences should use indexes
+   */
+  public static boolean isLarge (final Value v1, final Value v2)
+  {
+    if (v1.next == null && v2.next == null)
+      return false;
+    return _count (v1, MIN_PAIRS) * _count (v2, MIN_PAIRS) >= MIN_PAIRS;
+  }
+
+  /** @return the length of the sequence, but at most <code>max</code> */
+  private static int _count (final Value v, final int max)
+  {
+    int n = 0;
+    for (Value vi = v; vi != null && n < max; vi = vi.next)
+      n++;
+    return n;
+  }
+
+  /** @return whether a value should be looked up in the index of the other */
+  private static boolean _preferIndexOf (final Value v, final Value other)
+  {
+    if (v.index != null || v.indexCacheable)
+      return true;
+    if (other.index != null || other.indexCacheable)
+      return false;
+    return _count (v, Integer.MAX_VALUE) >= _count (other, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Performs the general comparison <code>v1 = v2</code> using an index
+   *
+   * @return <code>true</code> if an item of <code>v1</code> equals an item of
+   *         <code>v2</code>
+   */
+  public static boolean anyEqual (final Value v1, final Value v2)
+  {
+    // equality is symmetric, so index one of the sides
+    final boolean indexFirst = _preferIndexOf (v1, v2);
+    final SequenceIndex index = get (indexFirst ? v1 : v2);
+    for (Value vi = indexFirst ? v2 : v1; vi != null; vi = vi.next)
+      if (index.containsEqual (vi))
+        return true;
+    return false;
+  }
+
+  /**
+   * Performs the general comparison <code>v1 != v2</code> using an index
+   *
+   * @return <code>true</code> if an item of <code>v1</code> is not equal to an
+   *         item of <code>v2</code>
+   */
+  public static boolean anyNotEqual (final Value v1, final Value v2)
+  {
+    final boolean indexFirst = _preferIndexOf (v1, v2);
+    final SequenceIndex index = get (indexFirst ? v1 : v2);
+    for (Value vi = indexFirst ? v2 : v1; vi != null; vi = vi.next)
+      if (index.containsNotEqual (vi))
+        return true;
+    return false;
+  }
+
+  /** Normalizes -0 to 0, because both are equal as numbers */
+  private static Double _key (final double d)
+  {
+    return Double.valueOf (d + 0.0);
+  }
+
+  private void _computeRange ()
+  {
+    double min = Double.NaN, max = Double.NaN;
+    for (Value vi = m_aSequence; vi != null; vi = vi.next)
+    {
+      final double d = vi.getNumberValue ();
+      if (Double.isNaN (d))
+        continue;
+      if (!(d >= min))
+        min = d;
+      if (!(d <= max))
+        max = d;
+    }
+    m_dMin = min;
+    m_dMax = max;
+    m_bRangeComputed = true;
+  }
+
+  /**
+   * @return the minimum of the number values of all items, <code>NaN</code> if
+   *         no item has a number value
+   */
+  public double getMin ()
+  {
+    if (!m_bRangeComputed)
+      _computeRange ();
+    return m_dMin;
+  }
+
+  /**
+   * @return the maximum of the number values of all items, <code>NaN</code> if
+   *         no item has a number value
+   */
+  public double getMax ()
+  {
+    if (!m_bRangeComputed)
+      _computeRange ();
+    return m_dMax;
+  }
+
+  private void _computeHashes ()
+  {
+    m_aNonBooleanNumbers = new HashSet<> ();
+    m_aNumbers = new HashSet<> ();
+    m_aStrings = new HashSet<> ();
+    for (Value vi = m_aSequence; vi != null; vi = vi.next)
+    {
+      if (vi.getBooleanValue ())
+        m_bAnyTrue = true;
+      else
+        m_bAnyFalse = true;
+      switch (vi.type)
+      {
+        case Value.BOOLEAN:
+          if (vi.getBooleanValue ())
+            m_bAnyTrueItem = true;
+          else
+            m_bAnyFalseItem = true;
+          break;
+        case Value.NUMBER:
+          final Double key = _key (vi.getNumberValue ());
+          m_aNumbers.add (key);
+          m_aNonBooleanNumbers.add (key);
+          break;
+        default:
+          m_aNonBooleanNumbers.add (_key (vi.getNumberValue ()));
+          m_aStrings.add (vi.getStringValue ());
+          break;
+      }
+    }
+    m_bHashed = true;
+  }
+
+  /** Determines whether the set contains an element different from key */
+  private static boolean _containsOther (final Set <?> set, final Object key)
+  {
+    return set.size () > 1 || (set.size () == 1 && !set.contains (key));
+  }
+
+  /**
+   * Determines whether the set contains a number different from key
+   * (<code>NaN</code> is different from every number, even from itself)
+   */
+  private static boolean _containsOtherNumber (final Set <Double> set, final Double key)
+  {
+    return key.isNaN () ? !set.isEmpty () : _containsOther (set, key);
+  }
+
+  /**
+   * Determines whether an item of the indexed sequence equals the given item,
+   * with the same semantics as {@link net.sf.joost.grammar.tree.EqTree}
+   *
+   * @param item
+   *        a single item
+   * @return <code>true</code> if the item compares equal to an indexed item
+   */
+  public boolean containsEqual (final Value item)
+  {
+    if (!m_bHashed)
+      _computeHashes ();
+    final boolean b = item.getBooleanValue ();
+    if (item.type == Value.BOOLEAN)
+      return b ? m_bAnyTrue : m_bAnyFalse;
+    // boolean items are compared as booleans
+    if (b ? m_bAnyTrueItem : m_bAnyFalseItem)
+      return true;
+    final double d = item.getNumberValue ();
+    if (item.type == Value.NUMBER)
+      return !Double.isNaN (d) && m_aNonBooleanNumbers.contains (_key (d));
+    return (!Double.isNaN (d) && m_aNumbers.contains (_key (d))) || m_aStrings.contains (item.getStringValue ());
+  }
+
+  /**
+   * Determines whether an item of the indexed sequence is not equal to the
+   * given item, with the same semantics as
+   * {@link net.sf.joost.grammar.tree.NeTree}
+   *
+   * @param item
+   *        a single item
+   * @return <code>true</code> if the item compares not equal to an indexed
+   *         item
+   */
+  public boolean containsNotEqual (final Value item)
+  {
+    if (!m_bHashed)
+      _computeHashes ();
+    final boolean b = item.getBooleanValue ();
+    if (item.type == Value.BOOLEAN)
+      return b ? m_bAnyFalse : m_bAnyTrue;
+    if (b ? m_bAnyFalseItem : m_bAnyTrueItem)
+      return true;
+    final Double key = _key (item.getNumberValue ());
+    if (item.type == Value.NUMBER)
+      return _containsOtherNumber (m_aNonBooleanNumbers, key);
+    return _containsOtherNumber (m_aNumbers, key) || _containsOther (m_aStrings, item.getStringValue ());
+  }
+}
@@ -0,0 +1,412 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.joost.instruction.AbstractNodeBase;
+
+/**
+ * Counters collected while a {@link Processor} performs a transformation.
+ * <p>
+ * An instance attached to a processor (see
+ * {@link Processor#setMetrics(TransformationMetrics)}) is reset at the start
+ * of each transformation, so it always describes the current or the last
+ * transformation. The counters are plain (unsynchronized) fields that are only
+ * written by the transformation thread. At the end of a transformation the
+ * counters are added to the parent object (if there is one), which aggregates
+ * the metrics of all transformers created from the same
+ * {@link javax.xml.transform.Templates} object. The parent must only be read
+ * via {@link #snapshot()}.
+ *
+ * @author Philip Helger
+ */
+public final class TransformationMetrics
+{
+  /** Time phase: compilation of the transformation sheet */
+  public static final int PHASE_COMPILE = 0;
+
+  /** Time phase: the complete transformation */
+  public static final int PHASE_TRANSFORM = 1;
+
+  /** Time phase: processing of documents via <code>stx:process-document</code> */
+  public static final int PHASE_PROCESS_DOCUMENT = 2;
+
+  /** Time phase: waiting for pending asynchronous result documents */
+  public static final int PHASE_RESULT_DOCUMENT_FLUSH = 3;
+
+  private static final String [] PHASE_NAMES = { "compile", "transform", "process-document", "result-document-flush" };
+
+  private static final String [] EVENT_NAMES = { "document",
+                                                 "element",
+                                                 "text",
+                                                 "cdata",
+                                                 "pi",
+                                                 "comment",
+                                                 "attribute",
+                                                 "element-end",
+                                                 "mapping",
+                                                 "mapping-end" };
+
+  /** aggregating parent, may be <code>null</code> */
+  private final TransformationMetrics m_aParent;
+
+  /** input events, indexed by the {@link SAXEvent} type */
+  private final long [] m_aEvents = new long [EVENT_NAMES.length];
+
+  /** wall time per phase in nanoseconds */
+  private final long [] m_aPhaseNanos = new long [PHASE_NAMES.length];
+
+  /** matches per template object of this transformer */
+  private final Map <AbstractNodeBase, long []> m_aTemplateMatches = new IdentityHashMap<> ();
+
+  /** matches per template key, added from other metrics */
+  private final Map <String, long []> m_aMergedTemplateMatches = new HashMap<> ();
+
+  private long m_nTransformations;
+  private long m_nPatternEvaluations;
+  private long m_nBuffers;
+  private long m_nBufferEvents;
+  private long m_nProcessDocuments;
+  private long m_nResultDocuments;
+  private long m_nOutputCharacters;
+  private long m_nTransformStart;
+
+  /** Constructs an aggregating metrics object without parent */
+  public TransformationMetrics ()
+  {
+    this (null);
+  }
+
+  /**
+   * Constructs a metrics object
+   *
+   * @param parent
+   *        the object that aggregates the counters of each finished
+   *        transformation, may be <code>null</code>
+   */
+  public TransformationMetrics (final TransformationMetrics parent)
+  {
+    m_aParent = parent;
+  }
+
+  /**
+   * @return a new metrics object for another transformer, aggregated by the
+   *         same parent as this one (or by this one, if it has no parent)
+   */
+  public TransformationMetrics createSibling ()
+  {
+    return new TransformationMetrics (m_aParent != null ? m_aParent : this);
+  }
+
+  /** @return the aggregating parent, may be <code>null</code> */
+  public TransformationMetrics getParent ()
+  {
+    return m_aParent;
+  }
+
+  // ---------------------------------------------------------------------
+  // counting, called by the engine
+
+  /** Called by the processor at the start of a transformation */
+  public void startTransformation ()
+  {
+    reset ();
+    m_nTransformations = 1;
+    m_nTransformStart = System.nanoTime ();
+  }
+
+  /**
+   * Called by the processor at the end of a transformation; adds all counters
+   * to the parent
+   */
+  public void endTransformation ()
+  {
+    m_aPhaseNanos[PHASE_TRANSFORM] += System.nanoTime () - m_nTransformStart;
+    if (m_aParent != null)
+      m_aParent.add (this);
+  }
+
+  /** Counts an input event of the given {@link SAXEvent} type */
+  public void countEvent (final int type)
+  {
+    m_aEvents[type]++;
+  }
+
+  /** Counts <code>n</code> input events of the given {@link SAXEvent} type */
+  public void countEvents (final int type, final int n)
+  {
+    m_aEvents[type] += n;
+  }
+
+  /** Counts an evaluation of a template match pattern */
+  public void countPatternEvaluation ()
+  {
+    m_nPatternEvaluations++;
+  }
+
+  /** Counts a matching template */
+  public void countTemplateMatch (final AbstractNodeBase template)
+  {
+    final long [] count = m_aTemplateMatches.get (template);
+    if (count == null)
+      m_aTemplateMatches.put (template, new long [] { 1 });
+    else
+      count[0]++;
+  }
+
+  /**
+   * Counts a filled <code>stx:buffer</code>
+   *
+   * @param events
+   *        the number of events in the buffer
+   */
+  public void countBuffer (final int events)
+  {
+    m_nBuffers++;
+    m_nBufferEvents += events;
+  }
+
+  /** Counts an invocation of <code>stx:process-document</code> */
+  public void countProcessDocument ()
+  {
+    m_nProcessDocuments++;
+  }
+
+  /** Counts a <code>stx:result-document</code> */
+  public void countResultDocument ()
+  {
+    m_nResultDocuments++;
+  }
+
+  /** Counts characters passed to the output */
+  public void countOutputCharacters (final int n)
+  {
+    m_nOutputCharacters += n;
+  }
+
+  /** Adds elapsed wall time (in nanoseconds) to a phase */
+  public void addPhaseTime (final int phase, final long nanos)
+  {
+    m_aPhaseNanos[phase] += nanos;
+  }
+
+  // ---------------------------------------------------------------------
+  // aggregation
+
+  /** Sets all counters to zero */
+  public synchronized void reset ()
+  {
+    for (int i = 0; i < m_aEvents.length; i++)
+      m_aEvents[i] = 0;
+    for (int i = 0; i < m_aPhaseNanos.length; i++)
+      m_aPhaseNanos[i] = 0;
+    for (final long [] count : m_aTemplateMatches.values ())
+      count[0] = 0;
+    m_aMergedTemplateMatches.clear ();
+    m_nTransformations = 0;
+    m_nPatternEvaluations = 0;
+    m_nBuffers = 0;
+    m_nBufferEvents = 0;
+    m_nProcessDocuments = 0;
+    m_nResultDocuments = 0;
+    m_nOutputCharacters = 0;
+  }
+
+  /**
+   * Adds all counters of another metrics object to this one
+   *
+   * @param other
+   *        the metrics to add
+   */
+  public synchronized void add (final TransformationMetrics other)
+  {
+    for (int i = 0; i < m_aEvents.length; i++)
+      m_aEvents[i] += other.m_aEvents[i];
+    for (int i = 0; i < m_aPhaseNanos.length; i++)
+      m_aPhaseNanos[i] += other.m_aPhaseNanos[i];
+    for (final Map.Entry <AbstractNodeBase, long []> e : other.m_aTemplateMatches.entrySet ())
+      if (e.getValue ()[0] != 0)
+        _addTemplateMatches (getTemplateKey (e.getKey ()), e.getValue ()[0]);
+    for (final Map.Entry <String, long []> e : other.m_aMergedTemplateMatches.entrySet ())
+      _addTemplateMatches (e.getKey (), e.getValue ()[0]);
+    m_nTransformations += other.m_nTransformations;
+    m_nPatternEvaluations += other.m_nPatternEvaluations;
+    m_nBuffers += other.m_nBuffers;
+    m_nBufferEvents += other.m_nBufferEvents;
+    m_nProcessDocuments += other.m_nProcessDocuments;
+    m_nResultDocuments += other.m_nResultDocuments;
+    m_nOutputCharacters += other.m_nOutputCharacters;
+  }
+
+  private void _addTemplateMatches (final String key, final long n)
+  {
+    final long [] count = m_aMergedTemplateMatches.get (key);
+    if (count == null)
+      m_aMergedTemplateMatches.put (key, new long [] { n });
+    else
+      count[0] += n;
+  }
+
+  /**
+   * @return a consistent copy of the current counters (without parent)
+   */
+  public synchronized TransformationMetrics snapshot ()
+  {
+    final TransformationMetrics copy = new TransformationMetrics ();
+    copy.add (this);
+    return copy;
+  }
+
+  /**
+   * @return the key used for a template in {@link #getTemplateMatches()}:
+   *         <code><em>system-id</em>:<em>line</em></code>
+   */
+  public static String getTemplateKey (final AbstractNodeBase template)
+  {
+    return (template.m_sSystemID == null ? "" : template.m_sSystemID) + ":" + template.lineNo;
+  }
+
+  // ---------------------------------------------------------------------
+  // results
+
+  /** @return the number of finished (or running) transformations */
+  public long getTransformations ()
+  {
+    return m_nTransformations;
+  }
+
+  /**
+   * @param type
+   *        a {@link SAXEvent} type
+   * @return the number of input events of this type
+   */
+  public long getEventCount (final int type)
+  {
+    return m_aEvents[type];
+  }
+
+  /** @return the number of all input events */
+  public long getEventCount ()
+  {
+    long sum = 0;
+    for (final long n : m_aEvents)
+      sum += n;
+    return sum;
+  }
+
+  /** @return the number of template match pattern evaluations */
+  public long getPatternEvaluations ()
+  {
+    return m_nPatternEvaluations;
+  }
+
+  /**
+   * @return the number of matches per template, keyed by
+   *         <code><em>system-id</em>:<em>line</em></code> of the template,
+   *         sorted by key
+   */
+  public Map <String, Long> getTemplateMatches ()
+  {
+    final Map <String, Long> ret = new TreeMap<> ();
+    for (final Map.Entry <String, long []> e : m_aMergedTemplateMatches.entrySet ())
+      ret.put (e.getKey (), Long.valueOf (e.getValue ()[0]));
+    for (final Map.Entry <AbstractNodeBase, long []> e : m_aTemplateMatches.entrySet ())
+      if (e.getValue ()[0] != 0)
+      {
+        final String key = getTemplateKey (e.getKey ());
+        final Long prev = ret.get (key);
+        ret.put (key, Long.valueOf (e.getValue ()[0] + (prev == null ? 0 : prev.longValue ())));
+      }
+    return ret;
+  }
+
+  /** @return the number of filled <code>stx:buffer</code>s */
+  public long getBuffers ()
+  {
+    return m_nBuffers;
+  }
+
+  /** @return the total number of events stored in buffers */
+  public long getBufferEvents ()
+  {
+    return m_nBufferEvents;
+  }
+
+  /** @return the number of <code>stx:process-document</code> invocations */
+  public long getProcessDocuments ()
+  {
+    return m_nProcessDocuments;
+  }
+
+  /** @return the number of created <code>stx:result-document</code>s */
+  public long getResultDocuments ()
+  {
+    return m_nResultDocuments;
+  }
+
+  /** @return the number of characters passed to the output */
+  public long getOutputCharacters ()
+  {
+    return m_nOutputCharacters;
+  }
+
+  /**
+   * @param phase
+   *        one of the <code>PHASE_...</code> constants
+   * @return the wall time of this phase in nanoseconds
+   */
+  public long getPhaseNanos (final int phase)
+  {
+    return m_aPhaseNanos[phase];
+  }
+
+  /** @return a multi-line human readable report */
+  @Override
+  public String toString ()
+  {
+    final StringBuilder sb = new StringBuilder ();
+    sb.append ("transformations: ").append (m_nTransformations).append ('\n');
+    sb.append ("input events:");
+    for (int i = 0; i < EVENT_NAMES.length; i++)
+      if (m_aEvents[i] != 0)
+        sb.append (' ').append (EVENT_NAMES[i]).append ('=').append (m_aEvents[i]);
+    sb.append ('\n');
+    sb.append ("pattern evaluations: ").append (m_nPatternEvaluations).append ('\n');
+    sb.append ("buffers: ").append (m_nBuffers).append (" (").append (m_nBufferEvents).append (" events)\n");
+    sb.append ("process-document calls: ").append (m_nProcessDocuments).append ('\n');
+    sb.append ("result documents: ").append (m_nResultDocuments).append ('\n');
+    sb.append ("output characters: ").append (m_nOutputCharacters).append ('\n');
+    for (int i = 0; i < PHASE_NAMES.length; i++)
+      if (m_aPhaseNanos[i] != 0)
+        sb.append ("time ")
+          .append (PHASE_NAMES[i])
+          .append (": ")
+          .append (m_aPhaseNanos[i] / 1000000)
+          .append (" ms\n");
+    sb.append ("template matches:\n");
+    for (final Map.Entry <String, Long> e : getTemplateMatches ().entrySet ())
+      sb.append ("  ").append (e.getKey ()).append (' ').append (e.getValue ()).append ('\n');
+    return sb.toString ();
+  }
+}
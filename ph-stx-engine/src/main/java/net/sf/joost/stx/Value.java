@@ -59,6 +59,8 @@ public final class Value implements Cloneable
   public static final int NUMBER = 3;
   public static final int STRING = 4;
   public static final int OBJECT = 5;
+  public static final int MAP = 6;
+  public static final int ARRAY = 7;
 
   /** type of this value */
   public int type;
@@ -75,7 +77,11 @@ public final class Value implements Cloneable
   /** for <code>{@link #type} == {@link #STRING}</code> */
   private String string;
 
-  /** for <code>{@link #type} == {@link #OBJECT}</code> */
+  /**
+   * for <code>{@link #type} == {@link #OBJECT}</code>, also contains the
+   * {@link ValueMap} for {@link #MAP} and the {@link ValueArray} for
+   * {@link #ARRAY}
+   */
   private Object object;
 
   /**
@@ -86,6 +92,18 @@ public final class Value implements Cloneable
    */
   public Value next;
 
+  /**
+   * The index of this sequence for general comparisons, only cached if
+   * {@link #indexCacheable} is set, see {@link SequenceIndex}
+   */
+  SequenceIndex index;
+
+  /**
+   * Set for the (never modified) value of a variable, whose index may be kept
+   * for subsequent comparisons
+   */
+  boolean indexCacheable;
+
   //
   // Constructors
   //
@@ -182,6 +200,20 @@ public final class Value implements Cloneable
               }
   }
 
+  /** Constructs a <code>Value</code> containing a map */
+  public Value (final ValueMap map)
+  {
+    type = MAP;
+    object = map;
+  }
+
+  /** Constructs a <code>Value</code> containing an array */
+  public Value (final ValueArray array)
+  {
+    type = ARRAY;
+    object = array;
+  }
+
   private void chainValues(Iterator remainingValues, Value lastValue) {
     if(!remainingValues.hasNext()) {
       return;
@@ -213,6 +245,18 @@ public final class Value implements Cloneable
     return object;
   }
 
+  /** @return the map for <code>{@link #type} == {@link #MAP}</code> */
+  public ValueMap getMap ()
+  {
+    return type == MAP ? (ValueMap) object : null;
+  }
+
+  /** @return the array for <code>{@link #type} == {@link #ARRAY}</code> */
+  public ValueArray getArray ()
+  {
+    return type == ARRAY ? (ValueArray) object : null;
+  }
+
   // Converter
 
   /** returns the value of this object converted to a number */
@@ -226,6 +270,9 @@ public final class Value implements Cloneable
         return Double.NaN;
       case BOOLEAN:
         return (bool ? 1.0 : 0.0);
+      case MAP:
+      case ARRAY:
+        return Double.NaN;
       case NODE:
       case OBJECT:
         try
@@ -281,6 +328,9 @@ public final class Value implements Cloneable
         return v;
       case OBJECT:
         return object != null ? object.toString () : "";
+      case MAP:
+      case ARRAY:
+        return object.toString ();
       default:
         // Mustn't happen
         throw new RuntimeException ("Don't know how to convert " + type + " to string");
@@ -304,6 +354,10 @@ public final class Value implements Cloneable
         return !string.equals ("");
       case OBJECT:
         return object == null ? false : !object.toString ().equals ("");
+      case MAP:
+        return ((ValueMap) object).size () > 0;
+      case ARRAY:
+        return ((ValueArray) object).size () > 0;
       default:
         // Mustn't happen
         throw new RuntimeException ("Don't know how to convert " + type + " to boolean");
@@ -346,6 +400,10 @@ public final class Value implements Cloneable
         return new Value (string);
       case OBJECT:
         return new Value (object);
+      case MAP:
+        return new Value ((ValueMap) object);
+      case ARRAY:
+        return new Value ((ValueArray) object);
     }
     return VAL_EMPTY;
   }
@@ -395,7 +453,7 @@ public final class Value implements Cloneable
    */
   public double getDistanceTo (final Class <?> target)
   {
-    if (type == OBJECT)
+    if (type == OBJECT || type == MAP || type == ARRAY)
     {
       if (object == null || target == Object.class)
         return 2;
@@ -554,12 +612,15 @@ public final class Value implements Cloneable
         case STRING:
           return string;
         case OBJECT:
+        case MAP:
+        case ARRAY:
           return object;
         default:
           throw new RuntimeException ("Fatal: unexpected type " + type);
       }
     }
-    if (type == OBJECT && (object == null || target.isAssignableFrom (object.getClass ())))
+    if ((type == OBJECT || type == MAP || type == ARRAY) &&
+        (object == null || target.isAssignableFrom (object.getClass ())))
     {
       // target is a superclass of object's class (or they are the same)
       return object;
@@ -653,6 +714,12 @@ public final class Value implements Cloneable
       case OBJECT:
         ret = "object " + object;
         break;
+      case MAP:
+        ret = "map " + object;
+        break;
+      case ARRAY:
+        ret = "array " + object;
+        break;
       default:
         ret = ("unknown type in Value object");
     }
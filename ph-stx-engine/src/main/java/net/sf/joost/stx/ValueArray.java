@@ -0,0 +1,282 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+/**
+ * Array of a {@link Value} of type {@link Value#ARRAY}. The members of an
+ * array are arbitrary sequences and are addressed by their position, starting
+ * with 1.
+ * <p>
+ * The array is a persistent vector: the members are stored in a trie with 32
+ * children per node plus a separate tail for the last members. Appending a
+ * member usually copies only the tail, replacing a member copies the path from
+ * the root to this member, everything else is shared with the previous array.
+ * A <em>mutable</em> array (see {@link #createMutable()}) never shares its
+ * nodes, so it replaces members in place and returns itself; the change is
+ * visible through all references to this array.
+ *
+ * @author Philip Helger
+ */
+public final class ValueArray
+{
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  /** The empty immutable array */
+  public static final ValueArray EMPTY = new ValueArray (0, BITS, new Object [0], new Value [0], false);
+
+  private int m_nSize;
+  /** the number of bits to shift at the root level */
+  private int m_nShift;
+  private Object [] m_aRoot;
+  private Value [] m_aTail;
+  private final boolean m_bMutable;
+
+  private ValueArray (final int size,
+                      final int shift,
+                      final Object [] root,
+                      final Value [] tail,
+                      final boolean mutable)
+  {
+    m_nSize = size;
+    m_nShift = shift;
+    m_aRoot = root;
+    m_aTail = tail;
+    m_bMutable = mutable;
+  }
+
+  /** @return a new empty mutable array */
+  public static ValueArray createMutable ()
+  {
+    return new ValueArray (0, BITS, new Object [0], new Value [0], true);
+  }
+
+  /**
+   * Creates an array from the items of a sequence
+   *
+   * @param seq
+   *        the sequence, each item becomes a member
+   * @param mutable
+   *        whether the array will be updated in place
+   * @return the new array
+   */
+  public static ValueArray create (final Value seq, final boolean mutable)
+  {
+    final ValueArray array = createMutable ();
+    if (seq.type != Value.EMPTY)
+      for (Value v = seq; v != null; v = v.next)
+        array.append (v.singleCopy ());
+    if (mutable)
+      return array;
+    return new ValueArray (array.m_nSize, array.m_nShift, array.m_aRoot, array.m_aTail, false);
+  }
+
+  /** @return whether this array is updated in place */
+  public boolean isMutable ()
+  {
+    return m_bMutable;
+  }
+
+  /** @return the number of members */
+  public int size ()
+  {
+    return m_nSize;
+  }
+
+  /** @return the index of the first member in the tail */
+  private int _tailOffset ()
+  {
+    return m_nSize < WIDTH ? 0 : ((m_nSize - 1) >>> BITS) << BITS;
+  }
+
+  /** @return the array of 32 members containing the member at index i */
+  private Object [] _leafFor (final int i)
+  {
+    if (i >= _tailOffset ())
+      return m_aTail;
+    Object [] node = m_aRoot;
+    for (int level = m_nShift; level > 0; level -= BITS)
+      node = (Object []) node[(i >>> level) & MASK];
+    return node;
+  }
+
+  /**
+   * @param position
+   *        the position, starting with 1
+   * @return the member at the given position, <code>null</code> if the
+   *         position is out of range
+   */
+  public Value get (final long position)
+  {
+    if (position < 1 || position > m_nSize)
+      return null;
+    final int i = (int) (position - 1);
+    return (Value) _leafFor (i)[i & MASK];
+  }
+
+  /** @return the array with the given contents, this array if it is mutable */
+  private ValueArray _update (final int size, final int shift, final Object [] root, final Value [] tail)
+  {
+    if (!m_bMutable)
+      return new ValueArray (size, shift, root, tail, false);
+    m_nSize = size;
+    m_nShift = shift;
+    m_aRoot = root;
+    m_aTail = tail;
+    return this;
+  }
+
+  /** @return a path of new nodes from the given level down to the leaf */
+  private static Object [] _newPath (final int level, final Object [] leaf)
+  {
+    if (level == 0)
+      return leaf;
+    return new Object [] { _newPath (level - BITS, leaf) };
+  }
+
+  /** @return a copy of the node with the full tail appended */
+  private Object [] _pushTail (final int level, final Object [] node, final Object [] tail)
+  {
+    final int idx = ((m_nSize - 1) >>> level) & MASK;
+    final Object [] ret = new Object [idx + 1];
+    System.arraycopy (node, 0, ret, 0, Math.min (node.length, idx));
+    if (level == BITS)
+      ret[idx] = tail;
+    else
+      ret[idx] = idx < node.length ? _pushTail (level - BITS, (Object []) node[idx], tail)
+                                   : _newPath (level - BITS, tail);
+    return ret;
+  }
+
+  /**
+   * Appends a member
+   *
+   * @param member
+   *        the new member, a sequence
+   * @return the updated array (a new array if this array is immutable)
+   */
+  public ValueArray append (final Value member)
+  {
+    if (m_nSize - _tailOffset () < WIDTH)
+    {
+      // there's room in the tail
+      final Value [] tail = new Value [m_aTail.length + 1];
+      System.arraycopy (m_aTail, 0, tail, 0, m_aTail.length);
+      tail[m_aTail.length] = member;
+      return _update (m_nSize + 1, m_nShift, m_aRoot, tail);
+    }
+
+    // the tail is full: move it into the trie
+    Object [] root;
+    int shift = m_nShift;
+    if ((m_nSize >>> BITS) > (1 << m_nShift))
+    {
+      // the trie is full: add a new root level
+      root = new Object [] { m_aRoot, _newPath (m_nShift, m_aTail) };
+      shift += BITS;
+    }
+    else
+      root = _pushTail (m_nShift, m_aRoot, m_aTail);
+    return _update (m_nSize + 1, shift, root, new Value [] { member });
+  }
+
+  /**
+   * @return the node with the member replaced, a copy unless
+   *         <code>inPlace</code> is set
+   */
+  private static Object [] _set (final int level,
+                                 final Object [] node,
+                                 final int i,
+                                 final Value member,
+                                 final boolean inPlace)
+  {
+    final Object [] ret = inPlace ? node : node.clone ();
+    if (level == 0)
+      ret[i & MASK] = member;
+    else
+    {
+      final int idx = (i >>> level) & MASK;
+      ret[idx] = _set (level - BITS, (Object []) node[idx], i, member, inPlace);
+    }
+    return ret;
+  }
+
+  /**
+   * Replaces a member
+   *
+   * @param position
+   *        the position of the member, starting with 1
+   * @param member
+   *        the new member, a sequence
+   * @return the updated array (a new array if this array is immutable), or
+   *         <code>null</code> if the position is out of range
+   */
+  public ValueArray set (final long position, final Value member)
+  {
+    if (position < 1 || position > m_nSize)
+      return null;
+    final int i = (int) (position - 1);
+    if (i >= _tailOffset ())
+    {
+      final Value [] tail = m_bMutable ? m_aTail : m_aTail.clone ();
+      tail[i & MASK] = member;
+      return _update (m_nSize, m_nShift, m_aRoot, tail);
+    }
+    return _update (m_nSize, m_nShift, _set (m_nShift, m_aRoot, i, member, m_bMutable), m_aTail);
+  }
+
+  /**
+   * Appends the items of a sequence to a string buffer, used for the string
+   * values of maps and arrays
+   */
+  static void appendSequence (final StringBuilder sb, final Value seq)
+  {
+    if (seq.type == Value.EMPTY)
+      sb.append ("()");
+    else
+      if (seq.next == null)
+        sb.append (seq.getStringValue ());
+      else
+      {
+        sb.append ('(');
+        for (Value v = seq; v != null; v = v.next)
+        {
+          sb.append (v.getStringValue ());
+          if (v.next != null)
+            sb.append (", ");
+        }
+        sb.append (')');
+      }
+  }
+
+  @Override
+  public String toString ()
+  {
+    final StringBuilder sb = new StringBuilder ("array[");
+    for (int i = 1; i <= m_nSize; i++)
+    {
+      if (i > 1)
+        sb.append (", ");
+      appendSequence (sb, get (i));
+    }
+    return sb.append (']').toString ();
+  }
+}
@@ -0,0 +1,403 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx;
+
+import net.sf.joost.grammar.EvalException;
+
+/**
+ * Map of a {@link Value} of type {@link Value#MAP}. Keys are single atomic
+ * items: numbers, booleans and strings (the string values of nodes) are
+ * distinct keys, so the number <code>1</code> and the string
+ * <code>"1"</code> address different entries. The values are arbitrary
+ * sequences.
+ * <p>
+ * The map is a hash array mapped trie: an update copies only the path from the
+ * root to the changed entry (at most 7 small nodes) and shares everything else
+ * with the previous map, so each update takes effectively constant time and
+ * the previous map remains unchanged. A <em>mutable</em> map (see
+ * {@link #createMutable()}) never shares its nodes, so it changes the nodes on
+ * the path in place and returns itself; the change is visible through all
+ * references to this map, which avoids both the copies and the
+ * <code>stx:assign</code> per update.
+ *
+ * @author Philip Helger
+ */
+public final class ValueMap
+{
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /** The empty immutable map */
+  public static final ValueMap EMPTY = new ValueMap (null, 0, false);
+
+  /** An entry, possibly the first of a list of entries with the same hash */
+  private static final class Entry
+  {
+    final int m_nHash;
+    final Object m_aKey;
+    final Value m_aKeyValue;
+    final Value m_aValue;
+    final Entry m_aNext;
+
+    Entry (final int hash, final Object key, final Value keyValue, final Value value, final Entry next)
+    {
+      m_nHash = hash;
+      m_aKey = key;
+      m_aKeyValue = keyValue;
+      m_aValue = value;
+      m_aNext = next;
+    }
+  }
+
+  /**
+   * A trie node, each slot contains either an {@link Entry} or a Node. Only the
+   * nodes of a mutable map are changed.
+   */
+  private static final class Node
+  {
+    int m_nBitmap;
+    Object [] m_aSlots;
+
+    Node (final int bitmap, final Object [] slots)
+    {
+      m_nBitmap = bitmap;
+      m_aSlots = slots;
+    }
+  }
+
+  private Node m_aRoot;
+  private int m_nSize;
+  private final boolean m_bMutable;
+
+  private ValueMap (final Node root, final int size, final boolean mutable)
+  {
+    m_aRoot = root;
+    m_nSize = size;
+    m_bMutable = mutable;
+  }
+
+  /** @return a new empty mutable map */
+  public static ValueMap createMutable ()
+  {
+    return new ValueMap (null, 0, true);
+  }
+
+  /** @return whether this map is updated in place */
+  public boolean isMutable ()
+  {
+    return m_bMutable;
+  }
+
+  /** @return the number of entries */
+  public int size ()
+  {
+    return m_nSize;
+  }
+
+  /**
+   * @return the object identifying the key given as single item
+   * @exception EvalException
+   *            if the item can't be used as key
+   */
+  private static Object _getKey (final Value item) throws EvalException
+  {
+    if (item.next != null)
+      throw new EvalException ("A sequence of more than one item can't be used as key");
+    switch (item.type)
+    {
+      case Value.NUMBER:
+        // normalize -0 to 0
+        return Double.valueOf (item.getNumberValue () + 0.0);
+      case Value.BOOLEAN:
+        return Boolean.valueOf (item.getBooleanValue ());
+      case Value.STRING:
+      case Value.NODE:
+        return item.getStringValue ();
+      case Value.OBJECT:
+        return item.getObject () == null ? "" : item.getObject ();
+      default:
+        throw new EvalException ("A " +
+                                 (item.type == Value.EMPTY ? "empty sequence" : "map or array") +
+                                 " can't be used as key");
+    }
+  }
+
+  /** Spreads the bits of the hash code, the lower bits are used first */
+  private static int _hash (final Object key)
+  {
+    final int h = key.hashCode ();
+    return h ^ (h >>> 16);
+  }
+
+  private static int _index (final int bitmap, final int bit)
+  {
+    return Integer.bitCount (bitmap & (bit - 1));
+  }
+
+  /**
+   * @param key
+   *        a single item
+   * @return the value for the key, <code>null</code> if there's no such entry
+   * @exception EvalException
+   *            if the item can't be used as key
+   */
+  public Value get (final Value key) throws EvalException
+  {
+    final Object k = _getKey (key);
+    final int hash = _hash (k);
+    Node node = m_aRoot;
+    int shift = 0;
+    while (node != null)
+    {
+      final int bit = 1 << ((hash >>> shift) & MASK);
+      if ((node.m_nBitmap & bit) == 0)
+        return null;
+      final Object slot = node.m_aSlots[_index (node.m_nBitmap, bit)];
+      if (slot instanceof Node)
+      {
+        node = (Node) slot;
+        shift += BITS;
+      }
+      else
+      {
+        for (Entry e = (Entry) slot; e != null; e = e.m_aNext)
+          if (e.m_nHash == hash && e.m_aKey.equals (k))
+            return e.m_aValue;
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return a copy of the list of entries without the entry for the given key
+   *         (or the list itself if it doesn't contain the key)
+   */
+  private static Entry _without (final Entry list, final Object key)
+  {
+    if (list == null)
+      return null;
+    if (list.m_aKey.equals (key))
+      return list.m_aNext;
+    final Entry rest = _without (list.m_aNext, key);
+    return rest == list.m_aNext ? list : new Entry (list.m_nHash, list.m_aKey, list.m_aKeyValue, list.m_aValue, rest);
+  }
+
+  /** @return a node containing the two lists of entries with different hashes */
+  private static Node _createNode (final Entry e1, final Entry e2, final int shift)
+  {
+    final int i1 = (e1.m_nHash >>> shift) & MASK;
+    final int i2 = (e2.m_nHash >>> shift) & MASK;
+    if (i1 == i2)
+      return new Node (1 << i1, new Object [] { _createNode (e1, e2, shift + BITS) });
+    return new Node ((1 << i1) | (1 << i2), i1 < i2 ? new Object [] { e1, e2 } : new Object [] { e2, e1 });
+  }
+
+  /**
+   * @return a node with the given contents: the given node itself if it may be
+   *         changed in place, otherwise a new node
+   */
+  private static Node _node (final Node node, final int bitmap, final Object [] slots, final boolean inPlace)
+  {
+    if (!inPlace)
+      return new Node (bitmap, slots);
+    node.m_nBitmap = bitmap;
+    node.m_aSlots = slots;
+    return node;
+  }
+
+  /**
+   * @return the node with a slot replaced: the given node itself if it may be
+   *         changed in place, otherwise a copy
+   */
+  private static Node _replace (final Node node, final int idx, final Object slot, final boolean inPlace)
+  {
+    final Object [] slots = inPlace ? node.m_aSlots : node.m_aSlots.clone ();
+    slots[idx] = slot;
+    return inPlace ? node : new Node (node.m_nBitmap, slots);
+  }
+
+  /**
+   * @return the node with the entry added or replaced, a copy unless
+   *         <code>inPlace</code> is set
+   */
+  private static Node _put (final Node node, final int shift, final Entry entry, final boolean inPlace)
+  {
+    final int bit = 1 << ((entry.m_nHash >>> shift) & MASK);
+    if (node == null)
+      return new Node (bit, new Object [] { entry });
+    final int idx = _index (node.m_nBitmap, bit);
+    if ((node.m_nBitmap & bit) == 0)
+    {
+      final Object [] slots = new Object [node.m_aSlots.length + 1];
+      System.arraycopy (node.m_aSlots, 0, slots, 0, idx);
+      slots[idx] = entry;
+      System.arraycopy (node.m_aSlots, idx, slots, idx + 1, node.m_aSlots.length - idx);
+      return _node (node, node.m_nBitmap | bit, slots, inPlace);
+    }
+
+    final Object slot = node.m_aSlots[idx];
+    Object newSlot;
+    if (slot instanceof Node)
+      newSlot = _put ((Node) slot, shift + BITS, entry, inPlace);
+    else
+    {
+      final Entry list = (Entry) slot;
+      if (list.m_nHash == entry.m_nHash)
+      {
+        // same hash: replace the entry or add it to the list
+        final Entry rest = _without (list, entry.m_aKey);
+        newSlot = new Entry (entry.m_nHash, entry.m_aKey, entry.m_aKeyValue, entry.m_aValue, rest);
+      }
+      else
+        newSlot = _createNode (list, entry, shift + BITS);
+    }
+    return _replace (node, idx, newSlot, inPlace);
+  }
+
+  /**
+   * @return the node without the entry (a copy unless <code>inPlace</code> is
+   *         set), <code>null</code> if the node becomes empty
+   */
+  private static Object _remove (final Node node,
+                                 final int shift,
+                                 final int hash,
+                                 final Object key,
+                                 final boolean inPlace)
+  {
+    final int bit = 1 << ((hash >>> shift) & MASK);
+    final int idx = _index (node.m_nBitmap, bit);
+    final Object slot = node.m_aSlots[idx];
+    Object newSlot;
+    if (slot instanceof Node)
+    {
+      newSlot = _remove ((Node) slot, shift + BITS, hash, key, inPlace);
+      // a node with a single list of entries can be replaced by this list
+      if (newSlot instanceof Node)
+      {
+        final Node n = (Node) newSlot;
+        if (n.m_aSlots.length == 1 && n.m_aSlots[0] instanceof Entry)
+          newSlot = n.m_aSlots[0];
+      }
+    }
+    else
+      newSlot = _without ((Entry) slot, key);
+
+    if (newSlot == null)
+    {
+      if (node.m_aSlots.length == 1)
+        return null;
+      final Object [] slots = new Object [node.m_aSlots.length - 1];
+      System.arraycopy (node.m_aSlots, 0, slots, 0, idx);
+      System.arraycopy (node.m_aSlots, idx + 1, slots, idx, slots.length - idx);
+      return _node (node, node.m_nBitmap & ~bit, slots, inPlace);
+    }
+    return _replace (node, idx, newSlot, inPlace);
+  }
+
+  /** @return the map with the given contents, this map if it is mutable */
+  private ValueMap _update (final Node root, final int size)
+  {
+    if (!m_bMutable)
+      return new ValueMap (root, size, false);
+    m_aRoot = root;
+    m_nSize = size;
+    return this;
+  }
+
+  /**
+   * Associates a value with a key
+   *
+   * @param key
+   *        a single item
+   * @param value
+   *        the value, a sequence
+   * @return the updated map (a new map if this map is immutable)
+   * @exception EvalException
+   *            if the item can't be used as key
+   */
+  public ValueMap put (final Value key, final Value value) throws EvalException
+  {
+    final Object k = _getKey (key);
+    final int size = get (key) == null ? m_nSize + 1 : m_nSize;
+    final Entry entry = new Entry (_hash (k), k, key.singleCopy (), value, null);
+    return _update (_put (m_aRoot, 0, entry, m_bMutable), size);
+  }
+
+  /**
+   * Removes the entry for a key
+   *
+   * @param key
+   *        a single item
+   * @return the updated map (a new map if this map is immutable)
+   * @exception EvalException
+   *            if the item can't be used as key
+   */
+  public ValueMap remove (final Value key) throws EvalException
+  {
+    if (get (key) == null)
+      return this;
+    final Object k = _getKey (key);
+    return _update ((Node) _remove (m_aRoot, 0, _hash (k), k, m_bMutable), m_nSize - 1);
+  }
+
+  private static void _collectEntries (final Node node, final Entry [] entries, final int [] count)
+  {
+    for (final Object slot : node.m_aSlots)
+      if (slot instanceof Node)
+        _collectEntries ((Node) slot, entries, count);
+      else
+        for (Entry e = (Entry) slot; e != null; e = e.m_aNext)
+          entries[count[0]++] = e;
+  }
+
+  private Entry [] _getEntries ()
+  {
+    final Entry [] entries = new Entry [m_nSize];
+    if (m_aRoot != null)
+      _collectEntries (m_aRoot, entries, new int [1]);
+    return entries;
+  }
+
+  /** @return the keys of all entries, in no particular order */
+  public Value [] getKeys ()
+  {
+    final Entry [] entries = _getEntries ();
+    final Value [] keys = new Value [entries.length];
+    for (int i = 0; i < entries.length; i++)
+      keys[i] = entries[i].m_aKeyValue;
+    return keys;
+  }
+
+  @Override
+  public String toString ()
+  {
+    final StringBuilder sb = new StringBuilder ("map{");
+    final Entry [] entries = _getEntries ();
+    for (int i = 0; i < entries.length; i++)
+    {
+      if (i > 0)
+        sb.append (", ");
+      sb.append (entries[i].m_aKeyValue.getStringValue ()).append (": ");
+      ValueArray.appendSequence (sb, entries[i].m_aValue);
+    }
+    return sb.append ('}').toString ();
+  }
+}
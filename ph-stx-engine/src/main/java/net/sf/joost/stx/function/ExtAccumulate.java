@@ -0,0 +1,79 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Accumulator;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>accumulate</code> extension function.<br>
+ * Adds the items of the sequence given as second parameter to the
+ * {@link Accumulator} given as first parameter and returns the (updated)
+ * accumulator.
+ *
+ * @author Philip Helger
+ */
+public final class ExtAccumulate implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "accumulate" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "accumulate";
+  }
+
+  /** @return <code>false</code>, the accumulator is updated */
+  public boolean isConstant ()
+  {
+    return false;
+  }
+
+  /** @return <code>true</code>, the accumulator is updated in place */
+  public boolean hasSideEffects ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final Value v = args.m_aLeft.evaluate (context, top);
+    final Accumulator acc = FunctionFactory.getAccumulator (v, this);
+    acc.add (args.m_aRight.evaluate (context, top));
+    return v;
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import java.util.StringTokenizer;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Accumulator;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>accumulator</code> extension function.<br>
+ * Creates a new {@link Accumulator} for streaming statistics. Count, sum,
+ * average, minimum and maximum are always available. The optional parameter
+ * is a whitespace separated list of the additional statistics
+ * <code>distinct-count</code> and <code>quantile</code>.
+ *
+ * @author Philip Helger
+ */
+public final class ExtAccumulator implements IInstance
+{
+  /** @return 0 */
+  public int getMinParCount ()
+  {
+    return 0;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "accumulator" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "accumulator";
+  }
+
+  /** @return <code>false</code>, each call must create a new accumulator */
+  public boolean isConstant ()
+  {
+    return false;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    boolean distinct = false, quantiles = false;
+    if (args != null)
+    {
+      final StringTokenizer st = new StringTokenizer (args.evaluate (context, top).getStringValue ());
+      while (st.hasMoreTokens ())
+      {
+        final String token = st.nextToken ();
+        if ("distinct-count".equals (token))
+          distinct = true;
+        else
+          if ("quantile".equals (token))
+            quantiles = true;
+          else
+            throw new EvalException ("Unknown statistic '" +
+                                     token +
+                                     "' in call of '" +
+                                     getName ().substring (FunctionFactory.JENSP.length ()) +
+                                     "' (allowed are 'distinct-count' and 'quantile')");
+      }
+    }
+    return new Value (new Accumulator (distinct, quantiles));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Accumulator;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>accumulator-quantile</code> extension function.<br>
+ * Returns an estimate of the quantile given as second parameter (between 0 and
+ * 1, for example 0.5 for the median) of the items added to the
+ * {@link Accumulator} given as first parameter. The relative error of the
+ * estimate is at most {@value Accumulator#RELATIVE_ACCURACY}.
+ *
+ * @author Philip Helger
+ */
+public final class ExtAccumulatorQuantile implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "accumulator-quantile" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "accumulator-quantile";
+  }
+
+  /** @return <code>false</code>, the accumulator may change */
+  public boolean isConstant ()
+  {
+    return false;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final Accumulator acc = FunctionFactory.getAccumulator (args.m_aLeft.evaluate (context, top), this);
+    if (!acc.isQuantileEstimated ())
+      throw new EvalException ("The accumulator passed to '" +
+                               getName ().substring (FunctionFactory.JENSP.length ()) +
+                               "' doesn't estimate quantiles (create it with joost:accumulator('quantile'))");
+    if (acc.getCount () == 0)
+      return Value.VAL_EMPTY;
+    return new Value (acc.getQuantile (args.m_aRight.evaluate (context, top).getNumberValue ()));
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Accumulator;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>accumulator-count</code>, <code>accumulator-sum</code>,
+ * <code>accumulator-avg</code>, <code>accumulator-min</code>,
+ * <code>accumulator-max</code> and <code>accumulator-distinct-count</code>
+ * extension functions.<br>
+ * Return a statistic of the items added to the {@link Accumulator} given as
+ * parameter. The results equal those of the functions <code>count</code>,
+ * <code>sum</code>, <code>avg</code>, <code>min</code> and <code>max</code>
+ * applied to the sequence of all added items (the empty sequence for the
+ * average, minimum and maximum of no items).
+ *
+ * @author Philip Helger
+ */
+public final class ExtAccumulatorValue implements IInstance
+{
+  public static final int COUNT = 0;
+  public static final int SUM = 1;
+  public static final int AVG = 2;
+  public static final int MIN = 3;
+  public static final int MAX = 4;
+  public static final int DISTINCT_COUNT = 5;
+
+  private static final String [] NAMES = { "count", "sum", "avg", "min", "max", "distinct-count" };
+
+  private final int m_nStatistic;
+
+  /**
+   * @param statistic
+   *        one of the constants defined in this class
+   */
+  public ExtAccumulatorValue (final int statistic)
+  {
+    m_nStatistic = statistic;
+  }
+
+  /** @return 1 */
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "accumulator-" and the name of the statistic */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "accumulator-" + NAMES[m_nStatistic];
+  }
+
+  /** @return <code>false</code>, the accumulator may change */
+  public boolean isConstant ()
+  {
+    return false;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final Accumulator acc = FunctionFactory.getAccumulator (args.evaluate (context, top), this);
+    switch (m_nStatistic)
+    {
+      case COUNT:
+        return new Value (acc.getCount ());
+      case SUM:
+        return new Value (acc.getSum ());
+      case DISTINCT_COUNT:
+        if (!acc.isDistinctCounted ())
+          throw new EvalException ("The accumulator passed to '" +
+                                   getName ().substring (FunctionFactory.JENSP.length ()) +
+                                   "' doesn't count distinct items (create it with " +
+                                   "joost:accumulator('distinct-count'))");
+        return new Value (acc.getDistinctCount ());
+    }
+    if (acc.getCount () == 0)
+      return Value.VAL_EMPTY;
+    switch (m_nStatistic)
+    {
+      case AVG:
+        return new Value (acc.getAverage ());
+      case MIN:
+        return new Value (acc.getMin ());
+      default:
+        return new Value (acc.getMax ());
+    }
+  }
+}
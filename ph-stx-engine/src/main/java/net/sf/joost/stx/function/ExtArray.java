@@ -0,0 +1,98 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>array</code> and <code>mutable-array</code> extension
+ * functions.<br>
+ * Create a new array (see {@link ValueArray}), either empty or with the items
+ * of the sequence given as parameter as members. An immutable array is never
+ * changed by <code>array-put</code> and <code>array-append</code>, which
+ * return a new array instead. A mutable array is updated in place.
+ *
+ * @author Philip Helger
+ */
+public final class ExtArray implements IInstance
+{
+  private final boolean m_bMutable;
+
+  /**
+   * @param mutable
+   *        <code>true</code> for <code>mutable-array</code>
+   */
+  public ExtArray (final boolean mutable)
+  {
+    m_bMutable = mutable;
+  }
+
+  /** @return 0 */
+  public int getMinParCount ()
+  {
+    return 0;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "array" or "mutable-array" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + (m_bMutable ? "mutable-array" : "array");
+  }
+
+  /**
+   * @return <code>true</code> for an immutable array, <code>false</code> for
+   *         a mutable array (each call must create a new array)
+   */
+  public boolean isConstant ()
+  {
+    return !m_bMutable;
+  }
+
+  /**
+   * @return <code>true</code> for a mutable array, which may be updated in
+   *         place by <code>array-append</code> and <code>array-put</code>
+   *         (these calls can't tell whether their array is mutable)
+   */
+  public boolean hasSideEffects ()
+  {
+    return m_bMutable;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    if (args == null)
+      return new Value (m_bMutable ? ValueArray.createMutable () : ValueArray.EMPTY);
+    return new Value (ValueArray.create (args.evaluate (context, top), m_bMutable));
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>array-append</code> extension function.<br>
+ * Appends the second parameter as new member to the array given as first
+ * parameter and returns the resulting array. An immutable array remains
+ * unchanged, the result is a new array. A mutable array is updated and
+ * returned.
+ *
+ * @author Philip Helger
+ */
+public final class ExtArrayAppend implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "array-append" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "array-append";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final ValueArray array = FunctionFactory.getArray (args.m_aLeft.evaluate (context, top), this);
+    return new Value (array.append (args.m_aRight.evaluate (context, top)));
+  }
+}
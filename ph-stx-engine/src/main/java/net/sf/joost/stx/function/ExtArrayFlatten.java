@@ -0,0 +1,85 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>array-flatten</code> extension function.<br>
+ * Returns the concatenation of all members of the array given as parameter as
+ * a single sequence.
+ *
+ * @author Philip Helger
+ */
+public final class ExtArrayFlatten implements IInstance
+{
+  /** @return 1 */
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "array-flatten" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "array-flatten";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final ValueArray array = FunctionFactory.getArray (args.evaluate (context, top), this);
+    Value ret = null, last = null;
+    for (int i = 1; i <= array.size (); i++)
+    {
+      final Value member = array.get (i);
+      if (member.type == Value.EMPTY)
+        continue;
+      final Value copy = member.copy ();
+      if (last == null)
+        ret = copy;
+      else
+        last.next = copy;
+      last = copy;
+      while (last.next != null)
+        last = last.next;
+    }
+    return ret == null ? Value.VAL_EMPTY : ret;
+  }
+}
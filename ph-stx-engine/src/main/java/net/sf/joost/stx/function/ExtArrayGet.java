@@ -0,0 +1,78 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>array-get</code> extension function.<br>
+ * Returns the member of the array given as first parameter at the position
+ * given as second parameter (starting with 1).
+ *
+ * @author Philip Helger
+ */
+public final class ExtArrayGet implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "array-get" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "array-get";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final ValueArray array = FunctionFactory.getArray (args.m_aLeft.evaluate (context, top), this);
+    final double dpos = args.m_aRight.evaluate (context, top).getNumberValue ();
+    final Value member = Double.isNaN (dpos) ? null : array.get (Math.round (dpos));
+    if (member == null)
+      throw new EvalException ("Position " +
+                               dpos +
+                               " out of bounds in call to function '" +
+                               getName ().substring (FunctionFactory.JENSP.length ()) +
+                               "'");
+    return member.copy ();
+  }
+}
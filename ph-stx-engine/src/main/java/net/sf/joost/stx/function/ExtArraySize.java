@@ -0,0 +1,68 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>array-size</code> extension function.<br>
+ * Returns the number of members of the array given as parameter.
+ *
+ * @author Philip Helger
+ */
+public final class ExtArraySize implements IInstance
+{
+  /** @return 1 */
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "array-size" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "array-size";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    return new Value (FunctionFactory.getArray (args.evaluate (context, top), this).size ());
+  }
+}
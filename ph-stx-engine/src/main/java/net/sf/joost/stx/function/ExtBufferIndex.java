@@ -0,0 +1,198 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.instruction.AbstractGroupBase;
+import net.sf.joost.stx.BufferReader;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.KeyIndex;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+import net.sf.joost.util.VariableNotFoundException;
+import net.sf.joost.util.VariableUtils;
+
+/**
+ * The <code>buffer-index</code> extension function.<br>
+ * Creates a {@link KeyIndex} for the lookup function {@link ExtLookup} from
+ * the contents of a buffer. The first parameter is the name of the buffer, the
+ * second parameter the key expression, and the optional third parameter the
+ * value expression. Each top level element of the buffer becomes an entry:
+ * the key and value expressions are evaluated with this element as the
+ * current node (so its name and its attributes are accessible, for example
+ * <code>@id</code>). The value of an entry defaults to the string value of its
+ * element. Both expressions may return sequences; an element without keys
+ * can't be found.
+ *
+ * @author Philip Helger
+ */
+public final class ExtBufferIndex implements IInstance
+{
+  /** the namespaces in scope of the function call, for the buffer name */
+  private final Map <String, String> m_aNSSet;
+
+  /** Constructs the instance registered in the {@link FunctionFactory} */
+  public ExtBufferIndex ()
+  {
+    this (new Hashtable<> ());
+  }
+
+  /**
+   * Constructs an instance for a function call
+   *
+   * @param nsSet
+   *        the namespaces in scope of the function call
+   */
+  public ExtBufferIndex (final Map <String, String> nsSet)
+  {
+    m_aNSSet = new Hashtable<> (nsSet);
+  }
+
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 3 */
+  public int getMaxParCount ()
+  {
+    return 3;
+  }
+
+  /** @return "buffer-index" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "buffer-index";
+  }
+
+  /** @return <code>false</code>, because the buffer contents may change */
+  public boolean isConstant ()
+  {
+    return false;
+  }
+
+  /** @return the expanded name of the buffer with the given qualified name */
+  private String _getExpandedName (final String qName) throws EvalException
+  {
+    final String name = qName.trim ();
+    final int colon = name.indexOf (':');
+    if (colon == -1)
+      return "{}" + name;
+    final String prefix = name.substring (0, colon);
+    final String uri = m_aNSSet.get (prefix);
+    if (uri == null)
+      throw new EvalException ("Undeclared prefix '" + prefix + "' in call of '" + getName () + "'");
+    return "{" + uri + "}" + name.substring (colon + 1);
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    AbstractTree nameArg, keyArg, valueArg;
+    if (args.m_aLeft.getType () == AbstractTree.LIST)
+    { // three parameters
+      nameArg = args.m_aLeft.m_aLeft;
+      keyArg = args.m_aLeft.m_aRight;
+      valueArg = args.m_aRight;
+    }
+    else
+    { // two parameters
+      nameArg = args.m_aLeft;
+      keyArg = args.m_aRight;
+      valueArg = null;
+    }
+
+    final String name = nameArg.evaluate (context, top).getStringValue ();
+    // buffers are special variables with an "@" prefix
+    final String bufName = "@" + _getExpandedName (name);
+    AbstractGroupBase groupScope;
+    try
+    {
+      groupScope = VariableUtils.findVariableScope (context, bufName);
+    }
+    catch (final VariableNotFoundException e)
+    {
+      throw new EvalException ("Can't index an undeclared buffer '" + name + "'");
+    }
+    final SAXEvent [] events = new BufferReader (context, bufName, groupScope, null, null).getEvents ();
+
+    final KeyIndex index = new KeyIndex ();
+    int depth = 0;
+    SAXEvent element = null;
+    final StringBuilder text = new StringBuilder ();
+    for (final SAXEvent ev : events)
+    {
+      switch (ev.m_nType)
+      {
+        case SAXEvent.ELEMENT:
+          if (depth++ == 0)
+          {
+            element = ev;
+            text.setLength (0);
+          }
+          break;
+        case SAXEvent.ELEMENT_END:
+          if (--depth == 0)
+            _addEntry (context, index, element, keyArg, valueArg, text);
+          break;
+        case SAXEvent.TEXT:
+        case SAXEvent.CDATA:
+          if (depth > 0 && valueArg == null)
+            text.append (ev.m_sValue);
+          break;
+      }
+    }
+    return new Value (index);
+  }
+
+  /**
+   * Evaluates the key and value expressions for a top level element of the
+   * buffer and adds the entry to the index
+   */
+  private static void _addEntry (final Context context,
+                                 final KeyIndex index,
+                                 final SAXEvent element,
+                                 final AbstractTree keyArg,
+                                 final AbstractTree valueArg,
+                                 final StringBuilder text) throws SAXException
+  {
+    // make the element the current node
+    context.ancestorStack.push (element);
+    try
+    {
+      final int elTop = context.ancestorStack.size ();
+      final Value keys = keyArg.evaluate (context, elTop);
+      final Value value = valueArg == null ? new Value (text.toString ()) : valueArg.evaluate (context, elTop);
+      index.add (keys, value);
+    }
+    finally
+    {
+      context.ancestorStack.pop ();
+    }
+  }
+}
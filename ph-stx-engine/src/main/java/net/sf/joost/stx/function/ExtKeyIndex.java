@@ -0,0 +1,121 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.KeyIndex;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>key-index</code> extension function.<br>
+ * Creates a {@link KeyIndex} for the lookup function {@link ExtLookup}. The
+ * first parameter is the sequence of keys, the optional second parameter the
+ * sequence of values, which must have the same length: the n-th key maps to
+ * the n-th value. Without values each key maps to its position, so
+ * <code>joost:lookup(joost:key-index($seq), $item)</code> is the same as
+ * <code>index-of($seq, $item)</code>. Keys may occur more than once.
+ *
+ * @author Philip Helger
+ */
+public final class ExtKeyIndex implements IInstance
+{
+  /** @return 1 */
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "key-index" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "key-index";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  /** @return the number of items in the sequence */
+  private static long _length (final Value seq)
+  {
+    if (seq.type == Value.EMPTY)
+      return 0;
+    long n = 0;
+    for (Value v = seq; v != null; v = v.next)
+      n++;
+    return n;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    Value keys, values;
+    if (args.getType () == AbstractTree.LIST)
+    { // two parameters
+      keys = args.m_aLeft.evaluate (context, top);
+      values = args.m_aRight.evaluate (context, top);
+      if (_length (keys) != _length (values))
+        throw new EvalException ("The sequences of keys and values passed to '" +
+                                 getName () +
+                                 "' must have the same length");
+    }
+    else
+    { // one parameter
+      keys = args.evaluate (context, top);
+      values = null;
+    }
+
+    final KeyIndex index = new KeyIndex ();
+    if (keys.type == Value.EMPTY)
+      return new Value (index);
+
+    long position = 1;
+    while (keys != null)
+    {
+      Value value;
+      if (values == null)
+        value = new Value (position++);
+      else
+      {
+        value = values;
+        values = values.next;
+        value.next = null;
+      }
+      final Value key = keys;
+      keys = keys.next;
+      key.next = null;
+      index.add (key, value);
+    }
+    return new Value (index);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.KeyIndex;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>lookup</code> extension function.<br>
+ * Returns the values of all entries of a {@link KeyIndex} (the first
+ * parameter, created by {@link ExtKeyIndex} or {@link ExtBufferIndex}) having
+ * a key that equals the second parameter. If the second parameter is a
+ * sequence, the entries matching any of its items are returned. The values
+ * are returned in the order of the indexed sequence or buffer.
+ *
+ * @author Philip Helger
+ */
+public final class ExtLookup implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "lookup" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "lookup";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final Value index = args.m_aLeft.evaluate (context, top);
+    final Value key = args.m_aRight.evaluate (context, top);
+
+    if (index.type != Value.OBJECT || !(index.getObject () instanceof KeyIndex) || index.next != null)
+      throw new EvalException ("The first parameter passed to '" +
+                               getName () +
+                               "' must be an index created by 'key-index' or 'buffer-index' (found '" +
+                               index +
+                               "')");
+    return ((KeyIndex) index.getObject ()).lookup (key);
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueMap;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>map</code> and <code>mutable-map</code> extension functions.<br>
+ * Create a new map (see {@link ValueMap}), either empty or from two sequences
+ * of the same length: the n-th item of the first sequence is the key for the
+ * n-th item of the second sequence. An immutable map is never changed by
+ * <code>map-put</code> and <code>map-remove</code>, which return a new map
+ * instead. A mutable map is updated in place.
+ *
+ * @author Philip Helger
+ */
+public final class ExtMap implements IInstance
+{
+  private final boolean m_bMutable;
+
+  /**
+   * @param mutable
+   *        <code>true</code> for <code>mutable-map</code>
+   */
+  public ExtMap (final boolean mutable)
+  {
+    m_bMutable = mutable;
+  }
+
+  /** @return 0 */
+  public int getMinParCount ()
+  {
+    return 0;
+  }
+
+  /** @return 2 */
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  /** @return "map" or "mutable-map" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + (m_bMutable ? "mutable-map" : "map");
+  }
+
+  /**
+   * @return <code>true</code> for an immutable map, <code>false</code> for a
+   *         mutable map (each call must create a new map)
+   */
+  public boolean isConstant ()
+  {
+    return !m_bMutable;
+  }
+
+  /**
+   * @return <code>true</code> for a mutable map, which may be updated in place
+   *         by <code>map-put</code> and <code>map-remove</code> (these calls
+   *         can't tell whether their map is mutable)
+   */
+  public boolean hasSideEffects ()
+  {
+    return m_bMutable;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    ValueMap map = m_bMutable ? ValueMap.createMutable () : ValueMap.EMPTY;
+    if (args == null)
+      return new Value (map);
+    if (args.getType () != AbstractTree.LIST)
+      throw new EvalException ("The function '" +
+                               getName ().substring (FunctionFactory.JENSP.length ()) +
+                               "' requires either no or two parameters");
+
+    Value keys = args.m_aLeft.evaluate (context, top);
+    Value values = args.m_aRight.evaluate (context, top);
+    if (keys.type == Value.EMPTY || values.type == Value.EMPTY)
+    {
+      if (keys.type != values.type)
+        throw new EvalException ("The sequences of keys and values passed to '" +
+                                 getName ().substring (FunctionFactory.JENSP.length ()) +
+                                 "' must have the same length");
+      return new Value (map);
+    }
+    while (keys != null && values != null)
+    {
+      final Value key = keys;
+      final Value value = values;
+      keys = keys.next;
+      values = values.next;
+      key.next = null;
+      value.next = null;
+      map = map.put (key, value);
+    }
+    if (keys != null || values != null)
+      throw new EvalException ("The sequences of keys and values passed to '" +
+                               getName ().substring (FunctionFactory.JENSP.length ()) +
+                               "' must have the same length");
+    return new Value (map);
+  }
+}
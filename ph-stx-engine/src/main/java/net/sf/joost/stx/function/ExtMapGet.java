@@ -0,0 +1,88 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueMap;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>map-get</code> extension function.<br>
+ * Returns the value for the key given as second parameter in the map given as
+ * first parameter. If the map contains no such key, the result is the optional
+ * third parameter or the empty sequence.
+ *
+ * @author Philip Helger
+ */
+public final class ExtMapGet implements IInstance
+{
+  /** @return 2 */
+  public int getMinParCount ()
+  {
+    return 2;
+  }
+
+  /** @return 3 */
+  public int getMaxParCount ()
+  {
+    return 3;
+  }
+
+  /** @return "map-get" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "map-get";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    AbstractTree mapArg, keyArg;
+    if (args.m_aLeft.getType () == AbstractTree.LIST)
+    { // three parameters
+      mapArg = args.m_aLeft.m_aLeft;
+      keyArg = args.m_aLeft.m_aRight;
+    }
+    else
+    { // two parameters
+      mapArg = args.m_aLeft;
+      keyArg = args.m_aRight;
+    }
+
+    final ValueMap map = FunctionFactory.getMap (mapArg.evaluate (context, top), this);
+    final Value value = map.get (keyArg.evaluate (context, top));
+    if (value != null)
+      return value.copy ();
+    if (mapArg != args.m_aLeft)
+      return args.m_aRight.evaluate (context, top);
+    return Value.VAL_EMPTY;
+  }
+}
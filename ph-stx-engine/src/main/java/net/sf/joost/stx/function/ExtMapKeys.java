@@ -0,0 +1,77 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueMap;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>map-keys</code> extension function.<br>
+ * Returns the keys of the map given as parameter, in no particular order.
+ *
+ * @author Philip Helger
+ */
+public final class ExtMapKeys implements IInstance
+{
+  /** @return 1 */
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  /** @return 1 */
+  public int getMaxParCount ()
+  {
+    return 1;
+  }
+
+  /** @return "map-keys" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "map-keys";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final Value [] keys = FunctionFactory.getMap (args.evaluate (context, top), this).getKeys ();
+    Value ret = Value.VAL_EMPTY;
+    for (int i = keys.length - 1; i >= 0; i--)
+    {
+      final Value key = keys[i].copy ();
+      if (ret.type != Value.EMPTY)
+        key.next = ret;
+      ret = key;
+    }
+    return ret;
+  }
+}
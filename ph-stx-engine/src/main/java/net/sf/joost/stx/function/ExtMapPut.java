@@ -0,0 +1,74 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueMap;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * The <code>map-put</code> extension function.<br>
+ * Associates the value given as third parameter with the key given as second
+ * parameter in the map given as first parameter and returns the resulting map.
+ * An immutable map remains unchanged, the result is a new map. A mutable map
+ * is updated and returned.
+ *
+ * @author Philip Helger
+ */
+public final class ExtMapPut implements IInstance
+{
+  /** @return 3 */
+  public int getMinParCount ()
+  {
+    return 3;
+  }
+
+  /** @return 3 */
+  public int getMaxParCount ()
+  {
+    return 3;
+  }
+
+  /** @return "map-put" */
+  public String getName ()
+  {
+    return FunctionFactory.JENSP + "map-put";
+  }
+
+  /** @return <code>true</code> */
+  public boolean isConstant ()
+  {
+    return true;
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    final ValueMap map = FunctionFactory.getMap (args.m_aLeft.m_aLeft.evaluate (context, top), this);
+    final Value key = args.m_aLeft.m_aRight.evaluate (context, top);
+    final Value value = args.m_aRight.evaluate (context, top);
+    return new Value (map.put (key, value));
+  }
+}
@@ -19,12 +19,16 @@
  */
 package net.sf.joost.stx.function;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Executable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.xml.sax.Locator;
@@ -60,6 +64,260 @@ public final class ExtensionFunction implements IInstance
    */
   private boolean isConstructor;
 
+  /** maximal number of cached call sites (distinct argument types) */
+  private static final int MAX_CALL_SITES = 8;
+
+  /** the cached call sites, copied on write */
+  private volatile CallSite [] m_aCallSites = new CallSite [0];
+
+  /** Converts a parameter to a Java object */
+  @FunctionalInterface
+  private static interface IConverter
+  {
+    Object convert (Value v) throws EvalException;
+  }
+
+  private static final IConverter CONV_NULL = v -> null;
+  private static final IConverter CONV_OBJECT = Value::getObject;
+  private static final IConverter CONV_STRING = Value::getStringValue;
+  private static final IConverter CONV_BOOLEAN = v -> Boolean.valueOf (v.getBooleanValue ());
+  private static final IConverter CONV_DOUBLE = v -> Double.valueOf (v.getNumberValue ());
+  private static final IConverter CONV_INT = v -> Integer.valueOf ((int) v.getNumberValue ());
+  private static final IConverter CONV_LONG = v -> Long.valueOf ((long) v.getNumberValue ());
+
+  /**
+   * @return the converter of the given parameter to the given type. This
+   *         method must return the same results as
+   *         {@link Value#toJavaObject(Class)} for all values with the same type
+   *         (and class of the wrapped object)
+   */
+  private static IConverter _getConverter (final Value v, final Class <?> target)
+  {
+    if (target != Object.class)
+    {
+      if (v.type == Value.OBJECT)
+      {
+        final Object obj = v.getObject ();
+        if (obj == null || target.isAssignableFrom (obj.getClass ()))
+          return CONV_OBJECT;
+      }
+      else
+        if (target != List.class)
+        {
+          if (v.type == Value.EMPTY)
+          {
+            if (!target.isPrimitive ())
+              return CONV_NULL;
+          }
+          else
+            if (target == String.class)
+              return CONV_STRING;
+            else
+              if (v.type == Value.NUMBER)
+              {
+                if (target == double.class || target == Double.class)
+                  return CONV_DOUBLE;
+                if (target == int.class || target == Integer.class)
+                  return CONV_INT;
+                if (target == long.class || target == Long.class)
+                  return CONV_LONG;
+              }
+              else
+                if (v.type == Value.BOOLEAN && (target == boolean.class || target == Boolean.class))
+                  return CONV_BOOLEAN;
+        }
+    }
+    return x -> x.toJavaObject (target);
+  }
+
+  /** @return the class of the wrapped object if it is relevant for a call */
+  private static Class <?> _getObjectClass (final Value v)
+  {
+    if (v.type != Value.OBJECT)
+      return null;
+    final Object obj = v.getObject ();
+    return obj == null ? null : obj.getClass ();
+  }
+
+  /**
+   * The resolved method or constructor for a certain combination of parameter
+   * types. Overload resolution and the choice of the parameter conversions
+   * depend only on these types, so they need to be done only once for each
+   * combination. The invocation uses a {@link MethodHandle} instead of
+   * reflection.
+   */
+  private static final class CallSite
+  {
+    /** the parameter types this call site was created for */
+    private final int [] m_aTypes;
+    private final Class <?> [] m_aClasses;
+
+    private final Executable m_aExecutable;
+    /** whether the first parameter is the target object */
+    private final boolean m_bHasTarget;
+    private final IConverter [] m_aConverters;
+    private final boolean [] m_aPrimitive;
+    /**
+     * the method handle with the signature <code>(Object[])Object</code>,
+     * <code>null</code> if the method can't be accessed this way
+     */
+    private final MethodHandle m_aHandle;
+
+    CallSite (final Value [] values, final Executable executable, final Class <?> targetClass)
+    {
+      final int n = values.length;
+      m_aTypes = new int [n];
+      m_aClasses = new Class <?> [n];
+      for (int i = 0; i < n; i++)
+      {
+        m_aTypes[i] = values[i].type;
+        m_aClasses[i] = _getObjectClass (values[i]);
+      }
+
+      m_aExecutable = executable;
+      m_bHasTarget = targetClass != null;
+      final Class <?> [] formalParams = executable.getParameterTypes ();
+      m_aConverters = new IConverter [n];
+      m_aPrimitive = new boolean [n];
+      final int offset = m_bHasTarget ? 1 : 0;
+      if (m_bHasTarget)
+        m_aConverters[0] = _getConverter (values[0], targetClass);
+      for (int i = 0; i < formalParams.length; i++)
+      {
+        m_aConverters[i + offset] = _getConverter (values[i + offset], formalParams[i]);
+        m_aPrimitive[i + offset] = formalParams[i].isPrimitive ();
+      }
+
+      MethodHandle handle;
+      try
+      {
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup ();
+        handle = executable instanceof Method ? lookup.unreflect ((Method) executable)
+                                              : lookup.unreflectConstructor ((Constructor <?>) executable);
+        handle = handle.asType (MethodType.genericMethodType (n)).asSpreader (Object [].class, n);
+      }
+      catch (final IllegalAccessException ex)
+      {
+        // use reflection, which reports the error
+        handle = null;
+      }
+      m_aHandle = handle;
+    }
+
+    /** @return whether the current parameters have the types of this call */
+    boolean matches (final Value [] values)
+    {
+      for (int i = 0; i < values.length; i++)
+      {
+        final Value v = values[i];
+        if (v.type != m_aTypes[i] || (v.type == Value.OBJECT && _getObjectClass (v) != m_aClasses[i]))
+          return false;
+      }
+      return true;
+    }
+
+    /** Converts the parameters and calls the method */
+    Value invoke (final Value [] values) throws EvalException
+    {
+      final String name = m_aExecutable.getName ();
+      final Object [] currentParams = new Object [values.length];
+      for (int i = 0; i < values.length; i++)
+      {
+        currentParams[i] = m_aConverters[i].convert (values[i]);
+        if (currentParams[i] == null)
+        {
+          if (i == 0 && m_bHasTarget)
+            throw new EvalException ("Target object (first parameter) in the function call " +
+                                     "to '" +
+                                     name +
+                                     "' is null");
+          if (m_aPrimitive[i])
+            throw new EvalException ("Argument is of wrong type: null for parameter " +
+                                     (i + 1) +
+                                     " of '" +
+                                     name +
+                                     "'");
+        }
+      }
+
+      final boolean isConstructor = m_aExecutable instanceof Constructor;
+      if (m_aHandle != null)
+      {
+        try
+        {
+          return new Value ((Object) m_aHandle.invokeExact (currentParams));
+        }
+        catch (final Throwable t)
+        {
+          // like the reflective invocation, every failure (errors too) is
+          // reported with the location in the transformation sheet
+          final Exception ex = new InvocationTargetException (t);
+          if (isConstructor)
+            throw new EvalException ("Exception in extension constructor " + name + ": " + t.toString (), ex);
+          throw new EvalException ("Exception in extension method '" + name + "': " + t.toString (), ex);
+        }
+      }
+
+      if (isConstructor)
+      {
+        // call constructor
+        try
+        {
+          final Object obj = ((Constructor <?>) m_aExecutable).newInstance (currentParams);
+          return new Value (obj);
+        }
+        catch (final InstantiationException err0)
+        {
+          throw new EvalException ("Cannot instantiate class " + err0.getMessage ());
+        }
+        catch (final IllegalAccessException err1)
+        {
+          throw new EvalException ("Constructor access is illegal " + err1.getMessage ());
+        }
+        catch (final IllegalArgumentException err2)
+        {
+          throw new EvalException ("Argument is of wrong type " + err2.getMessage ());
+        }
+        catch (final InvocationTargetException err3)
+        {
+          throw new EvalException ("Exception in extension constructor " +
+                                   name +
+                                   ": " +
+                                   err3.getTargetException ().toString ());
+        }
+      }
+
+      // call method
+      Object theInstance = null;
+      Object [] methodParams = currentParams;
+      if (m_bHasTarget)
+      {
+        theInstance = currentParams[0];
+        methodParams = Arrays.copyOfRange (currentParams, 1, currentParams.length);
+      }
+      try
+      {
+        return new Value (((Method) m_aExecutable).invoke (theInstance, methodParams));
+      }
+      catch (final IllegalAccessException err1)
+      {
+        throw new EvalException ("Method access is illegal " + err1.getMessage (), err1);
+      }
+      catch (final IllegalArgumentException err2)
+      {
+        throw new EvalException ("Argument is of wrong type " + err2.getMessage (), err2);
+      }
+      catch (final InvocationTargetException err3)
+      {
+        throw new EvalException ("Exception in extension method '" +
+                                 name +
+                                 "': " +
+                                 err3.getTargetException ().toString (),
+                                 err3);
+      }
+    }
+  }
+
   /**
    * Constructs a Java extension function.
    *
@@ -206,12 +464,10 @@ public final class ExtensionFunction implements IInstance
                                                                                         EvalException
   {
     // evaluate current parameters
-    Value [] values = null;
+    final Value [] values = new Value [paramCount];
     AbstractTree aArgs = args;
     if (paramCount > 0)
     {
-      values = new Value [paramCount];
-
       for (int i = paramCount - 1; i > 0; i--)
       {
         values[i] = aArgs.m_aRight.evaluate (context, top);
@@ -220,6 +476,28 @@ public final class ExtensionFunction implements IInstance
       values[0] = aArgs.evaluate (context, top);
     }
 
+    // look for a call site with the same argument types
+    final CallSite [] callSites = m_aCallSites;
+    for (final CallSite callSite : callSites)
+      if (callSite.matches (values))
+        return callSite.invoke (values);
+
+    final CallSite callSite = _createCallSite (values);
+    if (callSites.length < MAX_CALL_SITES)
+    {
+      final CallSite [] newCallSites = Arrays.copyOf (callSites, callSites.length + 1);
+      newCallSites[callSites.length] = callSite;
+      m_aCallSites = newCallSites;
+    }
+    return callSite.invoke (values);
+  }
+
+  /**
+   * Chooses the best method or constructor for the types of the current
+   * parameters
+   */
+  private CallSite _createCallSite (final Value [] values) throws EvalException
+  {
     if (isConstructor)
     {
       // this is a constructor call
@@ -264,37 +542,7 @@ public final class ExtensionFunction implements IInstance
                                    " that match the function call to 'new' equally well ");
       } // end else (choose best constructor)
 
-      // set current parameters
-      final Class <?> [] formalParams = theConstructor.getParameterTypes ();
-      final Object [] currentParams = new Object [formalParams.length];
-      for (int i = 0; i < formalParams.length; i++)
-        currentParams[i] = values[i].toJavaObject (formalParams[i]);
-
-      // call constructor
-      try
-      {
-        final Object obj = theConstructor.newInstance (currentParams);
-        return new Value (obj);
-      }
-      catch (final InstantiationException err0)
-      {
-        throw new EvalException ("Cannot instantiate class " + err0.getMessage ());
-      }
-      catch (final IllegalAccessException err1)
-      {
-        throw new EvalException ("Constructor access is illegal " + err1.getMessage ());
-      }
-      catch (final IllegalArgumentException err2)
-      {
-        throw new EvalException ("Argument is of wrong type " + err2.getMessage ());
-      }
-      catch (final InvocationTargetException err3)
-      {
-        throw new EvalException ("Exception in extension constructor " +
-                                 theConstructor.getName () +
-                                 ": " +
-                                 err3.getTargetException ().toString ());
-      }
+      return new CallSite (values, theConstructor, null);
     }
 
     // method invocation
@@ -350,61 +598,18 @@ public final class ExtensionFunction implements IInstance
                                  "' equally well");
     } // end else (choose best method)
 
-    // set current parameters
-    Object theInstance = null;
-    final Class <?> [] formalParams = theMethod.getParameterTypes ();
-    final Object [] currentParams = new Object [formalParams.length];
     if (Modifier.isStatic (theMethod.getModifiers ()))
-    {
-      for (int i = 0; i < formalParams.length; i++)
-        currentParams[i] = values[i].toJavaObject (formalParams[i]);
-    }
-    else
-    {
-      // perform this additional check for the first parameter,
-      // because otherwise the error message is a little but
-      // misleading ("Conversion to ... is not supported")
-      if (methodNum == 1 && // haven't done this check in this case
-          values[0].getDistanceTo (targetClass) == Double.POSITIVE_INFINITY)
-        throw new EvalException ("First parameter in the function call to '" +
-                                 theMethod.getName () +
-                                 "' must be the object instance");
+      return new CallSite (values, theMethod, null);
 
-      theInstance = values[0].toJavaObject (targetClass);
-
-      if (theInstance == null)
-        throw new EvalException ("Target object (first parameter) in the function call " +
-                                 "to '" +
-                                 theMethod.getName () +
-                                 "' is null");
-
-      for (int i = 0; i < formalParams.length; i++)
-      {
-        currentParams[i] = values[i + 1].toJavaObject (formalParams[i]);
-      }
-    }
-
-    // call method
-    try
-    {
-      return new Value (theMethod.invoke (theInstance, currentParams));
-    }
-    catch (final IllegalAccessException err1)
-    {
-      throw new EvalException ("Method access is illegal " + err1.getMessage (), err1);
-    }
-    catch (final IllegalArgumentException err2)
-    {
-      throw new EvalException ("Argument is of wrong type " + err2.getMessage (), err2);
-    }
-    catch (final InvocationTargetException err3)
-    {
-      throw new EvalException ("Exception in extension method '" +
+    // perform this additional check for the first parameter,
+    // because otherwise the error message is a little but
+    // misleading ("Conversion to ... is not supported")
+    if (methodNum == 1 && // haven't done this check in this case
+        values[0].getDistanceTo (targetClass) == Double.POSITIVE_INFINITY)
+      throw new EvalException ("First parameter in the function call to '" +
                                theMethod.getName () +
-                               "': " +
-                               err3.getTargetException ().toString (),
-                               err3);
-    }
+                               "' must be the object instance");
+    return new CallSite (values, theMethod, targetClass);
   }
 
   // These functions will never be called.
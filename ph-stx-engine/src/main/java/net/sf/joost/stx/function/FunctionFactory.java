@@ -21,15 +21,23 @@ package net.sf.joost.stx.function;
 
 import java.util.Hashtable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import com.helger.commons.lang.ServiceLoaderHelper;
+
 import net.sf.joost.CSTX;
+import net.sf.joost.IExtensionFunction;
 import net.sf.joost.grammar.AbstractTree;
 import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Accumulator;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.ValueMap;
 
 /**
  * Factory for all STXPath function implementations.
@@ -39,6 +47,8 @@ import net.sf.joost.stx.Value;
  */
 public final class FunctionFactory
 {
+  private static final Logger log = LoggerFactory.getLogger (FunctionFactory.class);
+
   /**
    * Type for all functions
    */
@@ -59,6 +69,17 @@ public final class FunctionFactory
      */
     public boolean isConstant ();
 
+    /**
+     * @return <code>true</code> if a call to this function changes a value in
+     *         place (or creates a value that may be changed in place), i.e. it
+     *         may carry state from one node to the next without
+     *         <code>stx:assign</code>
+     */
+    default boolean hasSideEffects ()
+    {
+      return false;
+    }
+
     /**
      * The evaluation method.
      *
@@ -135,10 +156,51 @@ public final class FunctionFactory
                                      new Avg (),
                                      new RegexGroup (),
                                      new FilterAvailable (),
-                                     new ExtSequence () };
+                                     new ExtSequence (),
+                                     new ExtKeyIndex (),
+                                     new ExtBufferIndex (),
+                                     new ExtLookup (),
+                                     new ExtMap (false),
+                                     new ExtMap (true),
+                                     new ExtMapGet (),
+                                     new ExtMapPut (),
+                                     new ExtMapRemove (),
+                                     new ExtMapContains (),
+                                     new ExtMapKeys (),
+                                     new ExtMapSize (),
+                                     new ExtArray (false),
+                                     new ExtArray (true),
+                                     new ExtArrayGet (),
+                                     new ExtArrayPut (),
+                                     new ExtArrayAppend (),
+                                     new ExtArraySize (),
+                                     new ExtArrayFlatten (),
+                                     new ExtAccumulator (),
+                                     new ExtAccumulate (),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.COUNT),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.SUM),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.AVG),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.MIN),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.MAX),
+                                     new ExtAccumulatorValue (ExtAccumulatorValue.DISTINCT_COUNT),
+                                     new ExtAccumulatorQuantile () };
     functionHash = new Hashtable<> (functions.length);
     for (final IInstance function : functions)
       functionHash.put (function.getName (), function);
+
+    // typed extension functions registered as service
+    for (final IExtensionFunction ext : ServiceLoaderHelper.getAllSPIImplementations (IExtensionFunction.class))
+    {
+      final IInstance function = new TypedExtensionFunction (ext);
+      if (functionHash.containsKey (function.getName ()))
+        log.warn ("Ignoring extension function " +
+                  ext.getClass ().getName () +
+                  ": " +
+                  function.getName () +
+                  " is already defined");
+      else
+        functionHash.put (function.getName (), function);
+    }
   }
 
   /** The parse context for this <code>FunctionFactory</code> instance */
@@ -231,6 +293,10 @@ public final class FunctionFactory
                                    function.getMaxParCount () +
                                    " allowed)",
                                    m_aContext.locator);
+
+    // the buffer name is resolved with the namespaces of the call
+    if (function instanceof ExtBufferIndex)
+      return new ExtBufferIndex (m_aContext.nsSet);
     return function;
   }
 
@@ -252,4 +318,52 @@ public final class FunctionFactory
     // no event available (e.g. init of global variables)
     return Value.VAL_EMPTY;
   }
+
+  /**
+   * @return the map contained in a function argument
+   * @exception EvalException
+   *            if the argument isn't a single map
+   */
+  static ValueMap getMap (final Value v, final IInstance function) throws EvalException
+  {
+    if (v.type != Value.MAP || v.next != null)
+      throw new EvalException ("The first parameter passed to '" +
+                               function.getName ().substring (JENSP.length ()) +
+                               "' must be a map (found '" +
+                               v +
+                               "')");
+    return v.getMap ();
+  }
+
+  /**
+   * @return the array contained in a function argument
+   * @exception EvalException
+   *            if the argument isn't a single array
+   */
+  static ValueArray getArray (final Value v, final IInstance function) throws EvalException
+  {
+    if (v.type != Value.ARRAY || v.next != null)
+      throw new EvalException ("The first parameter passed to '" +
+                               function.getName ().substring (JENSP.length ()) +
+                               "' must be an array (found '" +
+                               v +
+                               "')");
+    return v.getArray ();
+  }
+
+  /**
+   * @return the accumulator contained in a function argument
+   * @exception EvalException
+   *            if the argument isn't a single accumulator
+   */
+  static Accumulator getAccumulator (final Value v, final IInstance function) throws EvalException
+  {
+    if (v.type != Value.OBJECT || !(v.getObject () instanceof Accumulator) || v.next != null)
+      throw new EvalException ("The first parameter passed to '" +
+                               function.getName ().substring (JENSP.length ()) +
+                               "' must be an accumulator (found '" +
+                               v +
+                               "')");
+    return (Accumulator) v.getObject ();
+  }
 }
@@ -0,0 +1,91 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.stx.function;
+
+import org.xml.sax.SAXException;
+
+import net.sf.joost.IExtensionFunction;
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.IInstance;
+
+/**
+ * Adapter for an {@link IExtensionFunction} registered as service.
+ *
+ * @author Philip Helger
+ */
+final class TypedExtensionFunction implements IInstance
+{
+  private final IExtensionFunction m_aFunction;
+  private final String m_sName;
+
+  TypedExtensionFunction (final IExtensionFunction function)
+  {
+    m_aFunction = function;
+    m_sName = "{" + function.getNamespaceURI () + "}" + function.getLocalName ();
+  }
+
+  public int getMinParCount ()
+  {
+    return m_aFunction.getMinParCount ();
+  }
+
+  public int getMaxParCount ()
+  {
+    return m_aFunction.getMaxParCount ();
+  }
+
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  public boolean isConstant ()
+  {
+    return m_aFunction.isConstant ();
+  }
+
+  public Value evaluate (final Context context, final int top, final AbstractTree args) throws SAXException,
+                                                                                        EvalException
+  {
+    // count and evaluate the parameters
+    int count = 0;
+    if (args != null)
+    {
+      count = 1;
+      for (AbstractTree aArgs = args; aArgs.getType () == AbstractTree.LIST; aArgs = aArgs.m_aLeft)
+        count++;
+    }
+    final Value [] values = new Value [count];
+    AbstractTree aArgs = args;
+    for (int i = count - 1; i > 0; i--)
+    {
+      values[i] = aArgs.m_aRight.evaluate (context, top);
+      aArgs = aArgs.m_aLeft;
+    }
+    if (count > 0)
+      values[0] = aArgs.evaluate (context, top);
+
+    final Value ret = m_aFunction.evaluate (values);
+    return ret == null ? Value.VAL_EMPTY : ret;
+  }
+}
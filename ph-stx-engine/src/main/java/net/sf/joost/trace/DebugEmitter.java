@@ -139,9 +139,13 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("start resultdocument");
-    // update locator
-    updateLocator (null, null, -1, -1);
-    m_aTraceMgr.fireStartResultDocument ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+    {
+      // update locator
+      updateLocator (null, null, -1, -1);
+      listener.startResultDocument ();
+    }
   }
 
   /**
@@ -153,12 +157,16 @@ public class DebugEmitter extends Emitter
     if (log.isDebugEnabled ())
       log.debug ("end resultdocument");
     super.endDocument (instruction);
-    // update locator
-    updateLocator (instruction.getNode ().m_sPublicID,
-                   instruction.getNode ().m_sSystemID,
-                   instruction.lineNo,
-                   instruction.colNo);
-    m_aTraceMgr.fireEndResultDocument ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+    {
+      // update locator
+      updateLocator (instruction.getNode ().m_sPublicID,
+                     instruction.getNode ().m_sSystemID,
+                     instruction.lineNo,
+                     instruction.colNo);
+      listener.endResultDocument ();
+    }
   }
 
   /**
@@ -174,13 +182,18 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("start element in resultdoc");
-    SAXEvent saxevent;
-    saxevent = SAXEvent.newElement (uri, lName, qName, attrs, true, namespaces);
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.startElement (uri, lName, qName, attrs, namespaces, instruction);
+      return;
+    }
 
+    final SAXEvent saxevent = SAXEvent.newElement (uri, lName, qName, attrs, true, namespaces);
     super.startElement (uri, lName, qName, attrs, namespaces, instruction);
     // update locator
     updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
-    m_aTraceMgr.fireStartResultElement (saxevent);
+    listener.startResultElement (saxevent);
   }
 
   /**
@@ -194,16 +207,22 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("end element in resultdoc");
-    SAXEvent saxevent;
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.endElement (uri, lName, qName, instruction);
+      return;
+    }
+
     // todo - namespace support - remove null value
-    saxevent = SAXEvent.newElement (uri, lName, qName, null, true, null);
+    final SAXEvent saxevent = SAXEvent.newElement (uri, lName, qName, null, true, null);
     // update locator
     updateLocator (instruction.getNode ().m_sPublicID,
                    instruction.getNode ().m_sSystemID,
                    instruction.lineNo,
                    instruction.colNo);
     super.endElement (uri, lName, qName, instruction);
-    m_aTraceMgr.fireEndResultElement (saxevent);
+    listener.endResultElement (saxevent);
   }
 
   /**
@@ -217,12 +236,18 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("characters in resultdoc");
-    SAXEvent saxevent;
-    saxevent = SAXEvent.newText (new String (ch, start, length));
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.characters (ch, start, length, instruction);
+      return;
+    }
+
+    final SAXEvent saxevent = SAXEvent.newText (new String (ch, start, length));
     super.characters (ch, start, length, instruction);
     // update locator
     updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
-    m_aTraceMgr.fireResultText (saxevent);
+    listener.resultText (saxevent);
   }
 
   /**
@@ -235,12 +260,18 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("processingInstruction in resultdoc");
-    SAXEvent saxevent;
-    saxevent = SAXEvent.newPI (target, data);
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.processingInstruction (target, data, instruction);
+      return;
+    }
+
+    final SAXEvent saxevent = SAXEvent.newPI (target, data);
     super.processingInstruction (target, data, instruction);
     // update locator
     updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
-    m_aTraceMgr.fireResultPI (saxevent);
+    listener.resultPI (saxevent);
   }
 
   /**
@@ -254,12 +285,18 @@ public class DebugEmitter extends Emitter
   {
     if (log.isDebugEnabled ())
       log.debug ("comment in resultdoc");
-    SAXEvent saxevent;
-    saxevent = SAXEvent.newComment (new String (ch, start, length));
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.comment (ch, start, length, instruction);
+      return;
+    }
+
+    final SAXEvent saxevent = SAXEvent.newComment (new String (ch, start, length));
     super.comment (ch, start, length, instruction);
     // update locator
     updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
-    m_aTraceMgr.fireResultComment (saxevent);
+    listener.resultComment (saxevent);
   }
 
   /**
@@ -271,9 +308,13 @@ public class DebugEmitter extends Emitter
     if (log.isDebugEnabled ())
       log.debug ("start CDATA in resultdoc");
     super.startCDATA (instruction);
-    // update locator
-    updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
-    m_aTraceMgr.fireStartResultCDATA ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+    {
+      // update locator
+      updateLocator (instruction.m_sPublicID, instruction.m_sSystemID, instruction.lineNo, instruction.colNo);
+      listener.startResultCDATA ();
+    }
   }
 
   /**
@@ -285,14 +326,28 @@ public class DebugEmitter extends Emitter
     if (log.isDebugEnabled ())
       log.debug ("end CDATA in resultdoc");
     super.endCDATA ();
-    // update locator
-    updateLocator (null, null, -1, -1);
-    m_aTraceMgr.fireEndResultCDATA ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+    {
+      // update locator
+      updateLocator (null, null, -1, -1);
+      listener.endResultCDATA ();
+    }
   }
 
   // ------------------------------------------------------------------------
   // helper methods
   // ------------------------------------------------------------------------
+
+  /**
+   * @return the current trace listener or <code>null</code> if tracing is
+   *         inactive
+   */
+  private ITraceListener _getListener ()
+  {
+    return m_aTraceMgr == null ? null : m_aTraceMgr.getDispatcher ();
+  }
+
   private void updateLocator (final String publicId, final String systemId, final int lineNo, final int colNo)
   {
     if (log.isDebugEnabled ())
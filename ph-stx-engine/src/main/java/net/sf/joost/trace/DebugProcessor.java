@@ -164,42 +164,33 @@ public class DebugProcessor extends Processor
   @Override
   protected int processInstruction (final AbstractInstruction inst, final SAXEvent event) throws SAXException
   {
-
-    boolean atomicnode = false;
-    int ret = -1;
-
     // check, if transformation should be cancelled
-    if (m_aTransformer.cancelTransformation)
+    if (m_aTransformer != null && m_aTransformer.cancelTransformation)
     {
       return CSTX.PR_ERROR;
     }
 
+    final ITraceListener listener = m_aTraceMgr == null ? null : m_aTraceMgr.getDispatcher ();
+    if (listener == null)
+      return inst.process (getContext ());
+
     // found end element
     if (inst instanceof AbstractNodeBase.End)
     {
       // end node
-      m_aTraceMgr.fireLeaveInstructionNode (inst, event);
-    }
-    else
-    {
-      // no corresponding endElement
-      if (inst.getNode ().getNodeEnd () == null)
-      {
-        // remind this
-        atomicnode = true;
-      }
-      // fire callback on tracemanager
-      m_aTraceMgr.fireEnterInstructionNode (inst, event);
+      listener.leaveInstructionNode (inst, event);
+      return inst.process (getContext ());
     }
 
+    // fire callback on tracemanager
+    listener.enterInstructionNode (inst, event);
     // process instruction
-    ret = inst.process (getContext ());
-
-    if (atomicnode && m_aTraceMgr != null)
+    final int ret = inst.process (getContext ());
+    // no corresponding endElement
+    if (inst.getNode ().getNodeEnd () == null)
     {
       // fire callback on tracemanager
-      m_aTraceMgr.fireLeaveInstructionNode (inst, event);
-      atomicnode = false;
+      listener.leaveInstructionNode (inst, event);
     }
     return ret;
   }
@@ -248,6 +239,15 @@ public class DebugProcessor extends Processor
   // Sax-callback methods
   // --------------------------------------------------------------
 
+  /**
+   * @return the current trace listener or <code>null</code> if tracing is
+   *         inactive
+   */
+  private ITraceListener _getListener ()
+  {
+    return m_aTraceMgr == null ? null : m_aTraceMgr.getDispatcher ();
+  }
+
   /**
    * overloaded method of ContentHandler for debug information
    */
@@ -257,7 +257,9 @@ public class DebugProcessor extends Processor
     // process event
     super.startDocument ();
     // fire startprocessing event to tracelistener
-    this.m_aTraceMgr.fireStartSourceDocument ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+      listener.startSourceDocument ();
   }
 
   /**
@@ -269,7 +271,9 @@ public class DebugProcessor extends Processor
     // process event
     super.endDocument ();
     // fire endprocessing event to tracelistener
-    this.m_aTraceMgr.fireEndSourceDocument ();
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+      listener.endSourceDocument ();
   }
 
   /**
@@ -281,15 +285,19 @@ public class DebugProcessor extends Processor
                             final String qName,
                             final Attributes attrs) throws SAXException
   {
-    SAXEvent saxevent;
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.startElement (uri, lName, qName, attrs);
+      return;
+    }
 
     // todo - namespace support - remove null value
-    saxevent = SAXEvent.newElement (uri, lName, qName, attrs, false, null);
-
+    final SAXEvent saxevent = SAXEvent.newElement (uri, lName, qName, attrs, false, null);
     // process event
     super.startElement (uri, lName, qName, attrs);
     // inform debugger
-    this.m_aTraceMgr.fireStartSourceElement (saxevent);
+    listener.startSourceElement (saxevent);
   }
 
   /**
@@ -298,15 +306,19 @@ public class DebugProcessor extends Processor
   @Override
   public void endElement (final String uri, final String lName, final String qName) throws SAXException
   {
-    SAXEvent saxevent;
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.endElement (uri, lName, qName);
+      return;
+    }
 
     // todo - namespace support - remove null value
-    saxevent = SAXEvent.newElement (uri, lName, qName, null, false, null);
-
+    final SAXEvent saxevent = SAXEvent.newElement (uri, lName, qName, null, false, null);
     // process event
     super.endElement (uri, lName, qName);
     // inform debugger
-    this.m_aTraceMgr.fireEndSourceElement (saxevent);
+    listener.endSourceElement (saxevent);
   }
 
   /**
@@ -315,13 +327,18 @@ public class DebugProcessor extends Processor
   @Override
   public void characters (final char [] ch, final int start, final int length) throws SAXException
   {
-    SAXEvent saxevent;
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.characters (ch, start, length);
+      return;
+    }
 
-    saxevent = SAXEvent.newText (new String (ch, start, length));
+    final SAXEvent saxevent = SAXEvent.newText (new String (ch, start, length));
     // process event
     super.characters (ch, start, length);
     // inform debugger
-    this.m_aTraceMgr.fireSourceText (saxevent);
+    listener.sourceText (saxevent);
   }
 
   /**
@@ -330,13 +347,12 @@ public class DebugProcessor extends Processor
   @Override
   public void processingInstruction (final String target, final String data) throws SAXException
   {
-    SAXEvent saxevent;
-
-    saxevent = SAXEvent.newPI (target, data);
     // process event
     super.processingInstruction (target, data);
     // inform debugger
-    this.m_aTraceMgr.fireSourcePI (saxevent);
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+      listener.sourcePI (SAXEvent.newPI (target, data));
   }
 
   /**
@@ -345,13 +361,12 @@ public class DebugProcessor extends Processor
   @Override
   public void startPrefixMapping (final String prefix, final String uri) throws SAXException
   {
-    SAXEvent saxevent;
-
-    saxevent = SAXEvent.newMapping (prefix, uri);
     // process event
     super.startPrefixMapping (prefix, uri);
     // inform debugger
-    this.m_aTraceMgr.fireSourceMapping (saxevent);
+    final ITraceListener listener = _getListener ();
+    if (listener != null)
+      listener.sourceMapping (SAXEvent.newMapping (prefix, uri));
   }
 
   /**
@@ -360,13 +375,18 @@ public class DebugProcessor extends Processor
   @Override
   public void comment (final char [] ch, final int start, final int length) throws SAXException
   {
-    SAXEvent saxevent;
+    final ITraceListener listener = _getListener ();
+    if (listener == null)
+    {
+      super.comment (ch, start, length);
+      return;
+    }
 
-    saxevent = SAXEvent.newComment (new String (ch, start, length));
+    final SAXEvent saxevent = SAXEvent.newComment (new String (ch, start, length));
     // process event
     super.comment (ch, start, length);
     // inform debugger
-    this.m_aTraceMgr.fireSourceComment (saxevent);
+    listener.sourceComment (saxevent);
   }
 
   /**
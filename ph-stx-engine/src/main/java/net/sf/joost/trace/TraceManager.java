@@ -19,8 +19,6 @@
  */
 package net.sf.joost.trace;
 
-import java.util.Vector;
-
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.trax.TransformerImpl;
@@ -28,16 +26,31 @@ import net.sf.joost.trax.TransformerImpl;
 /**
  * This class manages a collection of {@link ITraceListener}, and acts as an
  * interface for the tracing functionality in Joost.
+ * <p>
+ * The listeners are kept in a copy-on-write array. Registering or removing a
+ * listener replaces the dispatcher that receives all events: <code>null</code>
+ * if there are no listeners, the listener itself if there is exactly one, and
+ * a composite listener otherwise. This way firing an event costs a single
+ * field read if tracing is inactive and no synchronization at all.
  *
  * @version $Revision: 1.8 $ $Date: 2004/11/07 13:47:05 $
  * @author Zubow
  */
 public class TraceManager
 {
+  private static final ITraceListener [] NO_LISTENERS = new ITraceListener [0];
+
+  /**
+   * Registered listeners, replaced on every modification (guarded by
+   * <code>this</code> for writing).
+   */
+  private volatile ITraceListener [] m_aTraceListeners = NO_LISTENERS;
+
   /**
-   * Collection of registered listeners (must be synchronized).
+   * The object all events are dispatched to, <code>null</code> if there are no
+   * registered listeners.
    */
-  private Vector <ITraceListener> traceListeners = null;
+  private volatile ITraceListener m_aDispatcher;
 
   /**
    * Default constructor for the tracemanager.
@@ -52,7 +65,17 @@ public class TraceManager
    */
   public boolean hasTraceListeners ()
   {
-    return (traceListeners != null);
+    return m_aDispatcher != null;
+  }
+
+  /**
+   * @return the listener that receives all trace events (possibly a composite
+   *         of all registered listeners), or <code>null</code> if there are no
+   *         registered listeners
+   */
+  public ITraceListener getDispatcher ()
+  {
+    return m_aDispatcher;
   }
 
   /**
@@ -61,16 +84,15 @@ public class TraceManager
    * @param newTraceListener
    *        A tracelistener to be added.
    */
-  public void addTraceListener (final ITraceListener newTraceListener)
+  public synchronized void addTraceListener (final ITraceListener newTraceListener)
   {
     // set Joost-Transformer in debug-mode
     TransformerImpl.DEBUG_MODE = true;
-    if (traceListeners == null)
-    {
-      traceListeners = new Vector <> ();
-    }
-    // add new tracelistener
-    traceListeners.addElement (newTraceListener);
+    final ITraceListener [] old = m_aTraceListeners;
+    final ITraceListener [] listeners = new ITraceListener [old.length + 1];
+    System.arraycopy (old, 0, listeners, 0, old.length);
+    listeners[old.length] = newTraceListener;
+    _setListeners (listeners);
   }
 
   /**
@@ -79,12 +101,179 @@ public class TraceManager
    * @param oldTraceListener
    *        A tracelistener to be removed.
    */
-  public void removeTraceListener (final ITraceListener oldTraceListener)
+  public synchronized void removeTraceListener (final ITraceListener oldTraceListener)
+  {
+    final ITraceListener [] old = m_aTraceListeners;
+    for (int i = 0; i < old.length; i++)
+      if (old[i].equals (oldTraceListener))
+      {
+        final ITraceListener [] listeners = new ITraceListener [old.length - 1];
+        System.arraycopy (old, 0, listeners, 0, i);
+        System.arraycopy (old, i + 1, listeners, i, old.length - i - 1);
+        _setListeners (listeners);
+        return;
+      }
+  }
+
+  private void _setListeners (final ITraceListener [] listeners)
   {
-    if (traceListeners != null)
+    m_aTraceListeners = listeners;
+    switch (listeners.length)
     {
-      // remove the given tracelistener from tracemanager
-      traceListeners.removeElement (oldTraceListener);
+      case 0:
+        m_aDispatcher = null;
+        break;
+      case 1:
+        m_aDispatcher = listeners[0];
+        break;
+      default:
+        m_aDispatcher = new CompositeTraceListener (listeners);
+    }
+  }
+
+  /**
+   * Dispatches each event to a fixed array of listeners.
+   */
+  private static final class CompositeTraceListener implements ITraceListener
+  {
+    private final ITraceListener [] m_aListeners;
+
+    CompositeTraceListener (final ITraceListener [] listeners)
+    {
+      m_aListeners = listeners;
+    }
+
+    @Override
+    public void startSourceDocument ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.startSourceDocument ();
+    }
+
+    @Override
+    public void endSourceDocument ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.endSourceDocument ();
+    }
+
+    @Override
+    public void startSourceElement (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.startSourceElement (saxevent);
+    }
+
+    @Override
+    public void endSourceElement (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.endSourceElement (saxevent);
+    }
+
+    @Override
+    public void sourceText (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.sourceText (saxevent);
+    }
+
+    @Override
+    public void sourcePI (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.sourcePI (saxevent);
+    }
+
+    @Override
+    public void sourceMapping (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.sourceMapping (saxevent);
+    }
+
+    @Override
+    public void sourceComment (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.sourceComment (saxevent);
+    }
+
+    @Override
+    public void enterInstructionNode (final AbstractInstruction inst, final SAXEvent event)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.enterInstructionNode (inst, event);
+    }
+
+    @Override
+    public void leaveInstructionNode (final AbstractInstruction inst, final SAXEvent event)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.leaveInstructionNode (inst, event);
+    }
+
+    @Override
+    public void startResultDocument ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.startResultDocument ();
+    }
+
+    @Override
+    public void endResultDocument ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.endResultDocument ();
+    }
+
+    @Override
+    public void startResultElement (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.startResultElement (saxevent);
+    }
+
+    @Override
+    public void endResultElement (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.endResultElement (saxevent);
+    }
+
+    @Override
+    public void resultText (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.resultText (saxevent);
+    }
+
+    @Override
+    public void resultPI (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.resultPI (saxevent);
+    }
+
+    @Override
+    public void resultComment (final SAXEvent saxevent)
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.resultComment (saxevent);
+    }
+
+    @Override
+    public void startResultCDATA ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.startResultCDATA ();
+    }
+
+    @Override
+    public void endResultCDATA ()
+    {
+      for (final ITraceListener listener : m_aListeners)
+        listener.endResultCDATA ();
     }
   }
 
@@ -101,17 +290,9 @@ public class TraceManager
    */
   public void fireStartSourceDocument ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.startSourceDocument ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.startSourceDocument ();
   }
 
   /**
@@ -119,17 +300,9 @@ public class TraceManager
    */
   public void fireEndSourceDocument ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.endSourceDocument ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.endSourceDocument ();
   }
 
   /**
@@ -137,17 +310,9 @@ public class TraceManager
    */
   public void fireStartSourceElement (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.startSourceElement (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.startSourceElement (saxevent);
   }
 
   /**
@@ -155,17 +320,9 @@ public class TraceManager
    */
   public void fireEndSourceElement (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.endSourceElement (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.endSourceElement (saxevent);
   }
 
   /**
@@ -173,17 +330,9 @@ public class TraceManager
    */
   public void fireSourceText (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.sourceText (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.sourceText (saxevent);
   }
 
   /**
@@ -191,17 +340,9 @@ public class TraceManager
    */
   public void fireSourcePI (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.sourcePI (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.sourcePI (saxevent);
   }
 
   /**
@@ -209,17 +350,9 @@ public class TraceManager
    */
   public void fireSourceMapping (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.sourceMapping (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.sourceMapping (saxevent);
   }
 
   /**
@@ -227,21 +360,13 @@ public class TraceManager
    */
   public void fireSourceComment (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.sourceComment (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.sourceComment (saxevent);
   }
 
   // ----------------------------------------------------------------------
-  // Information about instructions of the transformation sheet
+  // Information about the stylesheet
   // ----------------------------------------------------------------------
 
   /**
@@ -249,17 +374,9 @@ public class TraceManager
    */
   public void fireEnterInstructionNode (final AbstractInstruction inst, final SAXEvent event)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.enterInstructionNode (inst, event);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.enterInstructionNode (inst, event);
   }
 
   /**
@@ -267,21 +384,13 @@ public class TraceManager
    */
   public void fireLeaveInstructionNode (final AbstractInstruction inst, final SAXEvent event)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.leaveInstructionNode (inst, event);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.leaveInstructionNode (inst, event);
   }
 
   // ----------------------------------------------------------------------
-  // Information about emitter events
+  // Information about the result document
   // ----------------------------------------------------------------------
 
   /**
@@ -289,17 +398,9 @@ public class TraceManager
    */
   public void fireStartResultDocument ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.startResultDocument ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.startResultDocument ();
   }
 
   /**
@@ -307,17 +408,9 @@ public class TraceManager
    */
   public void fireEndResultDocument ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.endResultDocument ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.endResultDocument ();
   }
 
   /**
@@ -325,35 +418,19 @@ public class TraceManager
    */
   public void fireStartResultElement (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.startResultElement (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.startResultElement (saxevent);
   }
 
   /**
-   * Indicates the start of an element of the result document.
+   * Indicates the end of an element of the result document.
    */
   public void fireEndResultElement (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.endResultElement (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.endResultElement (saxevent);
   }
 
   /**
@@ -361,17 +438,9 @@ public class TraceManager
    */
   public void fireResultText (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.resultText (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.resultText (saxevent);
   }
 
   /**
@@ -379,17 +448,9 @@ public class TraceManager
    */
   public void fireResultPI (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.resultPI (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.resultPI (saxevent);
   }
 
   /**
@@ -397,17 +458,9 @@ public class TraceManager
    */
   public void fireResultComment (final SAXEvent saxevent)
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.resultComment (saxevent);
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.resultComment (saxevent);
   }
 
   /**
@@ -415,17 +468,9 @@ public class TraceManager
    */
   public void fireStartResultCDATA ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.startResultCDATA ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.startResultCDATA ();
   }
 
   /**
@@ -433,16 +478,8 @@ public class TraceManager
    */
   public void fireEndResultCDATA ()
   {
-    if (hasTraceListeners ())
-    {
-      // count of registered tracelisteners
-      final int countListener = traceListeners.size ();
-      for (int i = 0; i < countListener; i++)
-      {
-        final ITraceListener currentListener = traceListeners.elementAt (i);
-        // call the according method on tracelistener
-        currentListener.endResultCDATA ();
-      }
-    }
+    final ITraceListener listener = m_aDispatcher;
+    if (listener != null)
+      listener.endResultCDATA ();
   }
 }
@@ -54,6 +54,77 @@ public final class CTrAX
    */
   public static String KEY_OUTPUT_URI_RESOLVER = "http://joost.sf.net/attributes/output-uri-resolver";
 
+  /**
+   * Key for the Joost property {@link net.sf.joost.stx.ResultDocumentWriterPool}
+   * that enables asynchronous writing of <code>stx:result-document</code>
+   * files
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public static String KEY_RESULT_DOCUMENT_WRITER_POOL = "http://joost.sf.net/attributes/result-document-writer-pool";
+
+  /**
+   * Key for the Joost property {@link net.sf.joost.stx.SamplingProfiler} that
+   * enables the sampling of the executed STX instructions
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public static String KEY_PROFILER = "http://joost.sf.net/attributes/profiler";
+
+  /**
+   * Key for a Joost property that determines the maximum number of adjacent
+   * result characters that will be coalesced into one <code>characters</code>
+   * event. Its property value must be an Integer, <code>0</code> disables the
+   * coalescing.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   * @see net.sf.joost.stx.Emitter#DEFAULT_CHARACTER_BUFFER_SIZE
+   */
+  public static String KEY_CHARACTER_BUFFER_SIZE = "http://joost.sf.net/attributes/character-buffer-size";
+
+  /**
+   * Key for a Joost property that determines whether a
+   * <code>StreamSource</code> that denotes a local file only by its system ID
+   * will be read via memory mapping of the file. Its property value must be a
+   * Boolean, the default is <code>false</code>.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   * @see net.sf.joost.util.MappedFileInputStream
+   */
+  public static String KEY_MAPPED_FILE_INPUT = "http://joost.sf.net/attributes/mapped-file-input";
+
+  /**
+   * Key for a Joost property that specifies the path of record elements (for
+   * example <code>/catalog/item</code>) whose subtrees will be transformed in
+   * parallel. Its property value must be a String, the default is
+   * <code>null</code> (sequential transformation).
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   * @see net.sf.joost.stx.RecordSplitter
+   */
+  public static String KEY_RECORD_PATH = "http://joost.sf.net/attributes/record-path";
+
+  /**
+   * Key for a Joost property that determines the number of threads for the
+   * parallel transformation of records. Its property value must be an Integer,
+   * the default is <code>0</code> (the number of available processors).
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   * @see #KEY_RECORD_PATH
+   */
+  public static String KEY_RECORD_THREADS = "http://joost.sf.net/attributes/record-threads";
+
+  /**
+   * Key for a Joost property that determines after how many interpreted
+   * evaluations an STXPath expression or predicate gets compiled to bytecode.
+   * Its property value must be an Integer, the default is <code>-1</code>
+   * (no compilation).
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   * @see net.sf.joost.grammar.compiler.ExpressionCompiler
+   */
+  public static String KEY_COMPILE_THRESHOLD = "http://joost.sf.net/attributes/compile-threshold";
+
   /**
    * Key for the Joost XSLT factory property
    *
@@ -86,6 +157,15 @@ public final class CTrAX
    */
   public final static String ALLOW_EXTERNAL_FUNCTIONS = "http://joost.sf.net/attributes/allow-external-functions";
 
+  /**
+   * Key for a Joost property that determines whether transformers collect
+   * {@link net.sf.joost.stx.TransformationMetrics}. Its property value must be
+   * a Boolean.
+   *
+   * @see javax.xml.transform.TransformerFactory#setAttribute
+   */
+  public final static String METRICS_FEATURE = "http://joost.sf.net/attributes/metrics-feature";
+
   /**
    * Key for a Joost output property that determines whether the PIs for
    * controlling disable-output-escaping
@@ -99,6 +179,17 @@ public final class CTrAX
                                                                           CSTX.JOOST_EXT_NS +
                                                                           "}support-disable-output-escaping";
 
+  /**
+   * Key for a Joost output property that determines whether a
+   * <code>DOMResult</code> without a node receives a compact read-only
+   * document ({@link net.sf.joost.emitter.CompactDOM}) instead of a document
+   * of the default JAXP DOM implementation. Its property value must be a
+   * String, either "yes" or "no" (default)
+   *
+   * @see javax.xml.transform.Transformer#setOutputProperty(String, String)
+   */
+  public final static String OUTPUT_KEY_COMPACT_DOM = "{" + CSTX.JOOST_EXT_NS + "}compact-dom";
+
   private CTrAX ()
   {}
 }
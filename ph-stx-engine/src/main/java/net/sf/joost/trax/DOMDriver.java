@@ -20,18 +20,14 @@
 // taken from Michael Kay's Saxon, see http://saxon.sourceforge.net
 package net.sf.joost.trax;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Locale;
 
-import org.w3c.dom.Attr;
 import org.w3c.dom.CharacterData;
 import org.w3c.dom.Comment;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.ProcessingInstruction;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
@@ -67,11 +63,21 @@ public class DOMDriver implements Locator, XMLReader
 
   protected ContentHandler contentHandler = new DefaultHandler ();
   private LexicalHandler lexicalHandler = null;
-  private final NamespaceSupport nsSupport = new NamespaceSupport ();
   private final AttributesImpl attlist = new AttributesImpl ();
-  private final String [] parts = new String [3];
-  private final String [] elparts = new String [3];
-  private final Hashtable <String, String> nsDeclarations = new Hashtable<> ();
+
+  // in-scope namespace declarations, nsMarks[d] is the number of
+  // declarations in scope before the element at depth d
+  private String [] nsPrefixes = { "xml", null, null, null, null, null, null, null };
+  private String [] nsURIs = { NamespaceSupport.XMLNS, null, null, null, null, null, null, null };
+  private int nsCount = 1;
+  private int [] nsMarks = new int [16];
+  private int depth;
+
+  // uri, local name and qualified name of the open elements
+  private String [] elNames = new String [48];
+
+  // reused for characters and comments
+  private char [] chars = new char [256];
   protected Node root = null;
   protected String m_sSystemID;
 
@@ -227,187 +233,277 @@ public class DOMDriver implements Locator, XMLReader
 
     contentHandler.setDocumentLocator (this);
     contentHandler.startDocument ();
+    nsCount = 1; // keep the xml prefix
+    depth = 0;
     walkNode (root); // walk the root node
     contentHandler.endDocument ();
   }
 
   /**
-   * Walk a node of a document (traversing the children depth first)
+   * Walk the descendants of a node of a document (depth first). The traversal
+   * is iterative and uses only <code>getFirstChild</code> and
+   * <code>getNextSibling</code>, because <code>NodeList.item(i)</code> is
+   * expensive in some DOM implementations.
    *
-   * @param node
+   * @param start
    *        The DOM Node object to walk
    * @exception SAXException
    *            On any error in the document
    */
 
-  private void walkNode (final Node node) throws SAXException
+  private void walkNode (final Node start) throws SAXException
   {
-    if (node.hasChildNodes ())
+    Node node = start.getFirstChild ();
+    while (node != null)
     {
-      final NodeList nit = node.getChildNodes ();
-      for (int i = 0; i < nit.getLength (); i++)
+      boolean descend = false;
+      switch (node.getNodeType ())
       {
-        final Node child = nit.item (i);
-        switch (child.getNodeType ())
-        {
-          case Node.DOCUMENT_NODE:
-            break; // should not happen
-          case Node.ELEMENT_NODE:
-            final Element element = (Element) child;
-            nsSupport.pushContext ();
-            attlist.clear ();
-            nsDeclarations.clear ();
-
-            // we can't rely on namespace declaration attributes being present -
-            // there may be undeclared namespace prefixes. (If the DOM is a
-            // Saxon
-            // tree, there will be no namespace declaration attributes.) So we
-            // declare all namespaces encountered, to be on the safe side.
-
-            // String elname = element.getTagName();
-            // if (elname.indexOf(':')>=0) {
-            // also need to do this for default namespace
-            try
-            {
-              final String prefix = element.getPrefix ();
-              final String uri = element.getNamespaceURI ();
-              // System.err.println("Implicit Namespace: " + prefix + "=" +
-              // uri);
-              if (prefix != null && nsDeclarations.get (prefix) == null)
-              {
-                nsSupport.declarePrefix (prefix, uri);
-                contentHandler.startPrefixMapping (prefix, uri);
-                nsDeclarations.put (prefix, uri);
-              }
-            }
-            catch (final Throwable err)
+        case Node.ELEMENT_NODE:
+          startElement ((Element) node);
+          descend = true;
+          break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          contentHandler.processingInstruction (((ProcessingInstruction) node).getTarget (),
+                                                ((ProcessingInstruction) node).getData ());
+          break;
+        case Node.COMMENT_NODE:
+          if (lexicalHandler != null)
+          {
+            final String text = ((Comment) node).getData ();
+            if (text != null)
             {
-              // it must be a level 1 DOM
+              lexicalHandler.comment (toChars (text), 0, text.length ());
             }
-            // }
+          }
+          break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          final String text = ((CharacterData) node).getData ();
+          if (text != null && text.length () > 0)
+          {
+            contentHandler.characters (toChars (text), 0, text.length ());
+          }
+          break;
+        case Node.ENTITY_REFERENCE_NODE:
+          descend = true;
+          break;
+        default:
+          break; // should not happen
+      }
 
-            final NamedNodeMap atts = element.getAttributes ();
-            for (int a1 = 0; a1 < atts.getLength (); a1++)
-            {
-              final Attr att = (Attr) atts.item (a1);
-              final String attname = att.getName ();
-              if (attname.equals ("xmlns"))
-              {
-                // System.err.println("Default namespace: " + att.getValue());
-                if (nsDeclarations.get ("") == null)
-                {
-                  final String uri = att.getValue ();
-                  nsSupport.declarePrefix ("", uri);
-                  contentHandler.startPrefixMapping ("", uri);
-                  nsDeclarations.put ("", uri);
-                }
-              }
-              else
-                if (attname.startsWith ("xmlns:"))
-                {
-                  // System.err.println("Namespace: " + attname.substring(6) +
-                  // "=" + att.getValue());
-                  final String prefix = attname.substring (6);
-                  if (nsDeclarations.get (prefix) == null)
-                  {
-                    final String uri = att.getValue ();
-                    nsSupport.declarePrefix (prefix, uri);
-                    contentHandler.startPrefixMapping (prefix, uri);
-                    nsDeclarations.put (prefix, uri);
-                  }
-                }
-                else
-                  if (attname.indexOf (':') >= 0)
-                  {
-                    try
-                    {
-                      final String prefix = att.getPrefix ();
-                      final String uri = att.getNamespaceURI ();
-                      // System.err.println("Implicit Namespace: " + prefix +
-                      // "=" + uri);
-                      if (nsDeclarations.get (prefix) == null)
-                      {
-                        nsSupport.declarePrefix (prefix, uri);
-                        contentHandler.startPrefixMapping (prefix, uri);
-                        nsDeclarations.put (prefix, uri);
-                      }
-                    }
-                    catch (final Throwable err)
-                    {
-                      // it must be a level 1 DOM
-                    }
-                  }
-            }
-            for (int a2 = 0; a2 < atts.getLength (); a2++)
-            {
-              final Attr att = (Attr) atts.item (a2);
-              final String attname = att.getName ();
-              if (!attname.equals ("xmlns") && !attname.startsWith ("xmlns:"))
-              {
-                // System.err.println("Processing attribute " + attname);
-                final String [] parts2 = nsSupport.processName (attname, parts, true);
-                if (parts2 == null)
-                {
-                  throw new SAXException ("Undeclared namespace in " + attname);
-                }
-                attlist.addAttribute (parts2[0], parts2[1], parts2[2], "CDATA", att.getValue ());
-              }
-            }
-            final String [] elparts2 = nsSupport.processName (element.getTagName (), elparts, false);
-            if (elparts2 == null)
-            {
-              throw new SAXException ("Undeclared namespace in " + element.getTagName ());
-            }
-            final String uri = elparts2[0];
-            final String local = elparts2[1];
-            final String raw = elparts2[2];
+      if (descend)
+      {
+        final Node child = node.getFirstChild ();
+        if (child != null)
+        {
+          node = child;
+          continue;
+        }
+        if (node.getNodeType () == Node.ELEMENT_NODE)
+          endElement ();
+      }
 
-            contentHandler.startElement (uri, local, raw, attlist);
+      // go to the next sibling, or up to the next sibling of an ancestor
+      Node next = node.getNextSibling ();
+      while (next == null)
+      {
+        node = node.getParentNode ();
+        if (node == start || node == null)
+          return;
+        if (node.getNodeType () == Node.ELEMENT_NODE)
+          endElement ();
+        next = node.getNextSibling ();
+      }
+      node = next;
+    }
+  }
 
-            walkNode (element);
+  /**
+   * Reports the start of an element, preceded by the necessary namespace
+   * declarations
+   */
+  private void startElement (final Element element) throws SAXException
+  {
+    if (depth == nsMarks.length)
+    {
+      final int [] newMarks = new int [depth * 2];
+      System.arraycopy (nsMarks, 0, newMarks, 0, depth);
+      nsMarks = newMarks;
+      final String [] newNames = new String [depth * 6];
+      System.arraycopy (elNames, 0, newNames, 0, depth * 3);
+      elNames = newNames;
+    }
+    nsMarks[depth] = nsCount;
+    attlist.clear ();
 
-            contentHandler.endElement (uri, local, raw);
-            final Enumeration <String> prefixes = nsSupport.getDeclaredPrefixes ();
-            while (prefixes.hasMoreElements ())
-            {
-              final String prefix = prefixes.nextElement ();
-              contentHandler.endPrefixMapping (prefix);
-            }
-            nsSupport.popContext ();
-            break;
-          case Node.ATTRIBUTE_NODE: // have already dealt with attributes
-            break;
-          case Node.PROCESSING_INSTRUCTION_NODE:
-            contentHandler.processingInstruction (((ProcessingInstruction) child).getTarget (),
-                                                  ((ProcessingInstruction) child).getData ());
-            break;
-          case Node.COMMENT_NODE:
-            if (lexicalHandler != null)
-            {
-              final String text = ((Comment) child).getData ();
-              if (text != null)
-              {
-                lexicalHandler.comment (text.toCharArray (), 0, text.length ());
-              }
-            }
-            break;
-          case Node.TEXT_NODE:
-          case Node.CDATA_SECTION_NODE:
-            final String text = ((CharacterData) child).getData ();
-            if (text != null)
-            {
-              contentHandler.characters (text.toCharArray (), 0, text.length ());
-            }
-            break;
-          case Node.ENTITY_REFERENCE_NODE:
-            walkNode (child);
-            break;
-          default:
-            break; // should not happen
-        }
+    final NamedNodeMap atts = element.getAttributes ();
+    final int attCount = atts.getLength ();
+
+    // report the namespace declaration attributes
+    for (int i = 0; i < attCount; i++)
+    {
+      final Node att = atts.item (i);
+      final String attname = att.getNodeName ();
+      if (attname.startsWith ("xmlns"))
+      {
+        if (attname.length () == 5)
+          declarePrefix ("", att.getNodeValue ());
+        else
+          if (attname.charAt (5) == ':')
+            declarePrefix (attname.substring (6), att.getNodeValue ());
       }
     }
 
+    // we can't rely on namespace declaration attributes being present -
+    // there may be undeclared namespace prefixes. (If the DOM is a Saxon
+    // tree, there will be no namespace declaration attributes.) So we
+    // declare all namespaces encountered, to be on the safe side.
+    final String elname = element.getNodeName ();
+    String uri, local;
+    local = element.getLocalName ();
+    if (local != null)
+    {
+      // namespace aware DOM (level 2)
+      uri = element.getNamespaceURI ();
+      if (uri == null)
+        uri = "";
+      ensurePrefix (elname, uri, false);
+    }
+    else
+    {
+      // level 1 DOM, resolve the prefix
+      final int colon = elname.indexOf (':');
+      local = colon == -1 ? elname : elname.substring (colon + 1);
+      uri = lookupURI (colon == -1 ? "" : elname.substring (0, colon));
+      if (uri == null)
+        if (colon == -1)
+          uri = "";
+        else
+          throw new SAXException ("Undeclared namespace in " + elname);
+    }
+
+    for (int i = 0; i < attCount; i++)
+    {
+      final Node att = atts.item (i);
+      final String attname = att.getNodeName ();
+      if (attname.startsWith ("xmlns") && (attname.length () == 5 || attname.charAt (5) == ':'))
+        continue;
+      final int colon = attname.indexOf (':');
+      if (colon == -1)
+      {
+        // unprefixed attributes are in no namespace
+        attlist.addAttribute ("", attname, attname, "CDATA", att.getNodeValue ());
+        continue;
+      }
+      String attUri;
+      String attLocal = att.getLocalName ();
+      if (attLocal != null)
+      {
+        attUri = att.getNamespaceURI ();
+        if (attUri == null)
+          attUri = "";
+        ensurePrefix (attname, attUri, true);
+      }
+      else
+      {
+        attLocal = attname.substring (colon + 1);
+        attUri = lookupURI (attname.substring (0, colon));
+        if (attUri == null)
+          throw new SAXException ("Undeclared namespace in " + attname);
+      }
+      attlist.addAttribute (attUri, attLocal, attname, "CDATA", att.getNodeValue ());
+    }
+
+    elNames[depth * 3] = uri;
+    elNames[depth * 3 + 1] = local;
+    elNames[depth * 3 + 2] = elname;
+    depth++;
+    contentHandler.startElement (uri, local, elname, attlist);
+  }
+
+  /**
+   * Reports the end of the current element, followed by the end of its
+   * namespace declarations
+   */
+  private void endElement () throws SAXException
+  {
+    depth--;
+    final int base = depth * 3;
+    contentHandler.endElement (elNames[base], elNames[base + 1], elNames[base + 2]);
+    elNames[base] = elNames[base + 1] = elNames[base + 2] = null;
+    final int mark = nsMarks[depth];
+    for (int i = mark; i < nsCount; i++)
+    {
+      contentHandler.endPrefixMapping (nsPrefixes[i]);
+      nsPrefixes[i] = nsURIs[i] = null;
+    }
+    nsCount = mark;
+  }
+
+  /**
+   * Declares a namespace for the current element and reports it to the
+   * content handler
+   */
+  private void declarePrefix (final String prefix, final String uri) throws SAXException
+  {
+    // don't report a prefix twice for the same element
+    for (int i = nsMarks[depth]; i < nsCount; i++)
+      if (nsPrefixes[i].equals (prefix))
+        return;
+    if (nsCount == nsPrefixes.length)
+    {
+      final String [] newPrefixes = new String [nsCount * 2];
+      System.arraycopy (nsPrefixes, 0, newPrefixes, 0, nsCount);
+      nsPrefixes = newPrefixes;
+      final String [] newURIs = new String [nsCount * 2];
+      System.arraycopy (nsURIs, 0, newURIs, 0, nsCount);
+      nsURIs = newURIs;
+    }
+    nsPrefixes[nsCount] = prefix;
+    nsURIs[nsCount] = uri;
+    nsCount++;
+    contentHandler.startPrefixMapping (prefix, uri);
+  }
+
+  /**
+   * Declares the prefix of a name if it isn't already bound to the given URI
+   */
+  private void ensurePrefix (final String qName,
+                             final String uri,
+                             final boolean isAttribute) throws SAXException
+  {
+    final int colon = qName.indexOf (':');
+    if (colon == -1 && isAttribute)
+      return;
+    final String prefix = colon == -1 ? "" : qName.substring (0, colon);
+    final String bound = lookupURI (prefix);
+    if (bound == null ? uri.length () > 0 : !bound.equals (uri))
+      declarePrefix (prefix, uri);
+  }
+
+  /**
+   * @return the URI bound to the given prefix, <code>null</code> if the prefix
+   *         is unknown
+   */
+  private String lookupURI (final String prefix)
+  {
+    for (int i = nsCount - 1; i >= 0; i--)
+      if (nsPrefixes[i].equals (prefix))
+        return nsURIs[i];
+    return null;
+  }
+
+  /**
+   * @return a reused array that contains the characters of the given string
+   */
+  private char [] toChars (final String text)
+  {
+    final int length = text.length ();
+    if (chars.length < length)
+      chars = new char [Math.max (length, chars.length * 2)];
+    text.getChars (0, length, chars, 0);
+    return chars;
   }
 
   //
@@ -0,0 +1,541 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Stack;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * (Pseudo-)SAX driver for StAX. This class pulls the events from an
+ * <code>XMLStreamReader</code> and reports them to a SAX
+ * <code>ContentHandler</code> (usually the STX
+ * {@link net.sf.joost.stx.Processor}). Character data is passed directly from
+ * the buffer of the reader, and the attributes of an element are presented by
+ * a view on the reader, so no intermediate objects are created.
+ * <p>
+ * If the reader is positioned at the start of the document, the whole document
+ * will be reported. If it is positioned at an element, only this element and
+ * its descendants will be reported (as a complete document), and the reader
+ * will be positioned at the corresponding end tag afterwards. The namespace
+ * bindings declared on the ancestors of this element are reported for the
+ * elements of the fragment whose names need them.
+ * <p>
+ * Instead of {@link #parse()} the events may be reported one by one using
+ * {@link #step()}.
+ *
+ * @author Philip Helger
+ */
+public class StAXDriver implements Locator, XMLReader
+{
+  static final String FEATURE = "http://xml.org/sax/features/";
+  static final String HANDLER = "http://xml.org/sax/properties/";
+
+  protected ContentHandler contentHandler = new DefaultHandler ();
+  private LexicalHandler lexicalHandler = null;
+  private final XMLStreamReader m_aReader;
+  protected String m_sSystemID;
+
+  /** progress of {@link #step()} */
+  private boolean m_bStarted, m_bFinished, m_bFragment;
+  /** depth of the current element */
+  private int m_nDepth;
+
+  /**
+   * In fragment mode: the namespace bindings reported so far. Bindings of the
+   * ancestors of the fragment are reported for the first element that uses
+   * them (<code>NamespaceContext</code> cannot enumerate its bindings).
+   */
+  private NamespaceSupport m_aFragmentNS;
+  /** In fragment mode: the prefixes of the ancestor bindings per element */
+  private final Stack <List <String>> m_aInheritedPrefixes = new Stack<> ();
+
+  /**
+   * <code>Attributes</code> view of the attributes of the current element
+   */
+  private final Attributes m_aAttributes = new Attributes ()
+  {
+    public int getLength ()
+    {
+      return m_aReader.getAttributeCount ();
+    }
+
+    public String getURI (final int index)
+    {
+      if (index < 0 || index >= getLength ())
+        return null;
+      final String uri = m_aReader.getAttributeNamespace (index);
+      return uri == null ? "" : uri;
+    }
+
+    public String getLocalName (final int index)
+    {
+      if (index < 0 || index >= getLength ())
+        return null;
+      return m_aReader.getAttributeLocalName (index);
+    }
+
+    public String getQName (final int index)
+    {
+      if (index < 0 || index >= getLength ())
+        return null;
+      return _getQName (m_aReader.getAttributePrefix (index), m_aReader.getAttributeLocalName (index));
+    }
+
+    public String getType (final int index)
+    {
+      if (index < 0 || index >= getLength ())
+        return null;
+      final String type = m_aReader.getAttributeType (index);
+      return type == null ? "CDATA" : type;
+    }
+
+    public String getValue (final int index)
+    {
+      if (index < 0 || index >= getLength ())
+        return null;
+      return m_aReader.getAttributeValue (index);
+    }
+
+    public int getIndex (final String uri, final String localName)
+    {
+      for (int i = getLength () - 1; i >= 0; i--)
+        if (getLocalName (i).equals (localName) && getURI (i).equals (uri))
+          return i;
+      return -1;
+    }
+
+    public int getIndex (final String qName)
+    {
+      for (int i = getLength () - 1; i >= 0; i--)
+        if (getQName (i).equals (qName))
+          return i;
+      return -1;
+    }
+
+    public String getType (final String uri, final String localName)
+    {
+      return getType (getIndex (uri, localName));
+    }
+
+    public String getType (final String qName)
+    {
+      return getType (getIndex (qName));
+    }
+
+    public String getValue (final String uri, final String localName)
+    {
+      return getValue (getIndex (uri, localName));
+    }
+
+    public String getValue (final String qName)
+    {
+      return getValue (getIndex (qName));
+    }
+  };
+
+  /**
+   * Constructs a driver for a StAX reader
+   *
+   * @param reader
+   *        the reader, positioned at the start of the document or at an
+   *        element
+   */
+  public StAXDriver (final XMLStreamReader reader)
+  {
+    m_aReader = reader;
+  }
+
+  static String _getQName (final String prefix, final String localName)
+  {
+    return prefix == null || prefix.length () == 0 ? localName : prefix + ":" + localName;
+  }
+
+  /**
+   * Set the content handler.
+   *
+   * @param handler
+   *        The object to receive content events. If this also implements
+   *        LexicalHandler, it will also be notified of comments.
+   */
+  public void setContentHandler (final ContentHandler handler)
+  {
+    this.contentHandler = handler;
+    if (handler instanceof LexicalHandler)
+    {
+      lexicalHandler = (LexicalHandler) handler;
+    }
+  }
+
+  public ContentHandler getContentHandler ()
+  {
+    return contentHandler;
+  }
+
+  public void setLocale (final Locale locale)
+  {}
+
+  public EntityResolver getEntityResolver ()
+  {
+    return null;
+  }
+
+  public void setEntityResolver (final EntityResolver resolver)
+  {}
+
+  public DTDHandler getDTDHandler ()
+  {
+    return null;
+  }
+
+  public void setDTDHandler (final DTDHandler handler)
+  {}
+
+  public void setErrorHandler (final ErrorHandler handler)
+  {}
+
+  public ErrorHandler getErrorHandler ()
+  {
+    return null;
+  }
+
+  /**
+   * Parse from InputSource. The InputSource is ignored; it's there only to
+   * satisfy the XMLReader interface
+   */
+  public void parse (final InputSource source) throws SAXException
+  {
+    parse ();
+  }
+
+  /**
+   * Parse from SystemId. The SystemId is ignored; it's there only to satisfy
+   * the XMLReader interface
+   */
+  public void parse (final String source) throws SAXException
+  {
+    parse ();
+  }
+
+  /**
+   * Pulls all events from the reader
+   *
+   * @exception SAXException
+   *            On any error in the document
+   */
+  public void parse () throws SAXException
+  {
+    while (step ())
+    {
+      // next event
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the whole input has been reported
+   */
+  public boolean isFinished ()
+  {
+    return m_bFinished;
+  }
+
+  /**
+   * Reports the next event of the reader to the content handler. This allows
+   * the caller to control the progress of the transformation.
+   *
+   * @return <code>true</code> if there are more events, <code>false</code> if
+   *         the end of the input has been reached
+   * @exception SAXException
+   *            On any error in the document
+   */
+  public boolean step () throws SAXException
+  {
+    if (m_bFinished)
+      return false;
+    if (contentHandler == null)
+    {
+      throw new SAXException ("StAXDriver: no content handler defined");
+    }
+
+    try
+    {
+      int event;
+      if (m_bStarted)
+      {
+        if (!m_aReader.hasNext ())
+        {
+          _finish ();
+          return false;
+        }
+        event = m_aReader.next ();
+      }
+      else
+      {
+        event = m_aReader.getEventType ();
+        if (event != XMLStreamConstants.START_DOCUMENT && event != XMLStreamConstants.START_ELEMENT)
+          throw new SAXException ("StAXDriver: reader must be positioned at the start of a document or an element");
+        m_bFragment = event == XMLStreamConstants.START_ELEMENT;
+        if (m_bFragment)
+          m_aFragmentNS = new NamespaceSupport ();
+        m_bStarted = true;
+        contentHandler.setDocumentLocator (this);
+        contentHandler.startDocument ();
+      }
+
+      _report (event);
+
+      if (m_bFragment ? m_nDepth == 0 : event == XMLStreamConstants.END_DOCUMENT)
+      {
+        _finish ();
+        return false;
+      }
+      return true;
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  private void _finish () throws SAXException
+  {
+    m_bFinished = true;
+    contentHandler.endDocument ();
+  }
+
+  private void _report (final int event) throws SAXException
+  {
+    switch (event)
+    {
+      case XMLStreamConstants.START_ELEMENT:
+      {
+        m_nDepth++;
+        final int nsCount = m_aReader.getNamespaceCount ();
+        for (int i = 0; i < nsCount; i++)
+        {
+          final String prefix = m_aReader.getNamespacePrefix (i);
+          final String uri = m_aReader.getNamespaceURI (i);
+          contentHandler.startPrefixMapping (prefix == null ? "" : prefix, uri == null ? "" : uri);
+        }
+        if (m_bFragment)
+          _reportInheritedNamespaces ();
+        final String uri = m_aReader.getNamespaceURI ();
+        final String local = m_aReader.getLocalName ();
+        contentHandler.startElement (uri == null ? "" : uri,
+                                     local,
+                                     _getQName (m_aReader.getPrefix (), local),
+                                     m_aAttributes);
+        break;
+      }
+      case XMLStreamConstants.END_ELEMENT:
+      {
+        m_nDepth--;
+        final String uri = m_aReader.getNamespaceURI ();
+        final String local = m_aReader.getLocalName ();
+        contentHandler.endElement (uri == null ? "" : uri, local, _getQName (m_aReader.getPrefix (), local));
+        final int nsCount = m_aReader.getNamespaceCount ();
+        for (int i = 0; i < nsCount; i++)
+        {
+          final String prefix = m_aReader.getNamespacePrefix (i);
+          contentHandler.endPrefixMapping (prefix == null ? "" : prefix);
+        }
+        if (m_bFragment)
+        {
+          final List <String> inherited = m_aInheritedPrefixes.pop ();
+          if (inherited != null)
+            for (final String prefix : inherited)
+              contentHandler.endPrefixMapping (prefix);
+          m_aFragmentNS.popContext ();
+        }
+        break;
+      }
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.SPACE:
+        contentHandler.characters (m_aReader.getTextCharacters (), m_aReader.getTextStart (), m_aReader.getTextLength ());
+        break;
+      case XMLStreamConstants.CDATA:
+        if (lexicalHandler != null)
+          lexicalHandler.startCDATA ();
+        contentHandler.characters (m_aReader.getTextCharacters (), m_aReader.getTextStart (), m_aReader.getTextLength ());
+        if (lexicalHandler != null)
+          lexicalHandler.endCDATA ();
+        break;
+      case XMLStreamConstants.COMMENT:
+        if (lexicalHandler != null)
+          lexicalHandler.comment (m_aReader.getTextCharacters (), m_aReader.getTextStart (), m_aReader.getTextLength ());
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        contentHandler.processingInstruction (m_aReader.getPITarget (),
+                                              m_aReader.getPIData () == null ? "" : m_aReader.getPIData ());
+        break;
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        contentHandler.skippedEntity (m_aReader.getLocalName ());
+        break;
+      default:
+        // START_DOCUMENT, DTD, ...
+        break;
+    }
+  }
+
+  /**
+   * Reports the bindings declared outside of the fragment that are needed for
+   * the name of the current element and the names of its attributes
+   */
+  private void _reportInheritedNamespaces () throws SAXException
+  {
+    m_aFragmentNS.pushContext ();
+    final int nsCount = m_aReader.getNamespaceCount ();
+    for (int i = 0; i < nsCount; i++)
+    {
+      final String prefix = m_aReader.getNamespacePrefix (i);
+      final String uri = m_aReader.getNamespaceURI (i);
+      m_aFragmentNS.declarePrefix (prefix == null ? "" : prefix, uri == null ? "" : uri);
+    }
+    List <String> inherited = _reportInheritedNamespace (m_aReader.getPrefix (), m_aReader.getNamespaceURI (), null);
+    final int attCount = m_aReader.getAttributeCount ();
+    for (int i = 0; i < attCount; i++)
+    {
+      final String prefix = m_aReader.getAttributePrefix (i);
+      // unprefixed attributes are in no namespace
+      if (prefix != null && prefix.length () != 0)
+        inherited = _reportInheritedNamespace (prefix, m_aReader.getAttributeNamespace (i), inherited);
+    }
+    m_aInheritedPrefixes.push (inherited);
+  }
+
+  private List <String> _reportInheritedNamespace (final String sPrefix,
+                                                   final String uri,
+                                                   final List <String> inherited) throws SAXException
+  {
+    final String prefix = sPrefix == null ? "" : sPrefix;
+    if (uri == null || uri.length () == 0 || "xml".equals (prefix) || uri.equals (m_aFragmentNS.getURI (prefix)))
+      return inherited;
+    contentHandler.startPrefixMapping (prefix, uri);
+    m_aFragmentNS.declarePrefix (prefix, uri);
+    final List <String> ret = inherited != null ? inherited : new ArrayList<> (2);
+    ret.add (prefix);
+    return ret;
+  }
+
+  //
+  // Implementation of org.xml.sax.Locator.
+  //
+
+  public void setSystemId (final String systemId)
+  {
+    this.m_sSystemID = systemId;
+  }
+
+  public String getPublicId ()
+  {
+    final Location loc = m_aReader.getLocation ();
+    return loc == null ? null : loc.getPublicId ();
+  }
+
+  public String getSystemId ()
+  {
+    if (m_sSystemID != null)
+      return m_sSystemID;
+    final Location loc = m_aReader.getLocation ();
+    return loc == null ? null : loc.getSystemId ();
+  }
+
+  public int getLineNumber ()
+  {
+    final Location loc = m_aReader.getLocation ();
+    return loc == null ? -1 : loc.getLineNumber ();
+  }
+
+  public int getColumnNumber ()
+  {
+    final Location loc = m_aReader.getLocation ();
+    return loc == null ? -1 : loc.getColumnNumber ();
+  }
+
+  // Features and properties
+
+  public boolean getFeature (final String featureId) throws SAXNotRecognizedException
+  {
+    // element/attribute names are as namespace-sensitive
+    if ((FEATURE + "namespace-prefixes").equals (featureId))
+      return false;
+
+    // report element/attribute namespaces?
+    if ((FEATURE + "namespaces").equals (featureId))
+      return true;
+
+    if ((FEATURE + "validation").equals (featureId) || (FEATURE + "string-interning").equals (featureId))
+      return false;
+
+    throw new SAXNotRecognizedException (featureId);
+  }
+
+  public Object getProperty (final String name) throws SAXNotRecognizedException
+  {
+    if (name.equals (HANDLER + "lexical-handler"))
+    {
+      return lexicalHandler;
+    }
+    throw new SAXNotRecognizedException (name);
+  }
+
+  public void setFeature (final String featureId, final boolean on) throws SAXNotRecognizedException,
+                                                                    SAXNotSupportedException
+  {
+    if (on != getFeature (featureId))
+      throw new SAXNotSupportedException (featureId + " feature cannot be switched " + (on ? "on" : "off"));
+  }
+
+  public void setProperty (final String propertyId, final Object property) throws SAXNotRecognizedException,
+                                                                           SAXNotSupportedException
+  {
+    if (propertyId.equals (HANDLER + "lexical-handler"))
+    {
+      if (property instanceof LexicalHandler)
+      {
+        lexicalHandler = (LexicalHandler) property;
+        return;
+      }
+      throw new SAXNotSupportedException ("Lexical Handler must be instance of LexicalHandler");
+    }
+    throw new SAXNotRecognizedException (propertyId);
+  }
+}
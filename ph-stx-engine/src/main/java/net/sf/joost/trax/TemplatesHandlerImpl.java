@@ -63,6 +63,7 @@ public class TemplatesHandlerImpl implements TemplatesHandler
     // construct a tree representation of an STX stylesheet
     final ParseContext pContext = new ParseContext ();
     pContext.allowExternalFunctions = tfactory.m_bAllowExternalFunctions;
+    pContext.compileThreshold = tfactory.m_nCompileThreshold;
     m_aSTXParser = new Parser (pContext);
   }
 
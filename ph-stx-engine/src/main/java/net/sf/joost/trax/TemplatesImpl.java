@@ -35,6 +35,7 @@ import net.sf.joost.CSTX;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Parser;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.TransformationMetrics;
 import net.sf.joost.trace.DebugProcessor;
 
 /**
@@ -62,6 +63,12 @@ public class TemplatesImpl implements Templates
    */
   private Processor m_aProcessor;
 
+  /**
+   * Aggregated metrics of all transformers created from this object,
+   * <code>null</code> if metrics are disabled
+   */
+  private TransformationMetrics m_aMetrics;
+
   /**
    * Synch object to guard against setting values from the TrAX interface or
    * reentry while the transform is going on.
@@ -138,6 +145,7 @@ public class TemplatesImpl implements Templates
 
     if (CSTX.DEBUG)
       log.debug ("init without InputSource ");
+    final long start = System.nanoTime ();
     try
     {
       // check if transformerfactory is in debug mode
@@ -154,6 +162,13 @@ public class TemplatesImpl implements Templates
       }
       m_aProcessor.setTransformerHandlerResolver (m_aFactory.m_aTHResolver);
       m_aProcessor.setOutputURIResolver (m_aFactory.m_aOutputUriResolver);
+      m_aProcessor.setResultDocumentWriterPool (m_aFactory.m_aResultDocumentWriterPool);
+      m_aProcessor.setProfiler (m_aFactory.m_aProfiler);
+      m_aProcessor.setCharacterBufferSize (m_aFactory.m_nCharacterBufferSize);
+      m_aProcessor.setMappedFileInput (m_aFactory.m_bMappedFileInput);
+      m_aProcessor.setRecordPath (m_aFactory.m_sRecordPath);
+      m_aProcessor.setRecordThreads (m_aFactory.m_nRecordThreads);
+      _initMetrics (start);
     }
     catch (final org.xml.sax.SAXException sE)
     {
@@ -184,6 +199,7 @@ public class TemplatesImpl implements Templates
 
     if (CSTX.DEBUG)
       log.debug ("init with InputSource " + isource.getSystemId ());
+    final long start = System.nanoTime ();
     try
     {
       /**
@@ -195,6 +211,7 @@ public class TemplatesImpl implements Templates
 
       final ParseContext pContext = new ParseContext ();
       pContext.allowExternalFunctions = m_aFactory.m_bAllowExternalFunctions;
+      pContext.compileThreshold = m_aFactory.m_nCompileThreshold;
       pContext.setErrorListener (m_aFactory.getErrorListener ());
       pContext.uriResolver = m_aFactory.getURIResolver ();
       if (debugmode)
@@ -210,6 +227,13 @@ public class TemplatesImpl implements Templates
       }
       m_aProcessor.setTransformerHandlerResolver (m_aFactory.m_aTHResolver);
       m_aProcessor.setOutputURIResolver (m_aFactory.m_aOutputUriResolver);
+      m_aProcessor.setResultDocumentWriterPool (m_aFactory.m_aResultDocumentWriterPool);
+      m_aProcessor.setProfiler (m_aFactory.m_aProfiler);
+      m_aProcessor.setCharacterBufferSize (m_aFactory.m_nCharacterBufferSize);
+      m_aProcessor.setMappedFileInput (m_aFactory.m_bMappedFileInput);
+      m_aProcessor.setRecordPath (m_aFactory.m_sRecordPath);
+      m_aProcessor.setRecordThreads (m_aFactory.m_nRecordThreads);
+      _initMetrics (start);
     }
     catch (final java.io.IOException iE)
     {
@@ -236,6 +260,34 @@ public class TemplatesImpl implements Templates
     }
   }
 
+  /**
+   * Creates the aggregated metrics object if the factory has metrics enabled.
+   *
+   * @param start
+   *        start time of the initialization (from {@link System#nanoTime()})
+   */
+  private void _initMetrics (final long start)
+  {
+    if (m_aFactory.m_bMetrics)
+    {
+      m_aMetrics = new TransformationMetrics ();
+      m_aMetrics.addPhaseTime (TransformationMetrics.PHASE_COMPILE, System.nanoTime () - start);
+      m_aProcessor.setMetrics (m_aMetrics);
+    }
+  }
+
+  /**
+   * Returns the metrics aggregated over all finished transformations of the
+   * transformers created by this object.
+   *
+   * @return a snapshot of the metrics, or <code>null</code> if the
+   *         attribute {@link CTrAX#METRICS_FEATURE} wasn't set on the factory
+   */
+  public TransformationMetrics getMetrics ()
+  {
+    return m_aMetrics == null ? null : m_aMetrics.snapshot ();
+  }
+
   /**
    * Method returns a Transformer-instance for transformation-process
    *
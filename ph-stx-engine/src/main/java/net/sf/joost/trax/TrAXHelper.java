@@ -31,6 +31,10 @@ import java.net.URLConnection;
 import java.util.Properties;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
@@ -40,6 +44,8 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -55,7 +61,9 @@ import net.sf.joost.emitter.AbstractStreamEmitter;
 import net.sf.joost.emitter.DOMEmitter;
 import net.sf.joost.emitter.IStxEmitter;
 import net.sf.joost.emitter.SAXEmitter;
+import net.sf.joost.emitter.StAXEmitter;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.util.MappedFileInputStream;
 
 /**
  * This class provides TrAX helper functions
@@ -83,6 +91,24 @@ public class TrAXHelper
   protected static InputSource getInputSourceForStreamSources (final Source source,
                                                                final ErrorListener errorListener) throws TransformerConfigurationException
   {
+    return getInputSourceForStreamSources (source, errorListener, false);
+  }
+
+  /**
+   * Helpermethod for getting an InputSource from a StreamSource.
+   *
+   * @param source
+   *        <code>Source</code>
+   * @param mapFiles
+   *        if <code>true</code>, a local file denoted only by the system ID
+   *        will be read via a {@link MappedFileInputStream}
+   * @return An <code>InputSource</code> object or null
+   * @throws TransformerConfigurationException
+   */
+  protected static InputSource getInputSourceForStreamSources (final Source source,
+                                                               final ErrorListener errorListener,
+                                                               final boolean mapFiles) throws TransformerConfigurationException
+  {
 
     if (CSTX.DEBUG)
       log.debug ("getting an InputSource from a StreamSource");
@@ -115,7 +141,15 @@ public class TrAXHelper
           }
           else
           {
-            input = new InputSource (systemId);
+            final File file = mapFiles ? MappedFileInputStream.getLocalFile (systemId) : null;
+            if (file != null)
+            {
+              if (CSTX.DEBUG)
+                log.debug ("mapping " + file);
+              input = new InputSource (new MappedFileInputStream (file));
+            }
+            else
+              input = new InputSource (systemId);
           }
         }
       }
@@ -178,6 +212,24 @@ public class TrAXHelper
         log.debug ("Exception", sE);
       throw new TransformerConfigurationException (sE.getMessage ());
     }
+    catch (final IOException iE)
+    {
+      // mapping the file failed
+      final TransformerConfigurationException tE = new TransformerConfigurationException (iE.getMessage (), iE);
+      if (errorListener != null)
+      {
+        try
+        {
+          errorListener.fatalError (tE);
+          return null;
+        }
+        catch (final TransformerException e2)
+        {
+          throw tE;
+        }
+      }
+      throw tE;
+    }
     return (input);
   }
 
@@ -194,6 +246,41 @@ public class TrAXHelper
   public static IStxEmitter initStxEmitter (final Result result,
                                             final Processor processor,
                                             final Properties aOutputProperties) throws TransformerException
+  {
+    return _initStxEmitter (result, processor, aOutputProperties, false, null);
+  }
+
+  /**
+   * HelperMethod for initiating StxEmitter, reusing the emitter of a previous
+   * transformation if possible. For a <code>StreamResult</code> with a
+   * <code>Writer</code> or an <code>OutputStream</code> the previous emitter
+   * is rebound to the new target if it was created for the same output
+   * properties. Emitters for an <code>OutputStream</code> are always created
+   * reusable.
+   *
+   * @param result
+   *        A <code>Result</code> object.
+   * @param processor
+   * @param aOutputProperties
+   * @param previous
+   *        the emitter returned by the previous invocation of this method,
+   *        may be <code>null</code>
+   * @return An {@link IStxEmitter}
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static IStxEmitter initStxEmitter (final Result result,
+                                            final Processor processor,
+                                            final Properties aOutputProperties,
+                                            final IStxEmitter previous) throws TransformerException
+  {
+    return _initStxEmitter (result, processor, aOutputProperties, true, previous);
+  }
+
+  private static IStxEmitter _initStxEmitter (final Result result,
+                                              final Processor processor,
+                                              final Properties aOutputProperties,
+                                              final boolean reusable,
+                                              final IStxEmitter previous) throws TransformerException
   {
     Properties outputProperties = aOutputProperties;
     if (outputProperties == null)
@@ -204,7 +291,7 @@ public class TrAXHelper
     // Return the content handler for this Result object
     try
     {
-      // Result object could be SAXResult, DOMResult, or StreamResult
+      // Result object could be SAXResult, DOMResult, StreamResult or StAXResult
       if (result instanceof SAXResult)
       {
         final SAXResult target = (SAXResult) result;
@@ -223,7 +310,8 @@ public class TrAXHelper
           if (CSTX.DEBUG)
             log.debug ("return DOM specific Implementation for " + "StxEmitter");
           // DOM specific Implementation
-          return new DOMEmitter ((DOMResult) result);
+          return new DOMEmitter ((DOMResult) result,
+                                 "yes".equals (outputProperties.getProperty (CTrAX.OUTPUT_KEY_COMPACT_DOM)));
         }
         else
           if (result instanceof StreamResult)
@@ -241,6 +329,12 @@ public class TrAXHelper
             {
               if (CSTX.DEBUG)
                 log.debug ("get a Writer object from Result object");
+              if (previous instanceof AbstractStreamEmitter &&
+                  ((AbstractStreamEmitter) previous).isReusableFor (CSTX.DEFAULT_ENCODING, outputProperties))
+              {
+                ((AbstractStreamEmitter) previous).setWriter (writer);
+                return previous;
+              }
               return AbstractStreamEmitter.newEmitter (writer, CSTX.DEFAULT_ENCODING, outputProperties);
             }
             // or try to get an OutputStream from Result object
@@ -249,6 +343,13 @@ public class TrAXHelper
             {
               if (CSTX.DEBUG)
                 log.debug ("get an OutputStream from Result object");
+              if (previous instanceof AbstractStreamEmitter &&
+                  ((AbstractStreamEmitter) previous).isReusableFor (AbstractStreamEmitter.getEncoding (outputProperties),
+                                                                    outputProperties) &&
+                  ((AbstractStreamEmitter) previous).setOutputStream (ostream))
+                return previous;
+              if (reusable)
+                return AbstractStreamEmitter.newReusableEmitter (ostream, outputProperties);
               return AbstractStreamEmitter.newEmitter (ostream, outputProperties);
             }
             // or try to get just a systemId string from Result object
@@ -289,6 +390,17 @@ public class TrAXHelper
                 return AbstractStreamEmitter.newEmitter (os, outputProperties);
               }
           }
+          else
+            if (result instanceof StAXResult)
+            {
+              if (CSTX.DEBUG)
+                log.debug ("return StAX specific Implementation for " + "StxEmitter");
+              final XMLStreamWriter writer = ((StAXResult) result).getXMLStreamWriter ();
+              if (writer == null)
+                throw new TransformerException ("StAXResult without XMLStreamWriter is not supported");
+              // StAX specific Implementation
+              return new StAXEmitter (writer);
+            }
       // If we cannot create the file specified by the SystemId
     }
     catch (final IOException iE)
@@ -306,6 +418,55 @@ public class TrAXHelper
     return null;
   }
 
+  /**
+   * Creates a {@link DOMDriver} that walks the document of a
+   * <code>DOMSource</code>.
+   *
+   * @param source
+   *        The supplied DOM source
+   * @return a new <code>DOMDriver</code>
+   */
+  public static DOMDriver getDOMDriver (final DOMSource source)
+  {
+    final Node startNode = source.getNode ();
+    final DOMDriver driver = new DOMDriver ();
+    driver.setDocument (startNode instanceof Document ? (Document) startNode : startNode.getOwnerDocument ());
+    driver.setSystemId (source.getSystemId ());
+    return driver;
+  }
+
+  /**
+   * Creates a {@link StAXDriver} that pulls the events from the
+   * <code>XMLStreamReader</code> of a <code>StAXSource</code>.
+   *
+   * @param source
+   *        The supplied StAX source
+   * @param errorListener
+   *        an ErrorListener object
+   * @return a new <code>StAXDriver</code> or <code>null</code> if the source
+   *         has no <code>XMLStreamReader</code> and the error listener didn't
+   *         throw an exception
+   */
+  public static StAXDriver getStAXDriver (final StAXSource source,
+                                          final ErrorListener errorListener) throws TransformerException
+  {
+    final XMLStreamReader reader = source.getXMLStreamReader ();
+    if (reader == null)
+    {
+      final TransformerConfigurationException tE = new TransformerConfigurationException ("StAXSource without XMLStreamReader is not supported");
+      if (errorListener != null)
+        errorListener.error (tE);
+      else
+        throw tE;
+      return null;
+    }
+    if (CSTX.DEBUG)
+      log.debug ("using StAXDriver");
+    final StAXDriver driver = new StAXDriver (reader);
+    driver.setSystemId (source.getSystemId ());
+    return driver;
+  }
+
   /**
    * Converts a supplied <code>Source</code> to a <code>SAXSource</code>.
    *
@@ -318,6 +479,26 @@ public class TrAXHelper
   public static SAXSource getSAXSource (final Source source,
                                         final ErrorListener errorListener) throws TransformerException
   {
+    return getSAXSource (source, errorListener, false);
+  }
+
+  /**
+   * Converts a supplied <code>Source</code> to a <code>SAXSource</code>.
+   *
+   * @param source
+   *        The supplied input source
+   * @param errorListener
+   *        an ErrorListener object
+   * @param mapFiles
+   *        if <code>true</code>, a <code>StreamSource</code> that denotes a
+   *        local file only by its system ID will be read via a
+   *        {@link MappedFileInputStream}
+   * @return a <code>SAXSource</code>
+   */
+  public static SAXSource getSAXSource (final Source source,
+                                        final ErrorListener errorListener,
+                                        final boolean mapFiles) throws TransformerException
+  {
 
     if (CSTX.DEBUG)
       log.debug ("getting a SAXSource from a Source");
@@ -334,22 +515,22 @@ public class TrAXHelper
       if (CSTX.DEBUG)
         log.debug ("source is an instance of DOMSource");
       final InputSource is = new InputSource ();
-      final Node startNode = ((DOMSource) source).getNode ();
-      Document doc;
-      if (startNode instanceof Document)
-      {
-        doc = (Document) startNode;
-      }
-      else
-      {
-        doc = startNode.getOwnerDocument ();
-      }
       if (CSTX.DEBUG)
         log.debug ("using DOMDriver");
-      final DOMDriver driver = new DOMDriver ();
-      driver.setDocument (doc);
+      final DOMDriver driver = getDOMDriver ((DOMSource) source);
+      is.setSystemId (source.getSystemId ());
+      return new SAXSource (driver, is);
+    }
+    // StAXSource
+    if (source instanceof StAXSource)
+    {
+      if (CSTX.DEBUG)
+        log.debug ("source is an instance of StAXSource");
+      final StAXDriver driver = getStAXDriver ((StAXSource) source, errorListener);
+      if (driver == null)
+        return null;
+      final InputSource is = new InputSource ();
       is.setSystemId (source.getSystemId ());
-      driver.setSystemId (source.getSystemId ());
       return new SAXSource (driver, is);
     }
     // StreamSource
@@ -357,7 +538,7 @@ public class TrAXHelper
     {
       if (CSTX.DEBUG)
         log.debug ("source is an instance of StreamSource");
-      final InputSource isource = getInputSourceForStreamSources (source, errorListener);
+      final InputSource isource = getInputSourceForStreamSources (source, errorListener, mapFiles);
       return new SAXSource (isource);
     }
 
@@ -371,4 +552,38 @@ public class TrAXHelper
       throw tE;
     return null;
   }
+
+  /**
+   * Provides an <code>XMLStreamReader</code> for a supplied
+   * <code>Source</code>, used for the pull mode transformation.
+   *
+   * @param source
+   *        the supplied input source, either a <code>StAXSource</code> with
+   *        an <code>XMLStreamReader</code> or a <code>StreamSource</code>
+   * @return the reader
+   * @throws TransformerException
+   *         if the source isn't supported or the reader couldn't be created
+   */
+  public static XMLStreamReader getXMLStreamReader (final Source source) throws TransformerException
+  {
+    if (source instanceof StAXSource)
+    {
+      final XMLStreamReader reader = ((StAXSource) source).getXMLStreamReader ();
+      if (reader != null)
+        return reader;
+    }
+    else
+      if (source instanceof StreamSource)
+      {
+        try
+        {
+          return XMLInputFactory.newInstance ().createXMLStreamReader (source);
+        }
+        catch (final XMLStreamException ex)
+        {
+          throw new TransformerException (ex);
+        }
+      }
+    throw new TransformerConfigurationException ("Pull mode requires a StreamSource or a StAXSource with an XMLStreamReader");
+  }
 }
@@ -0,0 +1,435 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.trax;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.emitter.AbstractStxEmitterBase;
+import net.sf.joost.stx.Processor;
+
+/**
+ * Cursor over the result events of a transformation in pull mode, created by
+ * {@link TransformerImpl#openCursor(javax.xml.transform.Source)}. The input is
+ * read by a {@link StAXDriver} on the calling thread and advanced only as far
+ * as needed to produce the next result event, so the memory needed between
+ * producer and consumer is bounded by the result of a single input event.
+ * <p>
+ * The event types are those of {@link XMLStreamConstants}:
+ * <code>START_DOCUMENT</code>, <code>END_DOCUMENT</code>,
+ * <code>START_ELEMENT</code>, <code>END_ELEMENT</code>,
+ * <code>CHARACTERS</code>, <code>CDATA</code>, <code>COMMENT</code> and
+ * <code>PROCESSING_INSTRUCTION</code>. Adjacent character events are merged.
+ * <p>
+ * The transformer must not be used otherwise until the cursor has been
+ * consumed completely or closed.
+ *
+ * @author Philip Helger
+ */
+public class TransformationCursor
+{
+  /** A single result event */
+  private static final class Event
+  {
+    final int m_nType;
+    String m_sURI;
+    String m_sLocalName;
+    String m_sQName;
+    Attributes m_aAttrs;
+    List <String> m_aNamespaces;
+    final StringBuilder m_aText = new StringBuilder ();
+    String m_sTarget;
+
+    Event (final int type)
+    {
+      m_nType = type;
+    }
+  }
+
+  /** Collects the result events of the processor */
+  private final class Collector extends AbstractStxEmitterBase
+  {
+    private List <String> m_aPendingNS;
+    private Event m_aCDATA;
+
+    private void _add (final Event event)
+    {
+      m_aQueue.addLast (event);
+    }
+
+    public void startDocument ()
+    {
+      _add (new Event (XMLStreamConstants.START_DOCUMENT));
+    }
+
+    public void endDocument ()
+    {
+      _add (new Event (XMLStreamConstants.END_DOCUMENT));
+    }
+
+    public void startPrefixMapping (final String prefix, final String uri)
+    {
+      if (m_aPendingNS == null)
+        m_aPendingNS = new ArrayList<> ();
+      m_aPendingNS.add (prefix);
+      m_aPendingNS.add (uri);
+    }
+
+    public void endPrefixMapping (final String prefix)
+    {}
+
+    public void startElement (final String uri, final String local, final String raw, final Attributes attrs)
+    {
+      final Event event = new Event (XMLStreamConstants.START_ELEMENT);
+      event.m_sURI = uri;
+      event.m_sLocalName = local;
+      event.m_sQName = raw;
+      event.m_aAttrs = new AttributesImpl (attrs);
+      event.m_aNamespaces = m_aPendingNS;
+      m_aPendingNS = null;
+      _add (event);
+    }
+
+    public void endElement (final String uri, final String local, final String raw)
+    {
+      final Event event = new Event (XMLStreamConstants.END_ELEMENT);
+      event.m_sURI = uri;
+      event.m_sLocalName = local;
+      event.m_sQName = raw;
+      _add (event);
+    }
+
+    public void characters (final char [] ch, final int start, final int length)
+    {
+      if (m_aCDATA != null)
+      {
+        m_aCDATA.m_aText.append (ch, start, length);
+        return;
+      }
+      // merge with the last unread event
+      final Event last = m_aQueue.peekLast ();
+      if (last != null && last.m_nType == XMLStreamConstants.CHARACTERS)
+        last.m_aText.append (ch, start, length);
+      else
+      {
+        final Event event = new Event (XMLStreamConstants.CHARACTERS);
+        event.m_aText.append (ch, start, length);
+        _add (event);
+      }
+    }
+
+    public void ignorableWhitespace (final char [] ch, final int start, final int length)
+    {
+      characters (ch, start, length);
+    }
+
+    public void processingInstruction (final String target, final String data)
+    {
+      final Event event = new Event (XMLStreamConstants.PROCESSING_INSTRUCTION);
+      event.m_sTarget = target;
+      event.m_aText.append (data);
+      _add (event);
+    }
+
+    public void skippedEntity (final String name)
+    {}
+
+    public void setDocumentLocator (final Locator locator)
+    {}
+
+    public void startDTD (final String name, final String publicId, final String systemId)
+    {}
+
+    public void endDTD ()
+    {}
+
+    public void startEntity (final String name)
+    {}
+
+    public void endEntity (final String name)
+    {}
+
+    public void startCDATA ()
+    {
+      m_aCDATA = new Event (XMLStreamConstants.CDATA);
+    }
+
+    public void endCDATA ()
+    {
+      _add (m_aCDATA);
+      m_aCDATA = null;
+    }
+
+    public void comment (final char [] ch, final int start, final int length)
+    {
+      final Event event = new Event (XMLStreamConstants.COMMENT);
+      event.m_aText.append (ch, start, length);
+      _add (event);
+    }
+  }
+
+  private final TransformerImpl m_aTransformer;
+  private final StAXDriver m_aDriver;
+  private final XMLStreamReader m_aReader;
+  private final boolean m_bOwnReader;
+
+  /** pending result events */
+  private final ArrayDeque <Event> m_aQueue = new ArrayDeque<> ();
+
+  /** the current event, <code>null</code> before the first call of next() */
+  private Event m_aCurrent;
+
+  private boolean m_bClosed;
+
+  /**
+   * Constructor
+   *
+   * @param transformer
+   *        the transformer that created this cursor
+   * @param processor
+   *        the processor that performs the transformation
+   * @param reader
+   *        the input
+   * @param ownReader
+   *        <code>true</code> if the reader has to be closed by this cursor
+   * @param systemId
+   *        the system identifier of the input
+   */
+  TransformationCursor (final TransformerImpl transformer,
+                        final Processor processor,
+                        final XMLStreamReader reader,
+                        final boolean ownReader,
+                        final String systemId)
+  {
+    m_aTransformer = transformer;
+    m_aReader = reader;
+    m_bOwnReader = ownReader;
+    m_aDriver = new StAXDriver (reader);
+    m_aDriver.setSystemId (systemId);
+
+    final Collector collector = new Collector ();
+    processor.setContentHandler (collector);
+    processor.setLexicalHandler (collector);
+    // feed the driver directly into the processor, this keeps the parent XML
+    // reader of the processor for later transformations
+    m_aDriver.setContentHandler (processor);
+  }
+
+  /**
+   * Advances the input until there is a pending result event or the end of
+   * the input has been reached.
+   *
+   * @return <code>true</code> if there is a next result event
+   * @throws TransformerException
+   *         in case of errors during the transformation
+   */
+  public boolean hasNext () throws TransformerException
+  {
+    while (m_aQueue.isEmpty () && !m_bClosed)
+    {
+      try
+      {
+        if (!m_aDriver.step ())
+          _close (true);
+      }
+      catch (final SAXException ex)
+      {
+        _close (false);
+        final Exception emb = ex.getException ();
+        final TransformerException tE = emb instanceof TransformerException ? (TransformerException) emb
+                                                                             : new TransformerException (ex.getMessage (),
+                                                                                                         ex);
+        m_aTransformer.getErrorListener ().fatalError (tE);
+      }
+    }
+    return !m_aQueue.isEmpty ();
+  }
+
+  /**
+   * Moves to the next result event
+   *
+   * @return the type of the new current event
+   * @throws TransformerException
+   *         in case of errors during the transformation
+   * @throws NoSuchElementException
+   *         if there are no more events
+   */
+  public int next () throws TransformerException
+  {
+    if (!hasNext ())
+      throw new NoSuchElementException ("No more result events");
+    m_aCurrent = m_aQueue.removeFirst ();
+    return m_aCurrent.m_nType;
+  }
+
+  private Event _getCurrent ()
+  {
+    if (m_aCurrent == null)
+      throw new IllegalStateException ("next() hasn't been called");
+    return m_aCurrent;
+  }
+
+  private Event _getCurrent (final int type1, final int type2)
+  {
+    final Event current = _getCurrent ();
+    if (current.m_nType != type1 && current.m_nType != type2)
+      throw new IllegalStateException ("Not available for event type " + current.m_nType);
+    return current;
+  }
+
+  /** @return the type of the current event */
+  public int getEventType ()
+  {
+    return _getCurrent ().m_nType;
+  }
+
+  /** @return the namespace URI of the current element */
+  public String getNamespaceURI ()
+  {
+    return _getCurrent (XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT).m_sURI;
+  }
+
+  /** @return the local name of the current element */
+  public String getLocalName ()
+  {
+    return _getCurrent (XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT).m_sLocalName;
+  }
+
+  /** @return the qualified name of the current element */
+  public String getQName ()
+  {
+    return _getCurrent (XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT).m_sQName;
+  }
+
+  /** @return the attributes of the current start element */
+  public Attributes getAttributes ()
+  {
+    return _getCurrent (XMLStreamConstants.START_ELEMENT, XMLStreamConstants.START_ELEMENT).m_aAttrs;
+  }
+
+  private List <String> _getNamespaces ()
+  {
+    final List <String> ns = _getCurrent (XMLStreamConstants.START_ELEMENT,
+                                          XMLStreamConstants.START_ELEMENT).m_aNamespaces;
+    return ns == null ? Collections.<String> emptyList () : ns;
+  }
+
+  /** @return the number of namespaces declared on the current start element */
+  public int getNamespaceCount ()
+  {
+    return _getNamespaces ().size () / 2;
+  }
+
+  /**
+   * @param index
+   *        the index of the namespace declaration
+   * @return the prefix of the namespace declaration (empty for the default
+   *         namespace)
+   */
+  public String getNamespacePrefix (final int index)
+  {
+    return _getNamespaces ().get (2 * index);
+  }
+
+  /**
+   * @param index
+   *        the index of the namespace declaration
+   * @return the URI of the namespace declaration
+   */
+  public String getNamespaceURI (final int index)
+  {
+    return _getNamespaces ().get (2 * index + 1);
+  }
+
+  /**
+   * @return the text of the current characters, CDATA or comment event, or the
+   *         data of the current processing instruction
+   */
+  public String getText ()
+  {
+    final Event current = _getCurrent ();
+    switch (current.m_nType)
+    {
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.COMMENT:
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        return current.m_aText.toString ();
+      default:
+        throw new IllegalStateException ("Not available for event type " + current.m_nType);
+    }
+  }
+
+  /** @return the target of the current processing instruction */
+  public String getPITarget ()
+  {
+    return _getCurrent (XMLStreamConstants.PROCESSING_INSTRUCTION,
+                        XMLStreamConstants.PROCESSING_INSTRUCTION).m_sTarget;
+  }
+
+  /** @return the data of the current processing instruction */
+  public String getPIData ()
+  {
+    return getText ();
+  }
+
+  /**
+   * Closes this cursor. If the input hasn't been consumed completely, the
+   * transformation is abandoned.
+   */
+  public void close ()
+  {
+    m_aQueue.clear ();
+    _close (m_aDriver.isFinished ());
+  }
+
+  private void _close (final boolean completed)
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+    if (!completed)
+      m_aTransformer.discardProcessor ();
+    if (m_bOwnReader)
+    {
+      try
+      {
+        m_aReader.close ();
+      }
+      catch (final XMLStreamException ex)
+      {
+        // ignore
+      }
+    }
+  }
+}
@@ -37,6 +37,8 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TemplatesHandler;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -51,7 +53,10 @@ import net.sf.joost.IOutputURIResolver;
 import net.sf.joost.ITransformerHandlerResolver;
 import net.sf.joost.emitter.AbstractStreamEmitter;
 import net.sf.joost.emitter.IStxEmitter;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.ResultDocumentWriterPool;
+import net.sf.joost.stx.SamplingProfiler;
 import net.sf.joost.trace.ParserListenerMgr;
 
 /**
@@ -74,7 +79,15 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
   private ErrorListener m_aErrorListener;
   protected ITransformerHandlerResolver m_aTHResolver;
   protected IOutputURIResolver m_aOutputUriResolver;
+  protected ResultDocumentWriterPool m_aResultDocumentWriterPool;
+  protected SamplingProfiler m_aProfiler;
   protected boolean m_bAllowExternalFunctions = true;
+  protected boolean m_bMetrics = false;
+  protected int m_nCharacterBufferSize = Emitter.DEFAULT_CHARACTER_BUFFER_SIZE;
+  protected boolean m_bMappedFileInput = false;
+  protected String m_sRecordPath;
+  protected int m_nRecordThreads = 0;
+  protected int m_nCompileThreshold = -1;
 
   // init default errorlistener
   // visible for TemplatesImpl
@@ -163,6 +176,20 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
       return m_aTHResolver;
     if (CTrAX.KEY_OUTPUT_URI_RESOLVER.equals (name))
       return m_aOutputUriResolver;
+    if (CTrAX.KEY_RESULT_DOCUMENT_WRITER_POOL.equals (name))
+      return m_aResultDocumentWriterPool;
+    if (CTrAX.KEY_PROFILER.equals (name))
+      return m_aProfiler;
+    if (CTrAX.KEY_CHARACTER_BUFFER_SIZE.equals (name))
+      return Integer.valueOf (m_nCharacterBufferSize);
+    if (CTrAX.KEY_MAPPED_FILE_INPUT.equals (name))
+      return Boolean.valueOf (m_bMappedFileInput);
+    if (CTrAX.KEY_RECORD_PATH.equals (name))
+      return m_sRecordPath;
+    if (CTrAX.KEY_RECORD_THREADS.equals (name))
+      return Integer.valueOf (m_nRecordThreads);
+    if (CTrAX.KEY_COMPILE_THRESHOLD.equals (name))
+      return Integer.valueOf (m_nCompileThreshold);
     if (CTrAX.MESSAGE_EMITTER_CLASS.equals (name))
       return m_aMsgEmitter;
     if (CTrAX.KEY_XSLT_FACTORY.equals (name))
@@ -171,6 +198,8 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
       return Boolean.valueOf (m_bAllowExternalFunctions);
     if (CTrAX.DEBUG_FEATURE.equals (name))
       return Boolean.valueOf (m_bDebugmode);
+    if (CTrAX.METRICS_FEATURE.equals (name))
+      return Boolean.valueOf (m_bMetrics);
 
     log.warn ("Feature not supported: " + name);
     throw new IllegalArgumentException ("Feature not supported: " + name);
@@ -201,52 +230,98 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         m_aOutputUriResolver = (IOutputURIResolver) value;
       }
       else
-        if (CTrAX.MESSAGE_EMITTER_CLASS.equals (name))
+        if (CTrAX.KEY_RESULT_DOCUMENT_WRITER_POOL.equals (name))
         {
-          // object is of type string, so use reflection
-          if (value instanceof String)
+          m_aResultDocumentWriterPool = (ResultDocumentWriterPool) value;
+        }
+        else
+          if (CTrAX.MESSAGE_EMITTER_CLASS.equals (name))
           {
-            try
-            {
-              m_aMsgEmitter = buildMessageEmitter ((String) value);
-            }
-            catch (final TransformerConfigurationException e)
+            // object is of type string, so use reflection
+            if (value instanceof String)
             {
-              log.error (e.getMessage (), e);
-              throw new IllegalArgumentException (e.getMessage ());
-            }
-          }
-          else
-            if (value instanceof IStxEmitter)
-            { // already instantiated
-              m_aMsgEmitter = (IStxEmitter) value;
+              try
+              {
+                m_aMsgEmitter = buildMessageEmitter ((String) value);
+              }
+              catch (final TransformerConfigurationException e)
+              {
+                log.error (e.getMessage (), e);
+                throw new IllegalArgumentException (e.getMessage ());
+              }
             }
             else
-            {
-              throw new IllegalArgumentException ("Emitter is of wrong type," +
-                                                  "should be either a String or a StxEmitter");
-            }
-        }
-        else
-          if (CTrAX.KEY_XSLT_FACTORY.equals (name))
-          {
-            System.setProperty (CTrAX.KEY_XSLT_FACTORY, (String) value);
+              if (value instanceof IStxEmitter)
+              { // already instantiated
+                m_aMsgEmitter = (IStxEmitter) value;
+              }
+              else
+              {
+                throw new IllegalArgumentException ("Emitter is of wrong type," +
+                                                    "should be either a String or a StxEmitter");
+              }
           }
           else
-            if (CTrAX.ALLOW_EXTERNAL_FUNCTIONS.equals (name))
+            if (CTrAX.KEY_XSLT_FACTORY.equals (name))
             {
-              this.m_bAllowExternalFunctions = ((Boolean) value).booleanValue ();
+              System.setProperty (CTrAX.KEY_XSLT_FACTORY, (String) value);
             }
             else
-              if (CTrAX.DEBUG_FEATURE.equals (name))
+              if (CTrAX.ALLOW_EXTERNAL_FUNCTIONS.equals (name))
               {
-                this.m_bDebugmode = ((Boolean) value).booleanValue ();
+                this.m_bAllowExternalFunctions = ((Boolean) value).booleanValue ();
               }
               else
-              {
-                log.warn ("Feature not supported: " + name);
-                throw new IllegalArgumentException ("Feature not supported: " + name);
-              }
+                if (CTrAX.DEBUG_FEATURE.equals (name))
+                {
+                  this.m_bDebugmode = ((Boolean) value).booleanValue ();
+                }
+                else
+                  if (CTrAX.METRICS_FEATURE.equals (name))
+                  {
+                    this.m_bMetrics = ((Boolean) value).booleanValue ();
+                  }
+                  else
+                    if (CTrAX.KEY_PROFILER.equals (name))
+                    {
+                      m_aProfiler = (SamplingProfiler) value;
+                    }
+                    else
+                      if (CTrAX.KEY_CHARACTER_BUFFER_SIZE.equals (name))
+                      {
+                        final int size = ((Integer) value).intValue ();
+                        if (size < 0)
+                          throw new IllegalArgumentException ("Negative character buffer size: " + size);
+                        m_nCharacterBufferSize = size;
+                      }
+                      else
+                        if (CTrAX.KEY_MAPPED_FILE_INPUT.equals (name))
+                        {
+                          m_bMappedFileInput = ((Boolean) value).booleanValue ();
+                        }
+                        else
+                          if (CTrAX.KEY_RECORD_PATH.equals (name))
+                          {
+                            m_sRecordPath = (String) value;
+                          }
+                          else
+                            if (CTrAX.KEY_RECORD_THREADS.equals (name))
+                            {
+                              final int threads = ((Integer) value).intValue ();
+                              if (threads < 0)
+                                throw new IllegalArgumentException ("Negative number of record threads: " + threads);
+                              m_nRecordThreads = threads;
+                            }
+                            else
+                              if (CTrAX.KEY_COMPILE_THRESHOLD.equals (name))
+                              {
+                                m_nCompileThreshold = ((Integer) value).intValue ();
+                              }
+                              else
+                              {
+                                log.warn ("Feature not supported: " + name);
+                                throw new IllegalArgumentException ("Feature not supported: " + name);
+                              }
   }
 
   /**
@@ -357,6 +432,14 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     {
       return true;
     }
+    if (name.equals (StAXSource.FEATURE))
+    {
+      return true;
+    }
+    if (name.equals (StAXResult.FEATURE))
+    {
+      return true;
+    }
     if (name.equals (SAXTransformerFactory.FEATURE))
     {
       return true;
@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
@@ -33,8 +34,10 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.slf4j.Logger;
@@ -47,11 +50,15 @@ import org.xml.sax.XMLReader;
 import net.sf.joost.CSTX;
 import net.sf.joost.emitter.DOMEmitter;
 import net.sf.joost.emitter.IStxEmitter;
+import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.RecordSplitter;
+import net.sf.joost.stx.TransformationMetrics;
 import net.sf.joost.trace.DebugEmitter;
 import net.sf.joost.trace.DebugProcessor;
 import net.sf.joost.trace.TraceManager;
+import net.sf.joost.util.MappedFileInputStream;
 
 /**
  * This class implements the Transformer-Interface for TraX. With a
@@ -69,8 +76,32 @@ public class TransformerImpl extends Transformer
 
   private Processor m_aProcessor = null; // Bugfix
 
+  /**
+   * The processor without tracing support, <code>null</code> if this
+   * transformer was created with a {@link DebugProcessor}
+   */
+  private Processor m_aPlainProcessor;
+
+  /**
+   * The processor with tracing support, created when the first trace listener
+   * is attached
+   */
+  private DebugProcessor m_aDebugProcessor;
+
   private URIResolver uriRes = null;
 
+  /**
+   * The emitter of the last transformation, will be reused by the next
+   * transformation if possible
+   */
+  private IStxEmitter m_aLastEmitter;
+
+  /**
+   * The splitter for the parallel transformation of records, created on
+   * demand
+   */
+  private RecordSplitter m_aRecordSplitter;
+
   // init with default errorlistener
   private ErrorListener errorListener = new TransformationErrListener ();
 
@@ -82,7 +113,7 @@ public class TransformerImpl extends Transformer
    * Synch object to gaurd against setting values from the TrAX interface or
    * reentry while the transform is going on.
    */
-  private final Boolean reentryGuard = Boolean.TRUE;
+  private final Object reentryGuard = new Object ();
 
   /**
    * This is a compile-time flag to enable or disable calling of trace
@@ -115,16 +146,12 @@ public class TransformerImpl extends Transformer
     // set tracing manager on processor object
     if (processor instanceof DebugProcessor)
     {
-      final DebugProcessor dbp = (DebugProcessor) processor;
-      dbp.setTraceManager (traceManager);
-      dbp.setTransformer (this);
-
-      final Emitter emitter = processor.getEmitter ();
-      if (emitter instanceof DebugEmitter)
-      {
-        ((DebugEmitter) emitter).setTraceManager (traceManager);
-      }
+      m_aDebugProcessor = (DebugProcessor) processor;
+      _initDebugProcessor (m_aDebugProcessor);
     }
+    else
+      m_aPlainProcessor = processor;
+
     supportedProperties.add (OutputKeys.ENCODING);
     supportedProperties.add (OutputKeys.MEDIA_TYPE);
     supportedProperties.add (OutputKeys.METHOD);
@@ -132,6 +159,7 @@ public class TransformerImpl extends Transformer
     supportedProperties.add (OutputKeys.STANDALONE);
     supportedProperties.add (OutputKeys.VERSION);
     supportedProperties.add (CTrAX.OUTPUT_KEY_SUPPORT_DISABLE_OUTPUT_ESCAPING);
+    supportedProperties.add (CTrAX.OUTPUT_KEY_COMPACT_DOM);
 
     ignoredProperties.add (OutputKeys.CDATA_SECTION_ELEMENTS);
     ignoredProperties.add (OutputKeys.DOCTYPE_PUBLIC);
@@ -142,7 +170,8 @@ public class TransformerImpl extends Transformer
   /**
    * Get an instance of the tracemanager for this transformation. This object
    * can be used to set tracelisteners on various events during the
-   * transformation.
+   * transformation. Listeners may be added or removed between two
+   * transformations.
    *
    * @return A reference to a tracemanager
    */
@@ -152,8 +181,119 @@ public class TransformerImpl extends Transformer
   }
 
   /**
-   * Transforms a xml-source : SAXSource, DOMSource, StreamSource to SAXResult,
-   * DOMResult and StreamResult
+   * Connects a debug processor and its emitter with this transformer
+   */
+  private void _initDebugProcessor (final DebugProcessor dbp)
+  {
+    dbp.setTraceManager (traceManager);
+    dbp.setTransformer (this);
+
+    final Emitter emitter = dbp.getEmitter ();
+    if (emitter instanceof DebugEmitter)
+    {
+      ((DebugEmitter) emitter).setTraceManager (traceManager);
+    }
+  }
+
+  /**
+   * Chooses the processor for the next transformation. If this transformer
+   * wasn't created in debug mode, trace listeners may be attached to or
+   * removed from the {@link #getTraceManager() trace manager} between two
+   * transformations: as long as there are no listeners the plain processor is
+   * used, which contains no tracing hooks at all. Otherwise a
+   * {@link DebugProcessor} copy is used, which is created only once. The
+   * parameters, output properties and resolvers are carried over when
+   * switching.
+   *
+   * @throws SAXException
+   *         if the debug processor couldn't be created
+   */
+  private void _selectProcessor () throws SAXException
+  {
+    if (m_aPlainProcessor == null)
+      return;
+
+    final Processor target;
+    if (traceManager.hasTraceListeners ())
+    {
+      if (m_aDebugProcessor == null)
+      {
+        m_aDebugProcessor = new DebugProcessor (m_aPlainProcessor);
+        _initDebugProcessor (m_aDebugProcessor);
+      }
+      target = m_aDebugProcessor;
+    }
+    else
+      target = m_aPlainProcessor;
+
+    if (target != m_aProcessor)
+    {
+      _transferState (target);
+      m_aProcessor = target;
+    }
+  }
+
+  /**
+   * Copies the parameters, output properties and all settings from the current
+   * processor to the given one
+   */
+  private void _transferState (final Processor target)
+  {
+    final Context src = m_aProcessor.getContext ();
+    final Context dst = target.getContext ();
+    dst.globalParameters.clear ();
+    dst.globalParameters.putAll (src.globalParameters);
+    dst.messageEmitter = src.messageEmitter;
+    target.copySettings (m_aProcessor);
+    target.m_aOutputProperties = (Properties) m_aProcessor.m_aOutputProperties.clone ();
+    target.setURIResolver (uriRes);
+    if (m_aProcessor.getMetrics () != null)
+      target.setMetrics (m_aProcessor.getMetrics ());
+  }
+
+  /**
+   * Replaces the current processor by a fresh copy after a transformation has
+   * been abandoned in an undefined state. Called by
+   * {@link TransformationCursor#close()}.
+   */
+  void discardProcessor ()
+  {
+    try
+    {
+      final Processor fresh;
+      if (m_aProcessor == m_aDebugProcessor)
+      {
+        m_aDebugProcessor = new DebugProcessor (m_aProcessor);
+        _initDebugProcessor (m_aDebugProcessor);
+        fresh = m_aDebugProcessor;
+      }
+      else
+        fresh = m_aPlainProcessor = new Processor (m_aProcessor);
+      _transferState (fresh);
+      m_aProcessor = fresh;
+    }
+    catch (final SAXException ex)
+    {
+      // keep the old processor
+      log.warn ("Couldn't renew processor: " + ex);
+    }
+  }
+
+  /**
+   * Get the metrics of the current or the last transformation. The counters
+   * are collected only if the attribute {@link CTrAX#METRICS_FEATURE} was set
+   * on the factory.
+   *
+   * @return the metrics object of this transformer, or <code>null</code>
+   */
+  public TransformationMetrics getMetrics ()
+  {
+    return m_aProcessor.getMetrics ();
+  }
+
+  /**
+   * Transforms a xml-source : SAXSource, DOMSource, StreamSource, StAXSource to
+   * SAXResult, DOMResult, StreamResult and StAXResult
    *
    * @param xmlSource
    *        A <code>Source</code>
@@ -177,9 +317,12 @@ public class TransformerImpl extends Transformer
                    "to SAXResult, DOMResult or StreamResult");
       try
       {
+        // attach or detach tracing
+        _selectProcessor ();
 
         // init StxEmitter
-        out = TrAXHelper.initStxEmitter (result, m_aProcessor, null);
+        out = TrAXHelper.initStxEmitter (result, m_aProcessor, null, m_aLastEmitter);
+        m_aLastEmitter = out;
         out.setSystemId (result.getSystemId ());
 
         this.m_aProcessor.setContentHandler (out);
@@ -191,73 +334,99 @@ public class TransformerImpl extends Transformer
           this.m_aProcessor.setErrorListener (errorListener);
         }
 
-        // construct from source a SAXSource
-        saxSource = TrAXHelper.getSAXSource (xmlSource, errorListener);
-
-        final InputSource isource = saxSource.getInputSource ();
-
-        if (isource != null)
+        if (xmlSource instanceof DOMSource || xmlSource instanceof StAXSource)
         {
-          if (CSTX.DEBUG)
-            log.debug ("perform transformation");
+          // feed the DOM or the StAX events directly into the processor, this
+          // keeps the parent XML reader of the processor for later
+          // transformations
+          final XMLReader driver = xmlSource instanceof DOMSource ? TrAXHelper.getDOMDriver ((DOMSource) xmlSource)
+                                                                  : TrAXHelper.getStAXDriver ((StAXSource) xmlSource,
+                                                                                              errorListener);
+          if (driver != null)
+          {
+            driver.setContentHandler (m_aProcessor);
+            driver.parse ((InputSource) null);
+          }
+        }
+        else
+        {
+          // construct from source a SAXSource
+          saxSource = TrAXHelper.getSAXSource (xmlSource, errorListener, m_aProcessor.isMappedFileInput ());
+
+          final InputSource isource = saxSource.getInputSource ();
 
-          if (saxSource.getXMLReader () != null)
+          if (isource != null)
           {
-            // should not be an DOMSource
-            if (xmlSource instanceof SAXSource)
-            {
+            if (CSTX.DEBUG)
+              log.debug ("perform transformation");
 
-              final XMLReader xmlReader = ((SAXSource) xmlSource).getXMLReader ();
-
-              /**
-               * URIs for Identifying Feature Flags and Properties : There is no
-               * fixed set of features or properties available for SAX2, except
-               * for two features that all XML parsers must support.
-               * Implementors are free to define new features and properties as
-               * needed, using URIs to identify them. All XML readers are
-               * required to recognize the
-               * "http://xml.org/sax/features/namespaces" and the
-               * "http://xml.org/sax/features/namespace-prefixes" features (at
-               * least to get the feature values, if not set them) and to
-               * support a true value for the namespaces property and a false
-               * value for the namespace-prefixes property. These requirements
-               * ensure that all SAX2 XML readers can provide the minimal
-               * required Namespace support for higher-level specs such as RDF,
-               * XSL, XML Schemas, and XLink. XML readers are not required to
-               * recognize or support any other features or any properties. For
-               * the complete list of standard SAX2 features and properties, see
-               * the {@link org.xml.sax} Package Description.
-               */
-              if (xmlReader != null)
+            if (saxSource.getXMLReader () != null)
+            {
+              // should not be an DOMSource
+              if (xmlSource instanceof SAXSource)
               {
-                try
-                {
-                  // set the required
-                  // "http://xml.org/sax/features/namespaces" Feature
-                  xmlReader.setFeature (CSTX.FEAT_NS, true);
-                  // set the required
-                  // "http://xml.org/sax/features/namespace-prefixes"
-                  // Feature
-                  xmlReader.setFeature (CSTX.FEAT_NSPREFIX, false);
-                  // maybe there would be other features
-                }
-                catch (final SAXException sE)
+
+                final XMLReader xmlReader = ((SAXSource) xmlSource).getXMLReader ();
+
+                /**
+                 * URIs for Identifying Feature Flags and Properties : There is no
+                 * fixed set of features or properties available for SAX2, except
+                 * for two features that all XML parsers must support.
+                 * Implementors are free to define new features and properties as
+                 * needed, using URIs to identify them. All XML readers are
+                 * required to recognize the
+                 * "http://xml.org/sax/features/namespaces" and the
+                 * "http://xml.org/sax/features/namespace-prefixes" features (at
+                 * least to get the feature values, if not set them) and to
+                 * support a true value for the namespaces property and a false
+                 * value for the namespace-prefixes property. These requirements
+                 * ensure that all SAX2 XML readers can provide the minimal
+                 * required Namespace support for higher-level specs such as RDF,
+                 * XSL, XML Schemas, and XLink. XML readers are not required to
+                 * recognize or support any other features or any properties. For
+                 * the complete list of standard SAX2 features and properties, see
+                 * the {@link org.xml.sax} Package Description.
+                 */
+                if (xmlReader != null)
                 {
-                  getErrorListener ().warning (new TransformerException (sE.getMessage (), sE));
+                  try
+                  {
+                    // set the required
+                    // "http://xml.org/sax/features/namespaces" Feature
+                    xmlReader.setFeature (CSTX.FEAT_NS, true);
+                    // set the required
+                    // "http://xml.org/sax/features/namespace-prefixes"
+                    // Feature
+                    xmlReader.setFeature (CSTX.FEAT_NSPREFIX, false);
+                    // maybe there would be other features
+                  }
+                  catch (final SAXException sE)
+                  {
+                    getErrorListener ().warning (new TransformerException (sE.getMessage (), sE));
+                  }
                 }
               }
+              // set the the SAXSource as the parent of the STX-Processor
+              this.m_aProcessor.setParent (saxSource.getXMLReader ());
             }
-            // set the the SAXSource as the parent of the STX-Processor
-            this.m_aProcessor.setParent (saxSource.getXMLReader ());
-          }
 
-          // perform transformation
-          this.m_aProcessor.parse (isource);
-        }
-        else
-        {
-          final TransformerException tE = new TransformerException ("InputSource is null - could not perform transformation");
-          getErrorListener ().fatalError (tE);
+            // perform transformation
+            if (m_aProcessor.getRecordPath () != null)
+            {
+              if (m_aRecordSplitter == null || m_aRecordSplitter.getProcessor () != m_aProcessor)
+                m_aRecordSplitter = new RecordSplitter (m_aProcessor,
+                                                        m_aProcessor.getRecordPath (),
+                                                        m_aProcessor.getRecordThreads ());
+              m_aRecordSplitter.parse (isource);
+            }
+            else
+              this.m_aProcessor.parse (isource);
+          }
+          else
+          {
+            final TransformerException tE = new TransformerException ("InputSource is null - could not perform transformation");
+            getErrorListener ().fatalError (tE);
+          }
         }
         // perform result
         performResults (result, out);
@@ -281,6 +450,65 @@ public class TransformerImpl extends Transformer
         // will this ever happen?
         getErrorListener ().fatalError (new TransformerException (ex.getMessage (), ex));
       }
+      finally
+      {
+        // release a mapped input file even if the parser didn't close it
+        if (saxSource != null &&
+            saxSource.getInputSource () != null &&
+            saxSource.getInputSource ().getByteStream () instanceof MappedFileInputStream)
+        {
+          try
+          {
+            saxSource.getInputSource ().getByteStream ().close ();
+          }
+          catch (final IOException ex)
+          {
+            log.warn ("Closing mapped input: " + ex);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts a transformation in pull mode. The returned cursor delivers the
+   * result events on demand; the input is read only as far as needed to
+   * produce the next event, without an additional thread.
+   *
+   * @param xmlSource
+   *        a <code>StreamSource</code> or a <code>StAXSource</code> with an
+   *        <code>XMLStreamReader</code>
+   * @return the cursor over the result events
+   * @throws TransformerException
+   *         if the source isn't supported
+   */
+  public TransformationCursor openCursor (final Source xmlSource) throws TransformerException
+  {
+    synchronized (reentryGuard)
+    {
+      try
+      {
+        // attach or detach tracing
+        _selectProcessor ();
+      }
+      catch (final SAXException ex)
+      {
+        throw new TransformerException (ex.getMessage (), ex);
+      }
+
+      final XMLStreamReader reader = TrAXHelper.getXMLStreamReader (xmlSource);
+
+      // register ErrorListener
+      if (this.errorListener != null)
+      {
+        this.m_aProcessor.setErrorListener (errorListener);
+      }
+
+      return new TransformationCursor (this,
+                                       m_aProcessor,
+                                       reader,
+                                       !(xmlSource instanceof StAXSource),
+                                       xmlSource.getSystemId ());
     }
   }
 
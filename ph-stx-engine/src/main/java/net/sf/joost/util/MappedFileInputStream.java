@@ -0,0 +1,226 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream that reads a local file via memory mapped windows of its
+ * {@link FileChannel}. The bytes are copied directly from the mapped buffer
+ * into the array of the reader (usually the large internal buffer of the XML
+ * parser), so no intermediate buffering takes place. Files larger than 2 GB
+ * are read window by window.
+ *
+ * @author Philip Helger
+ */
+public final class MappedFileInputStream extends InputStream
+{
+  /** Default size of a mapped window: 64 MB */
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final FileInputStream m_aFIS;
+  private final FileChannel m_aChannel;
+  private final long m_nSize;
+  private final int m_nWindowSize;
+
+  /** file position of the current window */
+  private long m_nWindowStart;
+  private MappedByteBuffer m_aBuffer;
+  private long m_nMark = -1;
+
+  /**
+   * Opens a file with the default window size
+   *
+   * @param file
+   *        the file to read
+   * @throws IOException
+   *         if the file cannot be opened
+   */
+  public MappedFileInputStream (final File file) throws IOException
+  {
+    this (file, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Opens a file
+   *
+   * @param file
+   *        the file to read
+   * @param windowSize
+   *        the maximum number of bytes that will be mapped at once
+   * @throws IOException
+   *         if the file cannot be opened
+   */
+  public MappedFileInputStream (final File file, final int windowSize) throws IOException
+  {
+    if (windowSize <= 0)
+      throw new IllegalArgumentException ("Window size must be positive: " + windowSize);
+    m_aFIS = new FileInputStream (file);
+    m_aChannel = m_aFIS.getChannel ();
+    m_nSize = m_aChannel.size ();
+    m_nWindowSize = windowSize;
+  }
+
+  /**
+   * Determines the local file denoted by a system identifier.
+   *
+   * @param systemId
+   *        a <code>file:</code> URI or a file name
+   * @return the existing regular file, <code>null</code> if the system
+   *         identifier doesn't denote one
+   */
+  public static File getLocalFile (final String systemId)
+  {
+    if (systemId == null || systemId.length () == 0)
+      return null;
+    File file;
+    if (systemId.startsWith ("file:"))
+    {
+      try
+      {
+        file = new File (new URI (systemId));
+      }
+      catch (final URISyntaxException | IllegalArgumentException ex)
+      {
+        return null;
+      }
+    }
+    else
+    {
+      // a scheme other than file, but accept drive letters
+      if (systemId.indexOf (':') > 1)
+        return null;
+      file = new File (systemId);
+    }
+    return file.isFile () ? file : null;
+  }
+
+  /** @return the current position in the file */
+  private long _getPosition ()
+  {
+    return m_aBuffer == null ? 0 : m_nWindowStart + m_aBuffer.position ();
+  }
+
+  /**
+   * Maps the window that starts at the given position
+   */
+  private void _map (final long position) throws IOException
+  {
+    final long length = Math.min (m_nWindowSize, m_nSize - position);
+    m_aBuffer = m_aChannel.map (FileChannel.MapMode.READ_ONLY, position, length);
+    m_nWindowStart = position;
+  }
+
+  /**
+   * @return <code>false</code> if the end of the file has been reached
+   */
+  private boolean _ensureData () throws IOException
+  {
+    if (m_aBuffer != null && m_aBuffer.hasRemaining ())
+      return true;
+    final long position = _getPosition ();
+    if (position >= m_nSize)
+      return false;
+    _map (position);
+    return true;
+  }
+
+  @Override
+  public int read () throws IOException
+  {
+    if (!_ensureData ())
+      return -1;
+    return m_aBuffer.get () & 0xff;
+  }
+
+  @Override
+  public int read (final byte [] b, final int off, final int len) throws IOException
+  {
+    if (off < 0 || len < 0 || len > b.length - off)
+      throw new IndexOutOfBoundsException ();
+    if (len == 0)
+      return 0;
+    if (!_ensureData ())
+      return -1;
+    final int count = Math.min (len, m_aBuffer.remaining ());
+    m_aBuffer.get (b, off, count);
+    return count;
+  }
+
+  @Override
+  public long skip (final long n) throws IOException
+  {
+    if (n <= 0)
+      return 0;
+    final long position = _getPosition ();
+    final long skipped = Math.min (n, m_nSize - position);
+    if (skipped > 0)
+    {
+      if (m_aBuffer != null && skipped <= m_aBuffer.remaining ())
+        m_aBuffer.position (m_aBuffer.position () + (int) skipped);
+      else
+        _map (position + skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available () throws IOException
+  {
+    return (int) Math.min (Integer.MAX_VALUE, m_nSize - _getPosition ());
+  }
+
+  @Override
+  public boolean markSupported ()
+  {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark (final int readlimit)
+  {
+    m_nMark = _getPosition ();
+  }
+
+  @Override
+  public synchronized void reset () throws IOException
+  {
+    if (m_nMark < 0)
+      throw new IOException ("Mark not set");
+    if (m_aBuffer != null && m_nMark >= m_nWindowStart && m_nMark <= m_nWindowStart + m_aBuffer.limit ())
+      m_aBuffer.position ((int) (m_nMark - m_nWindowStart));
+    else
+      _map (m_nMark);
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    m_aBuffer = null;
+    m_aFIS.close ();
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Tests the HTTP POST filter against an in-process HTTP server that echoes the
+ * posted document.
+ *
+ * @author Philip Helger
+ */
+public final class HttpPostFilterTest
+{
+  private HttpServer m_aServer;
+  private final List <String> m_aTransferEncodings = new CopyOnWriteArrayList<> ();
+  /** counted down when the server has received the first bytes of a body */
+  private final CountDownLatch m_aBodyStarted = new CountDownLatch (1);
+
+  @Before
+  public void startServer () throws Exception
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.createContext ("/echo", exchange -> {
+      m_aTransferEncodings.add (String.valueOf (exchange.getRequestHeaders ().getFirst ("Transfer-encoding")));
+      final ByteArrayOutputStream body = new ByteArrayOutputStream ();
+      try (final InputStream is = exchange.getRequestBody ())
+      {
+        final byte [] buf = new byte [1024];
+        int n;
+        while ((n = is.read (buf)) >= 0)
+        {
+          body.write (buf, 0, n);
+          m_aBodyStarted.countDown ();
+        }
+      }
+      exchange.getResponseHeaders ().set ("Content-Type", "text/xml");
+      exchange.sendResponseHeaders (200, body.size ());
+      try (final OutputStream os = exchange.getResponseBody ())
+      {
+        body.writeTo (os);
+      }
+    });
+    m_aServer.start ();
+  }
+
+  @After
+  public void stopServer ()
+  {
+    m_aServer.stop (0);
+  }
+
+  private String _transform (final String streaming) throws Exception
+  {
+    return _transform (streaming,
+                       new StringReader ("<root><r n='1'>first &amp; more</r><r n='2'><x/></r></root>"));
+  }
+
+  private String _transform (final String streaming, final Reader input) throws Exception
+  {
+    final String target = "http://localhost:" + m_aServer.getAddress ().getPort () + "/echo";
+    final String sheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                         "<stx:template match='r'>" +
+                         "<stx:process-self filter-method='http://www.ietf.org/rfc/rfc2616.txt#POST'>" +
+                         "<stx:with-param name='target' select=\"'" +
+                         target +
+                         "'\" />" +
+                         "<stx:with-param name='streaming' select=\"'" +
+                         streaming +
+                         "'\" />" +
+                         "<stx:with-param name='chunk-size' select='16' />" +
+                         "</stx:process-self>" +
+                         "</stx:template>" +
+                         "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sheet)));
+    t.setOutputProperty (OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter sw = new StringWriter ();
+    t.transform (new StreamSource (input), new StreamResult (sw));
+    return sw.toString ().trim ();
+  }
+
+  @Test
+  public void testBuffered () throws Exception
+  {
+    assertEquals ("<r n=\"1\">first &amp; more</r><r n=\"2\"><x /></r>", _transform ("no"));
+    assertEquals ("[null, null]", m_aTransferEncodings.toString ());
+  }
+
+  @Test
+  public void testStreaming () throws Exception
+  {
+    assertEquals ("<r n=\"1\">first &amp; more</r><r n=\"2\"><x /></r>", _transform ("yes"));
+    assertEquals ("[chunked, chunked]", m_aTransferEncodings.toString ());
+  }
+
+  /**
+   * Input that stops in the middle of a record until the server has received
+   * the beginning of its request body
+   */
+  private final class GatedReader extends Reader
+  {
+    private final Reader m_aFirst, m_aRest;
+    private boolean m_bGatePassed;
+    boolean m_bStreamed;
+
+    GatedReader (final String first, final String rest)
+    {
+      m_aFirst = new StringReader (first);
+      m_aRest = new StringReader (rest);
+    }
+
+    @Override
+    public int read (final char [] cbuf, final int off, final int len) throws IOException
+    {
+      final int n = m_aFirst.read (cbuf, off, len);
+      if (n >= 0)
+        return n;
+      if (!m_bGatePassed)
+      {
+        m_bGatePassed = true;
+        try
+        {
+          m_bStreamed = m_aBodyStarted.await (10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+          throw new InterruptedIOException ();
+        }
+      }
+      return m_aRest.read (cbuf, off, len);
+    }
+
+    @Override
+    public void close ()
+    {}
+  }
+
+  @Test
+  public void testStreamingIsIncremental () throws Exception
+  {
+    final StringBuilder first = new StringBuilder ("<root><r n='1'>");
+    final StringBuilder expected = new StringBuilder ("<r n=\"1\">");
+    for (int i = 0; i < 100; i++)
+    {
+      first.append ("<x>").append (i).append ("</x>");
+      expected.append ("<x>").append (i).append ("</x>");
+    }
+    expected.append ("</r>");
+    final GatedReader input = new GatedReader (first.toString (), "</r></root>");
+    assertEquals (expected.toString (), _transform ("yes", input));
+    // the request body arrived while the record was still incomplete
+    assertTrue (input.m_bStreamed);
+  }
+}
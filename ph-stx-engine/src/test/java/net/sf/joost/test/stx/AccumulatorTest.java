@@ -0,0 +1,162 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.stx.Accumulator;
+import net.sf.joost.stx.Value;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the streaming statistics of {@link Accumulator}.
+ *
+ * @author Philip Helger
+ */
+public final class AccumulatorTest
+{
+  @Test
+  public void testBasicStatistics ()
+  {
+    final Accumulator aAcc = new Accumulator (false, false);
+    assertEquals (0, aAcc.getCount ());
+    assertTrue (Double.isNaN (aAcc.getAverage ()));
+    aAcc.add (new Value (3));
+    aAcc.add (new Value ("-1.5"));
+    aAcc.add (Value.VAL_EMPTY);
+    aAcc.add (new Value (Boolean.TRUE));
+    assertEquals (3, aAcc.getCount ());
+    assertEquals (2.5, aAcc.getSum (), 0);
+    assertEquals (2.5 / 3, aAcc.getAverage (), 0);
+    assertEquals (-1.5, aAcc.getMin (), 0);
+    assertEquals (3, aAcc.getMax (), 0);
+    aAcc.add (new Value ("x"));
+    assertTrue (Double.isNaN (aAcc.getSum ()));
+    assertTrue (Double.isNaN (aAcc.getMin ()));
+    assertTrue (Double.isNaN (aAcc.getMax ()));
+  }
+
+  @Test
+  public void testDistinctCount ()
+  {
+    final Random aRandom = new Random (49);
+    final Accumulator aAcc = new Accumulator (true, false);
+    final Set <String> aExpected = new HashSet<> ();
+    for (int i = 0; i < 20000; i++)
+    {
+      final int n = aRandom.nextInt (5000);
+      aAcc.add (new Value ("s" + n));
+      aAcc.add (new Value (n));
+      aExpected.add ("s" + n);
+      aExpected.add ("n" + n);
+    }
+    // exact below the limit
+    assertTrue (aExpected.size () <= Accumulator.MAX_EXACT_DISTINCT);
+    assertEquals (aExpected.size (), aAcc.getDistinctCount ());
+
+    for (int i = 0; i < 200000; i++)
+      aAcc.add (new Value ("t" + i));
+    final double dExpected = aExpected.size () + 200000;
+    assertEquals (dExpected, aAcc.getDistinctCount (), dExpected * 0.03);
+  }
+
+  @Test
+  public void testQuantiles ()
+  {
+    final Random aRandom = new Random (49);
+    final Accumulator aAcc = new Accumulator (false, true);
+    final double [] aValues = new double [100000];
+    for (int i = 0; i < aValues.length; i++)
+    {
+      final double d = Math.exp (aRandom.nextGaussian () * 5);
+      aValues[i] = i % 10 == 0 ? -d : i % 50 == 1 ? 0 : d;
+      aAcc.add (new Value (aValues[i]));
+    }
+    Arrays.sort (aValues);
+    for (final double q : new double [] { 0, 0.01, 0.05, 0.1, 0.12, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1 })
+    {
+      final double dExact = aValues[(int) Math.floor (q * (aValues.length - 1))];
+      assertEquals ("q=" + q,
+                    dExact,
+                    aAcc.getQuantile (q),
+                    Math.abs (dExact) * Accumulator.RELATIVE_ACCURACY * 1.0001);
+    }
+    assertTrue (Double.isNaN (aAcc.getQuantile (1.5)));
+  }
+
+  @Test
+  public void testWideRange ()
+  {
+    // more buckets than available: the lowest values lose their accuracy
+    for (final boolean bAscending : new boolean [] { true, false })
+    {
+      final Accumulator aAcc = new Accumulator (false, true);
+      for (int i = -400; i <= 400; i++)
+        aAcc.add (new Value (Math.pow (10, (bAscending ? i : -i) / 4.0)));
+      assertEquals (1e100, aAcc.getQuantile (1), 0);
+      assertEquals (1e-100, aAcc.getQuantile (0), 0);
+      assertEquals (1e90, aAcc.getQuantile (0.95), 1e90 * Accumulator.RELATIVE_ACCURACY);
+      assertEquals (1e98, aAcc.getQuantile (0.99), 1e98 * Accumulator.RELATIVE_ACCURACY);
+      assertTrue (aAcc.getQuantile (0.5) < 1e90);
+    }
+  }
+
+  @Test
+  public void testFunctions () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' output-method='text'>" +
+                          "<stx:variable name='acc' select=\"joost:accumulator('distinct-count quantile')\" />" +
+                          "<stx:template match='r'>" +
+                          "<stx:assign name='acc' select='joost:accumulate($acc, @v)' />" +
+                          "</stx:template>" +
+                          "<stx:template match='/'><stx:process-children />" +
+                          "<stx:value-of select='joost:accumulator-count($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-sum($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-avg($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-min($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-max($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-distinct-count($acc)' />;" +
+                          "<stx:value-of select='joost:accumulator-quantile($acc, 0)' />;" +
+                          "<stx:value-of select='joost:accumulator-quantile($acc, 1)' />;" +
+                          "<stx:value-of select='joost:accumulator-avg(joost:accumulator())' />" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<root><r v='4' /><r v='1' /><r v='4' /><r v='7' /></root>")),
+                 new StreamResult (aSW));
+    assertEquals ("4;16;4;1;7;3;1;7;", aSW.toString ());
+  }
+}
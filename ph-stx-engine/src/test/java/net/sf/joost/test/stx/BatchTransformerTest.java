@@ -0,0 +1,244 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import net.sf.joost.BatchTransformer;
+import net.sf.joost.emitter.AbstractStreamEmitter;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Processor;
+
+/**
+ * Test for the batch transformation of many files.
+ *
+ * @author Philip Helger
+ */
+public final class BatchTransformerTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:param name='prefix' select='\"\"' />" +
+                                      "<stx:template match='doc'>" +
+                                      "<out><stx:value-of select='concat($prefix, .)' /></out>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  @Rule
+  public final TemporaryFolder m_aFolder = new TemporaryFolder ();
+
+  private static void _write (final File file, final String content) throws Exception
+  {
+    file.getParentFile ().mkdirs ();
+    Files.write (file.toPath (), content.getBytes (StandardCharsets.UTF_8));
+  }
+
+  private static String _read (final File file) throws Exception
+  {
+    return new String (Files.readAllBytes (file.toPath ()), StandardCharsets.UTF_8);
+  }
+
+  private static Processor _createProcessor () throws Exception
+  {
+    return new Processor (new InputSource (new StringReader (SHEET)), new ParseContext ());
+  }
+
+  @Test
+  public void testDirectory () throws Exception
+  {
+    final File aIn = m_aFolder.newFolder ("in");
+    final File aOut = new File (m_aFolder.getRoot (), "out");
+    for (int i = 0; i < 20; i++)
+      _write (new File (aIn, "f" + i + ".xml"), "<doc>" + i + "</doc>");
+    _write (new File (aIn, "ignored.txt"), "<doc>x</doc>");
+    _write (new File (aIn, "broken.xml"), "<doc>");
+
+    final Processor aProcessor = _createProcessor ();
+    aProcessor.setParameter ("prefix", "p");
+    final BatchTransformer aBatch = new BatchTransformer (aProcessor, 3);
+    aBatch.setOmitXmlDeclaration (true);
+    final List <BatchTransformer.Job> aJobs = BatchTransformer.createJobs (aIn.getPath (), aOut);
+    assertEquals (21, aJobs.size ());
+    assertEquals (1, aBatch.transform (aJobs));
+
+    for (final BatchTransformer.Job aJob : aJobs)
+      if (aJob.getInput ().getName ().equals ("broken.xml"))
+        assertNotNull (aJob.getError ());
+      else
+        assertNull (aJob.getError ());
+    for (int i = 0; i < 20; i++)
+      assertEquals ("<out>p" + i + "</out>", _read (new File (aOut, "f" + i + ".xml")).trim ());
+
+    final StringWriter aSW = new StringWriter ();
+    aBatch.writeReport (new PrintWriter (aSW), true);
+    assertEquals (aSW.toString (), 22, aSW.toString ().split ("\n").length);
+  }
+
+  @Test
+  public void testGlobAndList () throws Exception
+  {
+    final File aRoot = m_aFolder.getRoot ();
+    _write (new File (aRoot, "data/a/1.xml"), "<doc>1</doc>");
+    _write (new File (aRoot, "data/b/2.xml"), "<doc>2</doc>");
+    _write (new File (aRoot, "data/3.xml"), "<doc>3</doc>");
+
+    final File aOut = new File (aRoot, "out");
+    List <BatchTransformer.Job> aJobs = BatchTransformer.createJobs (aRoot.getPath () + "/data/**/*.xml", aOut);
+    assertEquals (2, aJobs.size ());
+    assertEquals (new File (aOut, "a/1.xml"), aJobs.get (0).getOutput ());
+    aJobs = BatchTransformer.createJobs (aRoot.getPath () + "/data/*.xml", aOut);
+    assertEquals (1, aJobs.size ());
+    assertEquals (new File (aOut, "3.xml"), aJobs.get (0).getOutput ());
+
+    // file names with spaces, the output file is separated by a tab
+    _write (new File (aRoot, "data/with space.xml"), "<doc>4</doc>");
+    final File aList = new File (aRoot, "list.txt");
+    _write (aList,
+            "# comment\n" +
+                   new File (aRoot, "data/a/1.xml") +
+                   "\t" +
+                   new File (aRoot, "x.xml") +
+                   "\n\n" +
+                   new File (aRoot, "data/3.xml") +
+                   "\n" +
+                   new File (aRoot, "data/with space.xml") +
+                   "\t" +
+                   new File (aRoot, "y z.xml") +
+                   "\n" +
+                   new File (aRoot, "data/with space.xml") +
+                   "\n");
+    aJobs = BatchTransformer.createJobs ("@" + aList.getPath (), aOut);
+    assertEquals (4, aJobs.size ());
+    assertEquals (0, new BatchTransformer (_createProcessor (), 0).transform (aJobs));
+    assertEquals ("<out>1</out>", _read (new File (aRoot, "x.xml")).replaceAll ("<\\?.*\\?>", "").trim ());
+    assertEquals ("<out>3</out>", _read (new File (aOut, "3.xml")).replaceAll ("<\\?.*\\?>", "").trim ());
+    assertEquals ("<out>4</out>", _read (new File (aRoot, "y z.xml")).replaceAll ("<\\?.*\\?>", "").trim ());
+    assertEquals ("<out>4</out>", _read (new File (aOut, "with space.xml")).replaceAll ("<\\?.*\\?>", "").trim ());
+  }
+
+  @Test
+  public void testDuplicateOutput () throws Exception
+  {
+    final File aRoot = m_aFolder.getRoot ();
+    final File aList = new File (aRoot, "list.txt");
+    _write (aList, new File (aRoot, "a/x.xml") + "\n" + new File (aRoot, "b/x.xml") + "\n");
+    try
+    {
+      BatchTransformer.createJobs ("@" + aList.getPath (), new File (aRoot, "out"));
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      assertTrue (ex.getMessage (), ex.getMessage ().startsWith ("Same output file"));
+    }
+  }
+
+  @Test
+  public void testError () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                          "<stx:template match='doc'>" +
+                          "<stx:message><stx:value-of select='.' /></stx:message><out><stx:value-of select='.' /></out>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final File aIn = m_aFolder.newFolder ("in");
+    final File aOut = new File (m_aFolder.getRoot (), "out");
+    for (int i = 0; i < 4; i++)
+      _write (new File (aIn, "f" + i + ".xml"), "<doc>" + (i == 1 ? "boom" : Integer.toString (i)) + "</doc>");
+
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    aProcessor.setMessageEmitter (new BufferEmitter ()
+    {
+      @Override
+      public void characters (final char [] ch, final int start, final int length) throws SAXException
+      {
+        if (new String (ch, start, length).equals ("boom"))
+          throw new StackOverflowError ();
+        super.characters (ch, start, length);
+      }
+    });
+    final BatchTransformer aBatch = new BatchTransformer (aProcessor, 1);
+    aBatch.setOmitXmlDeclaration (true);
+    final List <BatchTransformer.Job> aJobs = BatchTransformer.createJobs (aIn.getPath (), aOut);
+    assertEquals (1, aBatch.transform (aJobs));
+    assertTrue (aJobs.get (1).getError () instanceof StackOverflowError);
+
+    // the worker continued with the remaining jobs
+    for (final int i : new int [] { 0, 2, 3 })
+    {
+      assertNull (aJobs.get (i).getError ());
+      assertEquals ("<out>" + i + "</out>", _read (new File (aOut, "f" + i + ".xml")).trim ());
+    }
+    final StringWriter aSW = new StringWriter ();
+    aBatch.writeReport (new PrintWriter (aSW), false);
+    assertTrue (aSW.toString (), aSW.toString ().contains ("Transformed 3 of 4 files"));
+  }
+
+  @Test
+  public void testSharedMessageEmitter () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                          "<stx:template match='doc'>" +
+                          "<stx:message><m><stx:value-of select='.' /></m><n><stx:value-of select='.' /></n></stx:message>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final int nCount = 1000;
+    final File aIn = m_aFolder.newFolder ("in");
+    final String [] aExpected = new String [nCount];
+    for (int i = 0; i < nCount; i++)
+    {
+      _write (new File (aIn, "f" + i + ".xml"), "<doc>" + i + "</doc>");
+      aExpected[i] = "<m>" + i + "</m><n>" + i + "</n>";
+    }
+
+    // the emitter isn't thread-safe, each message must reach it as a whole
+    final StringWriter aMessages = new StringWriter ();
+    final AbstractStreamEmitter aEmitter = AbstractStreamEmitter.newXMLEmitter (aMessages);
+    aEmitter.setOmitXmlDeclaration (true);
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    aProcessor.setMessageEmitter (aEmitter);
+    final BatchTransformer aBatch = new BatchTransformer (aProcessor, 4);
+    assertEquals (0, aBatch.transform (BatchTransformer.createJobs (aIn.getPath (), new File (m_aFolder.getRoot (), "out"))));
+
+    final String [] aLines = aMessages.toString ().trim ().split ("\n");
+    Arrays.sort (aLines);
+    Arrays.sort (aExpected);
+    assertEquals (Arrays.asList (aExpected), Arrays.asList (aLines));
+  }
+}
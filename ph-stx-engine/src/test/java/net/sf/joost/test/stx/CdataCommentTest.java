@@ -0,0 +1,86 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the output of <code>stx:cdata</code> and <code>stx:comment</code>
+ * with contents that must be split or escaped.
+ *
+ * @author Philip Helger
+ */
+public final class CdataCommentTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='r'>" +
+                                      "<stx:cdata><stx:value-of select='.' /></stx:cdata>" +
+                                      "<stx:comment><stx:value-of select='@c' /></stx:comment>" +
+                                      "<stx:comment select='@c' />" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static String _transform (final String sInput) throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (sInput)), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testCdataSplit () throws Exception
+  {
+    String s = _transform ("<r>a]]&gt;b</r>");
+    assertTrue (s, s.contains ("<![CDATA[a]]]]><![CDATA[>b]]>"));
+
+    s = _transform ("<r>]]]&gt;]]&gt;</r>");
+    assertTrue (s, s.contains ("<![CDATA[]]]]]><![CDATA[>]]]]><![CDATA[>]]>"));
+
+    s = _transform ("<r>]] &gt;]</r>");
+    assertTrue (s, s.contains ("<![CDATA[]] >]]]>"));
+  }
+
+  @Test
+  public void testCdataReuse () throws Exception
+  {
+    final String s = _transform ("<x><r>first</r><r>2</r></x>");
+    assertTrue (s, s.contains ("<![CDATA[first]]><!----><!----><![CDATA[2]]>"));
+  }
+
+  @Test
+  public void testCommentDashes () throws Exception
+  {
+    final String s = _transform ("<x><r c='-a--b---c-'>1</r><r c='d'>2</r></x>");
+    assertTrue (s, s.contains ("<!-- -a- -b- - -c- --><!-- -a- -b- - -c- -->"));
+    assertTrue (s, s.contains ("<!--d--><!--d-->"));
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.instruction.AbstractFactoryBase;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Value;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the bytecode compilation of STXPath expressions: the compiled
+ * expressions must yield the same results as the interpreter.
+ *
+ * @author Philip Helger
+ */
+public final class ExpressionCompilerTest
+{
+  private static final String [] EXPRESSIONS = { "@a + @b",
+                                                 "@a - @b * 2",
+                                                 "-@a",
+                                                 "+@a",
+                                                 "@a div @b",
+                                                 "@a mod 3",
+                                                 "(@a + 1) * (@b - 1)",
+                                                 "1 + 2 * 3",
+                                                 "@missing + 1",
+                                                 "@a < @b",
+                                                 "@a + 0 <= @b + 0",
+                                                 "@a * 1 = @b * 1",
+                                                 "@a + 0 != 3",
+                                                 "@a + 1 > 2",
+                                                 "@a - 1 >= @b - 1",
+                                                 "@missing + 1 = @a",
+                                                 "@a + 1 != @missing + 1",
+                                                 "@missing + 1 < 2",
+                                                 "@a + 1 != @missing",
+                                                 "@a = 'x'",
+                                                 "@s = 'foo' and @a > 1",
+                                                 "@a > 5 or @b < 2",
+                                                 "not(@a) or @b div 0 > 1",
+                                                 "count(@*) + @a",
+                                                 "@a = (1, 2, 3)",
+                                                 "(1 = 1) + 1" };
+
+  private static String _createSheet ()
+  {
+    final StringBuilder aSB = new StringBuilder ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                                 " version='1.0' output-method='text'>" +
+                                                 "<stx:template match='r[@a + 1 > 3]' priority='2'>" +
+                                                 "<stx:text>big:</stx:text><stx:call-procedure name='p' />" +
+                                                 "</stx:template>" +
+                                                 "<stx:template match='r'><stx:call-procedure name='p' /></stx:template>" +
+                                                 "<stx:procedure name='p'>");
+    for (final String sExpr : EXPRESSIONS)
+      aSB.append ("<stx:value-of select=\"").append (sExpr.replace ("<", "&lt;")).append ("\" /><stx:text>;</stx:text>");
+    aSB.append ("<stx:text>&#xA;</stx:text></stx:procedure></stx:transform>");
+    return aSB.toString ();
+  }
+
+  private static String _transform (final int nThreshold) throws Exception
+  {
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_COMPILE_THRESHOLD, Integer.valueOf (nThreshold));
+    final Transformer t = factory.newTransformer (new StreamSource (new StringReader (_createSheet ())));
+    final StringBuilder aInput = new StringBuilder ("<root>");
+    for (int i = 0; i < 5; i++)
+      aInput.append ("<r a='1' b='2' s='foo' />")
+            .append ("<r a='3' b='0' />")
+            .append ("<r a='x' b='2' />")
+            .append ("<r b='4' />")
+            .append ("<r a='7' b='7' s='foo' />")
+            .append ("<r a='-0.5' b='NaN' />");
+    aInput.append ("</root>");
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (aInput.toString ())), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testSameResults () throws Exception
+  {
+    final String sInterpreted = _transform (-1);
+    assertEquals (sInterpreted, _transform (0));
+    assertEquals (sInterpreted, _transform (3));
+  }
+
+  @Test
+  public void testThreshold () throws Exception
+  {
+    final ParseContext pContext = new ParseContext ();
+    pContext.compileThreshold = 2;
+    final AbstractTree aTree = AbstractFactoryBase.parseExpr ("1 + 2 * 3 > 6 and 4 div 0 > 1", pContext);
+    final Context aContext = new Context ();
+    for (int i = 0; i < 2; i++)
+    {
+      assertTrue (aTree.evaluateExpression (aContext, 0).getBooleanValue ());
+      assertFalse (aTree.isCompiled ());
+    }
+    final Value aResult = aTree.evaluateExpression (aContext, 0);
+    assertTrue (aTree.isCompiled ());
+    assertEquals (Value.BOOLEAN, aResult.type);
+    assertTrue (aResult.getBooleanValue ());
+
+    // a single leaf isn't compiled
+    final AbstractTree aLeaf = AbstractFactoryBase.parseExpr ("42", pContext);
+    for (int i = 0; i < 4; i++)
+      assertEquals (42, aLeaf.evaluateExpression (aContext, 0).getNumberValue (), 0);
+    assertFalse (aLeaf.isCompiled ());
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.grammar.tree.EqTree;
+import net.sf.joost.stx.KeyIndex;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Value;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the keyed lookup extension functions.
+ *
+ * @author Philip Helger
+ */
+public final class KeyIndexTest
+{
+  private static final String [] STRINGS = { "", "a", "1", " 2 ", "-0", "true", "NaN" };
+
+  private static Value _createItem (final Random aRandom)
+  {
+    switch (aRandom.nextInt (4))
+    {
+      case 0:
+        return new Value (Boolean.valueOf (aRandom.nextBoolean ()));
+      case 1:
+        final double [] aNumbers = { 0, -0.0, 1, 2, Double.NaN };
+        return new Value (aNumbers[aRandom.nextInt (aNumbers.length)]);
+      case 2:
+        return new Value (SAXEvent.newAttribute ("", "x", "x", STRINGS[aRandom.nextInt (STRINGS.length)]));
+      default:
+        return new Value (STRINGS[aRandom.nextInt (STRINGS.length)]);
+    }
+  }
+
+  private static String _toString (final Value v)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    if (v.type != Value.EMPTY)
+      for (Value vi = v; vi != null; vi = vi.next)
+        aSB.append (vi.getStringValue ()).append (',');
+    return aSB.toString ();
+  }
+
+  @Test
+  public void testSameResults ()
+  {
+    final Random aRandom = new Random (47);
+    for (int n = 0; n < 200; n++)
+    {
+      // entries with one or two keys
+      final int nEntries = 1 + aRandom.nextInt (30);
+      final Value [] aKeys = new Value [nEntries];
+      final KeyIndex aIndex = new KeyIndex ();
+      for (int i = 0; i < nEntries; i++)
+      {
+        aKeys[i] = _createItem (aRandom);
+        if (aRandom.nextInt (4) == 0)
+          aKeys[i].next = _createItem (aRandom);
+        aIndex.add (aKeys[i], new Value (i));
+      }
+
+      for (int k = 0; k < 10; k++)
+      {
+        final Value aKey = _createItem (aRandom);
+        final StringBuilder aExpected = new StringBuilder ();
+        for (int i = 0; i < nEntries; i++)
+          for (Value vi = aKeys[i]; vi != null; vi = vi.next)
+            if (EqTree.compare (vi.singleCopy (), aKey.singleCopy ()))
+            {
+              aExpected.append (new Value (i).getStringValue ()).append (',');
+              break;
+            }
+        assertEquals (aExpected.toString (), _toString (aIndex.lookup (aKey)));
+      }
+    }
+  }
+
+  private static String _transform (final String sSheet, final String sInput) throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (sInput)), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testKeyIndex () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' output-method='text'>" +
+                          "<stx:variable name='codes' select='(\"a\", \"b\", \"c\", \"b\")' />" +
+                          "<stx:variable name='positions' select='joost:key-index($codes)' />" +
+                          "<stx:variable name='names' select='joost:key-index($codes, (\"A\", \"B\", \"C\", \"B2\"))' />" +
+                          "<stx:template match='r'>[<stx:value-of select='joost:lookup($positions, @c)' separator='|' />:" +
+                          "<stx:value-of select='joost:lookup($names, @c)' separator='|' />]</stx:template>" +
+                          "</stx:transform>";
+    assertEquals ("[1:A][2|4:B|B2][:]",
+                  _transform (sSheet, "<root><r c='a' /><r c='b' /><r c='x' /></root>"));
+  }
+
+  @Test
+  public void testBufferIndex () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' xmlns:b='urn:buffer' output-method='text'" +
+                          " pass-through='text'>" +
+                          "<stx:variable name='index' />" +
+                          "<stx:buffer name='b:entries' />" +
+                          "<stx:template match='entries'>" +
+                          "<stx:result-buffer name='b:entries'><stx:process-self /></stx:result-buffer>" +
+                          "<stx:assign name='index' select=\"joost:buffer-index('b:entries', (@id, @alias))\" />" +
+                          "</stx:template>" +
+                          "<stx:template match='entries/*'><stx:copy attributes='@*'><stx:process-children /></stx:copy></stx:template>" +
+                          "<stx:template match='r'>[<stx:value-of select='joost:lookup($index, @ref)' separator='|' />]</stx:template>" +
+                          "</stx:transform>";
+    assertEquals ("[one][two][two|three][]",
+                  _transform (sSheet,
+                              "<root><entries><e id='1'>one</e><e id='2' alias='x'>two</e><e id='x'>th<b>re</b>e</e></entries>" +
+                                      "<r ref='1' /><r ref='2' /><r ref='x' /><r ref='3' /></root>"));
+  }
+}
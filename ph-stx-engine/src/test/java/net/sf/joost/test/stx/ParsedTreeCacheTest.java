@@ -0,0 +1,255 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Hashtable;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+
+import net.sf.joost.emitter.AbstractStreamEmitter;
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.instruction.AbstractFactoryBase;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the reuse of the STXPath parsers and the cache of parsed trees.
+ *
+ * @author Philip Helger
+ */
+public final class ParsedTreeCacheTest
+{
+  private static Hashtable <String, String> _createNSSet (final String uri)
+  {
+    final Hashtable <String, String> ret = new Hashtable<> ();
+    ret.put ("p", uri);
+    return ret;
+  }
+
+  @Test
+  public void testCache () throws Exception
+  {
+    final ParseContext aContext = new ParseContext ();
+    aContext.nsSet = _createNSSet ("urn:p");
+    final AbstractTree aPlain = AbstractFactoryBase.parseExpr ("@a + 1", aContext);
+    final AbstractTree aPrefixed = AbstractFactoryBase.parseExpr ("@p:a + 1", aContext);
+    assertSame (aPlain, AbstractFactoryBase.parseExpr ("@a + 1", aContext));
+    assertSame (aPrefixed, AbstractFactoryBase.parseExpr ("@p:a + 1", aContext));
+
+    // a new element with the same namespaces
+    aContext.nsSet = _createNSSet ("urn:p");
+    assertSame (aPrefixed, AbstractFactoryBase.parseExpr ("@p:a + 1", aContext));
+
+    // a different binding of the prefix
+    aContext.nsSet = _createNSSet ("urn:q");
+    assertSame (aPlain, AbstractFactoryBase.parseExpr ("@a + 1", aContext));
+    assertNotSame (aPrefixed, AbstractFactoryBase.parseExpr ("@p:a + 1", aContext));
+
+    // other texts
+    assertNotSame (aPlain, AbstractFactoryBase.parseExpr ("@a", aContext));
+    assertEquals (4, aContext.getExprCache ().size ());
+    assertEquals (4, aContext.getExprCache ().getHitCount ());
+  }
+
+  @Test
+  public void testVariablesNotShared () throws Exception
+  {
+    final ParseContext aContext = new ParseContext ();
+    aContext.nsSet = _createNSSet ("urn:p");
+    // a variable reference remembers the scope of its first evaluation
+    final AbstractTree aVar = AbstractFactoryBase.parseExpr ("$x", aContext);
+    assertNotSame (aVar, AbstractFactoryBase.parseExpr ("$x", aContext));
+    assertNotSame (AbstractFactoryBase.parseExpr ("$x + 1", aContext),
+                   AbstractFactoryBase.parseExpr ("$x + 1", aContext));
+    assertEquals (0, aContext.getExprCache ().size ());
+  }
+
+  private static String _process (final String sSheet) throws Exception
+  {
+    final StringWriter aSW = new StringWriter ();
+    final AbstractStreamEmitter aEmitter = AbstractStreamEmitter.newXMLEmitter (aSW);
+    aEmitter.setOmitXmlDeclaration (true);
+    // no TrAX, whose transformers get a deep copy of the sheet
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    aProcessor.setContentHandler (aEmitter);
+    aProcessor.setLexicalHandler (aEmitter);
+    aProcessor.parse (new InputSource (new StringReader ("<r><a /><b /></r>")));
+    return aSW.toString ().trim ();
+  }
+
+  @Test
+  public void testSameVariableInDifferentScopes () throws Exception
+  {
+    assertEquals ("localglobal",
+                  _process ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                            " pass-through='none'>" +
+                            "<stx:variable name='x' select=\"'global'\" />" +
+                            "<stx:template match='a'>" +
+                            "<stx:variable name='x' select=\"'local'\" /><stx:value-of select='$x' />" +
+                            "</stx:template>" +
+                            "<stx:template match='b'><stx:value-of select='$x' /></stx:template>" +
+                            "</stx:transform>"));
+    assertEquals ("onetwo",
+                  _process ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                            " pass-through='none'>" +
+                            "<stx:group><stx:variable name='x' select=\"'one'\" />" +
+                            "<stx:template match='a' public='yes'><stx:value-of select='$x' /></stx:template>" +
+                            "</stx:group>" +
+                            "<stx:group><stx:variable name='x' select=\"'two'\" />" +
+                            "<stx:template match='b' public='yes'><stx:value-of select='$x' /></stx:template>" +
+                            "</stx:group>" +
+                            "</stx:transform>"));
+  }
+
+  @Test
+  public void testReuseAfterError () throws Exception
+  {
+    final ParseContext aContext = new ParseContext ();
+    aContext.nsSet = _createNSSet ("urn:p");
+    try
+    {
+      AbstractFactoryBase.parseExpr ("1 + (: open", aContext);
+      fail ();
+    }
+    catch (final SAXParseException ex)
+    {
+      assertTrue (ex.getMessage (), ex.getMessage ().contains ("within a comment"));
+    }
+    try
+    {
+      AbstractFactoryBase.parseExpr ("1 +", aContext);
+      fail ();
+    }
+    catch (final SAXParseException ex)
+    {
+      // no message of the previous error
+      assertTrue (ex.getMessage (), ex.getMessage ().endsWith ("Encountered end of expression after '+'."));
+      assertTrue (ex.getMessage (), !ex.getMessage ().contains ("comment"));
+    }
+    assertEquals (AbstractTree.ADD, AbstractFactoryBase.parseExpr ("1 + 2", aContext).getType ());
+    // failed expressions aren't cached
+    assertEquals (1, aContext.getExprCache ().size ());
+  }
+
+  @Test
+  public void testLargeSheet () throws Exception
+  {
+    // a generated sheet with many (mostly repeated) expressions
+    final int nTemplates = 2000;
+    final StringBuilder aSheet = new StringBuilder ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                                    " version='1.0' xmlns:p='urn:p' exclude-result-prefixes='p'" +
+                                                    " pass-through='none'>" +
+                                                    "<stx:template match='root'><stx:process-children /></stx:template>");
+    for (int i = 0; i < nTemplates; i++)
+    {
+      aSheet.append ("<stx:template match='e")
+            .append (i)
+            .append ("'>")
+            .append ("<stx:variable name='v' select='@n * 2 + ")
+            .append (i % 10)
+            .append ("' />")
+            .append ("<stx:if test='$v &gt; 0 and string-length(@s) &gt; 0 and not(@p:x)'>")
+            .append ("<r n='{@n}' p='{position()}'><stx:value-of select='concat(@s, \"-\", $v)' /></r>")
+            .append ("</stx:if>")
+            .append ("</stx:template>");
+    }
+    aSheet.append ("</stx:transform>");
+
+    final TransformerFactoryImpl aFactory = new TransformerFactoryImpl ();
+    final Templates aTemplates = aFactory.newTemplates (new StreamSource (new StringReader (aSheet.toString ())));
+
+    final StringWriter aSW = new StringWriter ();
+    aTemplates.newTransformer ()
+              .transform (new StreamSource (new StringReader ("<root><e7 n='1' s='a' /><e1999 n='2' s='b' /></root>")),
+                          new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().trim ().endsWith ("<r n=\"1\" p=\"1\">a-9</r><r n=\"2\" p=\"1\">b-13</r>"));
+  }
+
+  private static long _parseAll (final String [] aExprs, final boolean bShared) throws Exception
+  {
+    final long nStart = System.nanoTime ();
+    ParseContext aContext = null;
+    for (int i = 0; i < aExprs.length; i++)
+    {
+      // without sharing every attribute gets a new scanner, new parsers and
+      // an empty cache
+      if (aContext == null || !bShared)
+      {
+        aContext = new ParseContext ();
+        aContext.nsSet = _createNSSet ("urn:p");
+      }
+      AbstractFactoryBase.parseExpr (aExprs[i], aContext);
+    }
+    return System.nanoTime () - nStart;
+  }
+
+  @Test
+  @Ignore ("Benchmark")
+  public void benchmarkParse () throws Exception
+  {
+    // the expressions of the sheet in testLargeSheet
+    final int nTemplates = 2000;
+    final String [] aExprs = new String [nTemplates * 5];
+    for (int i = 0; i < nTemplates; i++)
+    {
+      aExprs[i * 5] = "@n * 2 + " + (i % 10);
+      aExprs[i * 5 + 1] = "$v > 0 and string-length(@s) > 0 and not(@p:x)";
+      aExprs[i * 5 + 2] = "@n";
+      aExprs[i * 5 + 3] = "position()";
+      aExprs[i * 5 + 4] = "concat(@s, \"-\", $v)";
+    }
+
+    for (int i = 0; i < 20; i++)
+    {
+      _parseAll (aExprs, false);
+      _parseAll (aExprs, true);
+    }
+    long nOff = 0, nOn = 0;
+    final int nRuns = 20;
+    for (int i = 0; i < nRuns; i++)
+    {
+      nOff += _parseAll (aExprs, false);
+      nOn += _parseAll (aExprs, true);
+    }
+    System.out.println ("Parsing " +
+                        aExprs.length +
+                        " expressions: " +
+                        nOff / nRuns / 1000 +
+                        " us without, " +
+                        nOn / nRuns / 1000 +
+                        " us with parser reuse and cache");
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Random;
+import java.util.Vector;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.instruction.TemplateFactory;
+import net.sf.joost.instruction.TransformFactory;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Parser;
+import net.sf.joost.stx.PatternAutomaton;
+import net.sf.joost.stx.SAXEvent;
+
+/**
+ * Compares the pattern automaton with the evaluation of the patterns.
+ *
+ * @author Philip Helger
+ */
+public final class PatternAutomatonTest
+{
+  private static final String [] PATTERNS = { "/",
+                                              "a",
+                                              "/a",
+                                              "a/b",
+                                              "a//b",
+                                              "/a//b/c",
+                                              "a//b//c",
+                                              "*",
+                                              "u:*",
+                                              "*:b",
+                                              "u:a/*",
+                                              "node()",
+                                              "a/node()",
+                                              "/node()",
+                                              "text()",
+                                              "b//text()",
+                                              "cdata()",
+                                              "comment()",
+                                              "processing-instruction()",
+                                              "processing-instruction('p')",
+                                              "@x",
+                                              "a/@*",
+                                              "/a/@x",
+                                              "@u:*",
+                                              "@*:x",
+                                              "a[@x]/b",
+                                              "a//b[2]",
+                                              "c[1]",
+                                              "/a/b[@x = 'v']//c" };
+
+  private static final String [] NAMES = { "a", "b", "c" };
+
+  private static TransformFactory.Instance _compile () throws Exception
+  {
+    final StringBuilder aSB = new StringBuilder ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                                 " xmlns:u='urn:u' version='1.0'>");
+    for (final String sPattern : PATTERNS)
+      aSB.append ("<stx:template match=\"").append (sPattern).append ("\" public='yes' />");
+    aSB.append ("</stx:transform>");
+
+    final SAXParserFactory aFactory = SAXParserFactory.newInstance ();
+    aFactory.setNamespaceAware (true);
+    final XMLReader aReader = aFactory.newSAXParser ().getXMLReader ();
+    final Parser aParser = new Parser (new ParseContext ());
+    aReader.setContentHandler (aParser);
+    aReader.parse (new InputSource (new StringReader (aSB.toString ())));
+    return aParser.getTransformNode ();
+  }
+
+  private static SAXEvent _createElement (final Random aRandom)
+  {
+    final String sLocal = NAMES[aRandom.nextInt (NAMES.length)];
+    final String sURI = aRandom.nextInt (4) == 0 ? "urn:u" : "";
+    final AttributesImpl aAttrs = new AttributesImpl ();
+    if (aRandom.nextBoolean ())
+      aAttrs.addAttribute ("", "x", "x", "CDATA", aRandom.nextBoolean () ? "v" : "w");
+    final SAXEvent aEvent = SAXEvent.newElement (sURI, sLocal, sLocal, aAttrs, false, null);
+    aEvent.enableChildNodes (true);
+    return aEvent;
+  }
+
+  @Test
+  public void testRandomStacks () throws Exception
+  {
+    final TransformFactory.Instance aTransform = _compile ();
+    final Vector <TemplateFactory.Instance> aGlobal = aTransform.getGlobalTemplates ();
+    final TemplateFactory.Instance [] aTemplates = aTransform.getVisibleTemplates ();
+    assertEquals (PATTERNS.length, aTemplates.length);
+
+    final PatternAutomaton aAutomaton = new PatternAutomaton (aTransform,
+                                                              aGlobal.toArray (new TemplateFactory.Instance [0]));
+    final int [] aIndexes = aAutomaton.getIndexes (aTemplates);
+    assertNotNull (aIndexes);
+
+    final Context aContext = new Context ();
+    final Random aRandom = new Random (42);
+    int nMatches = 0;
+    for (int n = 0; n < 5000; n++)
+    {
+      // modify the current stack like a transformation
+      if (aContext.ancestorStack.isEmpty () || aRandom.nextInt (8) == 0)
+      {
+        aContext.ancestorStack.clear ();
+        aContext.ancestorStack.push (SAXEvent.newRoot ());
+      }
+      else
+        if (aContext.ancestorStack.size () > 1 && aRandom.nextInt (3) == 0)
+          aContext.ancestorStack.pop ();
+      final SAXEvent aParent = aContext.ancestorStack.peek ();
+      if (aParent.m_nType != SAXEvent.ROOT && aParent.m_nType != SAXEvent.ELEMENT)
+        aContext.ancestorStack.pop ();
+      final SAXEvent aTop = aContext.ancestorStack.peek ();
+
+      SAXEvent aEvent;
+      switch (aRandom.nextInt (10))
+      {
+        case 0:
+          aTop.countText ();
+          aEvent = SAXEvent.newText ("t");
+          break;
+        case 1:
+          aTop.countCDATA ();
+          aEvent = SAXEvent.newCDATA ("t");
+          break;
+        case 2:
+          aTop.countComment ();
+          aEvent = SAXEvent.newComment ("c");
+          break;
+        case 3:
+          final String sTarget = aRandom.nextBoolean () ? "p" : "q";
+          aTop.countPI (sTarget);
+          aEvent = SAXEvent.newPI (sTarget, "");
+          break;
+        case 4:
+          aEvent = SAXEvent.newAttribute (aRandom.nextBoolean () ? "urn:u" : "", "x", "x", "v");
+          break;
+        default:
+          aEvent = _createElement (aRandom);
+          aTop.countElement (aEvent.m_sURI, aEvent.m_sLocalName);
+      }
+      aContext.ancestorStack.push (aEvent);
+
+      final PatternAutomaton.State aState = aAutomaton.getState (aContext.ancestorStack);
+      for (int i = 0; i < aTemplates.length; i++)
+      {
+        final int nIndex = aIndexes[i];
+        assertTrue (aTemplates[i].toString (), nIndex >= 0);
+        final boolean bExpected = aTemplates[i].matches (aContext, false);
+        if (aAutomaton.isExact (nIndex))
+          assertEquals (aTemplates[i] + " at " + aContext.ancestorStack, bExpected, aState.accepts (nIndex));
+        else
+          if (bExpected)
+            assertTrue (aTemplates[i] + " at " + aContext.ancestorStack, aState.accepts (nIndex));
+        if (bExpected)
+          nMatches++;
+      }
+    }
+    assertTrue (nMatches > 1000);
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.stx.QNameTable;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the symbol table of the names in name tests.
+ *
+ * @author Philip Helger
+ */
+public final class QNameTableTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:p='urn:p' exclude-result-prefixes='p'>" +
+                                      "<stx:template match='p:a'>" +
+                                      "<a pos='{position()}'><stx:process-attributes /></a>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='*:b'><b pos='{position()}' /></stx:template>" +
+                                      "<stx:template match='p:*'><p pos='{position()}' /></stx:template>" +
+                                      "<stx:template match='*'>" +
+                                      "<any pos='{position()}'><stx:process-children /></any>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='@p:x'><x /></stx:template>" +
+                                      "<stx:template match='@*:y'><y /></stx:template>" +
+                                      "<stx:template match='@p:*'><p /></stx:template>" +
+                                      "<stx:template match='@*'><other /></stx:template>" +
+                                      "</stx:transform>";
+
+  @Test
+  public void testTable ()
+  {
+    final QNameTable aTable = new QNameTable ();
+    final int nA = aTable.intern ("urn:p", "a");
+    assertEquals (nA, aTable.intern ("urn:p", "a"));
+    assertNotEquals (nA, aTable.intern (QNameTable.WILDCARD, "a"));
+    assertNotEquals (nA, aTable.intern ("urn:p", QNameTable.WILDCARD));
+    assertEquals (3, aTable.size ());
+    assertEquals (QNameTable.UNKNOWN, aTable.getId ("urn:q", "a"));
+
+    final QNameTable.Resolver aResolver = aTable.newResolver ();
+    final SAXEvent e1 = SAXEvent.newElement ("urn:p", "a", "p:a", new AttributesImpl (), false, null);
+    aResolver.resolve (e1);
+    assertSame (aTable, e1.m_aQNameTable);
+    assertEquals (nA, e1.m_nNameId);
+    assertEquals (aTable.getId (QNameTable.WILDCARD, "a"), e1.m_nAnyURIId);
+    assertEquals (aTable.getId ("urn:p", QNameTable.WILDCARD), e1.m_nAnyLocalId);
+
+    // same qualified name, but the prefix is bound to another namespace
+    final SAXEvent e2 = SAXEvent.newElement ("urn:q", "a", "p:a", new AttributesImpl (), false, null);
+    aResolver.resolve (e2);
+    assertEquals (QNameTable.UNKNOWN, e2.m_nNameId);
+    assertEquals (e1.m_nAnyURIId, e2.m_nAnyURIId);
+    assertEquals (QNameTable.UNKNOWN, e2.m_nAnyLocalId);
+  }
+
+  @Test
+  public void testNameTests () throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    t.setOutputProperty ("omit-xml-declaration", "yes");
+    final String sInput = "<root xmlns:p='urn:p'>" +
+                          "<p:a p:x='1' y='2' p:z='3' w='4' />" +
+                          "<q:b xmlns:q='urn:q' />" +
+                          "<p:c />" +
+                          "<p:a />" +
+                          "<x:a xmlns:x='urn:p' />" +
+                          "<p:a xmlns:p='urn:other' />" +
+                          "<b />" +
+                          "</root>";
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (sInput)), new StreamResult (aSW));
+    assertEquals ("<any pos=\"1\">" +
+                  "<a pos=\"1\"><x /><y /><p /><other /></a>" +
+                  "<b pos=\"1\" />" +
+                  "<p pos=\"2\" />" +
+                  "<a pos=\"2\" />" +
+                  "<a pos=\"3\" />" +
+                  "<any pos=\"6\" />" +
+                  "<b pos=\"2\" />" +
+                  "</any>\n",
+                  aSW.toString ());
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.RecordSplitter;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the parallel transformation of records.
+ *
+ * @author Philip Helger
+ */
+public final class RecordSplitterTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:c='urn:cat' exclude-result-prefixes='c'>" +
+                                      "<stx:variable name='sep' select='\"|\"' />" +
+                                      "<stx:template match='c:catalog'>" +
+                                      "<list count='{@n}'><stx:process-children /></list>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='c:item'>" +
+                                      "<i pos='{position()}' id='{@id}'><stx:process-children /></i>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='c:name'>" +
+                                      "<stx:value-of select='concat($sep, ., $sep)' />" +
+                                      "</stx:template>" +
+                                      "<stx:template match='c:skip' />" +
+                                      "</stx:transform>";
+
+  private static String _createInput (final int count)
+  {
+    final StringBuilder aSB = new StringBuilder ("<c:catalog xmlns:c='urn:cat' n='" + count + "'>");
+    for (int i = 0; i < count; i++)
+    {
+      if (i % 10 == 0)
+        aSB.append ("text ").append (i).append ("<!-- c --><c:skip><c:item id='x' /></c:skip>");
+      aSB.append ("<c:item id='")
+         .append (i)
+         .append ("'><c:name>n").append (i)
+         .append ("</c:name><![CDATA[<cdata>]]><other><c:name>o</c:name></other></c:item>");
+    }
+    return aSB.append ("</c:catalog>").toString ();
+  }
+
+  private static String _transform (final TransformerFactory factory, final String sheet, final String input) throws Exception
+  {
+    final Templates templates = factory.newTemplates (new StreamSource (new StringReader (sheet)));
+    final StringWriter aSW = new StringWriter ();
+    templates.newTransformer ().transform (new StreamSource (new StringReader (input)), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testSameResult () throws Exception
+  {
+    final String sInput = _createInput (500);
+    final String sExpected = _transform (new TransformerFactoryImpl (), SHEET, sInput);
+
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_RECORD_PATH, "/{urn:cat}catalog/{urn:cat}item");
+    factory.setAttribute (CTrAX.KEY_RECORD_THREADS, Integer.valueOf (3));
+    assertEquals (sExpected, _transform (factory, SHEET, sInput));
+  }
+
+  @Test
+  public void testAncestorPositions () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                          "<stx:template match='section[2]/item'>A</stx:template>" +
+                          "<stx:template match='item'>B<stx:value-of select='position()' /></stx:template>" +
+                          "</stx:transform>";
+    // the text and the comment count as nodes before the sections
+    final StringBuilder aSB = new StringBuilder ("<root>t<!-- c -->");
+    for (int i = 0; i < 3; i++)
+      aSB.append ("<section>x<item /><item /><item /></section>");
+    final String sInput = aSB.append ("</root>").toString ();
+    final String sExpected = _transform (new TransformerFactoryImpl (), sSheet, sInput);
+    assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\nB1B2B3AAAB1B2B3\n", sExpected);
+
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_RECORD_PATH, "/root/section/item");
+    factory.setAttribute (CTrAX.KEY_RECORD_THREADS, Integer.valueOf (2));
+    assertEquals (sExpected, _transform (factory, sSheet, sInput));
+  }
+
+  @Test
+  public void testSplitter () throws Exception
+  {
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (SHEET)), new ParseContext ());
+    final RecordSplitter aSplitter = new RecordSplitter (aProcessor, "/{urn:cat}catalog/{urn:cat}item", 2);
+    assertNull (aSplitter.getSequentialReason ());
+
+    final BufferEmitter aExpected = new BufferEmitter ();
+    aProcessor.setContentHandler (aExpected);
+    aProcessor.setLexicalHandler (aExpected);
+    aProcessor.parse (new InputSource (new StringReader (_createInput (50))));
+    aExpected.filled ();
+
+    for (int n = 0; n < 2; n++)
+    {
+      // the second run reuses the processor copies
+      final BufferEmitter aResult = new BufferEmitter ();
+      aProcessor.setContentHandler (aResult);
+      aProcessor.setLexicalHandler (aResult);
+      aSplitter.parse (new InputSource (new StringReader (_createInput (50))));
+      aResult.filled ();
+      assertEquals (aExpected.getEvents ().length, aResult.getEvents ().length);
+      for (int i = 0; i < aResult.getEvents ().length; i++)
+        assertEquals (aExpected.getEvents ()[i].toString (), aResult.getEvents ()[i].toString ());
+    }
+  }
+
+  @Test
+  public void testSequentialFallback () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                          "<stx:variable name='sum' select='0' />" +
+                          "<stx:template match='item'>" +
+                          "<stx:assign name='sum' select='$sum + .' />" +
+                          "<s><stx:value-of select='$sum' /></s>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    final RecordSplitter aSplitter = new RecordSplitter (aProcessor, "/root/item", 2);
+    assertNotNull (aSplitter.getSequentialReason ());
+
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_RECORD_PATH, "/root/item");
+    assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<s>1</s><s>3</s><s>6</s>\n",
+                  _transform (factory, sSheet, "<root><item>1</item><item>2</item><item>3</item></root>"));
+  }
+
+  @Test
+  public void testSideEffects () throws Exception
+  {
+    // a mutable map is updated without stx:assign
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' exclude-result-prefixes='joost'>" +
+                          "<stx:variable name='seen' select='joost:mutable-map()' />" +
+                          "<stx:template match='item'>" +
+                          "<stx:variable name='ignored' select='joost:map-put($seen, string(.), 1)' />" +
+                          "</stx:template>" +
+                          "<stx:template match='root'>" +
+                          "<stx:process-children /><s><stx:value-of select='joost:map-size($seen)' /></s>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    assertNotNull (new RecordSplitter (aProcessor, "/root/item", 2).getSequentialReason ());
+
+    final StringBuilder aSB = new StringBuilder ("<root>");
+    for (int i = 0; i < 100; i++)
+      aSB.append ("<item>").append (i % 30).append ("</item>");
+    final String sInput = aSB.append ("</root>").toString ();
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_RECORD_PATH, "/root/item");
+    assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<s>30</s>\n", _transform (factory, sSheet, sInput));
+
+    // immutable maps don't prevent the parallel transformation
+    final Processor aImmutable = new Processor (new InputSource (new StringReader (sSheet.replace ("mutable-map", "map"))),
+                                                new ParseContext ());
+    assertNull (new RecordSplitter (aImmutable, "/root/item", 2).getSequentialReason ());
+  }
+
+  @Test
+  public void testAccumulate () throws Exception
+  {
+    // joost:accumulate updates the global accumulator in place
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' exclude-result-prefixes='joost'>" +
+                          "<stx:variable name='acc' select='joost:accumulator()' />" +
+                          "<stx:template match='item'>" +
+                          "<stx:variable name='ignored' select='joost:accumulate($acc, @v)' />" +
+                          "</stx:template>" +
+                          "<stx:template match='catalog'>" +
+                          "<stx:process-children /><s><stx:value-of select='joost:accumulator-sum($acc)' /></s>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (sSheet)), new ParseContext ());
+    assertNotNull (new RecordSplitter (aProcessor, "/catalog/item", 2).getSequentialReason ());
+
+    final StringBuilder aSB = new StringBuilder ("<catalog>");
+    for (int i = 1; i <= 100; i++)
+      aSB.append ("<item v='").append (i).append ("'/>");
+    final String sInput = aSB.append ("</catalog>").toString ();
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_RECORD_PATH, "/catalog/item");
+    assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<s>5050</s>\n", _transform (factory, sSheet, sInput));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testInvalidPath () throws Exception
+  {
+    final Processor aProcessor = new Processor (new InputSource (new StringReader (SHEET)), new ParseContext ());
+    new RecordSplitter (aProcessor, "catalog/item", 2);
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.sf.joost.stx.ResultDocumentWriterPool;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for asynchronous <code>stx:result-document</code> writing.
+ *
+ * @author Philip Helger
+ */
+public final class ResultDocumentWriterPoolTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='r'>" +
+                                      "<stx:result-document href='out/{@n}.xml'>" +
+                                      "<doc><stx:value-of select='.' /></doc>" +
+                                      "</stx:result-document>" +
+                                      "<stx:result-document href='all.txt' output-method='text' append='yes'>" +
+                                      "<stx:value-of select='@n' />" +
+                                      "</stx:result-document>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  @Rule
+  public final TemporaryFolder m_aFolder = new TemporaryFolder ();
+
+  @Test
+  public void testAsyncResultDocuments () throws Exception
+  {
+    final File aDir = m_aFolder.getRoot ();
+    final ResultDocumentWriterPool aPool = new ResultDocumentWriterPool (3, 4, false);
+    try
+    {
+      final TransformerFactory factory = new TransformerFactoryImpl ();
+      factory.setAttribute (CTrAX.KEY_RESULT_DOCUMENT_WRITER_POOL, aPool);
+      final Transformer t = factory.newTransformer (new StreamSource (new StringReader (SHEET)));
+
+      final StringBuilder aInput = new StringBuilder ("<root>");
+      final StringBuilder aExpected = new StringBuilder ();
+      for (int i = 0; i < 100; i++)
+      {
+        aInput.append ("<r n='").append (i).append ("'>text ").append (i).append ("</r>");
+        aExpected.append (i);
+      }
+      aInput.append ("</root>");
+
+      final StreamResult aResult = new StreamResult (new StringWriter ());
+      aResult.setSystemId (new File (aDir, "main.xml").toURI ().toString ());
+      t.transform (new StreamSource (new StringReader (aInput.toString ())), aResult);
+
+      // all documents must have been written at the end of the transformation
+      for (int i = 0; i < 100; i++)
+      {
+        final File aFile = new File (aDir, "out/" + i + ".xml");
+        assertTrue (aFile.getPath (), aFile.exists ());
+        final String sContent = new String (Files.readAllBytes (aFile.toPath ()), StandardCharsets.UTF_8);
+        assertTrue (sContent, sContent.contains ("<doc>text " + i + "</doc>"));
+      }
+      // appended documents keep their order
+      assertEquals (aExpected.toString (),
+                    new String (Files.readAllBytes (new File (aDir, "all.txt").toPath ()), StandardCharsets.UTF_8));
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+
+  @Test
+  public void testWriteFailureIsReported () throws Exception
+  {
+    final File aDir = m_aFolder.getRoot ();
+    // a file where a directory is expected
+    assertTrue (new File (aDir, "blocker").createNewFile ());
+    final ResultDocumentWriterPool aPool = new ResultDocumentWriterPool (2, 4, false);
+    try
+    {
+      final TransformerFactory factory = new TransformerFactoryImpl ();
+      factory.setAttribute (CTrAX.KEY_RESULT_DOCUMENT_WRITER_POOL, aPool);
+      final Transformer t = factory.newTransformer (new StreamSource (new StringReader (SHEET.replace ("out/{@n}.xml",
+                                                                                                          "blocker/{@n}.xml"))));
+      final StreamResult aResult = new StreamResult (new StringWriter ());
+      aResult.setSystemId (new File (aDir, "main.xml").toURI ().toString ());
+      for (int i = 0; i < 2; i++)
+      {
+        try
+        {
+          t.transform (new StreamSource (new StringReader ("<root><r n='1'>x</r></root>")), aResult);
+          fail ();
+        }
+        catch (final TransformerException ex)
+        {
+          // expected, for each transformation
+        }
+      }
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.stx.SamplingProfiler;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for {@link SamplingProfiler}
+ *
+ * @author Philip Helger
+ */
+public final class SamplingProfilerTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>\n" +
+                                      "<stx:template match='r'>\n" +
+                                      "<stx:call-procedure name='p' />\n" +
+                                      "</stx:template>\n" +
+                                      "<stx:procedure name='p'>\n" +
+                                      "<x><stx:value-of select=\"concat(@n, translate(., 'abc', 'ABC'))\" /></x>\n" +
+                                      "</stx:procedure>\n" +
+                                      "</stx:transform>";
+
+  @Test
+  public void testProfile () throws Exception
+  {
+    final SamplingProfiler profiler = new SamplingProfiler (1);
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_PROFILER, profiler);
+    final Transformer t = factory.newTransformer (new StreamSource (new StringReader (SHEET)));
+
+    final StringBuilder input = new StringBuilder ("<root>");
+    for (int i = 0; i < 20000; i++)
+      input.append ("<r n='").append (i).append ("'>abcabc</r>");
+    input.append ("</root>");
+
+    profiler.start ();
+    try
+    {
+      // run until some samples have been taken
+      for (int i = 0; i < 50 && profiler.getSampleCount () < 20; i++)
+        t.transform (new StreamSource (new StringReader (input.toString ())), new StreamResult (new StringWriter ()));
+    }
+    finally
+    {
+      profiler.stop ();
+    }
+    assertTrue (profiler.getSampleCount () > 0);
+
+    final StringWriter report = new StringWriter ();
+    profiler.writeReport (new PrintWriter (report));
+    assertTrue (report.toString (), report.toString ().contains ("stx:procedure (") && report.toString ().contains (":5)"));
+
+    final StringWriter collapsed = new StringWriter ();
+    profiler.writeCollapsedStacks (new PrintWriter (collapsed));
+    for (final String line : collapsed.toString ().split ("\n"))
+      assertTrue (line, line.matches ("[^;]+(;[^;]+)* \\d+"));
+  }
+}
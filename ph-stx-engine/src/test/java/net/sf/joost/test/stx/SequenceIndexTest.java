@@ -0,0 +1,173 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.grammar.tree.EqTree;
+import net.sf.joost.grammar.tree.GeTree;
+import net.sf.joost.grammar.tree.GtTree;
+import net.sf.joost.grammar.tree.LeTree;
+import net.sf.joost.grammar.tree.LtTree;
+import net.sf.joost.grammar.tree.NeTree;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.SequenceIndex;
+import net.sf.joost.stx.Value;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the indexed general comparisons of large sequences.
+ *
+ * @author Philip Helger
+ */
+public final class SequenceIndexTest
+{
+  private static final String [] STRINGS = { "", "a", "b", "1", "2", " 3 ", "-0", "true", "NaN" };
+
+  private static Value _createItem (final Random aRandom)
+  {
+    switch (aRandom.nextInt (5))
+    {
+      case 0:
+        // not the shared constants, because the items get linked
+        return new Value (Boolean.valueOf (aRandom.nextBoolean ()));
+      case 1:
+        final double [] aNumbers = { 0, -0.0, 1, 2, 3, Double.NaN, Double.POSITIVE_INFINITY };
+        return new Value (aNumbers[aRandom.nextInt (aNumbers.length)]);
+      case 2:
+        return new Value (SAXEvent.newAttribute ("", "x", "x", STRINGS[aRandom.nextInt (STRINGS.length)]));
+      default:
+        return new Value (STRINGS[aRandom.nextInt (STRINGS.length)]);
+    }
+  }
+
+  private static Value _createSequence (final Random aRandom, final int nLength, final boolean bUniform)
+  {
+    final Value aFirst = _createItem (aRandom);
+    Value aHead = aFirst;
+    for (int i = 1; i < nLength; i++)
+    {
+      final Value aItem = bUniform ? aFirst.copy () : _createItem (aRandom);
+      aItem.next = aHead;
+      aHead = aItem;
+    }
+    return aHead;
+  }
+
+  /** @return the results of the six comparisons, computed for each item pair */
+  private static String _compareItems (final Value v1, final Value v2)
+  {
+    final boolean [] ret = new boolean [6];
+    for (Value vi = v1; vi != null; vi = vi.next)
+      for (Value vj = v2; vj != null; vj = vj.next)
+      {
+        final Value i = vi.singleCopy ();
+        final Value j = vj.singleCopy ();
+        ret[0] |= EqTree.compare (i, j);
+        ret[1] |= NeTree.compare (i, j);
+        ret[2] |= LtTree.compare (i, j);
+        ret[3] |= LeTree.compare (i, j);
+        ret[4] |= GtTree.compare (i, j);
+        ret[5] |= GeTree.compare (i, j);
+      }
+    return _toString (ret);
+  }
+
+  private static String _toString (final boolean... results)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (final boolean b : results)
+      aSB.append (b ? '1' : '0');
+    return aSB.toString ();
+  }
+
+  @Test
+  public void testSameResults ()
+  {
+    final Random aRandom = new Random (46);
+    for (int n = 0; n < 200; n++)
+    {
+      final Value v1 = _createSequence (aRandom, 1 + aRandom.nextInt (20), aRandom.nextInt (4) == 0);
+      final Value v2 = _createSequence (aRandom, 1 + aRandom.nextInt (80), aRandom.nextInt (4) == 0);
+      if (!SequenceIndex.isLarge (v1, v2))
+        continue;
+      if (n % 2 == 0)
+        SequenceIndex.enableCaching (v2);
+      final String sExpected = _compareItems (v1, v2);
+      for (int k = 0; k < 2; k++)
+        assertEquals (sExpected,
+                      _toString (EqTree.compare (v1, v2),
+                                 NeTree.compare (v1, v2),
+                                 LtTree.compare (v1, v2),
+                                 LeTree.compare (v1, v2),
+                                 GtTree.compare (v1, v2),
+                                 GeTree.compare (v1, v2)));
+    }
+  }
+
+  @Test
+  public void testCachedIndex ()
+  {
+    final Value v = _createSequence (new Random (1), 100, false);
+    assertTrue (SequenceIndex.get (v) != SequenceIndex.get (v));
+    SequenceIndex.enableCaching (v);
+    assertTrue (SequenceIndex.get (v) == SequenceIndex.get (v));
+  }
+
+  @Test
+  public void testVariable () throws Exception
+  {
+    final StringBuilder aKeys = new StringBuilder ();
+    for (int i = 0; i < 500; i += 3)
+      aKeys.append (aKeys.length () == 0 ? "" : ", ").append (i);
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " output-method='text'>" +
+                          "<stx:variable name='keys' select='(" +
+                          aKeys +
+                          ")' />" +
+                          "<stx:template match='r[$keys = @id]' priority='1'><stx:value-of select='@id' />" +
+                          "<stx:if test='$keys != @id'>,</stx:if></stx:template>" +
+                          "<stx:template match='r[$keys &gt; @id * 2]'>-</stx:template>" +
+                          "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringBuilder aInput = new StringBuilder ("<root>");
+    final StringBuilder aExpected = new StringBuilder ();
+    for (int i = 0; i < 300; i += 5)
+    {
+      aInput.append ("<r id='").append (i).append ("' />");
+      aExpected.append (i % 3 == 0 ? i + "," : i * 2 < 498 ? "-" : "");
+    }
+    aInput.append ("</root>");
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (aInput.toString ())), new StreamResult (aSW));
+    assertEquals (aExpected.toString (), aSW.toString ());
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.TransformationMetrics;
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TemplatesImpl;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.trax.TransformerImpl;
+
+/**
+ * Test for {@link TransformationMetrics}
+ *
+ * @author Philip Helger
+ */
+public final class TransformationMetricsTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>\n" +
+                                      "<stx:template match='a'><stx:process-children /></stx:template>\n" +
+                                      "<stx:template match='b'>\n" +
+                                      "<stx:buffer name='x'><stx:value-of select='.' /></stx:buffer>\n" +
+                                      "</stx:template>\n" +
+                                      "</stx:transform>";
+
+  private static final String INPUT = "<a x='1'><b>1</b><b>2</b><c/></a>";
+
+  private static TransformerFactoryImpl _createFactory (final boolean metrics)
+  {
+    final TransformerFactoryImpl factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.METRICS_FEATURE, Boolean.valueOf (metrics));
+    return factory;
+  }
+
+  @Test
+  public void testMetrics () throws Exception
+  {
+    final TemplatesImpl templates = (TemplatesImpl) _createFactory (true).newTemplates (new StreamSource (new StringReader (SHEET)));
+
+    final TransformerImpl t1 = (TransformerImpl) templates.newTransformer ();
+    final TransformerImpl t2 = (TransformerImpl) templates.newTransformer ();
+    for (int i = 0; i < 2; i++)
+    {
+      t1.transform (new StreamSource (new StringReader (INPUT)), new StreamResult (new StringWriter ()));
+      t2.transform (new StreamSource (new StringReader (INPUT)), new StreamResult (new StringWriter ()));
+    }
+
+    // per transformer: the last transformation only
+    final TransformationMetrics m = t1.getMetrics ();
+    assertEquals (1, m.getTransformations ());
+    assertEquals (4, m.getEventCount (SAXEvent.ELEMENT));
+    assertEquals (1, m.getEventCount (SAXEvent.ATTRIBUTE));
+    assertEquals (2, m.getBuffers ());
+    assertEquals (2, m.getBufferEvents ());
+    final Map <String, Long> matches = m.getTemplateMatches ();
+    assertEquals (2, matches.size ());
+    assertTrue (matches.toString (), matches.containsValue (Long.valueOf (1)));
+    assertTrue (matches.toString (), matches.containsValue (Long.valueOf (2)));
+
+    // aggregated over all transformers
+    final TransformationMetrics all = templates.getMetrics ();
+    assertEquals (4, all.getTransformations ());
+    assertEquals (16, all.getEventCount (SAXEvent.ELEMENT));
+    assertEquals (4 * m.getPatternEvaluations (), all.getPatternEvaluations ());
+    for (final Map.Entry <String, Long> e : all.getTemplateMatches ().entrySet ())
+      assertEquals (e.getKey (), e.getKey ().endsWith (":3") ? 8 : 4, e.getValue ().longValue ());
+    assertTrue (all.getPhaseNanos (TransformationMetrics.PHASE_COMPILE) > 0);
+  }
+
+  @Test
+  public void testOutputCharacters () throws Exception
+  {
+    // only the characters of the result count, not those of buffers,
+    // variables and attribute values
+    final String sheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                         "<stx:template match='a'><stx:process-children /></stx:template>" +
+                         "<stx:template match='b'>" +
+                         "<stx:buffer name='x'><stx:value-of select='concat(., \"buffered\")' /></stx:buffer>" +
+                         "<stx:variable name='v'><stx:text>variable</stx:text></stx:variable>" +
+                         "<r><stx:attribute name='n' select='\"attribute\"' /><stx:value-of select='.' /></r>" +
+                         "</stx:template>" +
+                         "</stx:transform>";
+    final TemplatesImpl templates = (TemplatesImpl) _createFactory (true).newTemplates (new StreamSource (new StringReader (sheet)));
+    final TransformerImpl t = (TransformerImpl) templates.newTransformer ();
+    final StringWriter sw = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (INPUT)), new StreamResult (sw));
+    assertTrue (sw.toString (), sw.toString ().trim ().endsWith ("<r n=\"attribute\">1</r><r n=\"attribute\">2</r>"));
+    assertEquals (2, t.getMetrics ().getOutputCharacters ());
+  }
+
+  @Test
+  public void testDisabled () throws Exception
+  {
+    final TemplatesImpl templates = (TemplatesImpl) _createFactory (false).newTemplates (new StreamSource (new StringReader (SHEET)));
+    final TransformerImpl t = (TransformerImpl) templates.newTransformer ();
+    t.transform (new StreamSource (new StringReader (INPUT)), new StreamResult (new StringWriter ()));
+    assertNull (t.getMetrics ());
+    assertNull (templates.getMetrics ());
+  }
+}
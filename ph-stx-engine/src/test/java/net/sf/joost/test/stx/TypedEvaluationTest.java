@@ -0,0 +1,160 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.sf.joost.grammar.AbstractTree;
+import net.sf.joost.instruction.AbstractFactoryBase;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Value;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the type specialized evaluation of STXPath expressions: it must
+ * yield the same results as the generic evaluation.
+ *
+ * @author Philip Helger
+ */
+public final class TypedEvaluationTest
+{
+  private static final String [] EXPRESSIONS = { "1.5",
+                                                 "0",
+                                                 "'text'",
+                                                 "''",
+                                                 "@a",
+                                                 "@b",
+                                                 "@c",
+                                                 "@d",
+                                                 "@missing",
+                                                 ".",
+                                                 "@a + 1",
+                                                 "@missing + 1",
+                                                 "@b * 2",
+                                                 "-@a",
+                                                 "+@d",
+                                                 "@a - @missing",
+                                                 "@a div 0",
+                                                 "0 div 0",
+                                                 "@a mod 2",
+                                                 "@a < 4",
+                                                 "@a <= @d",
+                                                 "@missing > 1",
+                                                 "@b >= @b",
+                                                 "'10' > '9'",
+                                                 "@a + 0 = 3",
+                                                 "@missing + 0 = @missing + 0",
+                                                 "@a = '3'",
+                                                 "@c != ''",
+                                                 "@missing != 1",
+                                                 "@a > 1 and @b",
+                                                 "@missing or @c",
+                                                 "(@a < 1) = (@d < 1)" };
+
+  @Test
+  public void testSameResults () throws Exception
+  {
+    final AttributesImpl aAttrs = new AttributesImpl ();
+    aAttrs.addAttribute ("", "a", "a", "CDATA", "3");
+    aAttrs.addAttribute ("", "b", "b", "CDATA", "x");
+    aAttrs.addAttribute ("", "c", "c", "CDATA", "");
+    aAttrs.addAttribute ("", "d", "d", "CDATA", " 7 ");
+    final Context aContext = new Context ();
+    aContext.ancestorStack.push (SAXEvent.newRoot ());
+    aContext.ancestorStack.push (SAXEvent.newElement ("", "e", "e", aAttrs, false, null));
+
+    final ParseContext pContext = new ParseContext ();
+    for (final String sExpr : EXPRESSIONS)
+    {
+      final AbstractTree aTree = AbstractFactoryBase.parseExpr (sExpr, pContext);
+      for (int nTop = 0; nTop <= 2; nTop += 2)
+      {
+        final Value v = aTree.evaluate (aContext, nTop);
+        final String sMsg = sExpr + " (top " + nTop + ")";
+        assertEquals (sMsg, v.getBooleanValue (), aTree.evaluateBoolean (aContext, nTop));
+        assertEquals (sMsg, v.getNumberValue (), aTree.evaluateNumber (aContext, nTop), 0);
+        assertEquals (sMsg, v.getStringValue (), aTree.evaluateString (aContext, nTop));
+        if (aTree.getStaticType () != AbstractTree.TYPE_UNKNOWN)
+          assertEquals (sMsg, null, v.next);
+      }
+    }
+  }
+
+  @Test
+  public void testInstructions () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " output-method='text'>" +
+                          "<stx:template match='r[@n mod 2 = 0]'>" +
+                          "<stx:value-of select='@n * 10' /><stx:text>|</stx:text>" +
+                          "</stx:template>" +
+                          "<stx:template match='r[@t]'>" +
+                          "<stx:variable name='i' select='0' />" +
+                          "<stx:while test='$i &lt; @n'>" +
+                          "<stx:value-of select='$i' /><stx:assign name='i' select='$i + 1' />" +
+                          "</stx:while>" +
+                          "<stx:if test='@t = &quot;x&quot; and @n > 2'><stx:value-of select='@t' /></stx:if>" +
+                          "<stx:choose><stx:when test='@n &lt; 2'>small</stx:when>" +
+                          "<stx:otherwise>big</stx:otherwise></stx:choose>" +
+                          "<stx:text>|</stx:text>" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<root><r n='1' t='y' /><r n='2' /><r n='3' t='x' /></root>")),
+                 new StreamResult (aSW));
+    assertEquals ("0small|20|012xbig|", aSW.toString ());
+  }
+
+  @Test
+  public void testNaNOperandWithSideEffects () throws Exception
+  {
+    // a NaN operand (unlike an empty one) doesn't skip the other operand
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' output-method='text'>" +
+                          "<stx:variable name='m' select='joost:mutable-map()' />" +
+                          "<stx:template match='r'>" +
+                          "<stx:if test='joost:map-size(joost:map-put($m, string(.), 1)) + \"x\" &gt; 0' />" +
+                          "<stx:if test='\"x\" * joost:map-size(joost:map-put($m, concat(., \"-\"), 1)) &gt; 0' />" +
+                          "<stx:if test='joost:map-size(joost:map-put($m, concat(., \"+\"), 1)) + () &gt; 0' />" +
+                          "</stx:template>" +
+                          "<stx:template match='root'>" +
+                          "<stx:process-children /><stx:value-of select='joost:map-size($m)' />" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<root><r>1</r><r>2</r></root>")), new StreamResult (aSW));
+    // the empty sequence skips the left operand of the third addition
+    assertEquals ("4", aSW.toString ());
+  }
+}
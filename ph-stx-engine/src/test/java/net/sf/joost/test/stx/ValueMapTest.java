@@ -0,0 +1,188 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.ValueArray;
+import net.sf.joost.stx.ValueMap;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the map and array values.
+ *
+ * @author Philip Helger
+ */
+public final class ValueMapTest
+{
+  @Test
+  public void testMap () throws Exception
+  {
+    final Random aRandom = new Random (48);
+    final Map <String, Double> aExpected = new HashMap<> ();
+    ValueMap aMap = ValueMap.EMPTY;
+    final ValueMap aMutable = ValueMap.createMutable ();
+    for (int i = 0; i < 20000; i++)
+    {
+      final String sKey = "k" + aRandom.nextInt (3000);
+      final Value aKey = new Value (sKey);
+      if (aRandom.nextInt (4) == 0)
+      {
+        final ValueMap aPrevious = aMap;
+        final int nPreviousSize = aPrevious.size ();
+        aMap = aMap.remove (aKey);
+        assertTrue (aMutable.remove (aKey) == aMutable);
+        aExpected.remove (sKey);
+        assertEquals (nPreviousSize, aPrevious.size ());
+      }
+      else
+      {
+        aMap = aMap.put (aKey, new Value (i));
+        aMutable.put (aKey, new Value (i));
+        aExpected.put (sKey, Double.valueOf (i));
+      }
+      assertEquals (aExpected.size (), aMap.size ());
+      assertEquals (aExpected.size (), aMutable.size ());
+    }
+    for (int i = 0; i < 3000; i++)
+    {
+      final Double aValue = aExpected.get ("k" + i);
+      final Value aKey = new Value ("k" + i);
+      if (aValue == null)
+      {
+        assertNull (aMap.get (aKey));
+        assertNull (aMutable.get (aKey));
+      }
+      else
+      {
+        assertEquals (aValue.doubleValue (), aMap.get (aKey).getNumberValue (), 0);
+        assertEquals (aValue.doubleValue (), aMutable.get (aKey).getNumberValue (), 0);
+      }
+    }
+    assertEquals (aExpected.size (), aMap.getKeys ().length);
+
+    // numbers, strings and booleans are different keys
+    final ValueMap aTyped = ValueMap.EMPTY.put (new Value (1), new Value ("number"))
+                                          .put (new Value ("1"), new Value ("string"))
+                                          .put (Value.VAL_TRUE, new Value ("boolean"));
+    assertEquals (3, aTyped.size ());
+    assertEquals ("number", aTyped.get (new Value (1.0)).getStringValue ());
+    assertEquals ("string", aTyped.get (new Value ("1")).getStringValue ());
+    assertEquals ("boolean", aTyped.get (Value.VAL_TRUE).getStringValue ());
+    assertNotNull (ValueMap.EMPTY.put (new Value (0), Value.VAL_EMPTY).get (new Value (-0.0)));
+  }
+
+  @Test
+  public void testArray ()
+  {
+    final List <Double> aExpected = new ArrayList<> ();
+    ValueArray aArray = ValueArray.EMPTY;
+    final ValueArray aMutable = ValueArray.createMutable ();
+    final List <ValueArray> aVersions = new ArrayList<> ();
+    for (int i = 0; i < 40000; i++)
+    {
+      aArray = aArray.append (new Value (i));
+      assertTrue (aMutable.append (new Value (i)) == aMutable);
+      aExpected.add (Double.valueOf (i));
+      if (i % 1000 == 0)
+        aVersions.add (aArray);
+    }
+    final Random aRandom = new Random (48);
+    for (int i = 0; i < 1000; i++)
+    {
+      final int nPos = 1 + aRandom.nextInt (aExpected.size ());
+      aArray = aArray.set (nPos, new Value (-i));
+      aMutable.set (nPos, new Value (-i));
+      aExpected.set (nPos - 1, Double.valueOf (-i));
+    }
+    assertEquals (aExpected.size (), aArray.size ());
+    for (int i = 0; i < aExpected.size (); i++)
+    {
+      assertEquals (aExpected.get (i).doubleValue (), aArray.get (i + 1).getNumberValue (), 0);
+      assertEquals (aExpected.get (i).doubleValue (), aMutable.get (i + 1).getNumberValue (), 0);
+    }
+    assertNull (aArray.get (0));
+    assertNull (aArray.get (aExpected.size () + 1));
+
+    // previous versions remain unchanged
+    for (int n = 0; n < aVersions.size (); n++)
+    {
+      final ValueArray aVersion = aVersions.get (n);
+      assertEquals (n * 1000 + 1, aVersion.size ());
+      for (int i = 1; i <= aVersion.size (); i++)
+        assertEquals (i - 1, aVersion.get (i).getNumberValue (), 0);
+    }
+  }
+
+  @Test
+  public void testFunctions () throws Exception
+  {
+    final String sSheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                          " xmlns:joost='http://joost.sf.net/extension' output-method='text'>" +
+                          "<stx:variable name='counts' select='joost:map()' />" +
+                          "<stx:variable name='totals' select='joost:mutable-map()' />" +
+                          "<stx:variable name='items' select='joost:array()' />" +
+                          "<stx:template match='item'>" +
+                          "<stx:assign name='counts' select='joost:map-put($counts, @cat, joost:map-get($counts, @cat, 0) + 1)' />" +
+                          "<stx:variable name='ignored' select='joost:map-put($totals, string(@cat), joost:map-get($totals, string(@cat), 0) + @price)' />" +
+                          "<stx:assign name='items' select='joost:array-append($items, (@cat, @price))' />" +
+                          "</stx:template>" +
+                          "<stx:template match='/'><stx:process-children />" +
+                          "<stx:for-each-item name='cat' select='(\"a\", \"b\", \"c\")'>" +
+                          "<stx:value-of select='$cat' />:<stx:value-of select='joost:map-get($counts, $cat)' />/" +
+                          "<stx:value-of select='joost:map-get($totals, $cat)' />/" +
+                          "<stx:value-of select='joost:map-contains($counts, $cat)' />;" +
+                          "</stx:for-each-item>" +
+                          "<stx:value-of select='joost:map-size($counts)' />;" +
+                          "<stx:value-of select='joost:array-size($items)' />;" +
+                          "<stx:value-of select='joost:array-get($items, 2)' separator='-' />;" +
+                          "<stx:value-of select='count(joost:array-flatten($items))' />;" +
+                          "<stx:value-of select='joost:array-get(joost:array-put($items, 1, \"x\"), 1)' />;" +
+                          "<stx:value-of select='joost:array-get($items, 1)' separator='-' />;" +
+                          "<stx:value-of select='joost:map-size(joost:map-remove($counts, \"a\"))' />;" +
+                          "<stx:value-of select='joost:map-get(joost:map((1, 2), (\"one\", \"two\")), 2)' />" +
+                          "</stx:template>" +
+                          "</stx:transform>";
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sSheet)));
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<root><item cat='a' price='1' /><item cat='b' price='2' />" +
+                                                     "<item cat='a' price='3' /></root>")),
+                 new StreamResult (aSW));
+    assertEquals ("a:2/4/true;b:1/2/true;c://false;2;3;b-2;6;x;a-1;1;two", aSW.toString ());
+  }
+}
@@ -70,4 +70,24 @@ public class ExtensionFunctionTarget
   {
     throw new MockExtensionFunctionException ();
   }
+
+  public static String describe (final String s)
+  {
+    return "S:" + s;
+  }
+
+  public static String describe (final double d)
+  {
+    return "D:" + d;
+  }
+
+  public static String describe (final boolean b)
+  {
+    return "B:" + b;
+  }
+
+  public static String error (final String s)
+  {
+    throw new Error (s);
+  }
 }
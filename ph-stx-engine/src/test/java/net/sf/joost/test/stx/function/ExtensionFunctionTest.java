@@ -28,6 +28,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -109,4 +111,70 @@ public class ExtensionFunctionTest
     }
   }
 
+  private static String _transform (final String sheet, final String input) throws TransformerException
+  {
+    final Transformer transformer = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (sheet)));
+    final StringWriter writer = new StringWriter ();
+    transformer.transform (new StreamSource (new StringReader (input)), new StreamResult (writer));
+    return writer.toString ();
+  }
+
+  @Test
+  public void testOverloadsPerArgumentTypes () throws TransformerException
+  {
+    // the same call site is used with different argument types
+    final String sheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                         " xmlns:t='java:" +
+                         ExtensionFunctionTarget.class.getName () +
+                         "' output-method='text'>" +
+                         "<stx:template match='a'>" +
+                         "<stx:for-each-item name='v' select='(string(.), number(.), . = \"1\", .)'>" +
+                         "<stx:value-of select='t:describe($v)' />;" +
+                         "</stx:for-each-item>" +
+                         "</stx:template>" +
+                         "</stx:transform>";
+    assertEquals ("S:1;D:1.0;B:true;S:1;S:2;D:2.0;B:false;S:2;", _transform (sheet, "<r><a>1</a><a>2</a></r>"));
+  }
+
+  @Test
+  public void testError () throws TransformerException
+  {
+    final String sheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                         " xmlns:t='java:" +
+                         ExtensionFunctionTarget.class.getName () +
+                         "' output-method='text'>" +
+                         "<stx:template match='r'><stx:value-of select='t:error(\"boom\")' /></stx:template>" +
+                         "</stx:transform>";
+    try
+    {
+      _transform (sheet, "<r />");
+      fail ();
+    }
+    catch (final TransformerException ex)
+    {
+      // the error is reported like an exception of the extension method
+      assertTrue (ex.getMessage (), ex.getMessage ().contains ("Exception in extension method 'error'"));
+      Throwable t = ex.getCause ();
+      while (t != null && !(t instanceof Error))
+        t = t.getCause ();
+      assertTrue (t instanceof Error);
+      assertEquals ("boom", t.getMessage ());
+    }
+  }
+
+  @Test
+  public void testTypedExtensionFunction () throws TransformerException
+  {
+    final String sheet = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                         " xmlns:t='" +
+                         MockTypedExtensionFunction.NS +
+                         "' output-method='text'>" +
+                         "<stx:template match='r'>" +
+                         "<stx:value-of select='t:sum-of-squares((1, 2, 3))' />;" +
+                         "<stx:value-of select='t:sum-of-squares(@x, 4)' />" +
+                         "</stx:template>" +
+                         "</stx:transform>";
+    assertEquals ("14;20", _transform (sheet, "<r x='2' />"));
+  }
+
 }
@@ -0,0 +1,66 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.stx.function;
+
+import net.sf.joost.IExtensionFunction;
+import net.sf.joost.stx.Value;
+
+/**
+ * Typed extension function <code>sum-of-squares</code>, registered as service
+ * for the tests.
+ *
+ * @author Philip Helger
+ */
+public final class MockTypedExtensionFunction implements IExtensionFunction
+{
+  public static final String NS = "urn:joost:test";
+
+  public String getNamespaceURI ()
+  {
+    return NS;
+  }
+
+  public String getLocalName ()
+  {
+    return "sum-of-squares";
+  }
+
+  public int getMinParCount ()
+  {
+    return 1;
+  }
+
+  public int getMaxParCount ()
+  {
+    return 2;
+  }
+
+  public Value evaluate (final Value [] args)
+  {
+    double sum = 0;
+    for (final Value arg : args)
+      for (Value v = arg; v != null && v.type != Value.EMPTY; v = v.next)
+      {
+        final double d = v.getNumberValue ();
+        sum += d * d;
+      }
+    return new Value (sum);
+  }
+}
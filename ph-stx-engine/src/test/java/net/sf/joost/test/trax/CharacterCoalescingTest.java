@@ -0,0 +1,109 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the coalescing of adjacent character events of the result.
+ *
+ * @author Philip Helger
+ */
+public final class CharacterCoalescingTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='r'>" +
+                                      "<out>" +
+                                      "<stx:text>a</stx:text><stx:value-of select='@x' /><stx:text>b</stx:text>" +
+                                      "<stx:value-of select='@y' /><sub /><stx:text>c</stx:text>" +
+                                      "<stx:text>d</stx:text>" +
+                                      "</out>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final class CharactersCollector extends DefaultHandler
+  {
+    final List <String> m_aChunks = new ArrayList<> ();
+
+    @Override
+    public void characters (final char [] ch, final int start, final int length)
+    {
+      m_aChunks.add (new String (ch, start, length));
+    }
+  }
+
+  private static List <String> _transform (final Integer aBufferSize) throws Exception
+  {
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    if (aBufferSize != null)
+      factory.setAttribute (CTrAX.KEY_CHARACTER_BUFFER_SIZE, aBufferSize);
+    final Transformer t = factory.newTransformer (new StreamSource (new StringReader (SHEET)));
+    final CharactersCollector aCollector = new CharactersCollector ();
+    t.transform (new StreamSource (new StringReader ("<r x='1' y='23456789' />")), new SAXResult (aCollector));
+    return aCollector.m_aChunks;
+  }
+
+  @Test
+  public void testCoalescing () throws Exception
+  {
+    final List <String> aChunks = _transform (null);
+    assertEquals (aChunks.toString (), 2, aChunks.size ());
+    assertEquals ("a1b23456789", aChunks.get (0));
+    assertEquals ("cd", aChunks.get (1));
+  }
+
+  @Test
+  public void testDisabled () throws Exception
+  {
+    final List <String> aChunks = _transform (Integer.valueOf (0));
+    assertEquals (aChunks.toString (), 6, aChunks.size ());
+  }
+
+  @Test
+  public void testMaximum () throws Exception
+  {
+    final List <String> aChunks = _transform (Integer.valueOf (4));
+    final StringBuilder aSB = new StringBuilder ();
+    for (final String sChunk : aChunks)
+    {
+      // chunks that don't fit into the buffer are passed through
+      assertTrue (aChunks.toString (), sChunk.length () <= 4 || sChunk.equals ("23456789"));
+      aSB.append (sChunk);
+    }
+    assertEquals ("a1b23456789cd", aSB.toString ());
+    assertEquals (aChunks.toString (), "a1b", aChunks.get (0));
+  }
+}
@@ -0,0 +1,272 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.sf.joost.trax.DOMDriver;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for transformations of DOM input.
+ *
+ * @author Philip Helger
+ */
+public final class DOMDriverTest
+{
+  /** the JAXP property for the DOM implementation */
+  private static final String DBF_KEY = "javax.xml.parsers.DocumentBuilderFactory";
+  private static String s_sPreviousDBF;
+
+  @BeforeClass
+  public static void init ()
+  {
+    // the old Xerces on the test classpath (via fop) doesn't work with the
+    // DOM level 3 interfaces of the JDK, use the DOM implementation of the JDK
+    s_sPreviousDBF = System.getProperty (DBF_KEY);
+    System.setProperty (DBF_KEY, "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl");
+  }
+
+  @AfterClass
+  public static void exit ()
+  {
+    if (s_sPreviousDBF == null)
+      System.clearProperty (DBF_KEY);
+    else
+      System.setProperty (DBF_KEY, s_sPreviousDBF);
+  }
+
+  private static final String IDENTITY = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                         " version='1.0' pass-through='all' />";
+
+  private static final String XML = "<a xmlns='urn:default' xmlns:p='urn:p'>" +
+                                    "<p:b p:y='2' x='1'>text<!--c--><?pi data?></p:b>" +
+                                    "<c xmlns=''><d p:z='3'>more &amp; text</d></c>" +
+                                    "<e xmlns:q='urn:q'><q:f /></e>" +
+                                    "</a>";
+
+  /**
+   * Records the SAX events in a compact textual form
+   */
+  private static final class RecordingHandler extends DefaultHandler
+  {
+    private final StringBuilder m_aSB = new StringBuilder ();
+    private int m_nOpenMappings;
+
+    @Override
+    public void startPrefixMapping (final String prefix, final String uri)
+    {
+      m_aSB.append ("[").append (prefix).append ("=").append (uri).append ("]");
+      m_nOpenMappings++;
+    }
+
+    @Override
+    public void endPrefixMapping (final String prefix)
+    {
+      m_aSB.append ("[/").append (prefix).append ("]");
+      m_nOpenMappings--;
+    }
+
+    @Override
+    public void startElement (final String uri, final String localName, final String qName, final Attributes atts)
+    {
+      m_aSB.append ("<{").append (uri).append ("}").append (localName);
+      for (int i = 0; i < atts.getLength (); i++)
+        m_aSB.append (" {").append (atts.getURI (i)).append ("}").append (atts.getLocalName (i)).append ("=").append (atts.getValue (i));
+      m_aSB.append (">");
+    }
+
+    @Override
+    public void endElement (final String uri, final String localName, final String qName)
+    {
+      m_aSB.append ("</").append (localName).append (">");
+    }
+
+    @Override
+    public void characters (final char [] ch, final int start, final int length)
+    {
+      m_aSB.append (ch, start, length);
+    }
+  }
+
+  private static RecordingHandler _drive (final Document aDoc) throws Exception
+  {
+    final RecordingHandler aHandler = new RecordingHandler ();
+    final DOMDriver aDriver = new DOMDriver ();
+    aDriver.setDocument (aDoc);
+    aDriver.setContentHandler (aHandler);
+    aDriver.parse ();
+    assertEquals (0, aHandler.m_nOpenMappings);
+    return aHandler;
+  }
+
+  private static String _transform (final Transformer t, final Source aSource) throws Exception
+  {
+    final StringWriter aSW = new StringWriter ();
+    t.transform (aSource, new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  private static Document _parse (final String sXML, final boolean bNamespaceAware) throws Exception
+  {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance ();
+    dbf.setNamespaceAware (bNamespaceAware);
+    return dbf.newDocumentBuilder ().parse (new InputSource (new StringReader (sXML)));
+  }
+
+  @Test
+  public void testNamespaces () throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (IDENTITY)));
+    final String sExpected = _transform (t, new StreamSource (new StringReader (XML)));
+    assertEquals (sExpected, _transform (t, new DOMSource (_parse (XML, true))));
+    assertEquals (sExpected, _transform (t, new DOMSource (_parse (XML, false))));
+    // the processor keeps its XML parser for stream input
+    final String s = _transform (t, new StreamSource (new StringReader ("<other />")));
+    assertTrue (s, s.contains ("<other />"));
+  }
+
+  @Test
+  public void testUndeclaredNamespaces () throws Exception
+  {
+    // namespaces created via the DOM API don't have declaration attributes
+    final Document aDoc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+    final Element aRoot = aDoc.createElementNS ("urn:r", "r");
+    aDoc.appendChild (aRoot);
+    final Element aChild = aDoc.createElementNS ("urn:p", "p:child");
+    aChild.setAttributeNS ("urn:q", "q:att", "v");
+    aRoot.appendChild (aChild);
+
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (IDENTITY)));
+    final String s = _transform (t, new DOMSource (aDoc));
+    assertTrue (s, s.contains ("<r xmlns=\"urn:r\"><p:child xmlns:p=\"urn:p\" xmlns:q=\"urn:q\" q:att=\"v\" /></r>"));
+  }
+
+  @Test
+  public void testDeepDocument () throws Exception
+  {
+    final int nDepth = 20000;
+    final Document aDoc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+    Element aCur = aDoc.createElement ("e");
+    aDoc.appendChild (aCur);
+    for (int i = 1; i < nDepth; i++)
+    {
+      final Element aChild = aDoc.createElement ("e");
+      aCur.appendChild (aChild);
+      aCur = aChild;
+    }
+    aCur.appendChild (aDoc.createTextNode ("x"));
+
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (IDENTITY)));
+    final String s = _transform (t, new DOMSource (aDoc));
+    assertTrue (s.contains ("<e>x</e>"));
+    assertEquals (nDepth, s.split ("<e>", -1).length - 1);
+  }
+
+  @Test
+  public void testNamespaceRedeclarationAcrossSiblings () throws Exception
+  {
+    final String sXML = "<r xmlns:p='urn:1'>" +
+                        "<p:a xmlns:p='urn:2' p:x='1' />" +
+                        "<p:b p:x='2' />" +
+                        "<c xmlns=''><d xmlns='urn:d' /><e /></c>" +
+                        "<f xmlns='urn:f' />" +
+                        "<g />" +
+                        "</r>";
+    final String sExpected = "[p=urn:1]<{}r>" +
+                             "[p=urn:2]<{urn:2}a {urn:2}x=1></a>[/p]" +
+                             "<{urn:1}b {urn:1}x=2></b>" +
+                             "[=]<{}c>[=urn:d]<{urn:d}d></d>[/]<{}e></e></c>[/]" +
+                             "[=urn:f]<{urn:f}f></f>[/]" +
+                             "<{}g></g>" +
+                             "</r>[/p]";
+    assertEquals (sExpected, _drive (_parse (sXML, true)).m_aSB.toString ());
+    assertEquals (sExpected, _drive (_parse (sXML, false)).m_aSB.toString ());
+  }
+
+  @Test
+  public void testDeepNamespaceRedeclarations () throws Exception
+  {
+    // every level redeclares the prefix, so the in-scope declarations grow
+    // with the depth of the document
+    final int nDepth = 20000;
+    final Document aDoc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+    Node aCur = aDoc;
+    for (int i = 0; i < nDepth; i++)
+    {
+      final Element aChild = aDoc.createElementNS ("urn:" + (i % 2), "p:e");
+      aCur.appendChild (aChild);
+      aCur = aChild;
+    }
+    aCur.appendChild (aDoc.createElementNS ("urn:1", "p:leaf"));
+
+    final String s = _drive (aDoc).m_aSB.toString ();
+    assertEquals (nDepth, s.split ("\\[p=", -1).length - 1);
+    assertEquals (nDepth, s.split ("\\[/p\\]", -1).length - 1);
+    // the leaf is in the namespace of its parent and needs no declaration
+    assertTrue (s.contains ("[p=urn:1]<{urn:1}e><{urn:1}leaf></leaf></e>[/p]"));
+  }
+
+  @Test
+  public void testEntityReferencesAndCDATA () throws Exception
+  {
+    final String sXML = "<!DOCTYPE r [<!ENTITY ent 'in <i xmlns=\"urn:i\">entity</i> text'>]>" +
+                        "<r>a<![CDATA[<cdata> & ]]>&ent;<![CDATA[]]>b<s>&ent;</s></r>";
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance ();
+    dbf.setNamespaceAware (true);
+    dbf.setCoalescing (false);
+
+    // expanded entities
+    Document aDoc = dbf.newDocumentBuilder ().parse (new InputSource (new StringReader (sXML)));
+    assertEquals (Node.CDATA_SECTION_NODE, aDoc.getDocumentElement ().getFirstChild ().getNextSibling ().getNodeType ());
+    assertEquals ("<{}r>a<cdata> & in [=urn:i]<{urn:i}i>entity</i>[/] textb" +
+                  "<{}s>in [=urn:i]<{urn:i}i>entity</i>[/] text</s></r>",
+                  _drive (aDoc).m_aSB.toString ());
+
+    // the JDK DOM keeps unexpanded entity references empty, they must be
+    // skipped, also as the last child of an element
+    dbf.setExpandEntityReferences (false);
+    aDoc = dbf.newDocumentBuilder ().parse (new InputSource (new StringReader (sXML)));
+    final Node aRef = aDoc.getDocumentElement ().getFirstChild ().getNextSibling ().getNextSibling ();
+    assertEquals (Node.ENTITY_REFERENCE_NODE, aRef.getNodeType ());
+    assertEquals ("<{}r>a<cdata> & b<{}s></s></r>", _drive (aDoc).m_aSB.toString ());
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for transformations into a <code>DOMResult</code>.
+ *
+ * @author Philip Helger
+ */
+public final class DOMEmitterTest
+{
+  /** the JAXP property for the DOM implementation */
+  private static final String DBF_KEY = "javax.xml.parsers.DocumentBuilderFactory";
+  private static String s_sPreviousDBF;
+
+  @BeforeClass
+  public static void init ()
+  {
+    // the old Xerces on the test classpath (via fop) doesn't work with the
+    // DOM level 3 interfaces of the JDK, use the DOM implementation of the JDK
+    s_sPreviousDBF = System.getProperty (DBF_KEY);
+    System.setProperty (DBF_KEY, "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl");
+  }
+
+  @AfterClass
+  public static void exit ()
+  {
+    if (s_sPreviousDBF == null)
+      System.clearProperty (DBF_KEY);
+    else
+      System.setProperty (DBF_KEY, s_sPreviousDBF);
+  }
+
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:p='urn:p'>" +
+                                      "<stx:template match='r'>" +
+                                      "<p:root a='1' p:b='2'>" +
+                                      "<stx:text>x</stx:text><stx:value-of select='@v' /><stx:text>y</stx:text>" +
+                                      "<e><stx:cdata>c]]&gt;d</stx:cdata></e>" +
+                                      "<stx:comment>note</stx:comment>" +
+                                      "<stx:processing-instruction name='pi'>data</stx:processing-instruction>" +
+                                      "<p:e>z</p:e>" +
+                                      "</p:root>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String INPUT = "<r v='-' />";
+
+  private static Document _transform (final boolean bCompact) throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    if (bCompact)
+      t.setOutputProperty (CTrAX.OUTPUT_KEY_COMPACT_DOM, "yes");
+    final DOMResult aResult = new DOMResult ();
+    t.transform (new StreamSource (new StringReader (INPUT)), aResult);
+    return (Document) aResult.getNode ();
+  }
+
+  private static String _serialize (final Node aNode) throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer ();
+    t.setOutputProperty (OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new DOMSource (aNode), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testMergedText () throws Exception
+  {
+    final Document aDoc = _transform (false);
+    final Element aRoot = aDoc.getDocumentElement ();
+    // "x", "-" and "y" form one text node
+    assertEquals (Node.TEXT_NODE, aRoot.getFirstChild ().getNodeType ());
+    assertEquals ("x-y", aRoot.getFirstChild ().getNodeValue ());
+    assertEquals (Node.ELEMENT_NODE, aRoot.getFirstChild ().getNextSibling ().getNodeType ());
+    // "]]>" splits the CDATA section
+    final Node aE = aRoot.getFirstChild ().getNextSibling ();
+    assertEquals (2, aE.getChildNodes ().getLength ());
+    assertEquals ("c]]", aE.getFirstChild ().getNodeValue ());
+    assertEquals (">d", aE.getLastChild ().getNodeValue ());
+    // each transformation creates a new document
+    assertNotSame (aDoc, _transform (false));
+  }
+
+  @Test
+  public void testCompactDOMSameAsJAXP () throws Exception
+  {
+    final Document aDoc = _transform (true);
+    assertFalse (aDoc.getClass ().equals (_transform (false).getClass ()));
+    final String sExpected = _serialize (_transform (false));
+    assertTrue (sExpected, sExpected.contains ("<p:e>z</p:e>"));
+    assertEquals (sExpected, _serialize (aDoc));
+  }
+
+  @Test
+  public void testCompactDOM () throws Exception
+  {
+    // doesn't need a JAXP DOM implementation
+    final Document aDoc = _transform (true);
+    assertEquals ("<p:root xmlns:p=\"urn:p\" a=\"1\" p:b=\"2\">x-y<e>c]]&gt;d</e><!--note--><?pi data?>" +
+                  "<p:e>z</p:e></p:root>",
+                  _serialize (aDoc).trim ());
+
+    final Element aRoot = aDoc.getDocumentElement ();
+    assertEquals ("urn:p", aRoot.getNamespaceURI ());
+    assertEquals ("root", aRoot.getLocalName ());
+    assertEquals ("1", aRoot.getAttribute ("a"));
+    assertEquals ("2", aRoot.getAttributeNS ("urn:p", "b"));
+    assertEquals (2, aRoot.getAttributes ().getLength ());
+    assertEquals (aRoot, ((org.w3c.dom.Attr) aRoot.getAttributes ().item (0)).getOwnerElement ());
+    assertEquals ("x-yc]]>dz", aRoot.getTextContent ());
+    assertEquals (1, aDoc.getElementsByTagNameNS ("urn:p", "e").getLength ());
+    assertEquals (Node.DOCUMENT_POSITION_FOLLOWING,
+                  aRoot.getFirstChild ().compareDocumentPosition (aRoot.getLastChild ()));
+
+    final XPath aXPath = XPathFactory.newInstance ().newXPath ();
+    aXPath.setNamespaceContext (new NamespaceContext ()
+    {
+      public String getNamespaceURI (final String sPrefix)
+      {
+        return "urn:p";
+      }
+
+      public String getPrefix (final String sNamespaceURI)
+      {
+        return "p";
+      }
+
+      public java.util.Iterator <String> getPrefixes (final String sNamespaceURI)
+      {
+        return null;
+      }
+    });
+    assertEquals ("z", aXPath.evaluate ("/p:root/p:e", aDoc));
+    assertEquals ("2", aXPath.evaluate ("/p:root/@p:b", aDoc));
+    assertEquals ("note", aXPath.evaluate ("/p:root/comment()", aDoc));
+
+    try
+    {
+      aRoot.setAttribute ("c", "3");
+      fail ();
+    }
+    catch (final DOMException ex)
+    {
+      assertEquals (DOMException.NO_MODIFICATION_ALLOWED_ERR, ex.code);
+    }
+    assertTrue (aDoc.getImplementation ().hasFeature ("Core", "2.0"));
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.emitter.ReusableOutputStreamWriter;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for the reuse of emitters across transformations.
+ *
+ * @author Philip Helger
+ */
+public final class EmitterReuseTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='a'>" +
+                                      "<b x='{.}'><stx:value-of select='.' /></b>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static String _transform (final Transformer t, final String sText) throws Exception
+  {
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    t.transform (new StreamSource (new StringReader ("<a>" + sText + "</a>")), new StreamResult (aBAOS));
+    return new String (aBAOS.toByteArray (), t.getOutputProperty (OutputKeys.ENCODING));
+  }
+
+  @Test
+  public void testReuse () throws Exception
+  {
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    for (int i = 0; i < 5; i++)
+    {
+      final String sText = "t" + i + " \u00e4\u20ac &amp;";
+      assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<b x=\"t" +
+                    i +
+                    " \u00e4\u20ac &amp;\">t" +
+                    i +
+                    " \u00e4\u20ac &amp;</b>\n",
+                    _transform (t, sText));
+    }
+
+    // changed output properties require a new emitter
+    t.setOutputProperty (OutputKeys.ENCODING, "ISO-8859-1");
+    assertEquals ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<b x=\"\u00e4&#8364;\">\u00e4&#8364;</b>\n",
+                  _transform (t, "\u00e4\u20ac"));
+
+    // switching between writer and stream targets
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<a>w</a>")), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().endsWith ("<b x=\"w\">w</b>\n"));
+    assertTrue (_transform (t, "s").endsWith ("<b x=\"s\">s</b>\n"));
+  }
+
+  @Test
+  public void testReusableOutputStreamWriter () throws Exception
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 5000; i++)
+      aSB.append ("x\u00e4\u20ac\ud83d\ude00");
+    final String sText = aSB.toString ();
+
+    final ByteArrayOutputStream aBAOS1 = new ByteArrayOutputStream ();
+    final ReusableOutputStreamWriter aWriter = new ReusableOutputStreamWriter (aBAOS1, "UTF-8");
+    aWriter.write (sText);
+    aWriter.flush ();
+    assertEquals (sText, new String (aBAOS1.toByteArray (), StandardCharsets.UTF_8));
+
+    final ByteArrayOutputStream aBAOS2 = new ByteArrayOutputStream ();
+    aWriter.setOutputStream (aBAOS2);
+    aWriter.write (sText.toCharArray (), 1, 9);
+    aWriter.flush ();
+    assertEquals (sText.substring (1, 10), new String (aBAOS2.toByteArray (), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testStatefulEncoding () throws Exception
+  {
+    final String sText = "a\u65e5\u672c\u8a9e";
+    final ByteArrayOutputStream aBAOS1 = new ByteArrayOutputStream ();
+    final ReusableOutputStreamWriter aWriter = new ReusableOutputStreamWriter (aBAOS1, "ISO-2022-JP");
+    aWriter.write (sText);
+    aWriter.finish ();
+    final byte [] aBytes = aBAOS1.toByteArray ();
+    // the final shift sequence switches back to ASCII
+    assertEquals (0x1b, aBytes[aBytes.length - 3]);
+    assertEquals (sText, new String (aBytes, "ISO-2022-JP"));
+
+    // the encoder starts in its initial state for the next document
+    final ByteArrayOutputStream aBAOS2 = new ByteArrayOutputStream ();
+    aWriter.setOutputStream (aBAOS2);
+    aWriter.write (sText);
+    aWriter.finish ();
+    assertEquals (sText, new String (aBAOS2.toByteArray (), "ISO-2022-JP"));
+
+    // an unpaired trailing surrogate is replaced instead of being dropped
+    final ByteArrayOutputStream aBAOS3 = new ByteArrayOutputStream ();
+    final ReusableOutputStreamWriter aUTF8Writer = new ReusableOutputStreamWriter (aBAOS3, "UTF-8");
+    aUTF8Writer.write ("x\ud83d");
+    aUTF8Writer.close ();
+    assertEquals ("x?", new String (aBAOS3.toByteArray (), StandardCharsets.UTF_8));
+
+    // round trip through reused emitters
+    final Transformer t = new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    t.setOutputProperty (OutputKeys.ENCODING, "ISO-2022-JP");
+    for (int i = 0; i < 3; i++)
+      assertTrue (_transform (t, sText).endsWith ("<b x=\"" + sText + "\">" + sText + "</b>\n"));
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.sf.joost.trax.CTrAX;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.util.MappedFileInputStream;
+
+/**
+ * Test for reading input files via memory mapping.
+ *
+ * @author Philip Helger
+ */
+public final class MappedFileInputTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='r'>" +
+                                      "<n><stx:value-of select='@n' />:<stx:value-of select='.' /></n>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  @Rule
+  public final TemporaryFolder m_aFolder = new TemporaryFolder ();
+
+  private File _createInput () throws Exception
+  {
+    final StringBuilder aInput = new StringBuilder ("<?xml version='1.0' encoding='UTF-8'?><root>");
+    for (int i = 0; i < 1000; i++)
+      aInput.append ("<r n='").append (i).append ("'>\u00e4\u20ac ").append (i).append ("</r>");
+    aInput.append ("</root>");
+    final File aFile = m_aFolder.newFile ("input.xml");
+    Files.write (aFile.toPath (), aInput.toString ().getBytes (StandardCharsets.UTF_8));
+    return aFile;
+  }
+
+  private static String _transform (final boolean bMapped, final File aFile) throws Exception
+  {
+    final TransformerFactory factory = new TransformerFactoryImpl ();
+    factory.setAttribute (CTrAX.KEY_MAPPED_FILE_INPUT, Boolean.valueOf (bMapped));
+    assertEquals (Boolean.valueOf (bMapped), factory.getAttribute (CTrAX.KEY_MAPPED_FILE_INPUT));
+    final Transformer t = factory.newTransformer (new StreamSource (new StringReader (SHEET)));
+    final StringWriter aSW = new StringWriter ();
+    // twice, to check the reuse of the transformer
+    t.transform (new StreamSource (aFile), new StreamResult (new StringWriter ()));
+    t.transform (new StreamSource (aFile.toURI ().toString ()), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testMappedTransformation () throws Exception
+  {
+    final File aFile = _createInput ();
+    final String sMapped = _transform (true, aFile);
+    assertTrue (sMapped, sMapped.contains ("<n>999:\u00e4\u20ac 999</n>"));
+    assertEquals (_transform (false, aFile), sMapped);
+  }
+
+  @Test
+  public void testWindows () throws Exception
+  {
+    final File aFile = _createInput ();
+    final byte [] aExpected = Files.readAllBytes (aFile.toPath ());
+    // a small window size, so that reads cross the window boundaries
+    try (final InputStream aIS = new MappedFileInputStream (aFile, 1000))
+    {
+      final ByteArrayOutputStream aBOS = new ByteArrayOutputStream ();
+      assertEquals (aExpected[0], (byte) aIS.read ());
+      aBOS.write (aExpected[0]);
+      assertEquals (1500, aIS.skip (1500));
+      aBOS.write (aExpected, 1, 1500);
+      aIS.mark (0);
+      final byte [] aBuf = new byte [777];
+      int n;
+      while ((n = aIS.read (aBuf, 0, aBuf.length)) >= 0)
+        aBOS.write (aBuf, 0, n);
+      assertArrayEquals (aExpected, aBOS.toByteArray ());
+      assertEquals (-1, aIS.read ());
+
+      aIS.reset ();
+      assertEquals (aExpected[1501], (byte) aIS.read ());
+      assertEquals (aExpected.length - 1502, aIS.available ());
+    }
+  }
+
+  @Test
+  public void testLocalFile () throws Exception
+  {
+    final File aFile = _createInput ();
+    assertEquals (aFile, MappedFileInputStream.getLocalFile (aFile.toURI ().toString ()));
+    assertEquals (aFile, MappedFileInputStream.getLocalFile (aFile.getPath ()));
+    assertNull (MappedFileInputStream.getLocalFile ("http://example.org/input.xml"));
+    assertNull (MappedFileInputStream.getLocalFile (new File (m_aFolder.getRoot (), "missing.xml").getPath ()));
+    assertNull (MappedFileInputStream.getLocalFile (m_aFolder.getRoot ().getPath ()));
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+/**
+ * Test for <code>StAXSource</code> and <code>StAXResult</code>.
+ *
+ * @author Philip Helger
+ */
+public final class StAXTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'" +
+                                      " xmlns:p='urn:p' exclude-result-prefixes='p'>" +
+                                      "<stx:template match='p:item'>" +
+                                      "<out n='{@n}' q='{@p:q}'><stx:value-of select='.' /></out>" +
+                                      "<stx:cdata>c&lt;d</stx:cdata>" +
+                                      "<stx:comment>hi</stx:comment>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='/'>" +
+                                      "<res xmlns='urn:r'><stx:process-children /></res>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static final String INPUT = "<?xml version='1.0'?><root xmlns:p='urn:p'>" +
+                                      "<p:item n='1' p:q='a'>x &amp; y</p:item>" +
+                                      "<?pi data?><p:item n='2' p:q='b'><![CDATA[z]]></p:item></root>";
+
+  private static final String EXPECTED = "<res xmlns=\"urn:r\">" +
+                                         "<out xmlns=\"\" n=\"1\" q=\"a\">x &amp; y</out><![CDATA[c<d]]><!--hi-->" +
+                                         "<out xmlns=\"\" n=\"2\" q=\"b\">z</out><![CDATA[c<d]]><!--hi-->" +
+                                         "</res>";
+
+  private static Transformer _newTransformer () throws Exception
+  {
+    return new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+  }
+
+  @Test
+  public void testStAXSource () throws Exception
+  {
+    final XMLStreamReader aReader = XMLInputFactory.newInstance ().createXMLStreamReader (new StringReader (INPUT));
+    final StringWriter aSW = new StringWriter ();
+    _newTransformer ().transform (new StAXSource (aReader), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().contains (EXPECTED));
+  }
+
+  @Test
+  public void testStAXSourceThenStreamSource () throws Exception
+  {
+    final Transformer aTransformer = _newTransformer ();
+    final XMLStreamReader aReader = XMLInputFactory.newInstance ().createXMLStreamReader (new StringReader (INPUT));
+    StringWriter aSW = new StringWriter ();
+    aTransformer.transform (new StAXSource (aReader), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().contains (EXPECTED));
+
+    // the same transformer still parses streams
+    aSW = new StringWriter ();
+    aTransformer.transform (new StreamSource (new StringReader (INPUT)), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().contains (EXPECTED));
+  }
+
+  @Test
+  public void testStAXResult () throws Exception
+  {
+    final StringWriter aSW = new StringWriter ();
+    final XMLStreamWriter aWriter = XMLOutputFactory.newInstance ().createXMLStreamWriter (aSW);
+    _newTransformer ().transform (new StreamSource (new StringReader (INPUT)), new StAXResult (aWriter));
+    assertTrue (aSW.toString (), aSW.toString ().endsWith (EXPECTED));
+  }
+
+  @Test
+  public void testStAXFragment () throws Exception
+  {
+    final XMLStreamReader aReader = XMLInputFactory.newInstance ()
+                                                   .createXMLStreamReader (new StringReader ("<list xmlns:p='urn:p'>" +
+                                                                                             "<p:item n='1'>a</p:item>" +
+                                                                                             "<p:item n='2'>b</p:item>" +
+                                                                                             "</list>"));
+    // position the reader at the second item
+    int nItems = 0;
+    while (nItems < 2)
+      if (aReader.next () == XMLStreamConstants.START_ELEMENT && aReader.getLocalName ().equals ("item"))
+        nItems++;
+
+    final StringWriter aSW = new StringWriter ();
+    final XMLStreamWriter aWriter = XMLOutputFactory.newInstance ().createXMLStreamWriter (aSW);
+    _newTransformer ().transform (new StAXSource (aReader), new StAXResult (aWriter));
+    assertTrue (aSW.toString (), aSW.toString ().endsWith ("<res xmlns=\"urn:r\"><out xmlns=\"\" n=\"2\" q=\"\">b</out><![CDATA[c<d]]><!--hi--></res>"));
+    // the reader is positioned at the end of the fragment
+    assertEquals (XMLStreamConstants.END_ELEMENT, aReader.getEventType ());
+    assertEquals ("item", aReader.getLocalName ());
+  }
+
+  @Test
+  public void testStAXFragmentInheritedNamespaces () throws Exception
+  {
+    final XMLStreamReader aReader = XMLInputFactory.newInstance ()
+                                                   .createXMLStreamReader (new StringReader ("<list xmlns:p='urn:p' xmlns='urn:d'>" +
+                                                                                             "<p:item p:q='a'><sub>x</sub></p:item>" +
+                                                                                             "</list>"));
+    while (aReader.next () != XMLStreamConstants.START_ELEMENT || !aReader.getLocalName ().equals ("item"))
+    {
+      // position the reader at the item
+    }
+
+    // identity transformation, the ancestor bindings must be declared
+    final StringWriter aSW = new StringWriter ();
+    new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader ("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+                                                                                      " version='1.0' pass-through='all' />")))
+                                 .transform (new StAXSource (aReader), new StreamResult (aSW));
+    assertTrue (aSW.toString (),
+                aSW.toString ().trim ().endsWith ("<p:item xmlns:p=\"urn:p\" p:q=\"a\"><sub xmlns=\"urn:d\">x</sub></p:item>"));
+  }
+}
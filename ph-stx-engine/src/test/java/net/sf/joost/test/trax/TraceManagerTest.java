@@ -0,0 +1,149 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.ResultDocumentWriterPool;
+import net.sf.joost.trace.DebugProcessor;
+import net.sf.joost.trace.ITraceListener;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.trax.TransformerImpl;
+
+/**
+ * Test for attaching and detaching trace listeners between transformations.
+ *
+ * @author Philip Helger
+ */
+public final class TraceManagerTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:param name='p' select=\"'none'\" />" +
+                                      "<stx:template match='a'>" +
+                                      "<b><stx:value-of select='concat(., $p)' /></b>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static ITraceListener _createListener (final AtomicInteger aCount)
+  {
+    return (ITraceListener) Proxy.newProxyInstance (ITraceListener.class.getClassLoader (),
+                                                    new Class <?> [] { ITraceListener.class },
+                                                    (proxy, method, args) -> {
+                                                      if (method.getName ().equals ("equals"))
+                                                        return Boolean.valueOf (proxy == args[0]);
+                                                      if (method.getName ().equals ("hashCode"))
+                                                        return Integer.valueOf (System.identityHashCode (proxy));
+                                                      if (method.getName ().equals ("toString"))
+                                                        return "listener";
+                                                      aCount.incrementAndGet ();
+                                                      return null;
+                                                    });
+  }
+
+  private static String _transform (final TransformerImpl t) throws Exception
+  {
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader ("<a>x</a>")), new StreamResult (aSW));
+    return aSW.toString ();
+  }
+
+  @Test
+  public void testAttachDetach () throws Exception
+  {
+    final TransformerImpl t = (TransformerImpl) new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    t.setParameter ("p", "1");
+
+    assertTrue (_transform (t).contains ("<b>x1</b>"));
+    assertFalse (t.getStxProcessor () instanceof DebugProcessor);
+
+    // attach two listeners
+    final AtomicInteger aCount1 = new AtomicInteger ();
+    final AtomicInteger aCount2 = new AtomicInteger ();
+    final ITraceListener aListener1 = _createListener (aCount1);
+    t.getTraceManager ().addTraceListener (aListener1);
+    t.getTraceManager ().addTraceListener (_createListener (aCount2));
+    assertTrue (_transform (t).contains ("<b>x1</b>"));
+    assertTrue (t.getStxProcessor () instanceof DebugProcessor);
+    assertTrue (aCount1.get () > 0);
+    assertEquals (aCount1.get (), aCount2.get ());
+
+    // parameters set in debug mode are kept
+    t.setParameter ("p", "2");
+    t.getTraceManager ().removeTraceListener (aListener1);
+    final int nCount1 = aCount1.get ();
+    assertTrue (_transform (t).contains ("<b>x2</b>"));
+    assertEquals (nCount1, aCount1.get ());
+    assertEquals (2 * nCount1, aCount2.get ());
+
+    // back to the plain processor
+    t.getTraceManager ().removeTraceListener (t.getTraceManager ().getDispatcher ());
+    assertFalse (t.getTraceManager ().hasTraceListeners ());
+    assertTrue (_transform (t).contains ("<b>x2</b>"));
+    assertFalse (t.getStxProcessor () instanceof DebugProcessor);
+    assertEquals (2 * nCount1, aCount2.get ());
+  }
+
+  @Test
+  public void testSettingsAreTransferred () throws Exception
+  {
+    final TransformerImpl t = (TransformerImpl) new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+    final ResultDocumentWriterPool aPool = new ResultDocumentWriterPool (1, 1, false);
+    try
+    {
+      final ITraceListener aListener = _createListener (new AtomicInteger ());
+      t.getTraceManager ().addTraceListener (aListener);
+      assertTrue (_transform (t).contains ("<b>xnone</b>"));
+      final Processor aDebug = t.getStxProcessor ();
+      assertTrue (aDebug instanceof DebugProcessor);
+      aDebug.setResultDocumentWriterPool (aPool);
+      aDebug.setCharacterBufferSize (123);
+      aDebug.setMappedFileInput (true);
+      aDebug.setRecordThreads (3);
+
+      // the plain processor takes over the settings of the debug processor
+      t.getTraceManager ().removeTraceListener (aListener);
+      assertTrue (_transform (t).contains ("<b>xnone</b>"));
+      final Processor aPlain = t.getStxProcessor ();
+      assertFalse (aPlain instanceof DebugProcessor);
+      assertSame (aPool, aPlain.getContext ().resultDocumentWriterPool);
+      assertEquals (123, aPlain.getContext ().m_aEmitter.getCharacterBufferSize ());
+      assertTrue (aPlain.isMappedFileInput ());
+      assertEquals (3, aPlain.getRecordThreads ());
+    }
+    finally
+    {
+      aPool.shutdown ();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ *  The contents of this file are subject to the Mozilla Public License
+ *  Version 1.1 (the "License"); you may not use this file except in
+ *  compliance with the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is: this file
+ *
+ *  The Initial Developer of the Original Code is Oliver Becker.
+ *
+ *  Portions created by Philip Helger
+ *  are Copyright (C) 2016-2017 Philip Helger
+ *  All Rights Reserved.
+ */
+package net.sf.joost.test.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import net.sf.joost.trax.TransformationCursor;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.trax.TransformerImpl;
+
+/**
+ * Test for the pull mode transformation API.
+ *
+ * @author Philip Helger
+ */
+public final class TransformationCursorTest
+{
+  private static final String SHEET = "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' version='1.0'>" +
+                                      "<stx:template match='list'>" +
+                                      "<out><stx:process-children /></out>" +
+                                      "</stx:template>" +
+                                      "<stx:template match='item'>" +
+                                      "<stx:comment>c</stx:comment>" +
+                                      "<i n='{@n}'>#<stx:value-of select='.' /></i>" +
+                                      "</stx:template>" +
+                                      "</stx:transform>";
+
+  private static String _createInput (final int nItems)
+  {
+    final StringBuilder aSB = new StringBuilder ("<list>");
+    for (int i = 0; i < nItems; i++)
+      aSB.append ("<item n='").append (i).append ("'>v").append (i).append ("</item>");
+    return aSB.append ("</list>").toString ();
+  }
+
+  private static TransformerImpl _newTransformer () throws Exception
+  {
+    return (TransformerImpl) new TransformerFactoryImpl ().newTransformer (new StreamSource (new StringReader (SHEET)));
+  }
+
+  /** Serializes the remaining events of the cursor in a simple way */
+  private static String _serialize (final TransformationCursor aCursor) throws Exception
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    while (aCursor.hasNext ())
+      switch (aCursor.next ())
+      {
+        case XMLStreamConstants.START_ELEMENT:
+          aSB.append ('<').append (aCursor.getQName ());
+          for (int i = 0; i < aCursor.getAttributes ().getLength (); i++)
+            aSB.append (' ')
+               .append (aCursor.getAttributes ().getQName (i))
+               .append ("=\"")
+               .append (aCursor.getAttributes ().getValue (i))
+               .append ('"');
+          aSB.append ('>');
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          aSB.append ("</").append (aCursor.getQName ()).append ('>');
+          break;
+        case XMLStreamConstants.CHARACTERS:
+          aSB.append (aCursor.getText ());
+          break;
+        case XMLStreamConstants.COMMENT:
+          aSB.append ("<!--").append (aCursor.getText ()).append ("-->");
+          break;
+      }
+    return aSB.toString ();
+  }
+
+  @Test
+  public void testSameResultAsPush () throws Exception
+  {
+    final String sInput = _createInput (10);
+    final TransformerImpl t = _newTransformer ();
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (sInput)), new StreamResult (aSW));
+
+    final String sPulled = _serialize (t.openCursor (new StreamSource (new StringReader (sInput))));
+    assertTrue (sPulled.startsWith ("<out><!--c--><i n=\"0\">#v0</i>"));
+    assertTrue (aSW.toString (), aSW.toString ().contains (sPulled));
+  }
+
+  @Test
+  public void testTransformAfterCursor () throws Exception
+  {
+    final String sInput = _createInput (3);
+    final TransformerImpl t = _newTransformer ();
+    final String sPulled = _serialize (t.openCursor (new StreamSource (new StringReader (sInput))));
+    assertTrue (sPulled, sPulled.startsWith ("<out><!--c--><i n=\"0\">#v0</i>"));
+
+    // the completed cursor leaves the processor of the transformer usable
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (sInput)), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().contains (sPulled));
+  }
+
+  @Test
+  public void testLazyInput () throws Exception
+  {
+    final int [] aReads = new int [1];
+    final StreamReaderDelegate aReader = new StreamReaderDelegate (XMLInputFactory.newInstance ()
+                                                                                  .createXMLStreamReader (new StringReader (_createInput (10000))))
+    {
+      @Override
+      public int next () throws XMLStreamException
+      {
+        aReads[0]++;
+        return super.next ();
+      }
+    };
+
+    final TransformerImpl t = _newTransformer ();
+    final TransformationCursor aCursor = t.openCursor (new StAXSource (aReader));
+    assertEquals (XMLStreamConstants.START_DOCUMENT, aCursor.next ());
+    assertEquals (XMLStreamConstants.START_ELEMENT, aCursor.next ());
+    assertEquals ("out", aCursor.getLocalName ());
+    assertEquals (XMLStreamConstants.COMMENT, aCursor.next ());
+    assertEquals (XMLStreamConstants.START_ELEMENT, aCursor.next ());
+    assertEquals ("0", aCursor.getAttributes ().getValue ("n"));
+    // only a few input events have been read
+    assertTrue (Integer.toString (aReads[0]), aReads[0] < 10);
+
+    // abandon the transformation; the transformer is still usable
+    aCursor.close ();
+    assertFalse (aCursor.hasNext ());
+    final StringWriter aSW = new StringWriter ();
+    t.transform (new StreamSource (new StringReader (_createInput (2))), new StreamResult (aSW));
+    assertTrue (aSW.toString (), aSW.toString ().contains ("<out><!--c--><i n=\"0\">#v0</i><!--c--><i n=\"1\">#v1</i></out>"));
+  }
+}
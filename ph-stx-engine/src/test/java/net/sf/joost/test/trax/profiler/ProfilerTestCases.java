@@ -19,21 +19,31 @@
  */
 package net.sf.joost.test.trax.profiler;
 
+import static org.junit.Assert.assertTrue;
+
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.Properties;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -223,6 +233,50 @@ public class ProfilerTestCases
     log.info ("2. DOM2SAX Transformation length : " + delta + " ms");
   }
 
+  // ****************** StAX ************************
+
+  /**
+   * Show the Identity-transformation with StAXSource and StreamResult
+   */
+  @Test
+  public void testRunTests10 () throws Exception
+  {
+    long delta = exampleStAXSourceAndStreamResult ();
+
+    log.info ("1. StAX2Stream Transformation length : " + delta + " ms");
+
+    delta = exampleStAXSourceAndStreamResult ();
+    log.info ("2. StAX2Stream Transformation length : " + delta + " ms");
+  }
+
+  /**
+   * Show the Identity-transformation with StreamSource and StAXResult
+   */
+  @Test
+  public void testRunTests11 () throws Exception
+  {
+    long delta = exampleStreamSourceAndStAXResult ();
+
+    log.info ("1. Stream2StAX Transformation length : " + delta + " ms");
+
+    delta = exampleStreamSourceAndStAXResult ();
+    log.info ("2. Stream2StAX Transformation length : " + delta + " ms");
+  }
+
+  /**
+   * Show the Identity-transformation with StAXSource and StAXResult
+   */
+  @Test
+  public void testRunTests12 () throws Exception
+  {
+    long delta = exampleStAXSourceAndStAXResult ();
+
+    log.info ("1. StAX2StAX Transformation length : " + delta + " ms");
+
+    delta = exampleStAXSourceAndStAXResult ();
+    log.info ("2. StAX2StAX Transformation length : " + delta + " ms");
+  }
+
   // ***********************************************
   private void init ()
   {
@@ -657,4 +711,92 @@ public class ProfilerTestCases
     }
     return delta;
   }
+
+  /** number of items in the generated input for the StAX tests */
+  private static final int STAX_ITEMS = 10000;
+
+  /** @return a generated input document for the StAX tests */
+  private static String _createStAXInput ()
+  {
+    final StringBuilder sb = new StringBuilder ("<?xml version='1.0'?><root xmlns:p='urn:p'>");
+    for (int i = 0; i < STAX_ITEMS; i++)
+      sb.append ("<p:item n='").append (i).append ("'>text ").append (i).append ("</p:item>");
+    return sb.append ("</root>").toString ();
+  }
+
+  /**
+   * Show the Identity-transformation with StAXSource and StreamResult
+   */
+  public static long exampleStAXSourceAndStreamResult () throws Exception
+  {
+    final Transformer transformer = TransformerFactory.newInstance ().newTransformer ();
+    final XMLStreamReader reader = XMLInputFactory.newInstance ().createXMLStreamReader (new StringReader (_createStAXInput ()));
+    try (final StringWriter writer = new StringWriter ())
+    {
+      final long start = System.currentTimeMillis ();
+      transformer.transform (new StAXSource (reader), new StreamResult (writer));
+      final long delta = System.currentTimeMillis () - start;
+      assertTrue (writer.toString ().contains ("<p:item n=\"" + (STAX_ITEMS - 1) + "\">"));
+      return delta;
+    }
+    finally
+    {
+      reader.close ();
+    }
+  }
+
+  /**
+   * Show the Identity-transformation with StreamSource and StAXResult
+   */
+  public static long exampleStreamSourceAndStAXResult () throws Exception
+  {
+    final Transformer transformer = TransformerFactory.newInstance ().newTransformer ();
+    try (final StringReader reader = new StringReader (_createStAXInput ()); final StringWriter sw = new StringWriter ())
+    {
+      final XMLStreamWriter writer = XMLOutputFactory.newInstance ().createXMLStreamWriter (sw);
+      try
+      {
+        final long start = System.currentTimeMillis ();
+        transformer.transform (new StreamSource (reader), new StAXResult (writer));
+        final long delta = System.currentTimeMillis () - start;
+        writer.flush ();
+        assertTrue (sw.toString ().contains ("n=\"" + (STAX_ITEMS - 1) + "\""));
+        return delta;
+      }
+      finally
+      {
+        writer.close ();
+      }
+    }
+  }
+
+  /**
+   * Show the Identity-transformation with StAXSource and StAXResult
+   */
+  public static long exampleStAXSourceAndStAXResult () throws Exception
+  {
+    final Transformer transformer = TransformerFactory.newInstance ().newTransformer ();
+    final XMLStreamReader reader = XMLInputFactory.newInstance ().createXMLStreamReader (new StringReader (_createStAXInput ()));
+    try (final StringWriter sw = new StringWriter ())
+    {
+      final XMLStreamWriter writer = XMLOutputFactory.newInstance ().createXMLStreamWriter (sw);
+      try
+      {
+        final long start = System.currentTimeMillis ();
+        transformer.transform (new StAXSource (reader), new StAXResult (writer));
+        final long delta = System.currentTimeMillis () - start;
+        writer.flush ();
+        assertTrue (sw.toString ().contains ("n=\"" + (STAX_ITEMS - 1) + "\""));
+        return delta;
+      }
+      finally
+      {
+        writer.close ();
+      }
+    }
+    finally
+    {
+      reader.close ();
+    }
+  }
 }